@@ -1,6 +1,12 @@
 package library;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 /**
@@ -12,59 +18,428 @@ import java.util.Set;
  */
 public class BigLibrary implements Library {
 
-    // TODO: rep
+    // rep
+    private final Map<Book, Shelf> shelves;
+    private final TokenIndex index;
+    private CatalogSnapshot snapshot;
+    private SuggestIndex suggestions;
+    private FuzzyIndex fuzzy;
     
-    // TODO: rep invariant
-    // TODO: abstraction function
-    // TODO: safety from rep exposure argument
+    // rep invariant:
+    //    every shelf in shelves is nonempty, and is keyed by its own book
+    //    every shelf satisfies its own rep invariant (Shelf.checkRep(copy))
+    //    if snapshot is null, index contains exactly the books that are keys of shelves;
+    //      otherwise index is empty
+    //    no book is both a key of shelves and untaken in snapshot
+    //    suggestions is null, or snapshot is null and suggestions holds exactly the books of index
+    //    fuzzy is null, or snapshot is null and fuzzy holds exactly the tokens of the books of index
+    //
+    // abstraction function:
+    //    represents the collection of all copies on all shelves and all shelves left in snapshot,
+    //      where a copy is available iff it is available on the shelf of its book,
+    //      and checked out otherwise
+    //
+    // safety from rep exposure:
+    //    shelves is private and final, and is never returned to clients;
+    //    Shelf, TokenIndex, SuggestIndex, FuzzyIndex and CatalogSnapshot are package-private and never leave this class,
+    //      except that shelves() lends the shelves to CatalogSnapshot.save();
+    //    allCopies() and availableCopies() return fresh sets built by the shelf, and
+    //      allCopiesView() and availableCopiesView() unmodifiable views of the shelf's sets;
+    //    Books are immutable, and BookCopys are intentionally shared with clients
+    //      because a copy's identity is what clients hand back to us.
+    //
+    // performance:
+    //    buy, checkout, checkoutAny, checkin, isAvailable and lose touch one shelf, found by hashing
+    //      the copy's book, so they run in O(1) expected time.
+    //    allCopies and availableCopies run in O(copies of that book); countCopies,
+    //      countAvailable and the size of a copies view run in O(1) expected time.
+    //    find runs in O(postings of the query's tokens), plus O(log k) per matching book
+    //      to keep the best k = offset + limit in a heap; index is only updated when
+    //      a book gains its first copy or loses its last one.
+    //    A library loaded from a snapshot faults in the shelf of a book the first time an
+    //      operation names that book, in O(copies of that book); operations that name a copy
+    //      need no fault, since the copy came from a shelf that was already faulted in.
+    //      The first find loads the rest of the snapshot and builds the index, in O(size).
+    //    suggestions is built by the first suggest, in O(size), and then kept up to date
+    //      alongside index, at O(token length) per token of a book that gains its first copy
+    //      or loses its last one; a library never asked for suggestions pays nothing for them.
+    //      fuzzy is built by the first findFuzzy, and kept up to date the same way.
     
     public BigLibrary() {
-        throw new RuntimeException("not implemented yet");
+        shelves = new HashMap<Book, Shelf>();
+        index = new TokenIndex();
     }
     
-    // assert the rep invariant
-    private void checkRep() {
-        throw new RuntimeException("not implemented yet");
+    /**
+     * Make a library that lazily loads its shelves from a snapshot.
+     * @param snapshot snapshot to load from; must not be shared with other libraries
+     */
+    BigLibrary(CatalogSnapshot snapshot) {
+        this();
+        this.snapshot = snapshot;
+    }
+    
+    // assert the rep invariant, sampled at the shelf of book.
+    // Checking every shelf on every call would make each operation linear in the size
+    // of the library, and checking every copy of the shelf linear in the copies of the book,
+    // so each operation checks only the shelf it touched, sampled at O(1) copies.
+    private void checkRep(Book book) {
+        checkRep(book, null);
+    }
+
+    // assert the rep invariant, sampled at the shelf of book and at copy, if not null
+    private void checkRep(Book book, BookCopy copy) {
+        Shelf shelf = shelves.get(book);
+        if (shelf == null) return;
+        assert !shelf.isEmpty() : "broken rep. invariant";
+        assert shelf.getBook().equals(book) : "broken rep. invariant";
+        shelf.checkRep(copy);
+        assert snapshot == null || index.isEmpty() : "broken rep. invariant";
+    }
+    
+    // the shelf of book, faulting it in from the snapshot on first use; null if there is none
+    private Shelf shelfFor(Book book) {
+        Shelf shelf = shelves.get(book);
+        if (shelf == null && snapshot != null) {
+            shelf = snapshot.take(book);
+            if (shelf != null) shelves.put(book, shelf);
+        }
+        return shelf;
+    }
+    
+    // fault in every shelf left in the snapshot, and build the index over all the shelves
+    private void loadAll() {
+        if (snapshot == null) return;
+        for (Shelf shelf : snapshot.takeAll())
+            shelves.put(shelf.getBook(), shelf);
+        snapshot = null;
+        index.addAll(shelves.keySet());
+    }
+    
+    /**
+     * @param book book to look up
+     * @return a fresh list of the copies of book in the order of Shelf.copies(), which is the
+     *    order a snapshot saves them in and reloads them in
+     */
+    List<BookCopy> copiesInOrder(Book book) {
+        Shelf shelf = shelfFor(book);
+        return shelf == null ? new ArrayList<BookCopy>() : shelf.copies();
+    }
+    
+    /**
+     * Finish loading this library, and lend its shelves to CatalogSnapshot.save().
+     * @return the shelves of this library; must not be modified
+     */
+    Collection<Shelf> shelves() {
+        loadAll();
+        return shelves.values();
     }
 
     @Override
     public BookCopy buy(Book book) {
-        throw new RuntimeException("not implemented yet");
+        assert book != null : "spec. contract broken";
+        Shelf shelf = shelfFor(book);
+        if (shelf == null) {
+            shelf = new Shelf(book);
+            shelves.put(book, shelf);
+            if (snapshot == null) index.add(book);
+            if (suggestions != null) suggestions.add(book);
+            if (fuzzy != null) fuzzy.add(book);
+        }
+        BookCopy copy = new BookCopy(book);
+        shelf.add(copy);
+        checkRep(book);
+        return copy;
+    }
+    
+    @Override
+    public List<BookCopy> buyAll(Book book, int count) {
+        return buyAll(Collections.nCopies(count, book));
+    }
+    
+    @Override
+    public List<BookCopy> buyAll(Collection<Book> books) {
+        List<BookCopy> copies = new ArrayList<BookCopy>(books.size());
+        List<Book> newBooks = new ArrayList<Book>();
+        Set<Book> touched = new HashSet<Book>();
+        Shelf shelf = null;
+        for (Book book : books) {
+            assert book != null : "spec. contract broken";
+            if (shelf == null || !shelf.getBook().equals(book)) {
+                shelf = shelfFor(book);
+                if (shelf == null) {
+                    shelf = new Shelf(book);
+                    shelves.put(book, shelf);
+                    newBooks.add(book);
+                }
+                touched.add(book);
+            }
+            BookCopy copy = new BookCopy(book);
+            shelf.add(copy);
+            copies.add(copy);
+        }
+        // one index update and one rep check per distinct book, not per copy
+        if (snapshot == null) index.addAll(newBooks);
+        if (suggestions != null) suggestions.addAll(newBooks);
+        if (fuzzy != null) fuzzy.addAll(newBooks);
+        for (Book book : touched)
+            checkRep(book);
+        return copies;
     }
     
     @Override
     public void checkout(BookCopy copy) {
-        throw new RuntimeException("not implemented yet");
+        assert copy != null : "spec. contract broken";
+        Shelf shelf = shelves.get(copy.getBook());
+        if (shelf != null) shelf.checkout(copy);
+        checkRep(copy.getBook(), copy);
+    }
+    
+    @Override
+    public void checkoutAll(Collection<BookCopy> copies) {
+        Set<Book> touched = new HashSet<Book>();
+        Shelf shelf = null;
+        for (BookCopy copy : copies) {
+            assert copy != null : "spec. contract broken";
+            shelf = shelfOf(copy, shelf, touched);
+            if (shelf != null) shelf.checkout(copy);
+        }
+        for (Book book : touched)
+            checkRep(book);
+    }
+    
+    @Override
+    public void checkinAll(Collection<BookCopy> copies) {
+        Set<Book> touched = new HashSet<Book>();
+        Shelf shelf = null;
+        for (BookCopy copy : copies) {
+            assert copy != null : "spec. contract broken";
+            shelf = shelfOf(copy, shelf, touched);
+            if (shelf != null) shelf.checkin(copy);
+        }
+        for (Book book : touched)
+            checkRep(book);
+    }
+    
+    // the shelf of copy's book, reusing previous if it is already that shelf,
+    // and remembering the book in touched; returns null if the library has no such shelf
+    private Shelf shelfOf(BookCopy copy, Shelf previous, Set<Book> touched) {
+        Book book = copy.getBook();
+        if (previous != null && previous.getBook().equals(book)) return previous;
+        touched.add(book);
+        return shelves.get(book);
+    }
+    
+    @Override
+    public BookCopy checkoutAny(Book book) {
+        assert book != null : "spec. contract broken";
+        Shelf shelf = shelfFor(book);
+        BookCopy copy = shelf == null ? null : shelf.checkoutAny();
+        checkRep(book);
+        return copy;
     }
     
     @Override
     public void checkin(BookCopy copy) {
-        throw new RuntimeException("not implemented yet");
+        assert copy != null : "spec. contract broken";
+        Shelf shelf = shelves.get(copy.getBook());
+        if (shelf != null) shelf.checkin(copy);
+        checkRep(copy.getBook(), copy);
     }
     
     @Override
     public Set<BookCopy> allCopies(Book book) {
-        throw new RuntimeException("not implemented yet");
+        assert book != null : "spec. contract broken";
+        Shelf shelf = shelfFor(book);
+        return shelf == null ? new HashSet<BookCopy>() : shelf.allCopies();
     }
 
     @Override
     public Set<BookCopy> availableCopies(Book book) {
-        throw new RuntimeException("not implemented yet");
+        assert book != null : "spec. contract broken";
+        Shelf shelf = shelfFor(book);
+        return shelf == null ? new HashSet<BookCopy>() : shelf.availableCopies();
+    }
+    
+    @Override
+    public int countCopies(Book book) {
+        assert book != null : "spec. contract broken";
+        Shelf shelf = shelfFor(book);
+        return shelf == null ? 0 : shelf.size();
+    }
+
+    @Override
+    public int countAvailable(Book book) {
+        assert book != null : "spec. contract broken";
+        Shelf shelf = shelfFor(book);
+        return shelf == null ? 0 : shelf.availableCount();
+    }
+
+    @Override
+    public Set<BookCopy> allCopiesView(final Book book) {
+        assert book != null : "spec. contract broken";
+        return new CopiesView() {
+            Set<BookCopy> current() {
+                Shelf shelf = shelfFor(book);
+                return shelf == null ? Collections.<BookCopy>emptySet() : shelf.allView();
+            }
+        };
+    }
+
+    @Override
+    public Set<BookCopy> availableCopiesView(final Book book) {
+        assert book != null : "spec. contract broken";
+        return new CopiesView() {
+            Set<BookCopy> current() {
+                Shelf shelf = shelfFor(book);
+                return shelf == null ? Collections.<BookCopy>emptySet() : shelf.availableView();
+            }
+        };
     }
     
     @Override
     public boolean isAvailable(BookCopy copy) {
-        throw new RuntimeException("not implemented yet");
+        assert copy != null : "spec. contract broken";
+        Shelf shelf = shelves.get(copy.getBook());
+        return shelf != null && shelf.isAvailable(copy);
     }
     
     @Override
     public List<Book> find(String query) {
-        throw new RuntimeException("not implemented yet");
+        assert query != null : "spec. contract broken";
+        loadAll();
+        return index.find(query);
+    }
+    
+    @Override
+    public List<Book> find(String query, int offset, int limit) {
+        assert query != null : "spec. contract broken";
+        assert offset >= 0 && limit >= 0 : "spec. contract broken";
+        List<Book> found = new ArrayList<Book>();
+        if (limit == 0) return found;
+        loadAll();
+        int k = (int) Math.min((long) offset + limit, Integer.MAX_VALUE);
+        List<TokenIndex.Hit> hits = index.search(query, k);
+        for (int i = offset; i < hits.size(); i++)
+            found.add(hits.get(i).book);
+        return found;
+    }
+    
+    /**
+     * @param tokens search tokens
+     * @return the statistics of this library's search index for tokens, for search()
+     */
+    TokenIndex.Statistics statistics(Collection<String> tokens) {
+        loadAll();
+        return index.statistics(tokens);
+    }
+    
+    /**
+     * Find the best-scoring books of this library, as TokenIndex.search(weights, k, statistics)
+     * does, for a library that is part of a larger collection.
+     * @param weights positive weight of each token to search for
+     * @param k maximum number of hits to return, must be positive
+     * @param statistics statistics for the tokens of weights of a collection that includes
+     *    every book of this library
+     * @return at most k hits, ordered by TokenIndex.BEST_FIRST
+     */
+    List<TokenIndex.Hit> search(Map<String, Double> weights, int k, TokenIndex.Statistics statistics) {
+        loadAll();
+        return index.search(weights, k, statistics);
+    }
+    
+    /**
+     * Suggest books for a partially typed search, as a search box does on every keystroke.
+     * @param prefix partially typed query; its last word may be incomplete
+     * @param limit maximum number of books to return; must be nonnegative
+     * @return at most limit books in this library's collection, newest edition first, then by
+     *    title and authors, that have in their title or authors a word starting with the
+     *    last word of prefix, and every earlier word of prefix as a whole word.  Words are
+     *    compared as by find(), ignoring case.  A single partial word and a limit of at most
+     *    10 are answered from a cache in time independent of the size of the library.
+     */
+    public List<Book> suggest(String prefix, int limit) {
+        assert prefix != null : "spec. contract broken";
+        assert limit >= 0 : "spec. contract broken";
+        if (suggestions == null) {
+            loadAll();
+            suggestions = new SuggestIndex();
+            suggestions.addAll(shelves.keySet());
+        }
+        return suggestions.suggest(prefix, limit);
+    }
+    
+    /**
+     * Search for books, tolerating misspelled words in the query.
+     * @param query search string
+     * @param limit maximum number of books to return; must be nonnegative
+     * @return at most limit books in this library's collection, best match first, that have
+     *    in their title or authors a word close to some word of query: the same word for
+     *    words of up to 3 characters, within 1 edit for words of up to 7, and within 2 edits
+     *    for longer words, where an edit inserts, deletes or substitutes a character, or swaps
+     *    two adjacent ones.  Words are compared ignoring case, as by find(), and books are
+     *    ranked as by find(), except that a word matched with d edits counts 1/(1 + d) as much
+     *    as an exact match.
+     */
+    public List<Book> findFuzzy(String query, int limit) {
+        assert query != null : "spec. contract broken";
+        assert limit >= 0 : "spec. contract broken";
+        List<Book> found = new ArrayList<Book>();
+        if (limit == 0) return found;
+        if (fuzzy == null) {
+            loadAll();
+            fuzzy = new FuzzyIndex();
+            fuzzy.addAll(shelves.keySet());
+        }
+        Map<String, Double> weights = new HashMap<String, Double>();
+        for (String word : TokenIndex.tokenize(query))
+            for (Map.Entry<String, Integer> close : fuzzy.expand(word).entrySet()) {
+                Double previous = weights.get(close.getKey());
+                double weight = 1.0 / (1 + close.getValue());
+                weights.put(close.getKey(), previous == null ? weight : Math.max(previous, weight));
+            }
+        for (TokenIndex.Hit hit : index.search(weights, limit))
+            found.add(hit.book);
+        return found;
+    }
+    
+    /**
+     * Move all the copies of another BigLibrary into this one, keeping their availability.
+     * Used to merge libraries built in parallel, such as by CatalogLoader.
+     * @param shard library to merge in; must not be used afterwards
+     */
+    void absorb(BigLibrary shard) {
+        loadAll();
+        shard.loadAll();
+        for (Map.Entry<Book, Shelf> entry : shard.shelves.entrySet()) {
+            Book book = entry.getKey();
+            Shelf shelf = shelves.get(book);
+            if (shelf == null) {
+                shelves.put(book, entry.getValue());
+                if (suggestions != null) suggestions.add(book);
+                if (fuzzy != null) fuzzy.add(book);
+            } else {
+                // already indexed here, so the shard's index must not bring it in twice
+                shelf.absorb(entry.getValue());
+                shard.index.remove(book);
+            }
+        }
+        index.absorb(shard.index);
     }
     
     @Override
     public void lose(BookCopy copy) {
-        throw new RuntimeException("not implemented yet");
+        assert copy != null : "spec. contract broken";
+        Book book = copy.getBook();
+        Shelf shelf = shelves.get(book);
+        if (shelf == null || !shelf.remove(copy)) return;
+        if (shelf.isEmpty()) {
+            shelves.remove(book);
+            if (snapshot == null) index.remove(book);
+            if (suggestions != null) suggestions.remove(book);
+            if (fuzzy != null) fuzzy.remove(book);
+        }
+        checkRep(book);
     }
 
     // uncomment the following methods if you need to implement equals and hashCode,
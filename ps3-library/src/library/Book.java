@@ -12,24 +12,29 @@ import java.util.List;
 public class Book {
 
     //rep.:
-    private String title;
-    private List<String> authors;
+    private final String title;
+    private final List<String> authors;
     private final int year;  
+    private final int hash;
     
     // Rep invariant:    
     //   title is a title of the book. Must contain at least one non-space character
     //   authors Names of the authors of the book. Must have at least one name, and each name must contain 
     //   at least one non-space character.
     //   year Year when this edition was published in the conventional (Common Era) calendar. Must be nonnegative.    
+    //   hash is the hash code of title, year and authors, computed once by the constructor
     // Abstraction function:   
     //    represents a book at library identified by its title, author list, and publication year.  Alphabetic case and author 
     //    order are significant, so a book written by "Fred" is different than a book written by "FRED"    
     // Safety from rep exposure:
-    //   All fields are private;
+    //   All fields are private and final;
     //   title and authors.item are Strings, so are guaranteed immutable;
-    //   year is final int, so is guaranteed immutable
+    //   year and hash are final ints, so are guaranteed immutable
     //   authors is a mutable List<String>, so Book() constructor and getAuthors()
-    //   make defensive copies to avoid sharing the rep's List<String> object with clients.
+    //   make defensive copies to avoid sharing the rep's List<String> object with clients;
+    //   getAuthor() and authorCount() only return immutable Strings and ints.
+    //   Books made by BookInterner share an unmodifiable canonical authors list instead,
+    //   which no client can mutate.
     
     /**
      * Make a Book.
@@ -39,9 +44,28 @@ public class Book {
      * @param year Year when this edition was published in the conventional (Common Era) calendar.  Must be nonnegative. 
      */
     public Book(String title, List<String> authors, int year) {
+        this(title, authors, year, false);
+    }
+    
+    /**
+     * Make a Book that shares its author list instead of copying it.  Only for BookInterner,
+     * which gives every book with the same authors one canonical list.
+     * @param title as for Book(title, authors, year)
+     * @param authors unmodifiable list of authors, as for Book(title, authors, year)
+     * @param year as for Book(title, authors, year)
+     * @return a new Book whose author list is authors itself
+     */
+    static Book sharingAuthors(String title, List<String> authors, int year) {
+        return new Book(title, authors, year, true);
+    }
+    
+    // make a Book whose rep is authors itself, if shared, which must then be an unmodifiable
+    // list from BookInterner; otherwise a copy of authors
+    private Book(String title, List<String> authors, int year, boolean shared) {
         this.title = title;
-        this.authors = new ArrayList<String>(authors);
+        this.authors = shared ? authors : new ArrayList<String>(authors);
         this.year = year;
+        this.hash = hash(title, authors, year);
         checkRep();
     }
     
@@ -56,6 +80,7 @@ public class Book {
             assert !item.equals(" ");
         }
         assert year >= 0;
+        assert hash == hash(title, authors, year) : "broken rep. invariant";
     }
     
     /**
@@ -72,6 +97,21 @@ public class Book {
         return new ArrayList<String>(this.authors);
     }
 
+    /**
+     * @param i index of an author; requires 0 <= i < authorCount()
+     * @return the i-th author of this book, without copying the author list
+     */
+    public String getAuthor(int i) {
+        return authors.get(i);
+    }
+
+    /**
+     * @return the number of authors of this book, which is at least 1
+     */
+    public int authorCount() {
+        return authors.size();
+    }
+
     /**
      * @return the year that this book was published
      */
@@ -93,13 +133,21 @@ public class Book {
 
      @Override
      public boolean equals(Object that) {
+         if (this == that) return true;
          if (!(that instanceof Book)) return false;
          Book book = (Book) that;
-         return book.hashCode() == this.hashCode();         
+         // unequal hashes settle most comparisons without looking at any strings
+         return book.hash == this.hash && book.year == this.year
+                 && book.title.equals(this.title) && book.authors.equals(this.authors);
      }
      
      @Override
      public int hashCode() {
+         return hash;
+     }
+     
+     // hash code of a book with the given title, authors and year
+     private static int hash(String title, List<String> authors, int year) {
          int result = 17;
          result = 37 * result + title.hashCode();
          result = 37 * result + year;
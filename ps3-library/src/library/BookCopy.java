@@ -3,6 +3,10 @@ package library;
 /**
  * BookCopy is a mutable type representing a particular copy of a book that is held in a library's
  * collection.
+ *
+ * Two BookCopys represent the same copy iff they are equals().  A BookCopy made by this class is
+ * equal only to itself, but a library may hand out several equal handles on one copy, as
+ * CompactLibrary does, so clients must compare copies with equals(), never with ==.
  */
 public class BookCopy {
     
@@ -68,7 +72,7 @@ public class BookCopy {
      *    and the words "good" or "damaged" depending on its condition
      */
     public String toString() {
-        return book.toString() + (condition == Condition.GOOD ? " condition: good" : " condition: damaged");
+        return book.toString() + (getCondition() == Condition.GOOD ? " condition: good" : " condition: damaged");
     }
 
     // uncomment the following methods if you need to implement equals and hashCode,
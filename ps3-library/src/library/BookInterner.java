@@ -0,0 +1,144 @@
+package library;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * BookInterner is a thread-safe factory of Books that deduplicates what they are made of.
+ * Equal titles and author names come back as one String instance, equal author lists as one
+ * unmodifiable List instance shared by every Book that has them, and, if requested, equal
+ * editions as one canonical Book.
+ *
+ * A large catalog repeats the same author names and series titles thousands of times, so
+ * building its Books through one interner saves most of the heap their strings and author
+ * lists would take.  The pools only grow; drop the interner to release them.
+ */
+public class BookInterner {
+
+    // rep
+    private final ConcurrentMap<String, String> strings;
+    private final ConcurrentMap<List<String>, List<String>> authorLists;
+    private final ConcurrentMap<Edition, Book> books;
+
+    // rep invariant:
+    //    every key of strings maps to an equal String
+    //    every key of authorLists maps to an equal unmodifiable list of Strings that are
+    //      values of strings, and the values of authorLists are distinct objects
+    //    books is null, or maps an edition to a Book with exactly its title, authors and year
+    //
+    // abstraction function:
+    //    represents a pool of canonical strings (the values of strings), canonical author
+    //      lists (the values of authorLists) and, unless books is null, canonical Books
+    //
+    // safety from rep exposure:
+    //    all fields are private and final and never returned;
+    //    Strings and Books are immutable, and canonical author lists are unmodifiable,
+    //      so they are shared with clients on purpose.
+    //
+    // thread safety argument:
+    //    all fields are final references to threadsafe ConcurrentMaps, and every insertion
+    //      uses putIfAbsent, so concurrent callers agree on one canonical value per key.
+
+    /**
+     * Make an interner that also returns one canonical Book for equal editions.
+     */
+    public BookInterner() {
+        this(true);
+    }
+
+    /**
+     * Make an interner.
+     * @param canonicalBooks true if equal editions should come back as the same Book instance,
+     *    false if every call should make a new Book that only shares strings and author lists
+     */
+    public BookInterner(boolean canonicalBooks) {
+        strings = new ConcurrentHashMap<String, String>();
+        authorLists = new ConcurrentHashMap<List<String>, List<String>>();
+        books = canonicalBooks ? new ConcurrentHashMap<Edition, Book>() : null;
+    }
+
+    /**
+     * @param s string to intern
+     * @return the canonical instance of s
+     */
+    public String intern(String s) {
+        String canonical = strings.putIfAbsent(s, s);
+        return canonical == null ? s : canonical;
+    }
+
+    /**
+     * @param authors list of author names to intern
+     * @return an unmodifiable list equal to authors, of canonical strings, that is the same
+     *    instance for every equal list
+     */
+    public List<String> internAuthors(List<String> authors) {
+        List<String> canonical = authorLists.get(authors);
+        if (canonical != null) return canonical;
+        List<String> interned = new ArrayList<String>(authors.size());
+        for (String author : authors)
+            interned.add(intern(author));
+        interned = Collections.unmodifiableList(interned);
+        canonical = authorLists.putIfAbsent(interned, interned);
+        return canonical == null ? interned : canonical;
+    }
+
+    /**
+     * Make a Book from interned parts.
+     * @param title as for Book(title, authors, year)
+     * @param authors as for Book(title, authors, year)
+     * @param year as for Book(title, authors, year)
+     * @return a Book equal to new Book(title, authors, year), whose title and author list are
+     *    canonical instances; the same Book for every equal edition if this interner returns
+     *    canonical books
+     */
+    public Book intern(String title, List<String> authors, int year) {
+        String canonicalTitle = intern(title);
+        List<String> canonicalAuthors = internAuthors(authors);
+        if (books == null) return Book.sharingAuthors(canonicalTitle, canonicalAuthors, year);
+        Edition edition = new Edition(canonicalTitle, canonicalAuthors, year);
+        Book book = books.get(edition);
+        if (book != null) return book;
+        book = Book.sharingAuthors(canonicalTitle, canonicalAuthors, year);
+        Book canonical = books.putIfAbsent(edition, book);
+        return canonical == null ? book : canonical;
+    }
+
+    /**
+     * @param book book to intern
+     * @return intern(book.getTitle(), book.getAuthors(), book.getYear())
+     */
+    public Book intern(Book book) {
+        return intern(book.getTitle(), book.getAuthors(), book.getYear());
+    }
+
+    /**
+     * Edition is the key of a canonical Book.  Its title and author list are already
+     * canonical, so it compares them by identity, without looking at their characters.
+     */
+    private static class Edition {
+        private final String title;
+        private final List<String> authors;
+        private final int year;
+
+        Edition(String title, List<String> authors, int year) {
+            this.title = title;
+            this.authors = authors;
+            this.year = year;
+        }
+
+        @Override
+        public boolean equals(Object that) {
+            if (!(that instanceof Edition)) return false;
+            Edition edition = (Edition) that;
+            return title == edition.title && authors == edition.authors && year == edition.year;
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 * System.identityHashCode(title) + System.identityHashCode(authors)) * 31 + year;
+        }
+    }
+}
@@ -0,0 +1,394 @@
+package library;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * CachingLibrary is a Library that remembers the results of the most recently used find queries
+ * of another library, and forwards every other operation to it.
+ *
+ * A cached result is dropped when a book enters the collection (its first copy is bought) or
+ * leaves it (its last copy is lost) and the query could match that book: when some word of the
+ * query, a maximal run of letters and digits, occurs in the book's title or one of its authors,
+ * ignoring case, or when the query has no such word.  Every Library in this package matches
+ * books by whole words or by substrings, which such a book has, so no other result changes;
+ * nor does buying more copies of a book, checking out or checking in, which drop nothing.
+ * Rankings that depend on statistics of the whole collection, such as BigLibrary's, are
+ * returned as they were when the query was cached, while other books came and went.
+ *
+ * CachingLibrary is as thread-safe as the library it wraps.
+ */
+public class CachingLibrary implements Library {
+
+    /** Number of query results a CachingLibrary remembers unless told otherwise. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    // the last character of the two that String.toLowerCase() makes of a dotted capital I
+    private static final char COMBINING_DOT_ABOVE = '\u0307';
+
+    // rep
+    private final Library library;
+    private final int capacity;
+    private final LinkedHashMap<Query, Entry> results;
+    private long invalidated;
+    private long hits;
+    private long misses;
+    private long evictions;
+    private long invalidations;
+
+    // rep invariant:
+    //    capacity > 0, and results holds at most capacity entries
+    //    every entry of results holds an unmodifiable list, and the folded words of its key's
+    //      query, as wordsOf() makes them, without repeats
+    //    invalidated, hits, misses, evictions and invalidations are nonnegative
+    //
+    // abstraction function:
+    //    represents the library `library`, where find(q), or find(q, offset, limit), is
+    //      answered with the books of results.get(key) for its key, if present, and by
+    //      library otherwise;
+    //      results is ordered least recently used first
+    //
+    // safety from rep exposure:
+    //    all fields are private; library is never returned, and results' lists are only
+    //      returned as fresh copies.  Books and BookCopys are intentionally shared.
+    //
+    // thread safety argument:
+    //    results and the counters are guarded by this object's lock.
+    //    buy, buyAll and lose hold the lock around the change to library and the invalidation
+    //      it causes, so the number of copies they see before or after their change is the
+    //      one their change made.
+    //    find calls library without the lock, and caches what it got only if no invalidation
+    //      happened meanwhile, as told by invalidated: so a result that misses a book bought
+    //      (or has one lost) while it was computed is never cached.
+    //
+    // performance:
+    //    a cached find costs one hash lookup and a copy of its result; a missed one adds a
+    //      hash insert to library's find, and splitting and folding the query's words.  A book
+    //      entering or leaving the collection folds its title and authors once, then tests
+    //      the words kept with each cached query against them, without splitting or folding
+    //      any query again.
+
+    /**
+     * Make a caching library holding DEFAULT_CAPACITY query results.
+     * @param library library to answer queries and operations
+     */
+    public CachingLibrary(Library library) {
+        this(library, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Make a caching library.
+     * @param library library to answer queries and operations; must not be changed except
+     *    through this library
+     * @param capacity maximum number of query results to remember; must be positive
+     */
+    public CachingLibrary(Library library, int capacity) {
+        assert library != null && capacity > 0 : "spec. contract broken";
+        this.library = library;
+        this.capacity = capacity;
+        this.results = new LinkedHashMap<Query, Entry>(16, 0.75f, true);
+        checkRep();
+    }
+
+    // assert the rep invariant; costs O(1)
+    private synchronized void checkRep() {
+        assert results.size() <= capacity : "broken rep. invariant";
+        assert hits >= 0 && misses >= 0 && evictions >= 0 && invalidations >= 0 : "broken rep. invariant";
+    }
+
+    /**
+     * Query is an immutable key of a cached result: a query string and the page of its
+     * results, with limit -1 for all of them.
+     */
+    private static class Query {
+        final String query;
+        final int offset;
+        final int limit;
+
+        Query(String query, int offset, int limit) {
+            this.query = query;
+            this.offset = offset;
+            this.limit = limit;
+        }
+
+        @Override
+        public boolean equals(Object that) {
+            if (!(that instanceof Query)) return false;
+            Query other = (Query) that;
+            return query.equals(other.query) && offset == other.offset && limit == other.limit;
+        }
+
+        @Override
+        public int hashCode() {
+            return (query.hashCode() * 31 + offset) * 31 + limit;
+        }
+    }
+
+    /**
+     * Entry is an immutable cached result, with the folded words of its query, which
+     * invalidate() tests against the books that come and go.
+     */
+    private static class Entry {
+        final List<Book> books;
+        final String[] words;
+
+        Entry(List<Book> books, String[] words) {
+            this.books = books;
+            this.words = words;
+        }
+    }
+
+    // look up a cached result, counting the hit or miss; null if there is none
+    private synchronized List<Book> cached(Query key) {
+        Entry entry = results.get(key);
+        if (entry == null) misses++;
+        else hits++;
+        return entry == null ? null : entry.books;
+    }
+
+    // cache a result, unless an invalidation happened since invalidatedBefore was read
+    private synchronized void remember(Query key, Entry entry, long invalidatedBefore) {
+        if (invalidated != invalidatedBefore) return;
+        results.put(key, entry);
+        if (results.size() > capacity) {
+            Iterator<Query> eldest = results.keySet().iterator();
+            eldest.next();
+            eldest.remove();
+            evictions++;
+        }
+        checkRep();
+    }
+
+    // the value of invalidated, read under the lock
+    private synchronized long invalidatedSoFar() {
+        return invalidated;
+    }
+
+    // drop the cached results of every query that could match book, which has just entered
+    // or left the collection
+    private void invalidate(Book book) {
+        assert Thread.holdsLock(this);
+        invalidated++;
+        List<String> text = new ArrayList<String>();
+        text.add(fold(book.getTitle()));
+        for (int i = 0; i < book.authorCount(); i++)
+            text.add(fold(book.getAuthor(i)));
+        for (Iterator<Entry> entries = results.values().iterator(); entries.hasNext(); )
+            if (couldMatch(entries.next().words, text)) {
+                entries.remove();
+                invalidations++;
+            }
+    }
+
+    // true iff there are no words, or one of them occurs in some string of text; both have
+    // been folded
+    private static boolean couldMatch(String[] words, List<String> text) {
+        if (words.length == 0) return true;
+        for (String word : words)
+            for (String field : text)
+                if (field.contains(word)) return true;
+        return false;
+    }
+
+    // the maximal runs of letters and digits of s, folded, without repeats
+    private static String[] wordsOf(String s) {
+        Set<String> words = new LinkedHashSet<String>();
+        int start = -1;
+        for (int i = 0; i <= s.length(); i++) {
+            boolean inWord = i < s.length() && Character.isLetterOrDigit(s.charAt(i));
+            if (inWord && start < 0) {
+                start = i;
+            } else if (!inWord && start >= 0) {
+                words.add(fold(s.substring(start, i)));
+                start = -1;
+            }
+        }
+        return words.toArray(new String[words.size()]);
+    }
+
+    // s with every character mapped to one case on its own, unlike String.toLowerCase(), which
+    // makes a final or medial sigma depending on the next letter, and adds a combining dot to
+    // a dotted capital I (so that dot is dropped): substrings of s fold to substrings of fold(s)
+    private static String fold(String s) {
+        StringBuilder folded = new StringBuilder(s.length());
+        for (int i = 0; i < s.length(); ) {
+            int c = s.codePointAt(i);
+            i += Character.charCount(c);
+            if (c != COMBINING_DOT_ABOVE)
+                folded.appendCodePoint(Character.toLowerCase(Character.toUpperCase(c)));
+        }
+        return folded.toString();
+    }
+
+    /**
+     * @return number of find calls answered from the cache
+     */
+    public synchronized long hits() {
+        return hits;
+    }
+
+    /**
+     * @return number of find calls passed on to the underlying library
+     */
+    public synchronized long misses() {
+        return misses;
+    }
+
+    /**
+     * @return fraction of find calls answered from the cache, or 0 if there were none
+     */
+    public synchronized double hitRate() {
+        return hits + misses == 0 ? 0 : (double) hits / (hits + misses);
+    }
+
+    /**
+     * @return number of cached results dropped to make room for newer ones
+     */
+    public synchronized long evictions() {
+        return evictions;
+    }
+
+    /**
+     * @return number of cached results dropped because a book they could match entered or
+     *    left the collection
+     */
+    public synchronized long invalidations() {
+        return invalidations;
+    }
+
+    /**
+     * @return number of query results now cached
+     */
+    public synchronized int size() {
+        return results.size();
+    }
+
+    @Override
+    public synchronized BookCopy buy(Book book) {
+        boolean entering = library.countCopies(book) == 0;
+        BookCopy copy = library.buy(book);
+        if (entering) invalidate(book);
+        checkRep();
+        return copy;
+    }
+
+    @Override
+    public synchronized List<BookCopy> buyAll(Book book, int count) {
+        boolean entering = count > 0 && library.countCopies(book) == 0;
+        List<BookCopy> copies = library.buyAll(book, count);
+        if (entering) invalidate(book);
+        checkRep();
+        return copies;
+    }
+
+    @Override
+    public synchronized List<BookCopy> buyAll(Collection<Book> books) {
+        Set<Book> entering = new LinkedHashSet<Book>();
+        for (Book book : books)
+            if (library.countCopies(book) == 0) entering.add(book);
+        List<BookCopy> copies = library.buyAll(books);
+        for (Book book : entering)
+            invalidate(book);
+        checkRep();
+        return copies;
+    }
+
+    @Override
+    public synchronized void lose(BookCopy copy) {
+        library.lose(copy);
+        if (library.countCopies(copy.getBook()) == 0) invalidate(copy.getBook());
+        checkRep();
+    }
+
+    @Override
+    public void checkout(BookCopy copy) {
+        library.checkout(copy);
+    }
+
+    @Override
+    public void checkoutAll(Collection<BookCopy> copies) {
+        library.checkoutAll(copies);
+    }
+
+    @Override
+    public BookCopy checkoutAny(Book book) {
+        return library.checkoutAny(book);
+    }
+
+    @Override
+    public void checkin(BookCopy copy) {
+        library.checkin(copy);
+    }
+
+    @Override
+    public void checkinAll(Collection<BookCopy> copies) {
+        library.checkinAll(copies);
+    }
+
+    @Override
+    public boolean isAvailable(BookCopy copy) {
+        return library.isAvailable(copy);
+    }
+
+    @Override
+    public Set<BookCopy> allCopies(Book book) {
+        return library.allCopies(book);
+    }
+
+    @Override
+    public Set<BookCopy> availableCopies(Book book) {
+        return library.availableCopies(book);
+    }
+
+    @Override
+    public int countCopies(Book book) {
+        return library.countCopies(book);
+    }
+
+    @Override
+    public int countAvailable(Book book) {
+        return library.countAvailable(book);
+    }
+
+    @Override
+    public Set<BookCopy> allCopiesView(Book book) {
+        return library.allCopiesView(book);
+    }
+
+    @Override
+    public Set<BookCopy> availableCopiesView(Book book) {
+        return library.availableCopiesView(book);
+    }
+
+    @Override
+    public List<Book> find(String query) {
+        assert query != null : "spec. contract broken";
+        return find(new Query(query, 0, -1));
+    }
+
+    @Override
+    public List<Book> find(String query, int offset, int limit) {
+        assert query != null : "spec. contract broken";
+        assert offset >= 0 && limit >= 0 : "spec. contract broken";
+        return find(new Query(query, offset, limit));
+    }
+
+    // answer a query from the cache, or from library, caching the result
+    private List<Book> find(Query key) {
+        List<Book> result = cached(key);
+        if (result != null) return new ArrayList<Book>(result);
+        long invalidatedBefore = invalidatedSoFar();
+        result = key.limit < 0
+                ? library.find(key.query)
+                : library.find(key.query, key.offset, key.limit);
+        Entry entry = new Entry(Collections.unmodifiableList(new ArrayList<Book>(result)), wordsOf(key.query));
+        remember(key, entry, invalidatedBefore);
+        return result;
+    }
+}
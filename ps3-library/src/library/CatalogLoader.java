@@ -0,0 +1,189 @@
+package library;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * CatalogLoader bulk-loads a BigLibrary from a catalog export file.
+ *
+ * The file is UTF-8 text with one book per line, in tab-separated fields:
+ *     title TAB authors TAB year [TAB copies]
+ * where authors are separated by semicolons, and copies (default 1) is the number of copies
+ * of the book to buy.  Blank lines are skipped.
+ *
+ * The file is streamed through a FileChannel in fixed-size chunks, so it is never held in
+ * memory as a whole.  Each chunk is parsed into its own shard BigLibrary on a fork-join pool,
+ * building the copy registry and search index of the shard in parallel with the others, and
+ * the shards are merged into one library at the end.  All chunks build their books through
+ * one BookInterner, so repeated titles, author names and editions share one instance each.
+ */
+public class CatalogLoader {
+
+    private static final int DEFAULT_CHUNK_SIZE = 4 << 20;
+
+    // rep
+    private final ForkJoinPool pool;
+    private final int chunkSize;
+
+    // rep invariant:
+    //    chunkSize > 0
+    //
+    // abstraction function:
+    //    represents a loader that parses chunks of chunkSize bytes as tasks on pool
+    //
+    // safety from rep exposure:
+    //    all fields are private and final; the pool is shared with the client on purpose,
+    //      and is never shut down by this class.
+
+    /**
+     * Make a loader that runs on the common fork-join pool.
+     */
+    public CatalogLoader() {
+        this(ForkJoinPool.commonPool(), DEFAULT_CHUNK_SIZE);
+    }
+
+    /**
+     * Make a loader.
+     * @param pool pool to parse and index chunks on
+     * @param chunkSize number of bytes of the file per parsing task; must be positive.
+     *    Lines longer than this are still read whole.
+     */
+    public CatalogLoader(ForkJoinPool pool, int chunkSize) {
+        this.pool = pool;
+        this.chunkSize = chunkSize;
+        checkRep();
+    }
+
+    // assert the rep invariant
+    private void checkRep() {
+        assert pool != null : "broken rep. invariant";
+        assert chunkSize > 0 : "broken rep. invariant";
+    }
+
+    /**
+     * Load a catalog file into a new library.
+     * @param file catalog file in the format described above
+     * @return a library holding, for each line of file, the given number of available
+     *    copies of the book it describes
+     * @throws IOException if file cannot be read
+     * @throws IllegalArgumentException if a line of file is not in the format described above
+     */
+    public BigLibrary load(Path file) throws IOException {
+        int maxInFlight = 2 * pool.getParallelism();
+        Deque<ForkJoinTask<BigLibrary>> inFlight = new ArrayDeque<ForkJoinTask<BigLibrary>>();
+        List<BigLibrary> shards = new ArrayList<BigLibrary>();
+        BookInterner interner = new BookInterner();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocate(chunkSize);
+            while (true) {
+                int read = channel.read(buffer);
+                boolean eof = read < 0;
+                if (!eof && buffer.hasRemaining()) continue;
+
+                // hand every complete line in the buffer to a parsing task
+                int end = eof ? buffer.position() : lastNewline(buffer) + 1;
+                if (end == 0 && !eof) {
+                    // a single line longer than the buffer: grow the buffer and keep reading
+                    buffer.flip();
+                    buffer = ByteBuffer.allocate(buffer.capacity() * 2).put(buffer);
+                    continue;
+                }
+                if (end > 0) {
+                    byte[] chunk = Arrays.copyOf(buffer.array(), end);
+                    if (inFlight.size() >= maxInFlight)
+                        shards.add(inFlight.removeFirst().join());
+                    inFlight.addLast(pool.submit(parser(chunk, interner)));
+                }
+                if (eof) break;
+                buffer.flip();
+                buffer.position(end);
+                buffer.compact();
+            }
+        }
+        while (!inFlight.isEmpty())
+            shards.add(inFlight.removeFirst().join());
+        return merge(shards);
+    }
+
+    // index of the last '\n' in buffer's written bytes, or -1 if none
+    private static int lastNewline(ByteBuffer buffer) {
+        byte[] bytes = buffer.array();
+        for (int i = buffer.position() - 1; i >= 0; i--)
+            if (bytes[i] == '\n') return i;
+        return -1;
+    }
+
+    // a task that parses whole lines of UTF-8 into a shard library
+    private static Callable<BigLibrary> parser(final byte[] chunk, final BookInterner interner) {
+        return new Callable<BigLibrary>() {
+            public BigLibrary call() {
+                // '\n' never occurs inside a multi-byte UTF-8 sequence, so a chunk that
+                // ends at a newline always decodes cleanly on its own
+                String text = new String(chunk, StandardCharsets.UTF_8);
+                List<Book> books = new ArrayList<Book>();
+                int start = 0;
+                while (start < text.length()) {
+                    int newline = text.indexOf('\n', start);
+                    int end = newline < 0 ? text.length() : newline;
+                    parseLine(text.substring(start, end), books, interner);
+                    start = end + 1;
+                }
+                BigLibrary shard = new BigLibrary();
+                shard.buyAll(books);
+                return shard;
+            }
+        };
+    }
+
+    /**
+     * Parse one line of a catalog file.
+     * @param line line without its terminating newline
+     * @param books list to append the line's book to, once per copy
+     * @param interner interner to build the book with
+     * @throws IllegalArgumentException if line is not blank and not in the catalog format
+     */
+    static void parseLine(String line, List<Book> books, BookInterner interner) {
+        if (line.endsWith("\r")) line = line.substring(0, line.length() - 1);
+        if (line.trim().isEmpty()) return;
+        String[] fields = line.split("\t", -1);
+        if (fields.length < 3 || fields.length > 4)
+            throw new IllegalArgumentException("malformed catalog line: " + line);
+        try {
+            List<String> authors = new ArrayList<String>();
+            for (String author : fields[1].split(";"))
+                if (!author.trim().isEmpty()) authors.add(author.trim());
+            if (fields[0].trim().isEmpty() || authors.isEmpty())
+                throw new IllegalArgumentException("malformed catalog line: " + line);
+            int year = Integer.parseInt(fields[2].trim());
+            int copies = fields.length == 4 ? Integer.parseInt(fields[3].trim()) : 1;
+            if (year < 0 || copies < 0)
+                throw new IllegalArgumentException("malformed catalog line: " + line);
+            books.addAll(Collections.nCopies(copies, interner.intern(fields[0], authors, year)));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("malformed catalog line: " + line, e);
+        }
+    }
+
+    // merge all shards into the first one, once every shard is built
+    private static BigLibrary merge(List<BigLibrary> shards) {
+        if (shards.isEmpty()) return new BigLibrary();
+        BigLibrary library = shards.get(0);
+        for (BigLibrary shard : shards.subList(1, shards.size()))
+            library.absorb(shard);
+        return library;
+    }
+}
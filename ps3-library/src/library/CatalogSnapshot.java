@@ -0,0 +1,262 @@
+package library;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * CatalogSnapshot saves the books, copies, availability and condition of a BigLibrary to a
+ * binary file, and loads it back lazily.
+ *
+ * Loading memory-maps the file and returns at once; the shelf of a book is only decoded the
+ * first time an operation names that book, so isAvailable, allCopies and friends answer within
+ * moments of startup while the rest of the file faults in on demand.  The search index needs
+ * every book, so the first find() finishes loading the whole snapshot.
+ *
+ * Saving writes a temporary file next to the target, forces it to disk, renames it over the
+ * target, and forces the directory, so a crash while saving always leaves the previous snapshot
+ * intact, and a snapshot is durable once save() returns.
+ *
+ * File format, all integers big-endian:
+ *     header:  int MAGIC, int VERSION, int bookCount, int tableSize, long tableOffset
+ *     records: for each book, int title length, title in UTF-8, int authorCount,
+ *              for each author (int length, UTF-8 bytes), int year, int copyCount,
+ *              and one state byte per copy (CHECKED_OUT and DAMAGED bits), in the order of
+ *              Shelf.copies(), which loading preserves
+ *     table:   tableSize slots of (int book hash, long record offset), offset 0 if empty,
+ *              probed linearly from the book's hash
+ * Files are mapped whole, so a snapshot must be smaller than 2 GB.
+ */
+public class CatalogSnapshot {
+
+    private static final int MAGIC = 0x4C494253;  // "LIBS"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 24;
+    private static final int SLOT_SIZE = 12;
+    private static final byte CHECKED_OUT = 1;
+    private static final byte DAMAGED = 2;
+
+    // rep
+    private final ByteBuffer file;
+    private final int tableSize;
+    private final long tableOffset;
+    private final BitSet taken;
+
+    // rep invariant:
+    //    tableSize is a power of 2, and file holds tableSize slots at tableOffset
+    //    taken only has bits set below tableSize, at nonempty slots
+    //
+    // abstraction function:
+    //    represents the shelves of the books whose slots are not in taken, as saved in file
+    //
+    // safety from rep exposure:
+    //    all fields are private; file is a read-only mapping never returned to clients;
+    //    each shelf is decoded freshly when taken, and handed out only once.
+
+    /**
+     * Save a library to a snapshot file, atomically replacing any previous file.
+     * @param library library to save; finishes loading it first if it was itself loaded
+     *    from a snapshot
+     * @param file file to write
+     * @throws IOException if the file cannot be written, or would be too large to load; the
+     *    previous file is then untouched
+     */
+    public static void save(BigLibrary library, Path file) throws IOException {
+        Collection<Shelf> shelves = library.shelves();
+        int tableSize = Integer.highestOneBit(Math.max(1, shelves.size()) * 2 - 1) * 2;
+        int[] hashes = new int[tableSize];
+        long[] offsets = new long[tableSize];
+
+        Path absolute = file.toAbsolutePath();
+        Path temp = Files.createTempFile(absolute.getParent(), absolute.getFileName().toString(), ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+                DataOutputStream out = new DataOutputStream(
+                        new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(shelves.size());
+                out.writeInt(tableSize);
+                out.writeLong(0);  // tableOffset, patched below
+                long offset = HEADER_SIZE;
+                for (Shelf shelf : shelves) {
+                    Book book = shelf.getBook();
+                    int slot = hash(book) & (tableSize - 1);
+                    while (offsets[slot] != 0) slot = (slot + 1) & (tableSize - 1);
+                    hashes[slot] = book.hashCode();
+                    offsets[slot] = offset;
+                    offset += writeRecord(out, shelf);
+                    // load() maps the file whole; out.size() stops at Integer.MAX_VALUE, so
+                    // offset does too, and the table then always takes the size past the limit
+                    if (offset + (long) tableSize * SLOT_SIZE > Integer.MAX_VALUE)
+                        throw new IOException("snapshot would be too large to map: " + file);
+                }
+                for (int slot = 0; slot < tableSize; slot++) {
+                    out.writeInt(hashes[slot]);
+                    out.writeLong(offsets[slot]);
+                }
+                out.flush();
+                channel.write(ByteBuffer.allocate(8).putLong(0, offset), 16);
+                channel.force(true);
+            }
+            Files.move(temp, absolute, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            forceDirectory(absolute.getParent());
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    // force a directory's entries to disk, so that a rename in it survives a crash; a
+    // platform that cannot open a directory makes renames durable by itself
+    private static void forceDirectory(Path directory) throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (AccessDeniedException e) {
+            // nothing to force on this platform
+        }
+    }
+
+    // write one shelf's record; returns the number of bytes written
+    private static long writeRecord(DataOutputStream out, Shelf shelf) throws IOException {
+        int before = out.size();
+        Book book = shelf.getBook();
+        writeString(out, book.getTitle());
+        out.writeInt(book.authorCount());
+        for (int i = 0; i < book.authorCount(); i++)
+            writeString(out, book.getAuthor(i));
+        out.writeInt(book.getYear());
+        List<BookCopy> copies = shelf.copies();
+        out.writeInt(copies.size());
+        for (BookCopy copy : copies) {
+            int state = shelf.isAvailable(copy) ? 0 : CHECKED_OUT;
+            if (copy.getCondition() == BookCopy.Condition.DAMAGED) state |= DAMAGED;
+            out.writeByte(state);
+        }
+        return out.size() - before;
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /**
+     * Load a library from a snapshot file.  Returns after mapping the file and reading its
+     * header; shelves are decoded as they are first used.
+     * @param file snapshot written by save()
+     * @return a library with the same books, and copies with the same availability and
+     *    condition, as the library that was saved.  The copies are new BookCopy objects.
+     * @throws IOException if the file cannot be read or is not a snapshot
+     */
+    public static BigLibrary load(Path file) throws IOException {
+        return new BigLibrary(new CatalogSnapshot(file));
+    }
+
+    private CatalogSnapshot(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE)
+                throw new IOException("not a catalog snapshot: " + path);
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            this.file = mapped;
+        }
+        if (file.getInt(0) != MAGIC || file.getInt(4) != VERSION)
+            throw new IOException("not a catalog snapshot: " + path);
+        this.tableSize = file.getInt(12);
+        this.tableOffset = file.getLong(16);
+        if (Integer.bitCount(tableSize) != 1
+                || tableOffset < HEADER_SIZE || tableOffset + (long) tableSize * SLOT_SIZE != file.capacity())
+            throw new IOException("corrupt catalog snapshot: " + path);
+        this.taken = new BitSet(tableSize);
+        checkRep();
+    }
+
+    // assert the rep invariant
+    private void checkRep() {
+        assert Integer.bitCount(tableSize) == 1 : "broken rep. invariant";
+        assert taken.length() <= tableSize : "broken rep. invariant";
+    }
+
+    // spread the book's hash over the table, since Book.hashCode is polynomial in small fields
+    private static int hash(Book book) {
+        int h = book.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * Take the shelf of a book out of this snapshot.
+     * @param book book to look up
+     * @return the book's shelf as saved, with fresh copies, or null if the snapshot has no such
+     *    book or its shelf has already been taken
+     */
+    Shelf take(Book book) {
+        int h = book.hashCode();
+        for (int slot = hash(book) & (tableSize - 1); ; slot = (slot + 1) & (tableSize - 1)) {
+            int at = (int) (tableOffset + (long) slot * SLOT_SIZE);
+            long offset = file.getLong(at + 4);
+            if (offset == 0) return null;
+            if (file.getInt(at) != h || taken.get(slot)) continue;
+            Shelf shelf = decode((int) offset);
+            if (shelf.getBook().equals(book)) {
+                taken.set(slot);
+                return shelf;
+            }
+        }
+    }
+
+    /**
+     * Take all the remaining shelves out of this snapshot.
+     * @return the shelves not taken yet, each as saved and with fresh copies
+     */
+    List<Shelf> takeAll() {
+        List<Shelf> shelves = new ArrayList<Shelf>();
+        for (int slot = taken.nextClearBit(0); slot < tableSize; slot = taken.nextClearBit(slot + 1)) {
+            long offset = file.getLong((int) (tableOffset + (long) slot * SLOT_SIZE) + 4);
+            if (offset != 0) shelves.add(decode((int) offset));
+        }
+        taken.set(0, tableSize);
+        return shelves;
+    }
+
+    // decode the record at offset into a new shelf
+    private Shelf decode(int offset) {
+        ByteBuffer in = file.duplicate();
+        in.position(offset);
+        String title = readString(in);
+        int authorCount = in.getInt();
+        List<String> authors = new ArrayList<String>(authorCount);
+        for (int i = 0; i < authorCount; i++)
+            authors.add(readString(in));
+        Book book = new Book(title, authors, in.getInt());
+        Shelf shelf = new Shelf(book);
+        int copyCount = in.getInt();
+        for (int i = 0; i < copyCount; i++) {
+            byte state = in.get();
+            BookCopy copy = new BookCopy(book);
+            if ((state & DAMAGED) != 0) copy.setCondition(BookCopy.Condition.DAMAGED);
+            shelf.add(copy);
+            if ((state & CHECKED_OUT) != 0) shelf.checkout(copy);
+        }
+        return shelf;
+    }
+
+    private static String readString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
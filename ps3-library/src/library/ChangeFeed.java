@@ -0,0 +1,407 @@
+package library;
+
+import java.io.Closeable;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * ChangeFeed is a thread-safe, bounded stream of circulation events, published by the threads
+ * that change a library and delivered to each subscriber on a thread of its own, in the order
+ * they were published.  Events are kept in a ring buffer of preallocated slots, as the LMAX
+ * Disruptor does, so publishing one allocates nothing.
+ *
+ * A subscriber sees the events published after it subscribed, each with its sequence number,
+ * which counts the events published to the feed.  A feed never holds more than its capacity of
+ * events that some subscriber has not yet consumed: when it is full, a publisher waits for the
+ * slowest subscriber, or drops the event, as the feed's Overflow says.  A dropped event gets
+ * no sequence number, and is only counted, in dropped().
+ */
+public class ChangeFeed {
+
+    /**
+     * Kind is a kind of circulation event.
+     */
+    public static enum Kind {
+        /** A copy was bought. */
+        BUY,
+        /** A copy was checked out. */
+        CHECKOUT,
+        /** A copy was checked in. */
+        CHECKIN,
+        /** A copy was lost. */
+        LOSE,
+        /** A copy's condition was set. */
+        CONDITION
+    }
+
+    /**
+     * Producers tells how many threads may publish to a feed at once.
+     */
+    public static enum Producers {
+        /** Only one thread publishes at a time, such as one holding a library's lock.  Claiming
+         *  a slot then takes no atomic read-modify-write. */
+        SINGLE,
+        /** Any number of threads publish at once. */
+        MULTI
+    }
+
+    /**
+     * Overflow tells what a publisher does when the feed is full.
+     */
+    public static enum Overflow {
+        /** Wait until the slowest subscriber frees a slot; slow subscribers slow the publishers. */
+        BLOCK,
+        /** Drop the event, counting it in dropped(); publishers never wait. */
+        DROP
+    }
+
+    /**
+     * WaitStrategy tells how a subscriber's thread waits for the next event.
+     */
+    public static enum WaitStrategy {
+        /** Spin without pause: least latency, and a whole core per subscriber. */
+        BUSY_SPIN,
+        /** Spin, yielding the processor between checks. */
+        YIELDING,
+        /** Spin briefly, then yield, then sleep 100 microseconds between checks. */
+        SLEEPING,
+        /** Sleep until a publisher wakes it: least CPU, and a check by every publisher for
+         *  sleeping subscribers. */
+        BLOCKING
+    }
+
+    /**
+     * Subscriber receives the events of a feed, on its subscription's thread.
+     */
+    public interface Subscriber {
+        /**
+         * Receive an event.  An exception thrown here ends the subscription.  A subscriber must
+         * not change the library whose events it receives, nor publish to this feed: a
+         * publisher that waits for it, on a BLOCK feed, may hold a lock such a change needs,
+         * as PublishingLibrary does.
+         * @param sequence sequence number of the event
+         * @param kind kind of the event
+         * @param copy the copy the event is about
+         * @param condition for a CONDITION event, the condition the copy was set to; for other
+         *    events, the copy's condition when the event was published
+         */
+        void onEvent(long sequence, Kind kind, BookCopy copy, BookCopy.Condition condition);
+    }
+
+    // how long a SLEEPING subscriber sleeps between checks, and the checks it makes first
+    private static final long SLEEP_NANOS = 100000;
+    private static final int SPINS = 100;
+    private static final int YIELDS = 100;
+
+    private static final Kind[] KINDS = Kind.values();
+    private static final BookCopy.Condition[] CONDITIONS = BookCopy.Condition.values();
+    private static final Subscription[] NO_SUBSCRIPTIONS = new Subscription[0];
+
+    // rep
+    private final int mask;
+    private final byte[] kinds;
+    private final byte[] conditions;
+    private final BookCopy[] copies;
+    private final AtomicLongArray published;
+    private final AtomicLong cursor;
+    private final Producers producers;
+    private final Overflow overflow;
+    private final AtomicLong dropped;
+    private final AtomicInteger sleepers;
+    private final Object wakeup;
+    private volatile Subscription[] subscriptions;
+    private volatile long gatingCache;
+
+    // rep invariant:
+    //    kinds, conditions, copies and published have length mask + 1, a power of two
+    //    for each slot i, published.get(i) is the sequence of the event in slot i, which is
+    //      congruent to i modulo mask + 1, or -1 if no event was ever published there
+    //    cursor is the last sequence claimed by a publisher, and no subscription has consumed
+    //      past it
+    //    gatingCache is at most the least sequence consumed by a subscription, or cursor if
+    //      there are none
+    //
+    // abstraction function:
+    //    represents the stream of events with sequences 0..cursor, where the event of sequence
+    //      s, if its slot i = s & mask has published.get(i) == s, is
+    //      (KINDS[kinds[i]], copies[i], CONDITIONS[conditions[i]]); and a subscription
+    //      with sequence c has consumed the events up to c
+    //
+    // safety from rep exposure:
+    //    all fields are private and never returned; subscribers receive the copies in events,
+    //      which are shared on purpose.
+    //
+    // thread safety argument:
+    //    a publisher claims sequence s by advancing cursor (with compareAndSet unless there is
+    //      a SINGLE producer), and only then writes slot s & mask, which no other publisher
+    //      claims until the slot's event has been consumed by every subscription.  It
+    //      publishes the slot by a volatile write of s to published, and a subscription reads
+    //      the slot only after a volatile read of s there, so it sees the slot's writes.
+    //    subscriptions is replaced, never changed, under wakeup's lock.
+    //    gatingCache is a volatile hint, only ever set to a value that was a lower bound.
+    //    A BLOCKING subscription counts itself in sleepers, then checks for its event under
+    //      wakeup's lock before waiting; a publisher writes published, then reads sleepers
+    //      and, if any, notifies under the lock.  Both accesses are volatile, so either the
+    //      subscription sees the event or the publisher sees it sleeping.
+    //
+    // performance:
+    //    publishing costs a few array writes, one volatile write, and, for MULTI producers,
+    //      one compareAndSet, plus a scan of the subscriptions when the cached gating sequence
+    //      is a whole ring behind.  It allocates nothing.
+
+    /**
+     * Make a feed with no subscribers.
+     * @param capacity number of slots; must be a positive power of two
+     * @param producers how many threads may publish at once
+     * @param overflow what a publisher does when the feed is full
+     */
+    public ChangeFeed(int capacity, Producers producers, Overflow overflow) {
+        assert capacity > 0 && Integer.bitCount(capacity) == 1 : "spec. contract broken";
+        assert producers != null && overflow != null : "spec. contract broken";
+        this.mask = capacity - 1;
+        this.kinds = new byte[capacity];
+        this.conditions = new byte[capacity];
+        this.copies = new BookCopy[capacity];
+        this.published = new AtomicLongArray(capacity);
+        for (int i = 0; i < capacity; i++)
+            published.set(i, -1);
+        this.cursor = new AtomicLong(-1);
+        this.producers = producers;
+        this.overflow = overflow;
+        this.dropped = new AtomicLong();
+        this.sleepers = new AtomicInteger();
+        this.wakeup = new Object();
+        this.subscriptions = NO_SUBSCRIPTIONS;
+        this.gatingCache = -1;
+    }
+
+    /**
+     * @return number of slots of this feed
+     */
+    public int capacity() {
+        return mask + 1;
+    }
+
+    /**
+     * @return number of events claimed by publishers so far, including those still being
+     *    written, but not those dropped
+     */
+    public long published() {
+        return cursor.get() + 1;
+    }
+
+    /**
+     * @return number of events dropped because this feed was full
+     */
+    public long dropped() {
+        return dropped.get();
+    }
+
+    /**
+     * Publish an event to every subscription.
+     * @param kind kind of the event
+     * @param copy the copy the event is about
+     * @param condition the copy's condition
+     * @return true if the event was published, false if it was dropped
+     */
+    public boolean publish(Kind kind, BookCopy copy, BookCopy.Condition condition) {
+        long sequence = claim();
+        if (sequence < 0) return false;
+        int slot = (int) sequence & mask;
+        kinds[slot] = (byte) kind.ordinal();
+        conditions[slot] = (byte) condition.ordinal();
+        copies[slot] = copy;
+        published.set(slot, sequence);
+        if (sleepers.get() > 0) {
+            synchronized (wakeup) {
+                wakeup.notifyAll();
+            }
+        }
+        return true;
+    }
+
+    // claim the next sequence, waiting for a free slot or giving up as overflow says;
+    // returns the sequence, or -1 if the event is dropped
+    private long claim() {
+        while (true) {
+            long current = cursor.get();
+            long next = current + 1;
+            long wrapPoint = next - (mask + 1);
+            if (wrapPoint > gatingCache) {
+                long gating = gatingSequence(current);
+                gatingCache = gating;
+                if (wrapPoint > gating) {
+                    if (overflow == Overflow.DROP) {
+                        dropped.incrementAndGet();
+                        return -1;
+                    }
+                    LockSupport.parkNanos(1);
+                    continue;
+                }
+            }
+            if (producers == Producers.SINGLE) {
+                cursor.lazySet(next);
+                return next;
+            }
+            if (cursor.compareAndSet(current, next)) return next;
+        }
+    }
+
+    // the least sequence consumed by a subscription, or current if there are none
+    private long gatingSequence(long current) {
+        long gating = current;
+        Subscription[] subscribed = subscriptions;
+        for (int i = 0; i < subscribed.length; i++)
+            gating = Math.min(gating, subscribed[i].sequence.get());
+        return gating;
+    }
+
+    /**
+     * Subscribe to the events published from now on.
+     * @param subscriber receives the events, on a new daemon thread
+     * @param wait how the subscription's thread waits for events
+     * @return the subscription, already running
+     */
+    public Subscription subscribe(Subscriber subscriber, WaitStrategy wait) {
+        assert subscriber != null && wait != null : "spec. contract broken";
+        Subscription subscription;
+        synchronized (wakeup) {
+            subscription = new Subscription(subscriber, wait, cursor.get());
+            Subscription[] subscribed = Arrays.copyOf(subscriptions, subscriptions.length + 1);
+            subscribed[subscribed.length - 1] = subscription;
+            subscriptions = subscribed;
+        }
+        subscription.thread.start();
+        return subscription;
+    }
+
+    // stop gating publishers on a subscription
+    private void unsubscribe(Subscription subscription) {
+        synchronized (wakeup) {
+            Subscription[] subscribed = new Subscription[subscriptions.length - 1];
+            int at = 0;
+            for (Subscription other : subscriptions)
+                if (other != subscription) subscribed[at++] = other;
+            subscriptions = subscribed;
+            wakeup.notifyAll();
+        }
+    }
+
+    /**
+     * Subscription is a subscriber's place in a feed, and the thread that delivers events to it.
+     */
+    public class Subscription implements Closeable {
+
+        private final Subscriber subscriber;
+        private final WaitStrategy wait;
+        private final AtomicLong sequence;
+        private final Thread thread;
+        private volatile boolean running;
+
+        // make a subscription that has consumed the events up to the given sequence
+        private Subscription(Subscriber subscriber, WaitStrategy wait, long consumed) {
+            this.subscriber = subscriber;
+            this.wait = wait;
+            this.sequence = new AtomicLong(consumed);
+            this.running = true;
+            this.thread = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        consume();
+                    } finally {
+                        running = false;
+                        unsubscribe(Subscription.this);
+                    }
+                }
+            }, "change feed subscriber");
+            thread.setDaemon(true);
+        }
+
+        /**
+         * @return sequence of the last event this subscription's subscriber has received
+         */
+        public long sequence() {
+            return sequence.get();
+        }
+
+        /**
+         * @return true iff this subscription is still delivering events
+         */
+        public boolean isRunning() {
+            return running;
+        }
+
+        /**
+         * Stop delivering events, and wait for the subscriber to return from the event it is
+         * receiving, if any.  Does nothing if called by the subscriber itself.
+         */
+        @Override
+        public void close() {
+            running = false;
+            synchronized (wakeup) {
+                wakeup.notifyAll();
+            }
+            if (Thread.currentThread() == thread) return;
+            boolean interrupted = false;
+            while (thread.isAlive()) {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+
+        // deliver events until closed
+        private void consume() {
+            long next = sequence.get() + 1;
+            int idle = 0;
+            while (running) {
+                int slot = (int) next & mask;
+                if (published.get(slot) != next) {
+                    idle = await(next, idle);
+                    continue;
+                }
+                idle = 0;
+                subscriber.onEvent(next, KINDS[kinds[slot]], copies[slot], CONDITIONS[conditions[slot]]);
+                sequence.lazySet(next);
+                next++;
+            }
+        }
+
+        // wait for the event of the given sequence, as this subscription's strategy says,
+        // after the given number of idle checks; returns the number of idle checks made
+        private int await(long next, int idle) {
+            switch (wait) {
+            case BUSY_SPIN:
+                return idle + 1;
+            case YIELDING:
+                Thread.yield();
+                return idle + 1;
+            case SLEEPING:
+                if (idle >= SPINS + YIELDS) LockSupport.parkNanos(SLEEP_NANOS);
+                else if (idle >= SPINS) Thread.yield();
+                return Math.min(idle + 1, SPINS + YIELDS);
+            case BLOCKING:
+                sleepers.incrementAndGet();
+                try {
+                    synchronized (wakeup) {
+                        while (running && published.get((int) next & mask) != next)
+                            wakeup.wait();
+                    }
+                } catch (InterruptedException e) {
+                    running = false;
+                } finally {
+                    sleepers.decrementAndGet();
+                }
+                return 0;
+            default:
+                throw new AssertionError("unknown wait strategy " + wait);
+            }
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package library;
+
+/**
+ * CompactCopy is a thin handle on a copy held by a CompactLibrary: just its shelf, its id on
+ * that shelf, and the generation of the id, since a lost copy's id is reused by a later copy.
+ * Handles are made on demand, so two handles on the same copy are equal rather than identical,
+ * and the copy's condition lives on the shelf, where every handle on the copy sees it.  Each
+ * handle also keeps the condition it last set or saw in its own BookCopy field, and the handle
+ * given to lose() is brought up to date from the shelf, so a lost copy keeps its condition
+ * after its id is reused.
+ */
+class CompactCopy extends BookCopy {
+
+    // rep
+    private final CompactShelf shelf;
+    private final int id;
+    private final int generation;
+
+    // rep invariant:
+    //    id is an id issued by shelf, generation is no later than shelf's generation of id,
+    //      and getBook() is shelf's book
+    //
+    // abstraction function:
+    //    represents the copy of shelf's book issued as generation of id, in the condition
+    //      recorded on shelf while that is still the copy under id, and in the condition
+    //      kept by BookCopy once the id is reused; while the copy is current, BookCopy's
+    //      condition is the one this handle last set or read, or had when made
+    //
+    // safety from rep exposure:
+    //    all fields are private and final; shelf is package-private and only returned
+    //      to the CompactLibrary that owns it, through getShelf().
+
+    /**
+     * Make a handle on a copy.
+     * @param shelf shelf of the copy
+     * @param id id of the copy, issued by shelf; the handle is on the copy now under id
+     */
+    CompactCopy(CompactShelf shelf, int id) {
+        super(shelf.getBook());
+        this.shelf = shelf;
+        this.id = id;
+        this.generation = shelf.generation(id);
+        if (shelf.isDamaged(id)) super.setCondition(Condition.DAMAGED);
+    }
+
+    /**
+     * Record the copy's condition in this handle, before the copy is removed from its shelf
+     * and its id may be reused.
+     */
+    void detach() {
+        getCondition();
+    }
+
+    /**
+     * @return the shelf this copy was issued by
+     */
+    CompactShelf getShelf() {
+        return shelf;
+    }
+
+    /**
+     * @return the id of this copy on its shelf
+     */
+    int getId() {
+        return id;
+    }
+
+    /**
+     * @return the generation of this copy's id on its shelf
+     */
+    int getGeneration() {
+        return generation;
+    }
+
+    @Override
+    public Condition getCondition() {
+        if (!shelf.hasCondition(id, generation)) return super.getCondition();
+        Condition condition = shelf.isDamaged(id) ? Condition.DAMAGED : Condition.GOOD;
+        if (condition != super.getCondition()) super.setCondition(condition);
+        return condition;
+    }
+
+    @Override
+    public void setCondition(Condition condition) {
+        assert condition != null : "spec. contract broken";
+        if (shelf.hasCondition(id, generation)) shelf.setDamaged(id, condition == Condition.DAMAGED);
+        super.setCondition(condition);
+    }
+
+    @Override
+    public boolean equals(Object that) {
+        if (!(that instanceof CompactCopy)) return false;
+        CompactCopy copy = (CompactCopy) that;
+        return copy.shelf == shelf && copy.id == id && copy.generation == generation;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * (31 * getBook().hashCode() + id) + generation;
+    }
+}
@@ -0,0 +1,242 @@
+package library;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * CompactLibrary is a Library for tens of millions of copies.  It does not keep an object per
+ * copy: each Book has a CompactShelf of bitsets, a copy is just a dense id on its book's shelf,
+ * and the BookCopy objects it hands out are thin handles made on demand.  Two handles on the
+ * same copy are equal, though not necessarily the same object.  The id of a lost copy is reused
+ * by the next copy of its book, so the ids stay dense however many copies come and go.
+ *
+ * Like BigLibrary, every operation runs faster than linear time in the number of books.
+ */
+public class CompactLibrary implements Library {
+
+    // rep
+    private final Map<Book, CompactShelf> shelves;
+    private final TokenIndex index;
+
+    // rep invariant:
+    //    every shelf in shelves is nonempty, belongs to this library, and is keyed by its own book
+    //    every shelf satisfies its own rep invariant (CompactShelf.checkRep(id))
+    //    index contains exactly the books that are keys of shelves
+    //
+    // abstraction function:
+    //    represents the copies on all shelves, where a copy is available iff it is
+    //      available on its shelf, and checked out otherwise
+    //
+    // safety from rep exposure:
+    //    shelves and index are private and final, and never returned to clients;
+    //    CompactShelf and TokenIndex are package-private; a CompactCopy lets the shelf out
+    //      only to package code, and the shelf refuses this library's operations once retired;
+    //    allCopies() and availableCopies() return fresh sets of fresh handles, and the
+    //      copies views make fresh handles as they are iterated.
+    //
+    // performance:
+    //    checkout, checkin and isAvailable are single bit operations on the copy's shelf,
+    //      reached through the handle without hashing.
+    //    buy, checkoutAny and lose hash the book to find its shelf; checkoutAny then scans from
+    //      the shelf's lowest possibly-available id.
+    //    allCopies and availableCopies run in O(copies of that book), making one handle per copy;
+    //      countCopies, countAvailable and the size of a copies view read a counter.
+    //    find runs as in BigLibrary.
+    //    Each copy id costs 3 bits and a 16-bit generation, and each lost id awaiting reuse
+    //      32 bits more, plus the handles clients keep; a shelf has no more ids than the
+    //      most copies it held at once, except the rare ids whose generations ran out.
+
+    public CompactLibrary() {
+        shelves = new HashMap<Book, CompactShelf>();
+        index = new TokenIndex();
+    }
+
+    // assert the rep invariant, sampled at the shelf of book and at copy id there, if not -1;
+    // see BigLibrary.checkRep(Book, BookCopy)
+    private void checkRep(Book book, int id) {
+        CompactShelf shelf = shelves.get(book);
+        if (shelf == null) return;
+        assert !shelf.isEmpty() : "broken rep. invariant";
+        assert shelf.getBook().equals(book) : "broken rep. invariant";
+        assert shelf.belongsTo(this) : "broken rep. invariant";
+        shelf.checkRep(id);
+    }
+
+    // the shelf of copy in this library, or null if copy is not one of its handles
+    private CompactShelf shelfOf(BookCopy copy) {
+        if (!(copy instanceof CompactCopy)) return null;
+        CompactShelf shelf = ((CompactCopy) copy).getShelf();
+        return shelf.belongsTo(this) ? shelf : null;
+    }
+
+    @Override
+    public BookCopy buy(Book book) {
+        assert book != null : "spec. contract broken";
+        CompactShelf shelf = shelves.get(book);
+        if (shelf == null) {
+            shelf = new CompactShelf(book, this);
+            shelves.put(book, shelf);
+            index.add(book);
+        }
+        int id = shelf.add();
+        checkRep(book, id);
+        return new CompactCopy(shelf, id);
+    }
+
+    @Override
+    public List<BookCopy> buyAll(Book book, int count) {
+        assert book != null && count >= 0 : "spec. contract broken";
+        List<BookCopy> copies = new ArrayList<BookCopy>(count);
+        if (count == 0) return copies;
+        CompactShelf shelf = shelves.get(book);
+        if (shelf == null) {
+            shelf = new CompactShelf(book, this);
+            shelves.put(book, shelf);
+            index.add(book);
+        }
+        int id = -1;
+        for (int i = 0; i < count; i++) {
+            id = shelf.add();
+            copies.add(new CompactCopy(shelf, id));
+        }
+        checkRep(book, id);
+        return copies;
+    }
+
+    @Override
+    public void checkout(BookCopy copy) {
+        assert copy != null : "spec. contract broken";
+        CompactShelf shelf = shelfOf(copy);
+        if (shelf == null) return;
+        CompactCopy handle = (CompactCopy) copy;
+        shelf.checkout(handle.getId(), handle.getGeneration());
+        checkRep(copy.getBook(), handle.getId());
+    }
+
+    @Override
+    public BookCopy checkoutAny(Book book) {
+        assert book != null : "spec. contract broken";
+        CompactShelf shelf = shelves.get(book);
+        int id = shelf == null ? -1 : shelf.checkoutAny();
+        checkRep(book, id);
+        return id < 0 ? null : new CompactCopy(shelf, id);
+    }
+
+    @Override
+    public void checkin(BookCopy copy) {
+        assert copy != null : "spec. contract broken";
+        CompactShelf shelf = shelfOf(copy);
+        if (shelf == null) return;
+        CompactCopy handle = (CompactCopy) copy;
+        shelf.checkin(handle.getId(), handle.getGeneration());
+        checkRep(copy.getBook(), handle.getId());
+    }
+
+    @Override
+    public boolean isAvailable(BookCopy copy) {
+        assert copy != null : "spec. contract broken";
+        CompactShelf shelf = shelfOf(copy);
+        if (shelf == null) return false;
+        CompactCopy handle = (CompactCopy) copy;
+        return shelf.isAvailable(handle.getId(), handle.getGeneration());
+    }
+
+    @Override
+    public Set<BookCopy> allCopies(Book book) {
+        assert book != null : "spec. contract broken";
+        Set<BookCopy> copies = new HashSet<BookCopy>();
+        CompactShelf shelf = shelves.get(book);
+        if (shelf == null) return copies;
+        for (int id = shelf.nextOwned(0); id >= 0; id = shelf.nextOwned(id + 1))
+            copies.add(new CompactCopy(shelf, id));
+        return copies;
+    }
+
+    @Override
+    public Set<BookCopy> availableCopies(Book book) {
+        assert book != null : "spec. contract broken";
+        Set<BookCopy> copies = new HashSet<BookCopy>();
+        CompactShelf shelf = shelves.get(book);
+        if (shelf == null) return copies;
+        for (int id = shelf.nextAvailable(0); id >= 0; id = shelf.nextAvailable(id + 1))
+            copies.add(new CompactCopy(shelf, id));
+        return copies;
+    }
+
+    @Override
+    public int countCopies(Book book) {
+        assert book != null : "spec. contract broken";
+        CompactShelf shelf = shelves.get(book);
+        return shelf == null ? 0 : shelf.size();
+    }
+
+    @Override
+    public int countAvailable(Book book) {
+        assert book != null : "spec. contract broken";
+        CompactShelf shelf = shelves.get(book);
+        return shelf == null ? 0 : shelf.availableCount();
+    }
+
+    @Override
+    public Set<BookCopy> allCopiesView(final Book book) {
+        assert book != null : "spec. contract broken";
+        return new CopiesView() {
+            Set<BookCopy> current() {
+                CompactShelf shelf = shelves.get(book);
+                return shelf == null ? Collections.<BookCopy>emptySet() : shelf.allView();
+            }
+        };
+    }
+
+    @Override
+    public Set<BookCopy> availableCopiesView(final Book book) {
+        assert book != null : "spec. contract broken";
+        return new CopiesView() {
+            Set<BookCopy> current() {
+                CompactShelf shelf = shelves.get(book);
+                return shelf == null ? Collections.<BookCopy>emptySet() : shelf.availableView();
+            }
+        };
+    }
+
+    @Override
+    public List<Book> find(String query) {
+        assert query != null : "spec. contract broken";
+        return index.find(query);
+    }
+
+    @Override
+    public List<Book> find(String query, int offset, int limit) {
+        assert query != null : "spec. contract broken";
+        assert offset >= 0 && limit >= 0 : "spec. contract broken";
+        List<Book> found = new ArrayList<Book>();
+        if (limit == 0) return found;
+        int k = (int) Math.min((long) offset + limit, Integer.MAX_VALUE);
+        List<TokenIndex.Hit> hits = index.search(query, k);
+        for (int i = offset; i < hits.size(); i++)
+            found.add(hits.get(i).book);
+        return found;
+    }
+
+    @Override
+    public void lose(BookCopy copy) {
+        assert copy != null : "spec. contract broken";
+        CompactShelf shelf = shelfOf(copy);
+        if (shelf == null) return;
+        CompactCopy handle = (CompactCopy) copy;
+        handle.detach();
+        if (!shelf.remove(handle.getId(), handle.getGeneration())) return;
+        Book book = shelf.getBook();
+        if (shelf.isEmpty()) {
+            shelves.remove(book);
+            shelf.retire();
+            index.remove(book);
+        }
+        checkRep(book, handle.getId());
+    }
+}
@@ -0,0 +1,397 @@
+package library;
+
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * CompactShelf is a mutable registry of the copies of one Book owned by a CompactLibrary, in
+ * a few bits per copy.  Copies are identified by dense int ids, issued in order from 0.  The id of
+ * a lost copy is reused by a later copy, so the ids stay as dense as the shelf's largest size;
+ * each id has a generation, bumped on reuse, which tells a handle on the lost copy from a handle
+ * on the new one.  Ownership, availability and damage are each one bit per id, so checking a copy
+ * out or in, or testing whether it is available, is a single bit operation.
+ */
+class CompactShelf {
+
+    // the three bitsets are interleaved, one word of each per block of 64 ids, so that the
+    // bits of one copy share a cache line and the shelf is a single array
+    private static final int OWNED = 0;
+    private static final int AVAILABLE = 1;
+    private static final int DAMAGED = 2;
+    private static final int STRIDE = 3;
+
+    // an id whose generation reaches this is not reused again, so generations never wrap
+    private static final int LAST_GENERATION = Character.MAX_VALUE;
+
+    // most ids a shelf can issue: whole blocks of 64, with a generation array that fits in an int
+    private static final int MAX_IDS = (Integer.MAX_VALUE >>> 6) << 6;
+
+    // rep
+    private final Book book;
+    private final CompactLibrary owner;
+    private long[] words;
+    private char[] generations;
+    private int[] free;
+    private int freeCount;
+    private int issued;
+    private int size;
+    private int available;
+    private int firstAvailable;
+    private boolean retired;
+
+    // rep invariant:
+    //    issued <= MAX_IDS, and words.length is a positive multiple of STRIDE, covering at
+    //      least ids 0..issued-1
+    //    generations has one entry for each id that words covers
+    //    no bit is set for an id >= issued
+    //    free[0..freeCount-1] are distinct ids < issued, with no OWNED bit set and a generation
+    //      below LAST_GENERATION
+    //    every AVAILABLE bit is also an OWNED bit
+    //    size is the number of OWNED bits, and available the number of AVAILABLE bits
+    //    no AVAILABLE bit is set below firstAvailable
+    //
+    // abstraction function:
+    //    represents the copies of book owned by owner, which are the ids with their OWNED bit
+    //      set; copy id is available iff its AVAILABLE bit is set, and damaged iff its DAMAGED
+    //      bit is set.  A retired shelf no longer belongs to owner, and represents no copies
+    //      to owner, though its bits still answer for the conditions of the copies it issued.
+    //    A handle on (id, generation) is a copy on the shelf iff generations[id] == generation
+    //      and id's OWNED bit is set; ids in free belong to lost copies awaiting reuse.
+    //
+    // safety from rep exposure:
+    //    all fields are private; words is never returned; book is immutable;
+    //    owner is shared on purpose, so that a copy can be checked against its library.
+
+    /**
+     * Make an empty shelf.
+     * @param book Book whose copies this shelf holds
+     * @param owner library that owns the shelf
+     */
+    CompactShelf(Book book, CompactLibrary owner) {
+        assert book != null && owner != null : "spec. contract broken";
+        this.book = book;
+        this.owner = owner;
+        this.words = new long[STRIDE];
+        this.generations = new char[64];
+        this.free = new int[0];
+    }
+
+    // assert the rep invariant, sampled at the block of 64 ids holding id and at the next id
+    // to reuse, so that it costs O(1); see Shelf.checkRep(BookCopy)
+    void checkRep(int id) {
+        assert words.length % STRIDE == 0 && words.length / STRIDE * 64L >= issued : "broken rep. invariant";
+        assert generations.length == words.length / STRIDE * 64 : "broken rep. invariant";
+        assert 0 <= available && available <= size && size + freeCount <= issued : "broken rep. invariant";
+        if (freeCount > 0) {
+            int next = free[freeCount - 1];
+            assert next >= 0 && next < issued && !get(OWNED, next) : "broken rep. invariant";
+            assert generations[next] < LAST_GENERATION : "broken rep. invariant";
+        }
+        if (id < 0 || id >= issued) return;
+        int block = (id >>> 6) * STRIDE;
+        assert (words[block + AVAILABLE] & ~words[block + OWNED]) == 0 : "broken rep. invariant";
+        if (id >>> 6 == issued >>> 6) {
+            long unissued = -1L << issued;
+            assert ((words[block + OWNED] | words[block + AVAILABLE] | words[block + DAMAGED]) & unissued) == 0
+                : "broken rep. invariant";
+        }
+        assert !get(AVAILABLE, id) || id >= firstAvailable : "broken rep. invariant";
+    }
+
+    private boolean get(int kind, int id) {
+        return (words[(id >>> 6) * STRIDE + kind] & (1L << id)) != 0;
+    }
+
+    private void set(int kind, int id) {
+        words[(id >>> 6) * STRIDE + kind] |= 1L << id;
+    }
+
+    private void clear(int kind, int id) {
+        words[(id >>> 6) * STRIDE + kind] &= ~(1L << id);
+    }
+
+    // the least id >= from whose bit of the given kind is set, or -1 if none
+    private int nextSet(int kind, int from) {
+        int block = from >>> 6;
+        if (block * STRIDE >= words.length) return -1;
+        long word = words[block * STRIDE + kind] & (-1L << from);
+        while (true) {
+            if (word != 0) return (block << 6) + Long.numberOfTrailingZeros(word);
+            if (++block * STRIDE >= words.length) return -1;
+            word = words[block * STRIDE + kind];
+        }
+    }
+
+    /**
+     * @return the Book whose copies are on this shelf
+     */
+    Book getBook() {
+        return book;
+    }
+
+    /**
+     * @param library a library
+     * @return true iff this shelf is a current shelf of library
+     */
+    boolean belongsTo(CompactLibrary library) {
+        return owner == library && !retired;
+    }
+
+    /**
+     * Detach this shelf from its library, which has removed it.  Ids it issued stay invalid
+     * for every operation except the condition accessors.
+     */
+    void retire() {
+        retired = true;
+    }
+
+    /**
+     * Add a new copy to this shelf as available and in good condition, under the id of a lost
+     * copy if there is one.
+     * @return the new copy's id
+     * @throws IllegalStateException if every int id is taken
+     */
+    int add() {
+        int id;
+        if (freeCount > 0) {
+            id = free[--freeCount];
+            generations[id]++;
+            clear(DAMAGED, id);
+        } else {
+            if (issued == MAX_IDS) throw new IllegalStateException("no copy ids left for " + book);
+            id = issued++;
+            int needed = ((id >>> 6) + 1) * STRIDE;
+            if (needed > words.length) {
+                words = Arrays.copyOf(words, Math.min(Math.max(needed, 2 * words.length), MAX_IDS / 64 * STRIDE));
+                generations = Arrays.copyOf(generations, words.length / STRIDE * 64);
+            }
+        }
+        set(OWNED, id);
+        set(AVAILABLE, id);
+        size++;
+        available++;
+        firstAvailable = Math.min(firstAvailable, id);
+        return id;
+    }
+
+    /**
+     * @param id copy id issued by this shelf
+     * @return the generation of id, which tells the copy now under id from the lost copies
+     *    that had it before
+     */
+    int generation(int id) {
+        return generations[id];
+    }
+
+    // true iff (id, generation) names the copy issued last under id
+    private boolean isCurrent(int id, int generation) {
+        return id >= 0 && id < issued && generations[id] == generation;
+    }
+
+    /**
+     * @param id copy id
+     * @param generation generation of the copy's handle
+     * @return true iff the copy is on this shelf, available or not
+     */
+    boolean isOwned(int id, int generation) {
+        return isCurrent(id, generation) && get(OWNED, id);
+    }
+
+    /**
+     * @param id copy id
+     * @param generation generation of the copy's handle
+     * @return true iff the copy is on this shelf and available
+     */
+    boolean isAvailable(int id, int generation) {
+        return isCurrent(id, generation) && get(AVAILABLE, id);
+    }
+
+    /**
+     * Move a copy from available to checked out.
+     * @param id copy id
+     * @param generation generation of the copy's handle
+     * @return true iff the copy was available on this shelf
+     */
+    boolean checkout(int id, int generation) {
+        if (!isAvailable(id, generation)) return false;
+        clear(AVAILABLE, id);
+        available--;
+        return true;
+    }
+
+    /**
+     * Check out the available copy with the lowest id.
+     * @return id of the copy now checked out, or -1 if no copy was available
+     */
+    int checkoutAny() {
+        int id = nextSet(AVAILABLE, firstAvailable);
+        if (id < 0) {
+            firstAvailable = issued;
+            return -1;
+        }
+        clear(AVAILABLE, id);
+        available--;
+        firstAvailable = id + 1;
+        return id;
+    }
+
+    /**
+     * Move a copy from checked out to available.
+     * @param id copy id
+     * @param generation generation of the copy's handle
+     * @return true iff the copy was checked out from this shelf
+     */
+    boolean checkin(int id, int generation) {
+        if (!isOwned(id, generation) || get(AVAILABLE, id)) return false;
+        set(AVAILABLE, id);
+        available++;
+        firstAvailable = Math.min(firstAvailable, id);
+        return true;
+    }
+
+    /**
+     * Remove a copy from this shelf, whether available or checked out.  Its id is reused by a
+     * later add(), unless its generation is used up.
+     * @param id copy id
+     * @param generation generation of the copy's handle
+     * @return true iff the copy was on this shelf
+     */
+    boolean remove(int id, int generation) {
+        if (!isOwned(id, generation)) return false;
+        if (get(AVAILABLE, id)) available--;
+        clear(OWNED, id);
+        clear(AVAILABLE, id);
+        size--;
+        if (generation < LAST_GENERATION) {
+            if (freeCount == free.length) free = Arrays.copyOf(free, Math.max(8, 2 * free.length));
+            free[freeCount++] = id;
+        }
+        return true;
+    }
+
+    /**
+     * @param id copy id issued by this shelf
+     * @param generation generation of the copy's handle
+     * @return true iff the condition of the copy is still recorded on this shelf, which it is
+     *    until its id is reused
+     */
+    boolean hasCondition(int id, int generation) {
+        return isCurrent(id, generation);
+    }
+
+    /**
+     * @param id copy id issued by this shelf, whose condition is still recorded here
+     * @return true iff the copy is damaged
+     */
+    boolean isDamaged(int id) {
+        return id >= 0 && id < issued && get(DAMAGED, id);
+    }
+
+    /**
+     * @param id copy id issued by this shelf, whose condition is still recorded here
+     * @param damaged true iff the copy is now damaged
+     */
+    void setDamaged(int id, boolean damaged) {
+        assert id >= 0 && id < issued : "spec. contract broken";
+        if (damaged) set(DAMAGED, id);
+        else clear(DAMAGED, id);
+    }
+
+    /**
+     * @param from least id to consider
+     * @return the least id >= from of a copy on this shelf, or -1 if none
+     */
+    int nextOwned(int from) {
+        return nextSet(OWNED, from);
+    }
+
+    /**
+     * @param from least id to consider
+     * @return the least id >= from of an available copy on this shelf, or -1 if none
+     */
+    int nextAvailable(int from) {
+        return nextSet(AVAILABLE, from);
+    }
+
+    /**
+     * @return number of copies on this shelf, available or checked out
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return number of available copies on this shelf
+     */
+    int availableCount() {
+        return available;
+    }
+
+    /**
+     * @return true iff this shelf holds no copies
+     */
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return an unmodifiable live view of the copies on this shelf, as handles made
+     *    while iterating
+     */
+    Set<BookCopy> allView() {
+        return new IdView(OWNED);
+    }
+
+    /**
+     * @return an unmodifiable live view of the available copies on this shelf, as handles
+     *    made while iterating
+     */
+    Set<BookCopy> availableView() {
+        return new IdView(AVAILABLE);
+    }
+
+    /**
+     * IdView is a live set of handles on the ids whose bit of one kind is set.
+     */
+    private class IdView extends AbstractSet<BookCopy> {
+        private final int kind;
+
+        IdView(int kind) {
+            this.kind = kind;
+        }
+
+        @Override
+        public int size() {
+            return kind == OWNED ? size : available;
+        }
+
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof CompactCopy)) return false;
+            CompactCopy copy = (CompactCopy) o;
+            int id = copy.getId();
+            return copy.getShelf() == CompactShelf.this && isCurrent(id, copy.getGeneration()) && get(kind, id);
+        }
+
+        @Override
+        public Iterator<BookCopy> iterator() {
+            return new Iterator<BookCopy>() {
+                private int next = nextSet(kind, 0);
+
+                public boolean hasNext() {
+                    return next >= 0;
+                }
+
+                public BookCopy next() {
+                    if (next < 0) throw new NoSuchElementException();
+                    BookCopy copy = new CompactCopy(CompactShelf.this, next);
+                    next = nextSet(kind, next + 1);
+                    return copy;
+                }
+            };
+        }
+    }
+}
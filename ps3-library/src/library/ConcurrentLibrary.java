@@ -0,0 +1,275 @@
+package library;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * ConcurrentLibrary is a thread-safe Library for collections shared by many threads, like the
+ * circulation desks of a library system.  Operations on copies of different books run in
+ * parallel.  Buying and losing copies of the same book are serialized, while checking copies
+ * out and in is lock-free, so even a hot title that every desk wants at once never
+ * serializes the library.
+ */
+public class ConcurrentLibrary implements Library {
+
+    // rep
+    private final ConcurrentMap<Book, ConcurrentShelf> shelves;
+    private final Object[] stripes;
+    private final TokenIndex index;
+    private final ReadWriteLock indexLock;
+
+    // rep invariant:
+    //    every shelf in shelves is nonempty, and is keyed by its own book
+    //    every shelf satisfies its own rep invariant (ConcurrentShelf.checkRep(copy))
+    //    index contains exactly the books that are keys of shelves
+    //    stripes.length is a power of 2
+    //
+    // abstraction function:
+    //    represents the collection of all copies on all shelves,
+    //      where a copy is available iff it is available on the shelf of its book,
+    //      and checked out otherwise
+    //
+    // safety from rep exposure:
+    //    all fields are private and final, and none of them are ever returned to clients;
+    //    allCopies() and availableCopies() return fresh sets built by the shelf, and
+    //      allCopiesView() and availableCopiesView() unmodifiable views built by the shelf;
+    //    Books are immutable, and BookCopys are intentionally shared with clients
+    //      because a copy's identity is what clients hand back to us.
+    //
+    // thread safety argument:
+    //    shelves is a thread-safe map, so looking up a shelf never needs a lock.
+    //    Copies are only added to or removed from a shelf, and a book is only added to or
+    //      removed from shelves and index, while holding the monitor of stripeFor(book).
+    //      So buy and lose on one book are serialized, as ConcurrentShelf requires, and
+    //      buy and lose on books in different stripes never contend.
+    //    checkout, checkin, checkoutAny and isAvailable take no lock: they rely on the
+    //      lock-free ConcurrentShelf.  If they race with lose of a book's last copy they
+    //      may see the old shelf, but its copies are all lost, so they find nothing to do.
+    //    index is only mutated while holding the write lock of indexLock, and only
+    //      read while holding its read lock.  A thread holding a stripe may acquire
+    //      indexLock, but never the other way around, so there is no deadlock.
+    //    Books are immutable, so they can be shared between threads.
+
+    /**
+     * Make an empty library with enough lock stripes for the processors of this machine.
+     */
+    public ConcurrentLibrary() {
+        this(16 * Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Make an empty library.
+     * @param concurrency expected number of threads using this library at once; must be positive.
+     *    Rounded up to a power of 2 to get the number of lock stripes.
+     */
+    public ConcurrentLibrary(int concurrency) {
+        assert concurrency > 0 : "spec. contract broken";
+        int stripeCount = 1;
+        while (stripeCount < concurrency) stripeCount <<= 1;
+        shelves = new ConcurrentHashMap<Book, ConcurrentShelf>();
+        stripes = new Object[stripeCount];
+        for (int i = 0; i < stripes.length; i++)
+            stripes[i] = new Object();
+        index = new TokenIndex();
+        indexLock = new ReentrantReadWriteLock();
+    }
+
+    // assert the rep invariant, sampled at the shelf of book and at copy there; requires
+    // holding stripeFor(book)
+    private void checkRep(Book book, BookCopy copy) {
+        assert Integer.bitCount(stripes.length) == 1 : "broken rep. invariant";
+        ConcurrentShelf shelf = shelves.get(book);
+        if (shelf == null) return;
+        assert !shelf.isEmpty() : "broken rep. invariant";
+        assert shelf.getBook().equals(book) : "broken rep. invariant";
+        shelf.checkRep(copy);
+    }
+
+    // the lock guarding the shelf of book
+    private Object stripeFor(Book book) {
+        int h = book.hashCode();
+        h ^= (h >>> 16);
+        return stripes[h & (stripes.length - 1)];
+    }
+
+    // the shelf of book, created and indexed if the library has no copies of book yet;
+    // requires holding stripeFor(book)
+    private ConcurrentShelf shelfFor(Book book) {
+        ConcurrentShelf shelf = shelves.get(book);
+        if (shelf == null) {
+            shelf = new ConcurrentShelf(book);
+            indexLock.writeLock().lock();
+            try {
+                index.add(book);
+            } finally {
+                indexLock.writeLock().unlock();
+            }
+            shelves.put(book, shelf);
+        }
+        return shelf;
+    }
+
+    @Override
+    public BookCopy buy(Book book) {
+        assert book != null : "spec. contract broken";
+        BookCopy copy = new BookCopy(book);
+        synchronized (stripeFor(book)) {
+            ConcurrentShelf shelf = shelfFor(book);
+            shelf.add(copy);
+            checkRep(book, copy);
+        }
+        return copy;
+    }
+
+    @Override
+    public List<BookCopy> buyAll(Book book, int count) {
+        assert book != null : "spec. contract broken";
+        assert count >= 0 : "spec. contract broken";
+        List<BookCopy> copies = new ArrayList<BookCopy>(count);
+        for (int i = 0; i < count; i++)
+            copies.add(new BookCopy(book));
+        if (count == 0) return copies;
+        synchronized (stripeFor(book)) {
+            ConcurrentShelf shelf = shelfFor(book);
+            for (BookCopy copy : copies)
+                shelf.add(copy);
+            checkRep(book, copies.get(count - 1));
+        }
+        return copies;
+    }
+    
+    @Override
+    public void checkout(BookCopy copy) {
+        assert copy != null : "spec. contract broken";
+        ConcurrentShelf shelf = shelves.get(copy.getBook());
+        if (shelf != null) shelf.checkout(copy);
+    }
+    
+    @Override
+    public BookCopy checkoutAny(Book book) {
+        assert book != null : "spec. contract broken";
+        ConcurrentShelf shelf = shelves.get(book);
+        return shelf == null ? null : shelf.checkoutAny();
+    }
+
+    @Override
+    public void checkin(BookCopy copy) {
+        assert copy != null : "spec. contract broken";
+        ConcurrentShelf shelf = shelves.get(copy.getBook());
+        if (shelf != null) shelf.checkin(copy);
+    }
+
+    @Override
+    public boolean isAvailable(BookCopy copy) {
+        assert copy != null : "spec. contract broken";
+        ConcurrentShelf shelf = shelves.get(copy.getBook());
+        return shelf != null && shelf.isAvailable(copy);
+    }
+
+    @Override
+    public Set<BookCopy> allCopies(Book book) {
+        assert book != null : "spec. contract broken";
+        ConcurrentShelf shelf = shelves.get(book);
+        return shelf == null ? new HashSet<BookCopy>() : shelf.allCopies();
+    }
+
+    @Override
+    public Set<BookCopy> availableCopies(Book book) {
+        assert book != null : "spec. contract broken";
+        ConcurrentShelf shelf = shelves.get(book);
+        return shelf == null ? new HashSet<BookCopy>() : shelf.availableCopies();
+    }
+
+    @Override
+    public int countCopies(Book book) {
+        assert book != null : "spec. contract broken";
+        ConcurrentShelf shelf = shelves.get(book);
+        return shelf == null ? 0 : shelf.size();
+    }
+
+    @Override
+    public int countAvailable(Book book) {
+        assert book != null : "spec. contract broken";
+        ConcurrentShelf shelf = shelves.get(book);
+        return shelf == null ? 0 : shelf.availableCount();
+    }
+
+    @Override
+    public Set<BookCopy> allCopiesView(final Book book) {
+        assert book != null : "spec. contract broken";
+        return new CopiesView() {
+            Set<BookCopy> current() {
+                ConcurrentShelf shelf = shelves.get(book);
+                return shelf == null ? Collections.<BookCopy>emptySet() : shelf.allView();
+            }
+        };
+    }
+
+    @Override
+    public Set<BookCopy> availableCopiesView(final Book book) {
+        assert book != null : "spec. contract broken";
+        return new CopiesView() {
+            Set<BookCopy> current() {
+                ConcurrentShelf shelf = shelves.get(book);
+                return shelf == null ? Collections.<BookCopy>emptySet() : shelf.availableView();
+            }
+        };
+    }
+
+    @Override
+    public List<Book> find(String query) {
+        assert query != null : "spec. contract broken";
+        indexLock.readLock().lock();
+        try {
+            return index.find(query);
+        } finally {
+            indexLock.readLock().unlock();
+        }
+    }
+
+    @Override
+    public List<Book> find(String query, int offset, int limit) {
+        assert query != null : "spec. contract broken";
+        assert offset >= 0 && limit >= 0 : "spec. contract broken";
+        if (limit == 0) return new ArrayList<Book>();
+        int k = (int) Math.min((long) offset + limit, Integer.MAX_VALUE);
+        List<TokenIndex.Hit> hits;
+        indexLock.readLock().lock();
+        try {
+            hits = index.search(query, k);
+        } finally {
+            indexLock.readLock().unlock();
+        }
+        List<Book> found = new ArrayList<Book>();
+        for (int i = offset; i < hits.size(); i++)
+            found.add(hits.get(i).book);
+        return found;
+    }
+
+    @Override
+    public void lose(BookCopy copy) {
+        assert copy != null : "spec. contract broken";
+        Book book = copy.getBook();
+        synchronized (stripeFor(book)) {
+            ConcurrentShelf shelf = shelves.get(book);
+            if (shelf == null || !shelf.remove(copy)) return;
+            if (shelf.isEmpty()) {
+                shelves.remove(book);
+                indexLock.writeLock().lock();
+                try {
+                    index.remove(book);
+                } finally {
+                    indexLock.writeLock().unlock();
+                }
+            }
+            checkRep(book, copy);
+        }
+    }
+}
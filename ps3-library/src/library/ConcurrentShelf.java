@@ -0,0 +1,366 @@
+package library;
+
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ConcurrentShelf is a thread-safe registry of the copies of one Book owned by a library.
+ * Checking copies out and in is lock-free: every copy has an atomic state, and the copies
+ * that may be available are kept in a lock-free stack, so checkoutAny() never blocks,
+ * even when many threads want the same book at once.
+ *
+ * Adding and removing copies must be serialized by the caller.
+ */
+class ConcurrentShelf {
+
+    private static final int AVAILABLE = 0;
+    private static final int CHECKED_OUT = 1;
+    private static final int LOST = 2;
+
+    /**
+     * Slot is the mutable state of one copy on this shelf.
+     */
+    private static final class Slot {
+        private static final AtomicIntegerFieldUpdater<Slot> STATE =
+                AtomicIntegerFieldUpdater.newUpdater(Slot.class, "state");
+        private static final AtomicIntegerFieldUpdater<Slot> POOLED =
+                AtomicIntegerFieldUpdater.newUpdater(Slot.class, "pooled");
+
+        final BookCopy copy;
+        volatile int state;   // AVAILABLE, CHECKED_OUT or LOST
+        volatile int pooled;  // 1 iff a node for this slot is on the pool stack
+
+        Slot(BookCopy copy) {
+            this.copy = copy;
+            this.state = AVAILABLE;
+            this.pooled = 1;
+        }
+
+        boolean transition(int from, int to) {
+            return STATE.compareAndSet(this, from, to);
+        }
+    }
+
+    /**
+     * Node is an immutable cell of the pool stack.
+     */
+    private static final class Node {
+        final Slot slot;
+        final Node next;
+
+        Node(Slot slot, Node next) {
+            this.slot = slot;
+            this.next = next;
+        }
+    }
+
+    // rep
+    private final Book book;
+    private final ConcurrentMap<BookCopy, Slot> slots;
+    private final AtomicReference<Node> pool;
+    private final LongAdder available;
+    private int stale;
+
+    // rep invariant:
+    //    every key of slots is a copy of book, and maps to the slot of that copy
+    //    no slot in slots is LOST
+    //    every slot appears on the pool stack at most once, and appears iff its pooled flag is 1
+    //    every AVAILABLE slot either has pooled = 1, or is held by a checkoutAny()
+    //      that has popped it and has not yet tried to check it out
+    //    once every operation in progress has returned, available sums to the number of
+    //      AVAILABLE slots
+    //    stale >= 0, and bounds the number of LOST slots on the pool stack removed since it
+    //      was last unlinked from them
+    //
+    // abstraction function:
+    //    represents the copies of book owned by a library, the keys of slots,
+    //      where a copy is available iff its slot is AVAILABLE, and checked out otherwise.
+    //    The pool stack is a superset of the available copies: it may also hold slots
+    //      that were checked out or lost directly, which checkoutAny() skips and drops.
+    //      There is at most one node per slot, so the slots checked out directly are bounded
+    //      by the copies; the lost ones are unlinked by remove() once they outnumber them.
+    //
+    // safety from rep exposure:
+    //    all fields are private and final;
+    //    book is an immutable Book;
+    //    Slots and Nodes never leave this class;
+    //    allCopies() and availableCopies() return fresh sets, and allView() and
+    //      availableView() unmodifiable views that never expose a Slot.
+    //    Copies are intentionally shared: a BookCopy is the identity clients hand back to us.
+    //
+    // thread safety argument:
+    //    slots is a thread-safe map.  add() and remove() are serialized by the caller, and
+    //      stale is only used by remove().
+    //    A copy's state only changes by compare-and-set, so two threads can never both
+    //      check out (or both check in) the same copy.
+    //    The pool is a Treiber stack: push and pop are single compare-and-sets on pool.
+    //      Nodes are never reused, so a successful compare-and-set cannot suffer ABA.
+    //    A popped slot has its pooled flag cleared before its state is tested, so a
+    //      concurrent checkin() either sees pooled = 0 and pushes the slot back, or sees
+    //      pooled = 1 and leaves the AVAILABLE slot for the popping thread to take.
+    //    unlinkLost() swaps in a fresh copy of the stack without its LOST slots by one
+    //      compare-and-set, which fails if a push or pop came first.  A LOST slot is no longer
+    //      in slots, so no checkin() can make it available again or push it.
+    //    available is a LongAdder, so counting never contends on a hot title; it is
+    //      adjusted only by the thread whose add or compare-and-set changed a slot to or
+    //      from AVAILABLE, and remove() changes a slot to LOST with getAndSet, so each
+    //      transition is counted exactly once.
+
+    /**
+     * Make an empty shelf.
+     * @param book Book whose copies this shelf holds
+     */
+    ConcurrentShelf(Book book) {
+        assert book != null : "spec. contract broken";
+        this.book = book;
+        this.slots = new ConcurrentHashMap<BookCopy, Slot>();
+        this.pool = new AtomicReference<Node>();
+        this.available = new LongAdder();
+    }
+
+    // assert the rep invariant, sampled at copy, if not null, and at the top of the pool, so
+    // that it costs O(1); see Shelf.checkRep(BookCopy).
+    // Concurrent checkouts and checkins may be running, so only the parts of the
+    // invariant that they cannot change are checked.
+    void checkRep(BookCopy copy) {
+        if (copy != null) checkRepAt(copy);
+        Node head = pool.get();
+        if (head != null) assert head.slot.copy.getBook().equals(book) : "broken rep. invariant";
+    }
+
+    // assert the rep invariant for the slot of copy, if it is on this shelf
+    private void checkRepAt(BookCopy copy) {
+        Slot slot = slots.get(copy);
+        if (slot == null) return;
+        assert copy.getBook().equals(book) : "broken rep. invariant";
+        assert slot.copy == copy : "broken rep. invariant";
+        assert slot.state != LOST : "broken rep. invariant";
+    }
+
+    /**
+     * @return the Book whose copies are on this shelf
+     */
+    Book getBook() {
+        return book;
+    }
+
+    private void push(Slot slot) {
+        Node head;
+        do {
+            head = pool.get();
+        } while (!pool.compareAndSet(head, new Node(slot, head)));
+    }
+
+    private Slot pop() {
+        Node head;
+        do {
+            head = pool.get();
+            if (head == null) return null;
+        } while (!pool.compareAndSet(head, head.next));
+        return head.slot;
+    }
+
+    /**
+     * Add a new copy to this shelf as available.  Calls to add() and remove() must be serialized.
+     * @param copy copy of this shelf's book, not already on this shelf
+     */
+    void add(BookCopy copy) {
+        assert copy.getBook().equals(book) : "spec. contract broken";
+        Slot slot = new Slot(copy);
+        slots.put(copy, slot);
+        available.increment();
+        push(slot);
+    }
+
+    /**
+     * Move a copy from available to checked out.
+     * @param copy copy to check out
+     * @return true iff the copy was available on this shelf
+     */
+    boolean checkout(BookCopy copy) {
+        Slot slot = slots.get(copy);
+        if (slot == null || !slot.transition(AVAILABLE, CHECKED_OUT)) return false;
+        available.decrement();
+        return true;
+    }
+
+    /**
+     * Check out some available copy, without blocking.
+     * @return a copy that was available on this shelf and is now checked out,
+     *    or null if no copy was available
+     */
+    BookCopy checkoutAny() {
+        for (Slot slot = pop(); slot != null; slot = pop()) {
+            Slot.POOLED.set(slot, 0);
+            if (slot.transition(AVAILABLE, CHECKED_OUT)) {
+                available.decrement();
+                return slot.copy;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Move a copy from checked out to available.
+     * @param copy copy to check in
+     * @return true iff the copy was checked out from this shelf
+     */
+    boolean checkin(BookCopy copy) {
+        Slot slot = slots.get(copy);
+        if (slot == null || !slot.transition(CHECKED_OUT, AVAILABLE)) return false;
+        available.increment();
+        if (Slot.POOLED.compareAndSet(slot, 0, 1)) push(slot);
+        return true;
+    }
+
+    /**
+     * @param copy copy to test
+     * @return true iff copy is on this shelf and available
+     */
+    boolean isAvailable(BookCopy copy) {
+        Slot slot = slots.get(copy);
+        return slot != null && slot.state == AVAILABLE;
+    }
+
+    /**
+     * Remove a copy from this shelf, whether available or checked out.
+     * Calls to add() and remove() must be serialized.
+     * @param copy copy to remove
+     * @return true iff the copy was on this shelf
+     */
+    boolean remove(BookCopy copy) {
+        Slot slot = slots.remove(copy);
+        if (slot == null) return false;
+        if (Slot.STATE.getAndSet(slot, LOST) == AVAILABLE) available.decrement();
+        if (slot.pooled == 1 && ++stale > Math.max(16, slots.size()) && unlinkLost()) stale = 0;
+        return true;
+    }
+
+    // replace the pool stack with one without its LOST slots, in the same order; costs
+    // O(pool stack), which remove() amortizes over the removals that made the slots stale.
+    // Returns false, leaving the stack as it is, if another thread changed it meanwhile.
+    private boolean unlinkLost() {
+        Node head = pool.get();
+        int kept = 0;
+        for (Node node = head; node != null; node = node.next)
+            if (node.slot.state != LOST) kept++;
+        Slot[] live = new Slot[kept];
+        int i = 0;
+        for (Node node = head; node != null; node = node.next)
+            if (node.slot.state != LOST) live[i++] = node.slot;
+        Node fresh = null;
+        while (i > 0) fresh = new Node(live[--i], fresh);
+        return pool.compareAndSet(head, fresh);
+    }
+
+    /**
+     * @return number of nodes on the pool stack, for tests; costs O(pool stack)
+     */
+    int poolSize() {
+        int size = 0;
+        for (Node node = pool.get(); node != null; node = node.next)
+            size++;
+        return size;
+    }
+
+    /**
+     * @return number of copies on this shelf, available or checked out
+     */
+    int size() {
+        return slots.size();
+    }
+
+    /**
+     * @return number of available copies on this shelf, exact when no operation on it is
+     *    in progress
+     */
+    int availableCount() {
+        return (int) available.sum();
+    }
+
+    /**
+     * @return true iff this shelf holds no copies
+     */
+    boolean isEmpty() {
+        return slots.isEmpty();
+    }
+
+    /**
+     * @return a fresh set of all copies on this shelf
+     */
+    Set<BookCopy> allCopies() {
+        return new HashSet<BookCopy>(slots.keySet());
+    }
+
+    /**
+     * @return a fresh set of the copies on this shelf that were available while it was built
+     */
+    Set<BookCopy> availableCopies() {
+        Set<BookCopy> copies = new HashSet<BookCopy>();
+        for (Slot slot : slots.values())
+            if (slot.state == AVAILABLE) copies.add(slot.copy);
+        return copies;
+    }
+
+    /**
+     * @return an unmodifiable live view of all copies on this shelf, as weakly consistent
+     *    as iterating a ConcurrentHashMap
+     */
+    Set<BookCopy> allView() {
+        return Collections.unmodifiableSet(slots.keySet());
+    }
+
+    /**
+     * @return an unmodifiable live view of the available copies on this shelf; its iterator
+     *    returns copies that were available when it reached them
+     */
+    Set<BookCopy> availableView() {
+        return new AbstractSet<BookCopy>() {
+            @Override
+            public int size() {
+                return availableCount();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return o instanceof BookCopy && isAvailable((BookCopy) o);
+            }
+
+            @Override
+            public Iterator<BookCopy> iterator() {
+                final Iterator<Slot> all = slots.values().iterator();
+                return new Iterator<BookCopy>() {
+                    private BookCopy next = advance();
+
+                    private BookCopy advance() {
+                        while (all.hasNext()) {
+                            Slot slot = all.next();
+                            if (slot.state == AVAILABLE) return slot.copy;
+                        }
+                        return null;
+                    }
+
+                    public boolean hasNext() {
+                        return next != null;
+                    }
+
+                    public BookCopy next() {
+                        if (next == null) throw new NoSuchElementException();
+                        BookCopy copy = next;
+                        next = advance();
+                        return copy;
+                    }
+                };
+            }
+        };
+    }
+}
@@ -0,0 +1,45 @@
+package library;
+
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.Set;
+
+/**
+ * CopiesView is an unmodifiable, live view of some copies of a book in a library.  Every read
+ * goes to the set of copies the library holds at that moment, so the view never goes stale
+ * and never copies the library's own sets.  Like the views of java.util collections, a view
+ * must not be iterated while its library is modified.
+ */
+abstract class CopiesView extends AbstractSet<BookCopy> {
+
+    /**
+     * @return the copies this view shows right now.  May be a set inside the library's rep:
+     *    the view only reads it, and never hands it to clients.
+     */
+    abstract Set<BookCopy> current();
+
+    @Override
+    public int size() {
+        return current().size();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        return current().contains(o);
+    }
+
+    @Override
+    public Iterator<BookCopy> iterator() {
+        // wrap the iterator so that the inherited remove() throws UnsupportedOperationException
+        final Iterator<BookCopy> copies = current().iterator();
+        return new Iterator<BookCopy>() {
+            public boolean hasNext() {
+                return copies.hasNext();
+            }
+
+            public BookCopy next() {
+                return copies.next();
+            }
+        };
+    }
+}
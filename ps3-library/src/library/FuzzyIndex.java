@@ -0,0 +1,340 @@
+package library;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * FuzzyIndex is a mutable index of the vocabulary of a catalog, the distinct tokens of its
+ * titles and authors as TokenIndex splits them, for finding the tokens a misspelled word was
+ * meant to be.
+ *
+ * For each number of edits d that a misspelling of a token may have, the token is cut into
+ * d + 1 consecutive n-grams of nearly equal length, and indexed by each of them together with
+ * d, its position and the token's length.  A word within d edits of a token leaves at least
+ * one of those pieces untouched, except that a transposition across the end of a piece moves
+ * one character of it: so a lookup lists the tokens having a piece equal to a substring of
+ * the word near the same position, or equal to it with its last character swapped with the
+ * next one.  Only those tokens are verified, first against the set of characters of the word
+ * and then with a bounded Damerau-Levenshtein distance, so the cost of a lookup depends on
+ * how common pieces of the word are, not on the size of the vocabulary.  (Counting trigram
+ * overlap instead scans posting lists with thousands of tokens on a vocabulary of millions.)
+ */
+class FuzzyIndex {
+
+    // the most edits a misspelling may have
+    private static final int MOST_EDITS = 2;
+
+    // rep
+    private final Map<String, Integer> tokens;
+    private final Map<String, Postings> pieces;
+
+    // rep invariant:
+    //    every count in tokens is positive
+    //    token is in pieces.get(key) iff token is a key of tokens and key is in keysOf(token)
+    //    no Postings in pieces is empty
+    //
+    // abstraction function:
+    //    represents the vocabulary of a multiset of books: token t is in the vocabulary iff
+    //      tokens.get(t) books that have t are in the multiset, and that count is positive
+    //
+    // safety from rep exposure:
+    //    all fields are private and final, and never returned; expand() returns a fresh map
+    //      of immutable Strings.
+
+    /**
+     * Make an empty index.
+     */
+    FuzzyIndex() {
+        tokens = new HashMap<String, Integer>();
+        pieces = new HashMap<String, Postings>();
+    }
+
+    // assert the rep invariant for the given tokens
+    private void checkRep(Collection<String> touched) {
+        for (String token : touched) {
+            Integer count = tokens.get(token);
+            assert count == null || count > 0 : "broken rep. invariant";
+            for (String key : keysOf(token)) {
+                Postings having = pieces.get(key);
+                assert (count != null) == (having != null && having.contains(token)) : "broken rep. invariant";
+                assert having == null || having.size > 0 : "broken rep. invariant";
+            }
+        }
+    }
+
+    // true iff a word with maxEdits(word) == edits may be within that many edits of a token
+    // of the given length
+    private static boolean misspellable(int length, int edits) {
+        for (int n = Math.max(1, length - edits); n <= length + edits; n++)
+            if (maxEdits(n) == edits) return true;
+        return false;
+    }
+
+    // the key under which a token of the given length, cut for words with the given number
+    // of edits, is indexed by its piece-th piece
+    private static String key(int length, int edits, int piece, String chars) {
+        return new StringBuilder(chars.length() + 3).append((char) length).append((char) edits)
+                .append((char) piece).append(chars).toString();
+    }
+
+    // the keys under which token is indexed
+    private static List<String> keysOf(String token) {
+        int length = token.length();
+        List<String> keys = new ArrayList<String>();
+        for (int edits = 1; edits <= MOST_EDITS; edits++) {
+            if (!misspellable(length, edits)) continue;
+            int k = edits + 1;
+            for (int i = 0; i < k; i++)
+                keys.add(key(length, edits, i, token.substring(i * length / k, (i + 1) * length / k)));
+        }
+        return keys;
+    }
+
+    // the set of characters of s, counting characters alike modulo 64.  An edit adds at most
+    // one character to the set of a string that it lacks, and removes at most one.
+    private static long signature(String s) {
+        long signature = 0;
+        for (int i = 0; i < s.length(); i++)
+            signature |= 1L << (s.charAt(i) & 63);
+        return signature;
+    }
+
+    /**
+     * @param word a word of a query
+     * @return the number of edits a misspelling of word may have: none for words of up to
+     *    3 characters, 1 for words of up to 7, and 2 for longer words
+     */
+    static int maxEdits(String word) {
+        return maxEdits(word.length());
+    }
+
+    // the number of edits a misspelling of a word of this length may have
+    private static int maxEdits(int length) {
+        return length <= 3 ? 0 : length <= 7 ? 1 : MOST_EDITS;
+    }
+
+    /**
+     * Compute the optimal string alignment distance, the number of insertions, deletions,
+     * substitutions and transpositions of adjacent characters that turn one string into
+     * another, with no substring edited twice.
+     * @param a a string
+     * @param b a string
+     * @param max largest distance of interest; must be nonnegative
+     * @return the distance between a and b if it is at most max, otherwise max + 1
+     */
+    static int distance(String a, String b, int max) {
+        if (Math.abs(a.length() - b.length()) > max) return max + 1;
+        if (bagDistance(a, b) > max) return max + 1;
+        int[] previous = new int[b.length() + 1];
+        int[] current = new int[b.length() + 1];
+        int[] next = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++)
+            current[j] = j;
+        for (int i = 1; i <= a.length(); i++) {
+            int[] rotated = previous;
+            previous = current;
+            current = next;
+            next = rotated;
+            current[0] = i;
+            int rowMin = i;
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+                int d = Math.min(Math.min(previous[j] + 1, current[j - 1] + 1), previous[j - 1] + cost);
+                if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2) && a.charAt(i - 2) == b.charAt(j - 1))
+                    d = Math.min(d, next[j - 2] + 1);
+                current[j] = d;
+                rowMin = Math.min(rowMin, d);
+            }
+            if (rowMin > max) return max + 1;
+        }
+        return Math.min(current[b.length()], max + 1);
+    }
+
+    // a lower bound on the distance between a and b, counting characters alike modulo 64:
+    // the most characters either has that the other lacks.  An edit adds at most one to each
+    // side, and a transposition none.
+    private static int bagDistance(String a, String b) {
+        int[] counts = new int[64];
+        for (int i = 0; i < a.length(); i++)
+            counts[a.charAt(i) & 63]++;
+        for (int i = 0; i < b.length(); i++)
+            counts[b.charAt(i) & 63]--;
+        int surplus = 0;
+        int deficit = 0;
+        for (int count : counts)
+            if (count > 0) surplus += count;
+            else deficit -= count;
+        return Math.max(surplus, deficit);
+    }
+
+    /**
+     * Add a book's tokens to the vocabulary.
+     * @param book book to add
+     */
+    void add(Book book) {
+        Set<String> touched = TokenIndex.tokensOf(book);
+        for (String token : touched) {
+            Integer count = tokens.get(token);
+            tokens.put(token, count == null ? 1 : count + 1);
+            if (count != null) continue;
+            long signature = signature(token);
+            for (String key : keysOf(token)) {
+                Postings having = pieces.get(key);
+                if (having == null) {
+                    having = new Postings();
+                    pieces.put(key, having);
+                }
+                having.add(token, signature);
+            }
+        }
+        checkRep(touched);
+    }
+
+    /**
+     * Add several books' tokens to the vocabulary.
+     * @param books books to add
+     */
+    void addAll(Collection<Book> books) {
+        for (Book book : books)
+            add(book);
+    }
+
+    /**
+     * Remove a book's tokens from the vocabulary, as many times as it was added.
+     * @param book book to remove; must have been added and not removed since
+     */
+    void remove(Book book) {
+        Set<String> touched = TokenIndex.tokensOf(book);
+        for (String token : touched) {
+            Integer count = tokens.get(token);
+            if (count == null) continue;
+            if (count > 1) {
+                tokens.put(token, count - 1);
+                continue;
+            }
+            tokens.remove(token);
+            for (String key : keysOf(token)) {
+                Postings having = pieces.get(key);
+                having.remove(token);
+                if (having.size == 0) pieces.remove(key);
+            }
+        }
+        checkRep(touched);
+    }
+
+    /**
+     * Find the tokens of the vocabulary that a word may be a misspelling of.
+     * @param word a word of a query, as TokenIndex.tokenize returns
+     * @return the tokens of the vocabulary within maxEdits(word) edits of word, each mapped to
+     *    its distance from word
+     */
+    Map<String, Integer> expand(String word) {
+        Map<String, Integer> found = new HashMap<String, Integer>();
+        int max = maxEdits(word);
+        if (max == 0) {
+            if (tokens.containsKey(word)) found.put(word, 0);
+            return found;
+        }
+        int n = word.length();
+        long signature = signature(word);
+        Set<String> checked = new HashSet<String>();
+        for (int length = Math.max(1, n - max); length <= n + max; length++) {
+            int k = max + 1;
+            for (int i = 0; i < k; i++) {
+                int from = i * length / k;
+                int to = (i + 1) * length / k;
+                // the first untouched piece, the i-th, has exactly i edits before it, which move
+                // it by at most i, and at most max - i after it, which make up the rest of the
+                // difference in length (the multi-match-aware selection of Li et al.'s PassJoin)
+                int lowest = Math.max(-i, n - length - (max - i));
+                int highest = Math.min(i, n - length + (max - i));
+                for (int shift = lowest; shift <= highest; shift++)
+                    for (String chars : candidatePieces(word, from + shift, to - from, to < length))
+                        verify(word, signature, max, pieces.get(key(length, max, i, chars)), checked, found);
+            }
+        }
+        return found;
+    }
+
+    // the substrings of word that may be a piece of a token, found at start in word: the piece
+    // itself, and, if it has a border at its end, the piece with its last character transposed
+    // with the one across it.  (A piece with a transposition across its start needs no lookup:
+    // counting that edit against it, d edits leave one of d + 1 pieces untouched but for
+    // a transposition across its end.)
+    private static List<String> candidatePieces(String word, int start, int size, boolean tail) {
+        List<String> result = new ArrayList<String>(2);
+        int end = start + size;
+        if (start < 0 || end > word.length()) return result;
+        result.add(word.substring(start, end));
+        if (tail && end < word.length())
+            result.add(word.substring(start, end - 1) + word.charAt(end));
+        return result;
+    }
+
+    // verify the tokens not checked yet of having against word, whose signature is given,
+    // putting those within max edits of it in found
+    private static void verify(String word, long signature, int max, Postings having,
+            Set<String> checked, Map<String, Integer> found) {
+        if (having == null) return;
+        for (int i = 0; i < having.size; i++) {
+            long other = having.signatures[i];
+            if (Long.bitCount(signature & ~other) > max || Long.bitCount(other & ~signature) > max)
+                continue;
+            String token = having.tokens[i];
+            if (!checked.add(token)) continue;
+            int d = distance(word, token, max);
+            if (d <= max) found.put(token, d);
+        }
+    }
+
+    /**
+     * Postings is the mutable list of the tokens indexed by a piece, each with its signature,
+     * kept in arrays so that most tokens are ruled out without following a reference.
+     */
+    private static class Postings {
+
+        // rep
+        private String[] tokens = new String[2];
+        private long[] signatures = new long[2];
+        private int size;
+
+        // rep invariant:
+        //    tokens[0..size) are distinct and non-null, and signatures[i] == signature(tokens[i])
+
+        // add a token not in this list
+        void add(String token, long signature) {
+            if (size == tokens.length) {
+                tokens = Arrays.copyOf(tokens, size * 2);
+                signatures = Arrays.copyOf(signatures, size * 2);
+            }
+            tokens[size] = token;
+            signatures[size] = signature;
+            size++;
+        }
+
+        // remove a token, if it is in this list
+        void remove(String token) {
+            for (int i = 0; i < size; i++)
+                if (tokens[i].equals(token)) {
+                    size--;
+                    tokens[i] = tokens[size];
+                    signatures[i] = signatures[size];
+                    tokens[size] = null;
+                    return;
+                }
+        }
+
+        // true iff token is in this list
+        boolean contains(String token) {
+            for (int i = 0; i < size; i++)
+                if (tokens[i].equals(token)) return true;
+            return false;
+        }
+    }
+}
@@ -0,0 +1,692 @@
+package library;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * JournalingLibrary is a thread-safe Library whose buy, checkout, checkin and lose operations
+ * survive a crash.  It keeps a BigLibrary in memory and appends a compact binary record of every
+ * change to a write-ahead journal before the operation returns (subject to its Durability).
+ *
+ * Its directory holds the latest CatalogSnapshot, "snapshot-N", and the journal of changes made
+ * since, "journal-N".  Opening the directory loads the snapshot and replays the journal on top of
+ * it; checkpoint() saves a new snapshot and starts an empty journal.  A torn record at the end of
+ * the journal, from a crash in the middle of a write, is detected by its checksum and discarded.
+ *
+ * Copies are named in the journal by their book and an ordinal: the copies in a snapshot are
+ * numbered in the order the snapshot saves them, and every copy bought since gets the next number.
+ */
+public class JournalingLibrary implements Library, Closeable {
+
+    /**
+     * When a mutating operation returns, relative to its journal record reaching the disk.
+     */
+    public static enum Durability {
+        /** Each operation forces its own record to disk before returning.  Operations are serialized. */
+        SYNC,
+        /** Each operation returns once its record is on disk, and concurrent operations share one force. */
+        GROUP,
+        /** Operations return at once, and records are forced in the background every few
+         *  milliseconds, so a crash may lose the last few operations. */
+        ASYNC
+    }
+
+    private static final long ASYNC_FLUSH_MILLIS = 10;
+    private static final Pattern FILE_NAME = Pattern.compile("(snapshot|journal)-(\\d+)");
+
+    // journal record types; a record is framed as (int length, payload, int CRC32 of payload)
+    // strings are written as (int length, UTF-8 bytes), as in a CatalogSnapshot
+    private static final byte DEFINE = 0;    // int bookId, string title, int authorCount, string authors..., int year
+    private static final byte BUY = 1;       // int bookId, int ordinal
+    private static final byte CHECKOUT = 2;  // int bookId, int ordinal
+    private static final byte CHECKIN = 3;   // int bookId, int ordinal
+    private static final byte LOSE = 4;      // int bookId, int ordinal
+    private static final int MAX_RECORD = 1 << 20;
+
+    // rep
+    private final Path directory;
+    private final Durability durability;
+    private final BigLibrary library;
+    private final Map<Book, List<BookCopy>> numbered;
+    private final Map<BookCopy, Integer> ordinals;
+    private final Map<Book, Integer> bookIds;
+    private final ByteArrayOutputStream record;
+    private final ByteArrayOutputStream pending;
+    private final Thread flusher;
+    private long generation;
+    private FileChannel journal;
+    private long appended;
+    private long durable;
+    private boolean flushing;
+    private boolean closed;
+    private IOException failure;
+
+    // rep invariant:
+    //    for every book in numbered, numbered.get(book) holds at index i the copy with ordinal i,
+    //      or null if that copy was lost, and ordinals maps each non-null copy back to its index
+    //    ordinals only holds copies of books in numbered
+    //    bookIds maps the books defined in journal-generation to distinct ids 0..bookIds.size()-1
+    //    0 <= durable <= appended, and pending holds the last (appended - durable) journal bytes,
+    //      less any batch a flushing thread is writing out
+    //    flusher is non-null iff durability is ASYNC
+    //
+    // abstraction function:
+    //    represents the library whose copies are library's copies.  On disk, snapshot-generation
+    //      with journal-generation replayed on top of it represents the same library as of its
+    //      last durable operation.
+    //
+    // safety from rep exposure:
+    //    all fields are private and never returned to clients;
+    //    library only returns fresh sets and lists, and shares BookCopys on purpose.
+    //
+    // thread safety argument:
+    //    every field except the final ones is guarded by this object's lock, and so is every
+    //      access to library, numbered, ordinals, bookIds, record and pending.
+    //    The only I/O done without the lock is the thread that sets flushing writing the batch it
+    //      took from pending to journal, which no other thread writes while flushing is true.
+    //    The copies views are Library's defaults, so every read of one goes through the
+    //      synchronized allCopies() or availableCopies(), never to library's shelves directly.
+    //
+    // performance:
+    //    each operation costs one BigLibrary operation plus a record of about 20 bytes.
+    //      SYNC pays one force per operation while holding the lock; GROUP releases the lock
+    //      before forcing, so the threads that append meanwhile share the next force.
+
+    /**
+     * Open a journaling library, recovering its state from a directory.
+     * @param directory directory holding the library's snapshot and journal; created if needed
+     * @param durability when operations return relative to their records reaching the disk
+     * @return the library as of the latest snapshot, with the journal replayed on top
+     * @throws IOException if the directory cannot be read, or a snapshot in it is corrupt
+     */
+    public static JournalingLibrary open(Path directory, Durability durability) throws IOException {
+        Files.createDirectories(directory);
+        long generation = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                Matcher m = FILE_NAME.matcher(file.getFileName().toString());
+                if (m.matches() && m.group(1).equals("snapshot"))
+                    generation = Math.max(generation, Long.parseLong(m.group(2)));
+            }
+        }
+        BigLibrary library = generation == 0
+                ? new BigLibrary()
+                : CatalogSnapshot.load(directory.resolve("snapshot-" + generation));
+        return new JournalingLibrary(directory, durability, generation, library);
+    }
+
+    private JournalingLibrary(Path directory, Durability durability, long generation, BigLibrary library)
+            throws IOException {
+        this.directory = directory;
+        this.durability = durability;
+        this.generation = generation;
+        this.library = library;
+        this.numbered = new HashMap<Book, List<BookCopy>>();
+        this.ordinals = new HashMap<BookCopy, Integer>();
+        this.bookIds = new HashMap<Book, Integer>();
+        this.record = new ByteArrayOutputStream();
+        this.pending = new ByteArrayOutputStream();
+
+        Path path = journalPath(generation);
+        long length = Files.exists(path) ? replay(path) : 0;
+        this.journal = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+        journal.truncate(length);
+        journal.position(length);
+        deleteOtherGenerations();
+
+        if (durability == Durability.ASYNC) {
+            this.flusher = new Thread(new Runnable() {
+                public void run() {
+                    flushPeriodically();
+                }
+            }, "journal flusher " + directory);
+            flusher.setDaemon(true);
+            flusher.start();
+        } else {
+            this.flusher = null;
+        }
+        checkRep();
+    }
+
+    // assert the rep invariant, except the per-copy parts, which would take linear time
+    private synchronized void checkRep() {
+        assert 0 <= durable && durable <= appended : "broken rep. invariant";
+        assert (flusher != null) == (durability == Durability.ASYNC) : "broken rep. invariant";
+        assert pending.size() <= appended - durable : "broken rep. invariant";
+        assert ordinals.isEmpty() || !numbered.isEmpty() : "broken rep. invariant";
+    }
+
+    private Path journalPath(long generation) {
+        return directory.resolve("journal-" + generation);
+    }
+
+    // delete snapshots, journals and temp files left over from other generations
+    private void deleteOtherGenerations() throws IOException {
+        List<Path> stale = new ArrayList<Path>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory)) {
+            for (Path file : files) {
+                String name = file.getFileName().toString();
+                Matcher m = FILE_NAME.matcher(name);
+                if (m.matches() ? Long.parseLong(m.group(2)) != generation : name.endsWith(".tmp"))
+                    stale.add(file);
+            }
+        }
+        for (Path file : stale)
+            Files.deleteIfExists(file);
+    }
+
+    //////////////////////////////////////////////////////////////
+    // replay
+
+    // replay a journal onto library; returns the length of its intact prefix
+    private long replay(Path path) throws IOException {
+        List<Book> books = new ArrayList<Book>();
+        long length = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+            while (true) {
+                byte[] payload;
+                int checksum;
+                try {
+                    int size = in.readInt();
+                    if (size <= 0 || size > MAX_RECORD) break;
+                    payload = new byte[size];
+                    in.readFully(payload);
+                    checksum = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                if (checksum != crc(payload, payload.length)) break;
+                apply(new DataInputStream(new ByteArrayInputStream(payload)), books);
+                length += payload.length + 8;
+            }
+        }
+        appended = durable = length;
+        return length;
+    }
+
+    // apply one journal record to library
+    private void apply(DataInputStream in, List<Book> books) throws IOException {
+        byte type = in.readByte();
+        if (type == DEFINE) {
+            int id = in.readInt();
+            String title = readString(in);
+            int authorCount = in.readInt();
+            if (authorCount < 0 || authorCount > MAX_RECORD) throw new IOException("corrupt journal: " + authorCount + " authors");
+            List<String> authors = new ArrayList<String>(authorCount);
+            for (int i = 0; i < authorCount; i++)
+                authors.add(readString(in));
+            Book book = new Book(title, authors, in.readInt());
+            if (id != books.size()) throw new IOException("corrupt journal: book " + id + " out of order");
+            books.add(book);
+            bookIds.put(book, id);
+            return;
+        }
+        int id = in.readInt();
+        int ordinal = in.readInt();
+        if (id < 0 || id >= books.size()) throw new IOException("corrupt journal: undefined book " + id);
+        Book book = books.get(id);
+        List<BookCopy> copies = numbered(book);
+        if (type == BUY) {
+            if (ordinal != copies.size()) throw new IOException("corrupt journal: copy " + ordinal + " out of order");
+            bought(library.buy(book));
+            return;
+        }
+        BookCopy copy = ordinal >= 0 && ordinal < copies.size() ? copies.get(ordinal) : null;
+        if (copy == null) throw new IOException("corrupt journal: no copy " + ordinal + " of " + book);
+        switch (type) {
+        case CHECKOUT: library.checkout(copy); break;
+        case CHECKIN: library.checkin(copy); break;
+        case LOSE: library.lose(copy); lost(copy); break;
+        default: throw new IOException("corrupt journal: record type " + type);
+        }
+    }
+
+    //////////////////////////////////////////////////////////////
+    // copy ordinals
+
+    // the copies of book by ordinal, numbering them on first use.  Must be called before the
+    // first change to book since the last snapshot, while its copies are still in snapshot order.
+    private List<BookCopy> numbered(Book book) {
+        List<BookCopy> copies = numbered.get(book);
+        if (copies == null) {
+            copies = library.copiesInOrder(book);
+            for (int i = 0; i < copies.size(); i++)
+                ordinals.put(copies.get(i), i);
+            numbered.put(book, copies);
+        }
+        return copies;
+    }
+
+    // the ordinal of copy, or -1 if it is not a copy in this library
+    private int ordinalOf(BookCopy copy) {
+        numbered(copy.getBook());
+        Integer ordinal = ordinals.get(copy);
+        return ordinal == null ? -1 : ordinal;
+    }
+
+    // number a newly bought copy; its book must already be numbered
+    private int bought(BookCopy copy) {
+        List<BookCopy> copies = numbered.get(copy.getBook());
+        ordinals.put(copy, copies.size());
+        copies.add(copy);
+        return copies.size() - 1;
+    }
+
+    // forget the ordinal of a lost copy, without reusing it
+    private void lost(BookCopy copy) {
+        Integer ordinal = ordinals.remove(copy);
+        if (ordinal != null) numbered.get(copy.getBook()).set(ordinal, null);
+    }
+
+    //////////////////////////////////////////////////////////////
+    // appending and committing
+
+    // Encode the records of an operation on the copy of book with the given ordinal, preceded by
+    // the definition of book if it has no id yet; must hold the lock.  Changes nothing, so an
+    // operation encodes its records before changing library, and a book that cannot be
+    // journaled is rejected before any change is made.
+    // Returns the records, each framed with its length and checksum, for append().
+    private byte[] encode(byte type, Book book, int ordinal) {
+        if (failure != null) throw new UncheckedIOException("journal failed", failure);
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        try {
+            Integer id = bookIds.get(book);
+            if (id == null) {
+                id = bookIds.size();
+                DataOutputStream out = new DataOutputStream(record);
+                out.writeByte(DEFINE);
+                out.writeInt(id);
+                writeString(out, book.getTitle());
+                out.writeInt(book.authorCount());
+                for (int i = 0; i < book.authorCount(); i++)
+                    writeString(out, book.getAuthor(i));
+                out.writeInt(book.getYear());
+                frame(records);
+            }
+            DataOutputStream out = new DataOutputStream(record);
+            out.writeByte(type);
+            out.writeInt(id);
+            out.writeInt(ordinal);
+            frame(records);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);  // can't happen: writes to memory
+        } finally {
+            record.reset();
+        }
+        return records.toByteArray();
+    }
+
+    // append records made by encode() for an operation on book, defining book's id if the
+    // records did; must hold the lock.  Returns the journal position just after the records.
+    private long append(byte[] records, Book book) {
+        if (!bookIds.containsKey(book)) bookIds.put(book, bookIds.size());
+        pending.write(records, 0, records.length);
+        appended += records.length;
+        return appended;
+    }
+
+    // move the record under construction into records, with its length and checksum
+    private void frame(ByteArrayOutputStream records) throws IOException {
+        if (record.size() > MAX_RECORD)
+            throw new IllegalArgumentException("a record of " + record.size() + " bytes is too large to journal");
+        DataOutputStream out = new DataOutputStream(records);
+        out.writeInt(record.size());
+        record.writeTo(out);
+        out.writeInt(crc(record.toByteArray(), record.size()));
+        record.reset();
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > MAX_RECORD) throw new IOException("corrupt journal: string of " + length + " bytes");
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int crc(byte[] bytes, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, length);
+        return (int) crc.getValue();
+    }
+
+    // Wait for the records up to position to be durable, as durability requires.  Every mutating
+    // operation calls this twice: once while still holding the lock, which is when SYNC waits,
+    // and once after releasing it, which is when GROUP waits.
+    private void commit(long position, boolean locked) {
+        if (durability == (locked ? Durability.SYNC : Durability.GROUP))
+            awaitDurable(position);
+    }
+
+    // Block until the journal is durable up to position.  The first thread to find no flush in
+    // progress becomes the leader: it takes everything pending, writes and forces it without
+    // holding the lock, and wakes the others, whose records are then usually durable too.
+    private void awaitDurable(long position) {
+        byte[] batch;
+        long end;
+        synchronized (this) {
+            while (true) {
+                if (failure != null) throw new UncheckedIOException("journal failed", failure);
+                if (durable >= position) return;
+                if (!flushing) break;
+                waitUninterruptibly();
+            }
+            flushing = true;
+            batch = pending.toByteArray();
+            pending.reset();
+            end = appended;
+        }
+        IOException error = null;
+        try {
+            ByteBuffer buffer = ByteBuffer.wrap(batch);
+            while (buffer.hasRemaining())
+                journal.write(buffer);
+            journal.force(false);
+        } catch (IOException e) {
+            error = e;
+        }
+        synchronized (this) {
+            flushing = false;
+            if (error == null) durable = Math.max(durable, end);
+            else failure = error;
+            notifyAll();
+        }
+        if (error != null) throw new UncheckedIOException("journal failed", error);
+    }
+
+    // wait on this object's lock, which must be held, ignoring interrupts until woken
+    private void waitUninterruptibly() {
+        boolean interrupted = false;
+        try {
+            wait();
+        } catch (InterruptedException e) {
+            interrupted = true;
+        }
+        if (interrupted) Thread.currentThread().interrupt();
+    }
+
+    // body of the ASYNC flusher thread
+    private void flushPeriodically() {
+        while (true) {
+            try {
+                Thread.sleep(ASYNC_FLUSH_MILLIS);
+            } catch (InterruptedException e) {
+                // close() interrupts us; fall through to check closed
+            }
+            long position;
+            synchronized (this) {
+                if (closed) return;
+                position = appended;
+            }
+            try {
+                awaitDurable(position);
+            } catch (UncheckedIOException e) {
+                return;  // failure is recorded, and thrown by the next operation
+            }
+        }
+    }
+
+    // wait until no thread is flushing, then make everything appended durable; must hold the lock
+    private void flushLocked() {
+        while (flushing) waitUninterruptibly();
+        awaitDurable(appended);
+    }
+
+    //////////////////////////////////////////////////////////////
+    // snapshots and shutdown
+
+    /**
+     * Save a snapshot of this library and start a new, empty journal, so that recovery no longer
+     * needs to replay the operations so far.  Blocks other operations while saving.
+     * @throws IOException if the snapshot cannot be written; the library is then still recoverable
+     *    from the previous snapshot and journal
+     */
+    public synchronized void checkpoint() throws IOException {
+        while (flushing) waitUninterruptibly();
+        long next = generation + 1;
+        CatalogSnapshot.save(library, directory.resolve("snapshot-" + next));
+        // every operation appended so far is in the snapshot, so pending records are durable now
+        FileChannel nextJournal = FileChannel.open(journalPath(next),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        journal.close();
+        journal = nextJournal;
+        generation = next;
+        pending.reset();
+        durable = appended;
+        numbered.clear();
+        ordinals.clear();
+        bookIds.clear();
+        notifyAll();
+        deleteOtherGenerations();
+        checkRep();
+    }
+
+    /**
+     * Make every operation so far durable and close the journal.  The library must not be used
+     * afterwards.
+     * @throws IOException if the journal cannot be written or closed
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+            try {
+                flushLocked();
+            } catch (UncheckedIOException e) {
+                journal.close();
+                throw e.getCause();
+            }
+            journal.close();
+        }
+        if (flusher != null) flusher.interrupt();
+    }
+
+    //////////////////////////////////////////////////////////////
+    // Library operations
+
+    @Override
+    public BookCopy buy(Book book) {
+        assert book != null : "spec. contract broken";
+        BookCopy copy;
+        long position;
+        synchronized (this) {
+            byte[] records = encode(BUY, book, numbered(book).size());
+            copy = library.buy(book);
+            bought(copy);
+            position = append(records, book);
+            commit(position, true);
+        }
+        commit(position, false);
+        return copy;
+    }
+
+    @Override
+    public List<BookCopy> buyAll(Book book, int count) {
+        assert count >= 0 : "spec. contract broken";
+        return buyAll(Collections.nCopies(count, book));
+    }
+
+    @Override
+    public List<BookCopy> buyAll(Collection<Book> books) {
+        List<BookCopy> copies = new ArrayList<BookCopy>(books.size());
+        long position = 0;
+        synchronized (this) {
+            // reject a book that cannot be journaled before buying any of the batch
+            for (Book book : books) {
+                assert book != null : "spec. contract broken";
+                if (!bookIds.containsKey(book)) encode(BUY, book, 0);
+            }
+            for (Book book : books) {
+                byte[] records = encode(BUY, book, numbered(book).size());
+                BookCopy copy = library.buy(book);
+                bought(copy);
+                position = append(records, book);
+                copies.add(copy);
+            }
+            commit(position, true);
+        }
+        commit(position, false);
+        return copies;
+    }
+
+    @Override
+    public void checkout(BookCopy copy) {
+        assert copy != null : "spec. contract broken";
+        long position = 0;
+        synchronized (this) {
+            int ordinal = ordinalOf(copy);
+            byte[] records = ordinal >= 0 ? encode(CHECKOUT, copy.getBook(), ordinal) : null;
+            library.checkout(copy);
+            if (records != null) position = append(records, copy.getBook());
+            commit(position, true);
+        }
+        commit(position, false);
+    }
+
+    @Override
+    public void checkoutAll(Collection<BookCopy> copies) {
+        long position = 0;
+        synchronized (this) {
+            for (BookCopy copy : copies) {
+                assert copy != null : "spec. contract broken";
+                int ordinal = ordinalOf(copy);
+                byte[] records = ordinal >= 0 ? encode(CHECKOUT, copy.getBook(), ordinal) : null;
+                library.checkout(copy);
+                if (records != null) position = append(records, copy.getBook());
+            }
+            commit(position, true);
+        }
+        commit(position, false);
+    }
+
+    @Override
+    public BookCopy checkoutAny(Book book) {
+        assert book != null : "spec. contract broken";
+        BookCopy copy;
+        long position = 0;
+        synchronized (this) {
+            numbered(book);
+            // the copy is not known until it is checked out, so check that book can be
+            // journaled first; encoding its record afterwards then cannot fail
+            encode(CHECKOUT, book, 0);
+            copy = library.checkoutAny(book);
+            if (copy != null) position = append(encode(CHECKOUT, book, ordinals.get(copy)), book);
+            commit(position, true);
+        }
+        commit(position, false);
+        return copy;
+    }
+
+    @Override
+    public void checkin(BookCopy copy) {
+        assert copy != null : "spec. contract broken";
+        long position = 0;
+        synchronized (this) {
+            int ordinal = ordinalOf(copy);
+            byte[] records = ordinal >= 0 ? encode(CHECKIN, copy.getBook(), ordinal) : null;
+            library.checkin(copy);
+            if (records != null) position = append(records, copy.getBook());
+            commit(position, true);
+        }
+        commit(position, false);
+    }
+
+    @Override
+    public void checkinAll(Collection<BookCopy> copies) {
+        long position = 0;
+        synchronized (this) {
+            for (BookCopy copy : copies) {
+                assert copy != null : "spec. contract broken";
+                int ordinal = ordinalOf(copy);
+                byte[] records = ordinal >= 0 ? encode(CHECKIN, copy.getBook(), ordinal) : null;
+                library.checkin(copy);
+                if (records != null) position = append(records, copy.getBook());
+            }
+            commit(position, true);
+        }
+        commit(position, false);
+    }
+
+    @Override
+    public void lose(BookCopy copy) {
+        assert copy != null : "spec. contract broken";
+        long position = 0;
+        synchronized (this) {
+            int ordinal = ordinalOf(copy);
+            byte[] records = ordinal >= 0 ? encode(LOSE, copy.getBook(), ordinal) : null;
+            library.lose(copy);
+            if (records != null) {
+                lost(copy);
+                position = append(records, copy.getBook());
+            }
+            commit(position, true);
+        }
+        commit(position, false);
+    }
+
+    @Override
+    public synchronized boolean isAvailable(BookCopy copy) {
+        return library.isAvailable(copy);
+    }
+
+    @Override
+    public synchronized Set<BookCopy> allCopies(Book book) {
+        return library.allCopies(book);
+    }
+
+    @Override
+    public synchronized Set<BookCopy> availableCopies(Book book) {
+        return library.availableCopies(book);
+    }
+
+    @Override
+    public synchronized int countCopies(Book book) {
+        return library.countCopies(book);
+    }
+
+    @Override
+    public synchronized int countAvailable(Book book) {
+        return library.countAvailable(book);
+    }
+
+    @Override
+    public synchronized List<Book> find(String query) {
+        return library.find(query);
+    }
+
+    @Override
+    public synchronized List<Book> find(String query, int offset, int limit) {
+        return library.find(query, offset, limit);
+    }
+}
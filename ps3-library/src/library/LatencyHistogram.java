@@ -0,0 +1,199 @@
+package library;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram is a thread-safe, lock-free histogram of durations in nanoseconds, with
+ * log-linear buckets: every power of two is split into SUB_BUCKETS buckets of equal width,
+ * so a duration is kept to within 1/SUB_BUCKETS of its value, as HdrHistogram does.
+ * Recording a duration costs one atomic increment and allocates nothing.
+ *
+ * Durations of MAX_VALUE nanoseconds or more, over a minute, are recorded as MAX_VALUE.
+ */
+public class LatencyHistogram {
+
+    // log2 of the number of buckets per power of two
+    private static final int SUB_BUCKET_BITS = 5;
+
+    /** Number of buckets each power of two is split into. */
+    public static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+    /** Largest duration recorded as itself, in nanoseconds; about 68 seconds. */
+    public static final long MAX_VALUE = (1L << 36) - 1;
+
+    // number of buckets: values below SUB_BUCKETS have one bucket each, and each power of two
+    // from SUB_BUCKETS up to MAX_VALUE has SUB_BUCKETS
+    private static final int BUCKETS = bucket(MAX_VALUE) + 1;
+
+    // rep
+    private final AtomicLongArray counts;
+
+    // rep invariant:
+    //    counts.length() == BUCKETS, and every count is nonnegative
+    //
+    // abstraction function:
+    //    represents the multiset of durations in which counts.get(i) durations lie in
+    //      [lowest(i), highest(i)]
+    //
+    // safety from rep exposure:
+    //    counts is private and final, and never returned; snapshots copy it.
+    //
+    // thread safety argument:
+    //    counts is an atomic array, and every access to it is a single atomic operation on
+    //      one bucket.  A snapshot reads the buckets one at a time, so it holds every duration
+    //      recorded before it began and none recorded after it ended, and some of those
+    //      recorded meanwhile; snapshotAndReset() takes each bucket's count as it zeroes it,
+    //      so every duration is in exactly one of the snapshots it returns.
+
+    /**
+     * Make an empty histogram.
+     */
+    public LatencyHistogram() {
+        counts = new AtomicLongArray(BUCKETS);
+    }
+
+    // the bucket of a value in [0, MAX_VALUE]
+    private static int bucket(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int shift = exponent - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKETS + (int) ((value >>> shift) & (SUB_BUCKETS - 1));
+    }
+
+    // the smallest value of a bucket
+    private static long lowest(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        return (long) (SUB_BUCKETS + bucket % SUB_BUCKETS) << shift;
+    }
+
+    // the largest value of a bucket
+    private static long highest(int bucket) {
+        if (bucket < SUB_BUCKETS) return bucket;
+        int shift = bucket / SUB_BUCKETS - 1;
+        return lowest(bucket) + (1L << shift) - 1;
+    }
+
+    /**
+     * Record a duration.
+     * @param nanos duration in nanoseconds; negative durations, from a clock stepping back,
+     *    are recorded as 0
+     */
+    public void record(long nanos) {
+        counts.getAndIncrement(bucket(Math.max(0, Math.min(nanos, MAX_VALUE))));
+    }
+
+    /**
+     * @return the durations recorded so far
+     */
+    public Snapshot snapshot() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+            copy[i] = counts.get(i);
+        return new Snapshot(copy);
+    }
+
+    /**
+     * Remove every duration recorded so far, and return them.  Each duration is returned by
+     * exactly one call, even while other threads record, so calling this periodically
+     * exports every duration once.
+     * @return the durations recorded since the last reset
+     */
+    public Snapshot snapshotAndReset() {
+        long[] copy = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++)
+            if (counts.get(i) != 0) copy[i] = counts.getAndSet(i, 0);
+        return new Snapshot(copy);
+    }
+
+    /**
+     * Snapshot is an immutable multiset of durations taken from a LatencyHistogram.
+     * Its statistics are exact to within the width of a bucket.
+     */
+    public static class Snapshot {
+
+        // rep
+        private final long[] counts;
+        private final long count;
+
+        // rep invariant:
+        //    counts.length == BUCKETS, every count is nonnegative, and count is their sum
+        //
+        // abstraction function:
+        //    represents the multiset of durations in which counts[i] lie in
+        //      [lowest(i), highest(i)]
+        //
+        // safety from rep exposure:
+        //    counts is private and final, and never returned.
+
+        // make a snapshot of these counts, which must not be changed afterwards
+        private Snapshot(long[] counts) {
+            this.counts = counts;
+            long count = 0;
+            for (long c : counts)
+                count += c;
+            this.count = count;
+        }
+
+        /**
+         * @return number of durations
+         */
+        public long count() {
+            return count;
+        }
+
+        /**
+         * @param fraction a number in [0, 1]
+         * @return the least duration such that more than that fraction of the durations are no
+         *    greater, rounded up to the end of its bucket; the largest duration if fraction is
+         *    1; or 0 if there are none
+         */
+        public long percentile(double fraction) {
+            assert fraction >= 0 && fraction <= 1 : "spec. contract broken";
+            if (count == 0) return 0;
+            long rank = Math.min(count - 1, (long) (fraction * count));
+            for (int i = 0; i < BUCKETS; i++) {
+                rank -= counts[i];
+                if (rank < 0) return highest(i);
+            }
+            throw new AssertionError("rank beyond the count");
+        }
+
+        /**
+         * @return the largest duration, rounded up to the end of its bucket, or 0 if none
+         */
+        public long max() {
+            for (int i = BUCKETS - 1; i >= 0; i--)
+                if (counts[i] > 0) return highest(i);
+            return 0;
+        }
+
+        /**
+         * @return the mean duration, taking each as the middle of its bucket, or 0 if none
+         */
+        public double mean() {
+            if (count == 0) return 0;
+            double sum = 0;
+            for (int i = 0; i < BUCKETS; i++)
+                if (counts[i] > 0) sum += counts[i] * ((lowest(i) + highest(i)) / 2.0);
+            return sum / count;
+        }
+
+        /**
+         * @param that another snapshot
+         * @return a snapshot of the durations of this snapshot and of that one
+         */
+        public Snapshot plus(Snapshot that) {
+            long[] sum = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++)
+                sum[i] = counts[i] + that.counts[i];
+            return new Snapshot(sum);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("count=%d mean=%.0fns p50=%dns p99=%dns p99.9=%dns max=%dns",
+                    count, mean(), percentile(0.5), percentile(0.99), percentile(0.999), max());
+        }
+    }
+}
@@ -1,5 +1,7 @@
 package library;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.Set;
 
@@ -17,18 +19,77 @@ public interface Library {
      */
     public BookCopy buy(Book book);
     
+    /**
+     * Buy several new copies of a book, as by calling buy(book) count times.
+     * @param book Book to buy
+     * @param count number of copies to buy; must be nonnegative
+     * @return count new, good-condition copies of the book, which are now available in this library
+     */
+    public default List<BookCopy> buyAll(Book book, int count) {
+        assert count >= 0 : "spec. contract broken";
+        List<BookCopy> copies = new ArrayList<BookCopy>(count);
+        for (int i = 0; i < count; i++)
+            copies.add(buy(book));
+        return copies;
+    }
+    
+    /**
+     * Buy one new copy of each of several books, as by calling buy() on each in turn.
+     * @param books Books to buy; a book that appears n times is bought n times
+     * @return new, good-condition copies of the books, in the iteration order of books,
+     *    which are now available in this library
+     */
+    public default List<BookCopy> buyAll(Collection<Book> books) {
+        List<BookCopy> copies = new ArrayList<BookCopy>(books.size());
+        for (Book book : books)
+            copies.add(buy(book));
+        return copies;
+    }
+    
     /**
      * Check out a copy of a book.
      * @param copy Copy to check out. Requires that the copy be available in this library.
      */
     public void checkout(BookCopy copy);
     
+    /**
+     * Check out several copies, as by calling checkout() on each in turn.
+     * @param copies Copies to check out. Requires that each copy be available in this library.
+     */
+    public default void checkoutAll(Collection<BookCopy> copies) {
+        for (BookCopy copy : copies)
+            checkout(copy);
+    }
+    
+    /**
+     * Check out any available copy of a book, as one atomic step.
+     * @param book Book to check out
+     * @return a copy of book that was available in this library and is now checked out,
+     *    or null if no copy of book was available
+     */
+    public default BookCopy checkoutAny(Book book) {
+        for (BookCopy copy : availableCopies(book)) {
+            checkout(copy);
+            return copy;
+        }
+        return null;
+    }
+    
     /**
      * Check in a copy of a book, making it available again.
      * @param copy Copy to check in.  Requires that the copy be checked out of this library.
      */
     public void checkin(BookCopy copy);
     
+    /**
+     * Check in several copies, as by calling checkin() on each in turn.
+     * @param copies Copies to check in. Requires that each copy be checked out of this library.
+     */
+    public default void checkinAll(Collection<BookCopy> copies) {
+        for (BookCopy copy : copies)
+            checkin(copy);
+    }
+    
     /**
      * Test whether a book copy is available in this library.
      * @param copy Book copy to test
@@ -50,6 +111,52 @@ public interface Library {
      */
     public Set<BookCopy> availableCopies(Book book);
     
+    /**
+     * Count the copies of a book.
+     * @param book Book to count
+     * @return allCopies(book).size()
+     */
+    public default int countCopies(Book book) {
+        return allCopies(book).size();
+    }
+    
+    /**
+     * Count the available copies of a book.
+     * @param book Book to count
+     * @return availableCopies(book).size()
+     */
+    public default int countAvailable(Book book) {
+        return availableCopies(book).size();
+    }
+    
+    /**
+     * View all the copies of a book without copying them.
+     * @param book Book to find
+     * @return an unmodifiable set that, whenever it is read, equals what allCopies(book) would
+     *    return at that moment.  It must not be iterated while this library is modified.
+     */
+    public default Set<BookCopy> allCopiesView(final Book book) {
+        return new CopiesView() {
+            Set<BookCopy> current() {
+                return allCopies(book);
+            }
+        };
+    }
+    
+    /**
+     * View the available copies of a book without copying them.
+     * @param book Book to find
+     * @return an unmodifiable set that, whenever it is read, equals what availableCopies(book)
+     *    would return at that moment.  It must not be iterated while this library is modified.
+     */
+    public default Set<BookCopy> availableCopiesView(final Book book) {
+        return new CopiesView() {
+            Set<BookCopy> current() {
+                return availableCopies(book);
+            }
+        };
+    }
+    
     /**
      * Search for books in this library's collection.
      * @param query search string
@@ -65,6 +172,23 @@ public interface Library {
      */
     public List<Book> find(String query);
     
+    /**
+     * Search for one page of books in this library's collection.
+     * @param query search string
+     * @param offset number of best matches to skip; must be nonnegative
+     * @param limit maximum number of books to return; must be nonnegative
+     * @return the books of find(query) at positions offset (inclusive) to offset + limit
+     *    (exclusive), in the same order, or fewer if find(query) runs out first.
+     *    Implementations may stop ranking once the first offset + limit books are known.
+     */
+    public default List<Book> find(String query, int offset, int limit) {
+        assert offset >= 0 && limit >= 0 : "spec. contract broken";
+        List<Book> found = find(query);
+        int from = Math.min(offset, found.size());
+        int to = (int) Math.min((long) offset + limit, found.size());
+        return new ArrayList<Book>(found.subList(from, to));
+    }
+    
     /**
      * Declare a copy of a book as lost from the library.  A copy can be declared lost if it is stolen
      * without being checked out, or if a borrower checks it out but never returns it. 
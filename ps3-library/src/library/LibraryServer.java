@@ -0,0 +1,449 @@
+package library;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.lang.reflect.Method;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * LibraryServer serves a Library over HTTP on the loopback interface, answering every request
+ * with a JSON object.  Each request runs on a thread of its own: a virtual thread if the Java
+ * runtime has them, or else a thread of an unbounded pool, so requests never queue behind a
+ * fixed number of busy threads.
+ *
+ * Copies are named by numbers the server gives them the first time it returns them.
+ * Parameters are URL-encoded, in the query string or, for POST, in a form-encoded body:
+ *     POST /buy?title=T&author=A&author=B&year=Y       {"copy": C}
+ *     POST /checkout?copy=ID, /checkin?copy=ID,
+ *          /lose?copy=ID                               C
+ *     GET  /isAvailable?copy=ID                        {"copy": ID, "available": true or false}
+ *     GET  /allCopies?title=T&author=A&year=Y,
+ *          /availableCopies?title=T&author=A&year=Y    {"copies": [C, ...]}
+ *     GET  /find?query=Q[&offset=N&limit=N]            {"books": [B, ...]}
+ * where a book B is {"title": T, "authors": [A, ...], "year": Y}, and a copy C is
+ * {"id": ID, "book": B, "condition": "good" or "damaged", "available": true or false}.
+ * A request that breaks a precondition of the Library operation gets an error instead of
+ * being passed on: 400 for a missing or malformed parameter, 404 for an unknown path or
+ * copy (including a lost one), 405 for the wrong method, and 409 for checking out a copy
+ * that is not available or checking in one that is; its body is {"error": message}.
+ */
+public class LibraryServer implements Closeable {
+
+    // the JDK server's switch for TCP_NODELAY, read once when it is first used.  Without it,
+    // a response written as headers then body waits for the client's delayed ACK, some 40 ms.
+    private static final String NO_DELAY = "sun.net.httpserver.nodelay";
+
+    static {
+        if (System.getProperty(NO_DELAY) == null) System.setProperty(NO_DELAY, "true");
+    }
+
+    // rep
+    private final Library library;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final boolean virtualThreads;
+    private final ConcurrentMap<Long, BookCopy> copiesById;
+    private final ConcurrentMap<BookCopy, Long> idsByCopy;
+    private final AtomicLong nextId;
+
+    // rep invariant:
+    //    idsByCopy.get(copy) == id implies copiesById.get(id) == copy
+    //    nextId is greater than every id in copiesById
+    //
+    // abstraction function:
+    //    represents a running HTTP service for library at server's address, in which copy
+    //      copiesById.get(id) is named id, if it is still in library
+    //
+    // safety from rep exposure:
+    //    all fields are private and final, and none is returned; responses are fresh text.
+    //
+    // thread safety argument:
+    //    library must be thread-safe, as the constructor requires.
+    //    copiesById and idsByCopy are concurrent maps, and nextId is atomic.  A copy's name
+    //      is put in copiesById before idsByCopy.putIfAbsent publishes it, so a copy gets
+    //      only one name, and every name returned can be looked up.
+    //    Requests that change a copy hold its lock from checking their preconditions, that
+    //      the copy is still in library and is (or is not) available, to the change, so two
+    //      of them cannot both pass the checks.  A response listing a copy that another
+    //      request loses meanwhile may name it again, which is why lost copies are looked
+    //      for in library rather than in the maps.  The lock is taken on the canonical
+    //      handle of the copy, the one copiesById maps its name to: idsByCopy is keyed by
+    //      equals(), so the equal handles a CompactLibrary makes for one copy share one name,
+    //      and every request on that copy locks the same object.  No Library locks copies.
+    //
+    // performance:
+    //    each request costs the Library operation, plus constant work per copy or book of
+    //      its response; no lock is shared by requests for different copies.
+
+    /**
+     * Make a server for a library and start it.
+     * @param library library to serve; must be thread-safe, and its copies must not be lost
+     *    except through this server
+     * @param port TCP port on the loopback interface, or 0 for any free port
+     * @throws IOException if the port cannot be bound
+     */
+    public LibraryServer(Library library, int port) throws IOException {
+        assert library != null && port >= 0 : "spec. contract broken";
+        this.library = library;
+        this.copiesById = new ConcurrentHashMap<Long, BookCopy>();
+        this.idsByCopy = new ConcurrentHashMap<BookCopy, Long>();
+        this.nextId = new AtomicLong(1);
+        ExecutorService virtual = newVirtualThreadPerTaskExecutor();
+        this.virtualThreads = virtual != null;
+        this.executor = virtual != null ? virtual : Executors.newCachedThreadPool(new ThreadFactory() {
+            public Thread newThread(Runnable task) {
+                Thread thread = new Thread(task, "library server request");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+        server.createContext("/", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                respond(exchange);
+            }
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    // assert the rep invariant for one copy
+    private void checkRep(BookCopy copy) {
+        Long id = idsByCopy.get(copy);
+        assert id == null || (copiesById.get(id) == copy && id < nextId.get()) : "broken rep. invariant";
+    }
+
+    // Executors.newVirtualThreadPerTaskExecutor(), if this runtime has it, otherwise null.
+    // Looked up reflectively so that this class still compiles and runs on Java 8.
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * @return the TCP port this server listens on
+     */
+    public int port() {
+        return server.getAddress().getPort();
+    }
+
+    /**
+     * @return true iff this server runs each request on a virtual thread
+     */
+    public boolean usesVirtualThreads() {
+        return virtualThreads;
+    }
+
+    /**
+     * Stop this server, closing its connections without waiting for requests in progress.
+     */
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdown();
+    }
+
+    /**
+     * HttpError is thrown by a request handler to answer with an error status.
+     */
+    private static class HttpError extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final int status;
+
+        HttpError(int status, String message) {
+            super(message);
+            this.status = status;
+        }
+    }
+
+    // answer one request
+    private void respond(HttpExchange exchange) throws IOException {
+        int status = 200;
+        String body;
+        try {
+            body = dispatch(exchange.getRequestMethod(), exchange.getRequestURI().getPath(),
+                    parameters(exchange));
+        } catch (HttpError e) {
+            status = e.status;
+            body = "{\"error\":" + quote(e.getMessage()) + "}";
+        } catch (RuntimeException | Error e) {
+            // a failure of the library, or an assertion of its preconditions under -ea,
+            // which must not leave the exchange unanswered
+            status = 500;
+            body = "{\"error\":" + quote(String.valueOf(e)) + "}";
+        }
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        OutputStream out = exchange.getResponseBody();
+        try {
+            out.write(bytes);
+        } finally {
+            out.close();
+        }
+    }
+
+    // the JSON answer to a request for path with the given parameters
+    private String dispatch(String method, String path, Map<String, List<String>> parameters) throws HttpError {
+        switch (path) {
+        case "/buy":
+            requireMethod(method, "POST");
+            return "{\"copy\":" + json(library.buy(book(parameters))) + "}";
+        case "/checkout":
+            requireMethod(method, "POST");
+            return checkout(copy(parameters));
+        case "/checkin":
+            requireMethod(method, "POST");
+            return checkin(copy(parameters));
+        case "/lose":
+            requireMethod(method, "POST");
+            return lose(copy(parameters));
+        case "/isAvailable": {
+            requireMethod(method, "GET");
+            BookCopy copy = copy(parameters);
+            return "{\"copy\":" + idOf(copy) + ",\"available\":" + library.isAvailable(copy) + "}";
+        }
+        case "/allCopies":
+            requireMethod(method, "GET");
+            return "{\"copies\":" + json(library.allCopies(book(parameters))) + "}";
+        case "/availableCopies":
+            requireMethod(method, "GET");
+            return "{\"copies\":" + json(library.availableCopies(book(parameters))) + "}";
+        case "/find": {
+            requireMethod(method, "GET");
+            String query = parameter(parameters, "query");
+            List<Book> books = parameters.containsKey("offset") || parameters.containsKey("limit")
+                    ? library.find(query, count(parameters, "offset", 0), count(parameters, "limit", Integer.MAX_VALUE))
+                    : library.find(query);
+            StringBuilder json = new StringBuilder("{\"books\":[");
+            for (int i = 0; i < books.size(); i++)
+                json.append(i == 0 ? "" : ",").append(json(books.get(i)));
+            return json.append("]}").toString();
+        }
+        default:
+            throw new HttpError(404, "no such operation: " + path);
+        }
+    }
+
+    private String checkout(BookCopy copy) throws HttpError {
+        synchronized (copy) {
+            requireInLibrary(copy);
+            if (!library.isAvailable(copy)) throw new HttpError(409, "copy is not available");
+            library.checkout(copy);
+            return json(copy);
+        }
+    }
+
+    private String checkin(BookCopy copy) throws HttpError {
+        synchronized (copy) {
+            requireInLibrary(copy);
+            if (library.isAvailable(copy)) throw new HttpError(409, "copy is not checked out");
+            library.checkin(copy);
+            return json(copy);
+        }
+    }
+
+    private String lose(BookCopy copy) throws HttpError {
+        synchronized (copy) {
+            requireInLibrary(copy);
+            String json = json(copy);
+            library.lose(copy);
+            Long id = idsByCopy.remove(copy);
+            if (id != null) copiesById.remove(id);
+            return json;
+        }
+    }
+
+    private void requireInLibrary(BookCopy copy) throws HttpError {
+        if (!library.allCopiesView(copy.getBook()).contains(copy)) throw new HttpError(404, "no such copy");
+    }
+
+    private static void requireMethod(String method, String expected) throws HttpError {
+        if (!method.equals(expected)) throw new HttpError(405, "use " + expected);
+    }
+
+    // the parameters of a request's query string and, for POST, of its form-encoded body
+    private static Map<String, List<String>> parameters(HttpExchange exchange) throws IOException {
+        Map<String, List<String>> parameters = new HashMap<String, List<String>>();
+        decode(exchange.getRequestURI().getRawQuery(), parameters);
+        if (exchange.getRequestMethod().equals("POST")) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            InputStream in = exchange.getRequestBody();
+            byte[] buffer = new byte[4096];
+            for (int n; (n = in.read(buffer)) > 0; )
+                body.write(buffer, 0, n);
+            decode(new String(body.toByteArray(), StandardCharsets.UTF_8), parameters);
+        }
+        return parameters;
+    }
+
+    // add the parameters of a URL-encoded string, which may be null, to parameters
+    private static void decode(String encoded, Map<String, List<String>> parameters) {
+        if (encoded == null || encoded.isEmpty()) return;
+        for (String pair : encoded.split("&")) {
+            int equals = pair.indexOf('=');
+            String name = urlDecode(equals < 0 ? pair : pair.substring(0, equals));
+            String value = equals < 0 ? "" : urlDecode(pair.substring(equals + 1));
+            List<String> values = parameters.get(name);
+            if (values == null) {
+                values = new ArrayList<String>();
+                parameters.put(name, values);
+            }
+            values.add(value);
+        }
+    }
+
+    private static String urlDecode(String s) {
+        try {
+            return URLDecoder.decode(s, "UTF-8");
+        } catch (UnsupportedEncodingException e) {
+            throw new AssertionError("UTF-8 is always supported", e);
+        } catch (IllegalArgumentException e) {
+            return s;
+        }
+    }
+
+    // the only value of a required parameter
+    private static String parameter(Map<String, List<String>> parameters, String name) throws HttpError {
+        List<String> values = parameters.get(name);
+        if (values == null || values.size() != 1) throw new HttpError(400, "need one " + name);
+        return values.get(0);
+    }
+
+    // the value of an optional nonnegative integer parameter
+    private static int count(Map<String, List<String>> parameters, String name, int defaultValue) throws HttpError {
+        if (!parameters.containsKey(name)) return defaultValue;
+        String value = parameter(parameters, name);
+        try {
+            int count = Integer.parseInt(value);
+            if (count >= 0) return count;
+        } catch (NumberFormatException e) {
+            // fall through to the error below
+        }
+        throw new HttpError(400, name + " must be a nonnegative integer");
+    }
+
+    // the book named by the title, author and year parameters, which must meet the
+    // preconditions of Book(title, authors, year)
+    private static Book book(Map<String, List<String>> parameters) throws HttpError {
+        String title = parameter(parameters, "title");
+        if (blank(title)) throw new HttpError(400, "title must not be blank");
+        List<String> authors = parameters.get("author");
+        if (authors == null) throw new HttpError(400, "need an author");
+        for (String author : authors)
+            if (blank(author)) throw new HttpError(400, "author must not be blank");
+        String year = parameter(parameters, "year");
+        int published;
+        try {
+            published = Integer.parseInt(year);
+        } catch (NumberFormatException e) {
+            throw new HttpError(400, "year must be an integer");
+        }
+        if (published < 0) throw new HttpError(400, "year must be nonnegative");
+        return new Book(title, authors, published);
+    }
+
+    // true iff s has no character but spaces
+    private static boolean blank(String s) {
+        for (int i = 0; i < s.length(); i++)
+            if (s.charAt(i) != ' ') return false;
+        return true;
+    }
+
+    // the copy named by the copy parameter
+    private BookCopy copy(Map<String, List<String>> parameters) throws HttpError {
+        String id = parameter(parameters, "copy");
+        BookCopy copy;
+        try {
+            copy = copiesById.get(Long.parseLong(id));
+        } catch (NumberFormatException e) {
+            throw new HttpError(400, "copy must be a number");
+        }
+        if (copy == null) throw new HttpError(404, "no such copy");
+        return copy;
+    }
+
+    // the name of copy, given now if it has none yet
+    private long idOf(BookCopy copy) {
+        Long id = idsByCopy.get(copy);
+        if (id != null) return id;
+        Long fresh = nextId.getAndIncrement();
+        copiesById.put(fresh, copy);
+        id = idsByCopy.putIfAbsent(copy, fresh);
+        if (id != null) {
+            copiesById.remove(fresh);
+            return id;
+        }
+        checkRep(copy);
+        return fresh;
+    }
+
+    private String json(Collection<BookCopy> copies) {
+        StringBuilder json = new StringBuilder("[");
+        for (BookCopy copy : copies)
+            json.append(json.length() == 1 ? "" : ",").append(json(copy));
+        return json.append("]").toString();
+    }
+
+    private String json(BookCopy copy) {
+        return "{\"id\":" + idOf(copy) + ",\"book\":" + json(copy.getBook())
+                + ",\"condition\":" + (copy.getCondition() == BookCopy.Condition.GOOD ? "\"good\"" : "\"damaged\"")
+                + ",\"available\":" + library.isAvailable(copy) + "}";
+    }
+
+    private static String json(Book book) {
+        StringBuilder json = new StringBuilder("{\"title\":").append(quote(book.getTitle())).append(",\"authors\":[");
+        for (int i = 0; i < book.authorCount(); i++)
+            json.append(i == 0 ? "" : ",").append(quote(book.getAuthor(i)));
+        return json.append("],\"year\":").append(book.getYear()).append("}").toString();
+    }
+
+    /**
+     * @param s any string
+     * @return s as a JSON string literal
+     */
+    static String quote(String s) {
+        StringBuilder quoted = new StringBuilder(s.length() + 2).append('"');
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            switch (c) {
+            case '"':  quoted.append("\\\""); break;
+            case '\\': quoted.append("\\\\"); break;
+            case '\n': quoted.append("\\n"); break;
+            case '\r': quoted.append("\\r"); break;
+            case '\t': quoted.append("\\t"); break;
+            default:
+                if (c < 0x20 || c == '\u2028' || c == '\u2029') quoted.append(String.format("\\u%04x", (int) c));
+                else quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+}
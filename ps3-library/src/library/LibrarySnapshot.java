@@ -0,0 +1,324 @@
+package library;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * LibrarySnapshot is an immutable, point-in-time view of the collection of a library: which
+ * copies it held and which of them were available at one moment, searchable as by find().
+ * Reading a snapshot never blocks, and is never blocked by, changes to the library it came
+ * from, so a report can iterate over a whole collection while circulation goes on.
+ *
+ * A snapshot is a persistent structure: the next version of a library shares all of it but
+ * the O(log n) nodes that a change touches, so taking one costs O(1), and keeping one alive
+ * keeps only the nodes the library has replaced since.
+ */
+public final class LibrarySnapshot {
+
+    /**
+     * Holding is the immutable record of a book's copies in one version of a library.
+     */
+    private static final class Holding {
+        final PersistentMap<BookCopy, Boolean> copies;
+        final int available;
+
+        Holding(PersistentMap<BookCopy, Boolean> copies, int available) {
+            this.copies = copies;
+            this.available = available;
+        }
+    }
+
+    private static final LibrarySnapshot EMPTY = new LibrarySnapshot(0,
+            PersistentMap.<Book, Holding>empty(),
+            PersistentMap.<String, PersistentMap<Book, TokenIndex.Posting>>empty(), 0, 0);
+
+    // rep
+    private final long version;
+    private final PersistentMap<Book, Holding> holdings;
+    private final PersistentMap<String, PersistentMap<Book, TokenIndex.Posting>> postings;
+    private final long totalTitleLength;
+    private final long totalAuthorLength;
+
+    // rep invariant:
+    //    version >= 0
+    //    every holding in holdings has a nonempty map of copies, all copies of the book it
+    //      is keyed by, and available is the number of them that map to true
+    //    postings holds no empty posting map, and book is a key of postings.get(token) iff
+    //      book is a key of holdings and token is in TokenIndex.tokensOf(book), with
+    //      TokenIndex.postingsOf(book).get(token) as its value
+    //    totalTitleLength, totalAuthorLength are the sums of the field lengths of the books
+    //      of holdings
+    //
+    // abstraction function:
+    //    represents version `version` of a library's collection, holding the copies of
+    //      holdings.get(book).copies for each book, where a copy is available iff it maps
+    //      to true, and searchable by the postings and collection statistics BM25F needs
+    //
+    // safety from rep exposure:
+    //    all fields are private and final, and the persistent maps are immutable and never
+    //      returned; allCopies(), availableCopies() and find() return fresh collections.
+    //    Books are immutable, and BookCopys are intentionally shared with clients
+    //      because a copy's identity is what clients hand back to us.
+    //
+    // thread safety argument:
+    //    this object is immutable, its fields are final and the persistent maps are
+    //      immutable, so it can be read by any number of threads, and published by any means.
+    //
+    // performance:
+    //    isAvailable, countCopies and countAvailable run in O(log n) for n books; allCopies and
+    //      availableCopies in O(copies of that book); find in O(postings of the query's tokens),
+    //      plus O(log k) per matching book to keep the best k, as BigLibrary's does.
+    //    Each change makes a new snapshot, copying O(log n) trie nodes for the book, and, when
+    //      the book gains its first copy or loses its last, O(log n) more for each of its tokens.
+
+    private LibrarySnapshot(long version, PersistentMap<Book, Holding> holdings,
+            PersistentMap<String, PersistentMap<Book, TokenIndex.Posting>> postings,
+            long totalTitleLength, long totalAuthorLength) {
+        this.version = version;
+        this.holdings = holdings;
+        this.postings = postings;
+        this.totalTitleLength = totalTitleLength;
+        this.totalAuthorLength = totalAuthorLength;
+    }
+
+    /**
+     * @return the snapshot of an empty library, version 0
+     */
+    static LibrarySnapshot empty() {
+        return EMPTY;
+    }
+
+    // assert the rep invariant, sampled at the holding of book
+    private void checkRep(Book book) {
+        assert version >= 0 : "broken rep. invariant";
+        assert totalTitleLength >= 0 && totalAuthorLength >= 0 : "broken rep. invariant";
+        Holding holding = holdings.get(book);
+        if (holding == null) return;
+        assert !holding.copies.isEmpty() : "broken rep. invariant";
+        assert holding.available >= 0 && holding.available <= holding.copies.size() : "broken rep. invariant";
+    }
+
+    /**
+     * @return the version of this snapshot: the number of changes made to the library
+     *    before it was taken, counting each copy bought, checked out, checked in or lost
+     */
+    public long version() {
+        return version;
+    }
+
+    /**
+     * @param copy book copy to test
+     * @return true if and only if copy was available in the library when this snapshot was taken
+     */
+    public boolean isAvailable(BookCopy copy) {
+        Holding holding = holdings.get(copy.getBook());
+        return holding != null && Boolean.TRUE.equals(holding.copies.get(copy));
+    }
+
+    /**
+     * @param copy book copy to test
+     * @return true if and only if copy was in the library's collection, available or
+     *    checked out, when this snapshot was taken
+     */
+    boolean contains(BookCopy copy) {
+        Holding holding = holdings.get(copy.getBook());
+        return holding != null && holding.copies.containsKey(copy);
+    }
+
+    /**
+     * @param book book to find
+     * @return a fresh set of all the copies of book in the library's collection, both
+     *    available and checked out, when this snapshot was taken
+     */
+    public Set<BookCopy> allCopies(Book book) {
+        Set<BookCopy> copies = new HashSet<BookCopy>();
+        Holding holding = holdings.get(book);
+        if (holding == null) return copies;
+        for (Map.Entry<BookCopy, Boolean> entry : holding.copies)
+            copies.add(entry.getKey());
+        return copies;
+    }
+
+    /**
+     * @param book book to find
+     * @return a fresh set of all the copies of book that were available in the library when
+     *    this snapshot was taken
+     */
+    public Set<BookCopy> availableCopies(Book book) {
+        Set<BookCopy> copies = new HashSet<BookCopy>();
+        Holding holding = holdings.get(book);
+        if (holding == null) return copies;
+        for (Map.Entry<BookCopy, Boolean> entry : holding.copies)
+            if (entry.getValue()) copies.add(entry.getKey());
+        return copies;
+    }
+
+    /**
+     * @param book book to count
+     * @return allCopies(book).size()
+     */
+    public int countCopies(Book book) {
+        Holding holding = holdings.get(book);
+        return holding == null ? 0 : holding.copies.size();
+    }
+
+    /**
+     * @param book book to count
+     * @return availableCopies(book).size()
+     */
+    public int countAvailable(Book book) {
+        Holding holding = holdings.get(book);
+        return holding == null ? 0 : holding.available;
+    }
+
+    /**
+     * @param book book to look for
+     * @return an available copy of book, or null if it had none
+     */
+    BookCopy anyAvailable(Book book) {
+        Holding holding = holdings.get(book);
+        if (holding == null || holding.available == 0) return null;
+        for (Map.Entry<BookCopy, Boolean> entry : holding.copies)
+            if (entry.getValue()) return entry.getKey();
+        throw new AssertionError("broken rep. invariant");
+    }
+
+    /**
+     * Search the books of the library's collection when this snapshot was taken, as
+     * Library.find() does; they are ranked as a BigLibrary holding the same books ranks them.
+     * @param query search string
+     * @return list of the matching books, best match first
+     */
+    public List<Book> find(String query) {
+        List<Book> found = new ArrayList<Book>();
+        for (TokenIndex.Hit hit : search(query, Integer.MAX_VALUE))
+            found.add(hit.book);
+        return found;
+    }
+
+    /**
+     * Search for one page of the books of the library's collection when this snapshot was
+     * taken, as Library.find(query, offset, limit) does.
+     * @param query search string
+     * @param offset number of best matches to skip; must be nonnegative
+     * @param limit maximum number of books to return; must be nonnegative
+     * @return the books of find(query) at positions offset (inclusive) to offset + limit
+     *    (exclusive), in the same order, or fewer if find(query) runs out first
+     */
+    public List<Book> find(String query, int offset, int limit) {
+        assert offset >= 0 && limit >= 0 : "spec. contract broken";
+        List<Book> found = new ArrayList<Book>();
+        long k = (long) offset + limit;
+        if (limit == 0) return found;
+        List<TokenIndex.Hit> hits = search(query, (int) Math.min(k, Integer.MAX_VALUE));
+        for (int i = offset; i < hits.size(); i++)
+            found.add(hits.get(i).book);
+        return found;
+    }
+
+    // the best k hits for query, scored by BM25F as TokenIndex.search() scores them
+    private List<TokenIndex.Hit> search(String query, int k) {
+        Set<String> tokens = new HashSet<String>(TokenIndex.tokenize(query));
+        Map<Book, Double> scores = new HashMap<Book, Double>();
+        int n = holdings.size();
+        double averageTitle = TokenIndex.averageLength(totalTitleLength, n);
+        double averageAuthor = TokenIndex.averageLength(totalAuthorLength, n);
+        for (String token : tokens) {
+            PersistentMap<Book, TokenIndex.Posting> books = postings.get(token);
+            if (books == null) continue;
+            double idf = TokenIndex.idf(n, books.size());
+            for (Map.Entry<Book, TokenIndex.Posting> entry : books) {
+                double score = idf * TokenIndex.saturation(entry.getValue(), averageTitle, averageAuthor);
+                Double previous = scores.get(entry.getKey());
+                scores.put(entry.getKey(), previous == null ? score : previous + score);
+            }
+        }
+        return TokenIndex.top(scores, k);
+    }
+
+    /**
+     * @param copy a new copy, not in this snapshot
+     * @return the next version of the library, with copy bought and available
+     */
+    LibrarySnapshot bought(BookCopy copy) {
+        Book book = copy.getBook();
+        Holding holding = holdings.get(book);
+        if (holding != null) {
+            assert !holding.copies.containsKey(copy) : "spec. contract broken";
+            return with(book, new Holding(holding.copies.plus(copy, Boolean.TRUE), holding.available + 1));
+        }
+        PersistentMap<String, PersistentMap<Book, TokenIndex.Posting>> postings = this.postings;
+        long titleLength = 0;
+        long authorLength = 0;
+        for (Map.Entry<String, TokenIndex.Posting> entry : TokenIndex.postingsOf(book).entrySet()) {
+            PersistentMap<Book, TokenIndex.Posting> books = postings.get(entry.getKey());
+            if (books == null) books = PersistentMap.empty();
+            postings = postings.plus(entry.getKey(), books.plus(book, entry.getValue()));
+            titleLength = entry.getValue().titleLength;
+            authorLength = entry.getValue().authorLength;
+        }
+        PersistentMap<BookCopy, Boolean> copies = PersistentMap.empty();
+        LibrarySnapshot next = new LibrarySnapshot(version + 1,
+                holdings.plus(book, new Holding(copies.plus(copy, Boolean.TRUE), 1)),
+                postings, totalTitleLength + titleLength, totalAuthorLength + authorLength);
+        next.checkRep(book);
+        return next;
+    }
+
+    /**
+     * @param copy a copy available in this snapshot
+     * @return the next version of the library, with copy checked out
+     */
+    LibrarySnapshot checkedOut(BookCopy copy) {
+        assert isAvailable(copy) : "spec. contract broken";
+        Holding holding = holdings.get(copy.getBook());
+        return with(copy.getBook(), new Holding(holding.copies.plus(copy, Boolean.FALSE), holding.available - 1));
+    }
+
+    /**
+     * @param copy a copy checked out in this snapshot
+     * @return the next version of the library, with copy available again
+     */
+    LibrarySnapshot checkedIn(BookCopy copy) {
+        assert contains(copy) && !isAvailable(copy) : "spec. contract broken";
+        Holding holding = holdings.get(copy.getBook());
+        return with(copy.getBook(), new Holding(holding.copies.plus(copy, Boolean.TRUE), holding.available + 1));
+    }
+
+    /**
+     * @param copy a copy in this snapshot
+     * @return the next version of the library, without copy
+     */
+    LibrarySnapshot lost(BookCopy copy) {
+        assert contains(copy) : "spec. contract broken";
+        Book book = copy.getBook();
+        Holding holding = holdings.get(book);
+        int available = holding.available - (isAvailable(copy) ? 1 : 0);
+        if (holding.copies.size() > 1) return with(book, new Holding(holding.copies.minus(copy), available));
+        PersistentMap<String, PersistentMap<Book, TokenIndex.Posting>> postings = this.postings;
+        long titleLength = 0;
+        long authorLength = 0;
+        for (String token : TokenIndex.tokensOf(book)) {
+            PersistentMap<Book, TokenIndex.Posting> books = postings.get(token);
+            TokenIndex.Posting posting = books.get(book);
+            books = books.minus(book);
+            postings = books.isEmpty() ? postings.minus(token) : postings.plus(token, books);
+            titleLength = posting.titleLength;
+            authorLength = posting.authorLength;
+        }
+        return new LibrarySnapshot(version + 1, holdings.minus(book), postings,
+                totalTitleLength - titleLength, totalAuthorLength - authorLength);
+    }
+
+    // the next version of the library, with book's holding replaced
+    private LibrarySnapshot with(Book book, Holding holding) {
+        LibrarySnapshot next = new LibrarySnapshot(version + 1, holdings.plus(book, holding), postings,
+                totalTitleLength, totalAuthorLength);
+        next.checkRep(book);
+        return next;
+    }
+}
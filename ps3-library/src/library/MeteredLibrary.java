@@ -0,0 +1,266 @@
+package library;
+
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * MeteredLibrary is a Library that forwards every operation to another library, and records
+ * how long each call took in a LatencyHistogram for its kind of operation.  Calls that throw
+ * are recorded too.
+ *
+ * Recording costs two reads of System.nanoTime() and one atomic increment per call, and
+ * allocates nothing.  The copies views are forwarded without metering, since their cost lies
+ * in later reads of them, not in the call.
+ *
+ * MeteredLibrary is as thread-safe as the library it wraps.
+ */
+public class MeteredLibrary implements Library {
+
+    /**
+     * Operation is a kind of call that a MeteredLibrary meters.
+     */
+    public static enum Operation {
+        BUY, BUY_ALL, CHECKOUT, CHECKOUT_ALL, CHECKOUT_ANY, CHECKIN, CHECKIN_ALL, IS_AVAILABLE,
+        ALL_COPIES, AVAILABLE_COPIES, COUNT_COPIES, COUNT_AVAILABLE, FIND, LOSE
+    }
+
+    // rep
+    private final Library library;
+    private final LatencyHistogram[] histograms;
+
+    // rep invariant:
+    //    histograms has one distinct histogram per Operation, indexed by ordinal
+    //
+    // abstraction function:
+    //    represents the library `library`, with histograms[op.ordinal()] holding the
+    //      durations of the calls of kind op made through this object
+    //
+    // safety from rep exposure:
+    //    all fields are private and final; library is never returned, and histograms are
+    //      returned on purpose, since they are thread-safe and meant to be read and reset.
+    //
+    // thread safety argument:
+    //    library is as thread-safe as it is, and histograms are thread-safe; the array is
+    //      filled in the constructor and never changed, and final fields are published safely.
+
+    /**
+     * Make a metered library.
+     * @param library library to forward operations to
+     */
+    public MeteredLibrary(Library library) {
+        assert library != null : "spec. contract broken";
+        this.library = library;
+        this.histograms = new LatencyHistogram[Operation.values().length];
+        for (int i = 0; i < histograms.length; i++)
+            histograms[i] = new LatencyHistogram();
+    }
+
+    /**
+     * @param operation a kind of call
+     * @return the live histogram of the durations of calls of that kind
+     */
+    public LatencyHistogram histogram(Operation operation) {
+        return histograms[operation.ordinal()];
+    }
+
+    /**
+     * @return a snapshot of the durations of the calls of each kind made so far
+     */
+    public Map<Operation, LatencyHistogram.Snapshot> snapshot() {
+        Map<Operation, LatencyHistogram.Snapshot> snapshots = new EnumMap<Operation, LatencyHistogram.Snapshot>(Operation.class);
+        for (Operation operation : Operation.values())
+            snapshots.put(operation, histogram(operation).snapshot());
+        return snapshots;
+    }
+
+    /**
+     * Take the durations of the calls of each kind made since the last reset, and start
+     * counting afresh.  Each call's duration is returned by exactly one call of this method,
+     * so an exporter can call it periodically.
+     * @return a snapshot of each kind's durations since the last reset
+     */
+    public Map<Operation, LatencyHistogram.Snapshot> snapshotAndReset() {
+        Map<Operation, LatencyHistogram.Snapshot> snapshots = new EnumMap<Operation, LatencyHistogram.Snapshot>(Operation.class);
+        for (Operation operation : Operation.values())
+            snapshots.put(operation, histogram(operation).snapshotAndReset());
+        return snapshots;
+    }
+
+    // record a call of the given kind that began at the given System.nanoTime()
+    private void record(Operation operation, long begin) {
+        histograms[operation.ordinal()].record(System.nanoTime() - begin);
+    }
+
+    @Override
+    public BookCopy buy(Book book) {
+        long begin = System.nanoTime();
+        try {
+            return library.buy(book);
+        } finally {
+            record(Operation.BUY, begin);
+        }
+    }
+
+    @Override
+    public List<BookCopy> buyAll(Book book, int count) {
+        long begin = System.nanoTime();
+        try {
+            return library.buyAll(book, count);
+        } finally {
+            record(Operation.BUY_ALL, begin);
+        }
+    }
+
+    @Override
+    public List<BookCopy> buyAll(Collection<Book> books) {
+        long begin = System.nanoTime();
+        try {
+            return library.buyAll(books);
+        } finally {
+            record(Operation.BUY_ALL, begin);
+        }
+    }
+
+    @Override
+    public void checkout(BookCopy copy) {
+        long begin = System.nanoTime();
+        try {
+            library.checkout(copy);
+        } finally {
+            record(Operation.CHECKOUT, begin);
+        }
+    }
+
+    @Override
+    public void checkoutAll(Collection<BookCopy> copies) {
+        long begin = System.nanoTime();
+        try {
+            library.checkoutAll(copies);
+        } finally {
+            record(Operation.CHECKOUT_ALL, begin);
+        }
+    }
+
+    @Override
+    public BookCopy checkoutAny(Book book) {
+        long begin = System.nanoTime();
+        try {
+            return library.checkoutAny(book);
+        } finally {
+            record(Operation.CHECKOUT_ANY, begin);
+        }
+    }
+
+    @Override
+    public void checkin(BookCopy copy) {
+        long begin = System.nanoTime();
+        try {
+            library.checkin(copy);
+        } finally {
+            record(Operation.CHECKIN, begin);
+        }
+    }
+
+    @Override
+    public void checkinAll(Collection<BookCopy> copies) {
+        long begin = System.nanoTime();
+        try {
+            library.checkinAll(copies);
+        } finally {
+            record(Operation.CHECKIN_ALL, begin);
+        }
+    }
+
+    @Override
+    public boolean isAvailable(BookCopy copy) {
+        long begin = System.nanoTime();
+        try {
+            return library.isAvailable(copy);
+        } finally {
+            record(Operation.IS_AVAILABLE, begin);
+        }
+    }
+
+    @Override
+    public Set<BookCopy> allCopies(Book book) {
+        long begin = System.nanoTime();
+        try {
+            return library.allCopies(book);
+        } finally {
+            record(Operation.ALL_COPIES, begin);
+        }
+    }
+
+    @Override
+    public Set<BookCopy> availableCopies(Book book) {
+        long begin = System.nanoTime();
+        try {
+            return library.availableCopies(book);
+        } finally {
+            record(Operation.AVAILABLE_COPIES, begin);
+        }
+    }
+
+    @Override
+    public int countCopies(Book book) {
+        long begin = System.nanoTime();
+        try {
+            return library.countCopies(book);
+        } finally {
+            record(Operation.COUNT_COPIES, begin);
+        }
+    }
+
+    @Override
+    public int countAvailable(Book book) {
+        long begin = System.nanoTime();
+        try {
+            return library.countAvailable(book);
+        } finally {
+            record(Operation.COUNT_AVAILABLE, begin);
+        }
+    }
+
+    @Override
+    public Set<BookCopy> allCopiesView(Book book) {
+        return library.allCopiesView(book);
+    }
+
+    @Override
+    public Set<BookCopy> availableCopiesView(Book book) {
+        return library.availableCopiesView(book);
+    }
+
+    @Override
+    public List<Book> find(String query) {
+        long begin = System.nanoTime();
+        try {
+            return library.find(query);
+        } finally {
+            record(Operation.FIND, begin);
+        }
+    }
+
+    @Override
+    public List<Book> find(String query, int offset, int limit) {
+        long begin = System.nanoTime();
+        try {
+            return library.find(query, offset, limit);
+        } finally {
+            record(Operation.FIND, begin);
+        }
+    }
+
+    @Override
+    public void lose(BookCopy copy) {
+        long begin = System.nanoTime();
+        try {
+            library.lose(copy);
+        } finally {
+            record(Operation.LOSE, begin);
+        }
+    }
+}
@@ -0,0 +1,376 @@
+package library;
+
+import java.util.AbstractMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+/**
+ * PersistentMap is an immutable map, as a hash array mapped trie (HAMT) of 32-way nodes.
+ * plus() and minus() return a new map that shares all but the O(log32 n) nodes on the path to
+ * the changed key with the old one, so keeping every version of a map costs little more than
+ * keeping the latest, and a version can be read by any number of threads while the next is
+ * being made.
+ *
+ * Keys must be immutable, or at least keep their hash codes and equality, as for HashMap.
+ * Values must not be null.
+ */
+final class PersistentMap<K, V> implements Iterable<Map.Entry<K, V>> {
+
+    // bits of the hash consumed by each level of the trie
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    // deepest a collision node can be: 7 bitmap levels consume the 32 bits of a hash
+    private static final int MAX_DEPTH = 8;
+
+    @SuppressWarnings("rawtypes")
+    private static final PersistentMap EMPTY = new PersistentMap(BitmapNode.EMPTY, 0);
+
+    // rep
+    private final Node root;
+    private final int size;
+
+    // rep invariant:
+    //    root is a trie in which every key appears once, along the path given by its hash,
+    //      and size is the number of keys in it
+    //    every node is immutable once its constructor returns
+    //
+    // abstraction function:
+    //    represents the map from each key stored in root to the value stored with it
+    //
+    // safety from rep exposure:
+    //    all fields are private and final, and nodes are immutable and never returned;
+    //      iterator() returns immutable entries of the keys and values, shared on purpose.
+    //
+    // thread safety argument:
+    //    this map and its nodes are immutable, and their fields are final, so they are
+    //      published safely by any means.
+
+    /**
+     * @return the empty map
+     */
+    @SuppressWarnings("unchecked")
+    static <K, V> PersistentMap<K, V> empty() {
+        return (PersistentMap<K, V>) EMPTY;
+    }
+
+    private PersistentMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    // the hash of a key, with its high bits spread into the low bits the first levels use
+    private static int hash(Object key) {
+        int h = key.hashCode();
+        return h ^ (h >>> 16);
+    }
+
+    /**
+     * @return number of keys in this map
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return true iff this map has no keys
+     */
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @param key key to look up
+     * @return the value of key, or null if key is not in this map
+     */
+    @SuppressWarnings("unchecked")
+    V get(Object key) {
+        return (V) root.get(key, hash(key), 0);
+    }
+
+    /**
+     * @param key key to look up
+     * @return true iff key is in this map
+     */
+    boolean containsKey(Object key) {
+        return get(key) != null;
+    }
+
+    /**
+     * @param key key to map
+     * @param value value to map it to; must not be null
+     * @return a map like this one, except that key maps to value; this map itself if key
+     *    already maps to the very same value
+     */
+    PersistentMap<K, V> plus(K key, V value) {
+        assert key != null && value != null : "spec. contract broken";
+        boolean[] added = new boolean[1];
+        Node root = this.root.plus(key, hash(key), value, 0, added);
+        if (root == this.root) return this;
+        return new PersistentMap<K, V>(root, added[0] ? size + 1 : size);
+    }
+
+    /**
+     * @param key key to remove
+     * @return a map like this one, except without key; this map itself if key is not in it
+     */
+    PersistentMap<K, V> minus(Object key) {
+        Node root = this.root.minus(key, hash(key), 0);
+        if (root == this.root) return this;
+        return new PersistentMap<K, V>(root == null ? BitmapNode.EMPTY : root, size - 1);
+    }
+
+    /**
+     * @return an iterator over the entries of this map, in no particular order; it does
+     *    not support remove()
+     */
+    @Override
+    public Iterator<Map.Entry<K, V>> iterator() {
+        return new EntryIterator<K, V>(root);
+    }
+
+    /**
+     * Node is an immutable node of the trie.  Its array holds pairs: a key and its value,
+     * or, in a BitmapNode, null and a child node.
+     */
+    private static abstract class Node {
+        final Object[] array;
+
+        Node(Object[] array) {
+            this.array = array;
+        }
+
+        /**
+         * @return the value of key, which has the given hash, in the subtrie under this node
+         *    at the given shift, or null if there is none
+         */
+        abstract Object get(Object key, int hash, int shift);
+
+        /**
+         * @return this subtrie with key mapped to value, or this node if it already was;
+         *    sets added[0] iff key was not in the subtrie
+         */
+        abstract Node plus(Object key, int hash, Object value, int shift, boolean[] added);
+
+        /**
+         * @return this subtrie without key, this node if key was not in it, or null if
+         *    nothing is left
+         */
+        abstract Node minus(Object key, int hash, int shift);
+    }
+
+    /**
+     * BitmapNode is a node whose bitmap tells which of its 32 slots, chosen by the next BITS
+     * bits of a hash, are occupied; only those are stored, in slot order.
+     */
+    private static final class BitmapNode extends Node {
+        static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        final int bitmap;
+
+        BitmapNode(int bitmap, Object[] array) {
+            super(array);
+            this.bitmap = bitmap;
+        }
+
+        // the index in array of the pair of the slot with the given bit
+        private int index(int bit) {
+            return 2 * Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        @Override
+        Object get(Object key, int hash, int shift) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) return null;
+            int i = index(bit);
+            Object k = array[i];
+            if (k == null) return ((Node) array[i + 1]).get(key, hash, shift + BITS);
+            return key.equals(k) ? array[i + 1] : null;
+        }
+
+        @Override
+        Node plus(Object key, int hash, Object value, int shift, boolean[] added) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            int i = index(bit);
+            if ((bitmap & bit) == 0) {
+                added[0] = true;
+                return new BitmapNode(bitmap | bit, inserted(array, i, key, value));
+            }
+            Object k = array[i];
+            Object v = array[i + 1];
+            if (k == null) {
+                Node child = ((Node) v).plus(key, hash, value, shift + BITS, added);
+                return child == v ? this : new BitmapNode(bitmap, replaced(array, i + 1, child));
+            }
+            if (key.equals(k)) {
+                return v == value ? this : new BitmapNode(bitmap, replaced(array, i + 1, value));
+            }
+            added[0] = true;
+            Object[] pushed = replaced(array, i + 1, pair(k, v, key, hash, value, shift + BITS));
+            pushed[i] = null;
+            return new BitmapNode(bitmap, pushed);
+        }
+
+        @Override
+        Node minus(Object key, int hash, int shift) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0) return this;
+            int i = index(bit);
+            Object k = array[i];
+            Object v = array[i + 1];
+            if (k == null) {
+                Node child = ((Node) v).minus(key, hash, shift + BITS);
+                if (child == v) return this;
+                if (child != null) return new BitmapNode(bitmap, replaced(array, i + 1, child));
+            } else if (!key.equals(k)) {
+                return this;
+            }
+            if (bitmap == bit) return null;
+            return new BitmapNode(bitmap ^ bit, removed(array, i));
+        }
+    }
+
+    /**
+     * CollisionNode is a node holding the pairs of keys whose hashes are all equal.
+     */
+    private static final class CollisionNode extends Node {
+        final int hash;
+
+        CollisionNode(int hash, Object[] array) {
+            super(array);
+            this.hash = hash;
+        }
+
+        // the index in array of the pair of key, or -1 if none
+        private int indexOf(Object key) {
+            for (int i = 0; i < array.length; i += 2)
+                if (key.equals(array[i])) return i;
+            return -1;
+        }
+
+        @Override
+        Object get(Object key, int hash, int shift) {
+            if (hash != this.hash) return null;
+            int i = indexOf(key);
+            return i < 0 ? null : array[i + 1];
+        }
+
+        @Override
+        Node plus(Object key, int hash, Object value, int shift, boolean[] added) {
+            if (hash != this.hash) {
+                // push this node down under a bitmap node that tells the hashes apart
+                Node parent = new BitmapNode(1 << ((this.hash >>> shift) & MASK), new Object[] { null, this });
+                return parent.plus(key, hash, value, shift, added);
+            }
+            int i = indexOf(key);
+            if (i >= 0) return array[i + 1] == value ? this : new CollisionNode(hash, replaced(array, i + 1, value));
+            added[0] = true;
+            return new CollisionNode(hash, inserted(array, array.length, key, value));
+        }
+
+        @Override
+        Node minus(Object key, int hash, int shift) {
+            if (hash != this.hash) return this;
+            int i = indexOf(key);
+            if (i < 0) return this;
+            if (array.length == 2) return null;
+            return new CollisionNode(hash, removed(array, i));
+        }
+    }
+
+    // a subtrie at the given shift holding two distinct keys
+    private static Node pair(Object key1, Object value1, Object key2, int hash2, Object value2, int shift) {
+        int hash1 = hash(key1);
+        if (hash1 == hash2) return new CollisionNode(hash1, new Object[] { key1, value1, key2, value2 });
+        boolean[] added = new boolean[1];
+        return BitmapNode.EMPTY.plus(key1, hash1, value1, shift, added).plus(key2, hash2, value2, shift, added);
+    }
+
+    // a copy of array with a pair inserted at index i
+    private static Object[] inserted(Object[] array, int i, Object key, Object value) {
+        Object[] copy = new Object[array.length + 2];
+        System.arraycopy(array, 0, copy, 0, i);
+        copy[i] = key;
+        copy[i + 1] = value;
+        System.arraycopy(array, i, copy, i + 2, array.length - i);
+        return copy;
+    }
+
+    // a copy of array with element i replaced
+    private static Object[] replaced(Object[] array, int i, Object element) {
+        Object[] copy = array.clone();
+        copy[i] = element;
+        return copy;
+    }
+
+    // a copy of array without the pair at index i
+    private static Object[] removed(Object[] array, int i) {
+        Object[] copy = new Object[array.length - 2];
+        System.arraycopy(array, 0, copy, 0, i);
+        System.arraycopy(array, i + 2, copy, i, array.length - i - 2);
+        return copy;
+    }
+
+    /**
+     * EntryIterator walks a trie depth first, keeping the path to its next entry on a stack.
+     */
+    private static final class EntryIterator<K, V> implements Iterator<Map.Entry<K, V>> {
+        private final Object[][] arrays = new Object[MAX_DEPTH][];
+        private final int[] positions = new int[MAX_DEPTH];
+        private int depth;
+        private Object nextKey;
+        private Object nextValue;
+
+        EntryIterator(Node root) {
+            push(root);
+            advance();
+        }
+
+        private void push(Node node) {
+            arrays[depth] = node.array;
+            positions[depth] = 0;
+            depth++;
+        }
+
+        // find the next entry, or set nextKey to null if there is none
+        private void advance() {
+            while (depth > 0) {
+                Object[] array = arrays[depth - 1];
+                int i = positions[depth - 1];
+                if (i == array.length) {
+                    depth--;
+                    continue;
+                }
+                positions[depth - 1] = i + 2;
+                if (array[i] == null) {
+                    push((Node) array[i + 1]);
+                } else {
+                    nextKey = array[i];
+                    nextValue = array[i + 1];
+                    return;
+                }
+            }
+            nextKey = null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return nextKey != null;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public Map.Entry<K, V> next() {
+            if (nextKey == null) throw new NoSuchElementException();
+            Map.Entry<K, V> entry = new AbstractMap.SimpleImmutableEntry<K, V>((K) nextKey, (V) nextValue);
+            advance();
+            return entry;
+        }
+
+        @Override
+        public void remove() {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
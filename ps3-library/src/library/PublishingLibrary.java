@@ -0,0 +1,306 @@
+package library;
+
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * PublishingLibrary is a Library that forwards every operation to another library, and
+ * publishes an event to a ChangeFeed for each copy that a buy, checkout, checkin or lose
+ * changes.  A change of a copy's condition is published when it is made through
+ * setCondition(copy, condition); setting it on the copy itself publishes nothing.
+ *
+ * Calls that throw publish nothing.  That includes a batch (buyAll, checkoutAll, checkinAll)
+ * that the wrapped library applied in part before throwing, as a JournalingLibrary whose
+ * journal fails to write may: the copies it did change get no events, so a subscriber that
+ * must not miss a change should resynchronize from the library after such a failure.
+ *
+ * Each change is made and published in one critical section per book, so the events about
+ * the copies of one book reach subscribers in the order their changes were made, even when
+ * threads race on the same copy.  Events about copies of different books, or made by one
+ * thread, reach subscribers in the order they were published.
+ *
+ * PublishingLibrary is as thread-safe as the library it wraps; its feed must allow MULTI
+ * producers unless only one thread changes the library at a time.  A subscriber to the feed
+ * must not change this library: a change publishes while holding its book's lock, and on a
+ * feed that BLOCKs when full it waits there for the slowest subscriber, so a subscriber that
+ * called back into this library on a book of a held lock would deadlock.
+ */
+public class PublishingLibrary implements Library {
+
+    // number of locks the books are striped over; a power of 2
+    private static final int STRIPES = 64;
+
+    // rep
+    private final Library library;
+    private final ChangeFeed feed;
+    private final ReentrantLock[] locks;
+
+    // rep invariant:
+    //    locks has STRIPES locks
+    //
+    // abstraction function:
+    //    represents the library `library`, whose changes made through this object are
+    //      published to feed
+    //
+    // safety from rep exposure:
+    //    all fields are private and final; library and locks are never returned, and feed is
+    //      shared on purpose, with its subscribers.
+    //
+    // thread safety argument:
+    //    library is as thread-safe as it is, and feed is thread-safe.
+    //    Every change to a copy of a book, and the publishing of its event, happens while
+    //      holding the lock of the book's stripe, so two changes to copies of one book are
+    //      published in the order they were made.  A batch takes the locks of all its books'
+    //      stripes, in increasing order, so batches cannot deadlock with each other.
+    //    A publish on a full BLOCK feed waits for subscribers while holding those locks,
+    //      which is why subscribers must not change this library.
+    //
+    // performance:
+    //    each change costs one ChangeFeed.publish() per copy, which allocates nothing, plus an
+    //      uncontended lock; a batch also allocates a BitSet of the stripes it locks.
+    //    Changes to books of the same stripe are serialized, though the library may not be.
+
+    /**
+     * Make a publishing library.
+     * @param library library to forward operations to
+     * @param feed feed to publish changes to
+     */
+    public PublishingLibrary(Library library, ChangeFeed feed) {
+        assert library != null && feed != null : "spec. contract broken";
+        this.library = library;
+        this.feed = feed;
+        this.locks = new ReentrantLock[STRIPES];
+        for (int i = 0; i < STRIPES; i++)
+            locks[i] = new ReentrantLock();
+    }
+
+    /**
+     * @return the feed this library publishes its changes to
+     */
+    public ChangeFeed feed() {
+        return feed;
+    }
+
+    // the stripe of book
+    private static int stripe(Book book) {
+        int h = book.hashCode();
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+
+    // the lock of the stripe of book
+    private ReentrantLock lockOf(Book book) {
+        return locks[stripe(book)];
+    }
+
+    // lock the stripes of the given books, in increasing order; returns the stripes locked
+    private BitSet lockAll(Collection<Book> books) {
+        BitSet stripes = new BitSet(STRIPES);
+        for (Book book : books)
+            stripes.set(stripe(book));
+        return lock(stripes);
+    }
+
+    // lock the stripes of the books of the given copies, as lockAll does
+    private BitSet lockCopies(Collection<BookCopy> copies) {
+        BitSet stripes = new BitSet(STRIPES);
+        for (BookCopy copy : copies)
+            stripes.set(stripe(copy.getBook()));
+        return lock(stripes);
+    }
+
+    // lock the given stripes, in increasing order; returns them
+    private BitSet lock(BitSet stripes) {
+        for (int i = stripes.nextSetBit(0); i >= 0; i = stripes.nextSetBit(i + 1))
+            locks[i].lock();
+        return stripes;
+    }
+
+    // unlock the stripes locked by lockAll or lockCopies
+    private void unlockAll(BitSet stripes) {
+        for (int i = stripes.nextSetBit(0); i >= 0; i = stripes.nextSetBit(i + 1))
+            locks[i].unlock();
+    }
+
+    // publish an event about a copy, in the condition it has now
+    private void publish(ChangeFeed.Kind kind, BookCopy copy) {
+        feed.publish(kind, copy, copy.getCondition());
+    }
+
+    /**
+     * Set the condition of a copy, and publish a CONDITION event about it.
+     * @param copy copy to set the condition of
+     * @param condition the latest condition of the copy
+     */
+    public void setCondition(BookCopy copy, BookCopy.Condition condition) {
+        assert copy != null && condition != null : "spec. contract broken";
+        ReentrantLock lock = lockOf(copy.getBook());
+        lock.lock();
+        try {
+            copy.setCondition(condition);
+            feed.publish(ChangeFeed.Kind.CONDITION, copy, condition);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public BookCopy buy(Book book) {
+        ReentrantLock lock = lockOf(book);
+        lock.lock();
+        try {
+            BookCopy copy = library.buy(book);
+            publish(ChangeFeed.Kind.BUY, copy);
+            return copy;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<BookCopy> buyAll(Book book, int count) {
+        ReentrantLock lock = lockOf(book);
+        lock.lock();
+        try {
+            List<BookCopy> copies = library.buyAll(book, count);
+            for (BookCopy copy : copies)
+                publish(ChangeFeed.Kind.BUY, copy);
+            return copies;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public List<BookCopy> buyAll(Collection<Book> books) {
+        BitSet stripes = lockAll(books);
+        try {
+            List<BookCopy> copies = library.buyAll(books);
+            for (BookCopy copy : copies)
+                publish(ChangeFeed.Kind.BUY, copy);
+            return copies;
+        } finally {
+            unlockAll(stripes);
+        }
+    }
+
+    @Override
+    public void checkout(BookCopy copy) {
+        ReentrantLock lock = lockOf(copy.getBook());
+        lock.lock();
+        try {
+            library.checkout(copy);
+            publish(ChangeFeed.Kind.CHECKOUT, copy);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void checkoutAll(Collection<BookCopy> copies) {
+        BitSet stripes = lockCopies(copies);
+        try {
+            library.checkoutAll(copies);
+            for (BookCopy copy : copies)
+                publish(ChangeFeed.Kind.CHECKOUT, copy);
+        } finally {
+            unlockAll(stripes);
+        }
+    }
+
+    @Override
+    public BookCopy checkoutAny(Book book) {
+        ReentrantLock lock = lockOf(book);
+        lock.lock();
+        try {
+            BookCopy copy = library.checkoutAny(book);
+            if (copy != null) publish(ChangeFeed.Kind.CHECKOUT, copy);
+            return copy;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void checkin(BookCopy copy) {
+        ReentrantLock lock = lockOf(copy.getBook());
+        lock.lock();
+        try {
+            library.checkin(copy);
+            publish(ChangeFeed.Kind.CHECKIN, copy);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void checkinAll(Collection<BookCopy> copies) {
+        BitSet stripes = lockCopies(copies);
+        try {
+            library.checkinAll(copies);
+            for (BookCopy copy : copies)
+                publish(ChangeFeed.Kind.CHECKIN, copy);
+        } finally {
+            unlockAll(stripes);
+        }
+    }
+
+    @Override
+    public boolean isAvailable(BookCopy copy) {
+        return library.isAvailable(copy);
+    }
+
+    @Override
+    public Set<BookCopy> allCopies(Book book) {
+        return library.allCopies(book);
+    }
+
+    @Override
+    public Set<BookCopy> availableCopies(Book book) {
+        return library.availableCopies(book);
+    }
+
+    @Override
+    public int countCopies(Book book) {
+        return library.countCopies(book);
+    }
+
+    @Override
+    public int countAvailable(Book book) {
+        return library.countAvailable(book);
+    }
+
+    @Override
+    public Set<BookCopy> allCopiesView(Book book) {
+        return library.allCopiesView(book);
+    }
+
+    @Override
+    public Set<BookCopy> availableCopiesView(Book book) {
+        return library.availableCopiesView(book);
+    }
+
+    @Override
+    public List<Book> find(String query) {
+        return library.find(query);
+    }
+
+    @Override
+    public List<Book> find(String query, int offset, int limit) {
+        return library.find(query, offset, limit);
+    }
+
+    @Override
+    public void lose(BookCopy copy) {
+        ReentrantLock lock = lockOf(copy.getBook());
+        lock.lock();
+        try {
+            library.lose(copy);
+            publish(ChangeFeed.Kind.LOSE, copy);
+        } finally {
+            lock.unlock();
+        }
+    }
+}
@@ -0,0 +1,343 @@
+package library;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ShardedLibrary is a thread-safe Library that partitions its books by hash code across several
+ * BigLibrary shards, each with its own lock.  Operations on copies of a book lock only the shard
+ * of that book, so operations on books of different shards run in parallel.
+ *
+ * find runs on every shard at once, on a worker thread of each shard, and merges their ranked
+ * results.  Shards score their books with the search statistics of the whole library, summed
+ * from all shards before the search, so the merged ranking is the one a single BigLibrary
+ * holding every book would return.  A find that runs while books are bought or lost sees each
+ * shard at some moment during the find, not all shards at the same moment, and may score with
+ * statistics from before some of those changes.
+ */
+public class ShardedLibrary implements Library, Closeable {
+
+    // how long a shard's worker thread waits for another search before it ends
+    private static final long WORKER_IDLE_SECONDS = 10;
+
+    // rep
+    private final BigLibrary[] shards;
+    private final ThreadPoolExecutor[] workers;
+
+    // rep invariant:
+    //    shards and workers have the same positive length
+    //    every book of shards[i] has shardIndex(book) == i
+    //
+    // abstraction function:
+    //    represents the library whose copies are the copies of all the shards
+    //
+    // safety from rep exposure:
+    //    all fields are private and final, and the shards and workers are never returned;
+    //    shards only return fresh sets and lists, and share Books and BookCopys on purpose.
+    //
+    // thread safety argument:
+    //    shards[i] is guarded by its own lock, which every access to it holds, including the
+    //      searches run by workers[i].  No thread holds two shard locks at once.
+    //    The copies views are Library's defaults, so every read of one goes through
+    //      allCopies() or availableCopies(), never to a shard's shelves directly.
+    //    workers are thread-safe executors, and are final.
+    //
+    // performance:
+    //    an operation on copies costs the BigLibrary operation, plus one uncontended lock if
+    //      other threads work on other shards.  find(query, offset, limit) costs a statistics
+    //      lookup per shard, then the slowest shard's search for its best offset + limit hits,
+    //      and an (offset + limit) log(shards) merge.
+
+    /**
+     * Make an empty library with one shard per processor.
+     */
+    public ShardedLibrary() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Make an empty library.
+     * @param shardCount number of shards; must be positive
+     */
+    public ShardedLibrary(int shardCount) {
+        assert shardCount > 0 : "spec. contract broken";
+        shards = new BigLibrary[shardCount];
+        workers = new ThreadPoolExecutor[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new BigLibrary();
+            final String name = "library shard " + i;
+            workers[i] = new ThreadPoolExecutor(1, 1, WORKER_IDLE_SECONDS, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                        public Thread newThread(Runnable task) {
+                            Thread thread = new Thread(task, name);
+                            thread.setDaemon(true);
+                            return thread;
+                        }
+                    });
+            workers[i].allowCoreThreadTimeOut(true);
+        }
+        checkRep();
+    }
+
+    // assert the rep invariant, except that books are on the right shards, which would take
+    // linear time
+    private void checkRep() {
+        assert shards.length > 0 && shards.length == workers.length : "broken rep. invariant";
+    }
+
+    /**
+     * @return the number of shards of this library
+     */
+    public int shardCount() {
+        return shards.length;
+    }
+
+    // the index of the shard that holds book's copies
+    private int shardIndex(Book book) {
+        int hash = book.hashCode();
+        return Math.floorMod(hash ^ (hash >>> 16), shards.length);
+    }
+
+    // the shard that holds book's copies
+    private BigLibrary shardOf(Book book) {
+        return shards[shardIndex(book)];
+    }
+
+    /**
+     * Stop the worker threads of this library.  The library must not be used afterwards.
+     * Idle worker threads also end by themselves, so closing is optional.
+     */
+    @Override
+    public void close() {
+        for (ThreadPoolExecutor worker : workers)
+            worker.shutdown();
+    }
+
+    @Override
+    public BookCopy buy(Book book) {
+        BigLibrary shard = shardOf(book);
+        synchronized (shard) {
+            return shard.buy(book);
+        }
+    }
+
+    @Override
+    public List<BookCopy> buyAll(Book book, int count) {
+        BigLibrary shard = shardOf(book);
+        synchronized (shard) {
+            return shard.buyAll(book, count);
+        }
+    }
+
+    @Override
+    public List<BookCopy> buyAll(Collection<Book> books) {
+        List<List<Book>> batches = new ArrayList<List<Book>>();
+        List<List<Integer>> positions = new ArrayList<List<Integer>>();
+        for (int i = 0; i < shards.length; i++) {
+            batches.add(new ArrayList<Book>());
+            positions.add(new ArrayList<Integer>());
+        }
+        int position = 0;
+        for (Book book : books) {
+            int i = shardIndex(book);
+            batches.get(i).add(book);
+            positions.get(i).add(position++);
+        }
+        BookCopy[] copies = new BookCopy[position];
+        for (int i = 0; i < shards.length; i++) {
+            if (batches.get(i).isEmpty()) continue;
+            List<BookCopy> bought;
+            synchronized (shards[i]) {
+                bought = shards[i].buyAll(batches.get(i));
+            }
+            for (int j = 0; j < bought.size(); j++)
+                copies[positions.get(i).get(j)] = bought.get(j);
+        }
+        return new ArrayList<BookCopy>(Arrays.asList(copies));
+    }
+
+    @Override
+    public void checkout(BookCopy copy) {
+        BigLibrary shard = shardOf(copy.getBook());
+        synchronized (shard) {
+            shard.checkout(copy);
+        }
+    }
+
+    @Override
+    public BookCopy checkoutAny(Book book) {
+        BigLibrary shard = shardOf(book);
+        synchronized (shard) {
+            return shard.checkoutAny(book);
+        }
+    }
+
+    @Override
+    public void checkin(BookCopy copy) {
+        BigLibrary shard = shardOf(copy.getBook());
+        synchronized (shard) {
+            shard.checkin(copy);
+        }
+    }
+
+    @Override
+    public boolean isAvailable(BookCopy copy) {
+        BigLibrary shard = shardOf(copy.getBook());
+        synchronized (shard) {
+            return shard.isAvailable(copy);
+        }
+    }
+
+    @Override
+    public Set<BookCopy> allCopies(Book book) {
+        BigLibrary shard = shardOf(book);
+        synchronized (shard) {
+            return shard.allCopies(book);
+        }
+    }
+
+    @Override
+    public Set<BookCopy> availableCopies(Book book) {
+        BigLibrary shard = shardOf(book);
+        synchronized (shard) {
+            return shard.availableCopies(book);
+        }
+    }
+
+    @Override
+    public int countCopies(Book book) {
+        BigLibrary shard = shardOf(book);
+        synchronized (shard) {
+            return shard.countCopies(book);
+        }
+    }
+
+    @Override
+    public int countAvailable(Book book) {
+        BigLibrary shard = shardOf(book);
+        synchronized (shard) {
+            return shard.countAvailable(book);
+        }
+    }
+
+    @Override
+    public void lose(BookCopy copy) {
+        BigLibrary shard = shardOf(copy.getBook());
+        synchronized (shard) {
+            shard.lose(copy);
+        }
+    }
+
+    @Override
+    public List<Book> find(String query) {
+        assert query != null : "spec. contract broken";
+        List<Book> found = new ArrayList<Book>();
+        for (TokenIndex.Hit hit : search(query, Integer.MAX_VALUE))
+            found.add(hit.book);
+        return found;
+    }
+
+    @Override
+    public List<Book> find(String query, int offset, int limit) {
+        assert query != null : "spec. contract broken";
+        assert offset >= 0 && limit >= 0 : "spec. contract broken";
+        List<Book> found = new ArrayList<Book>();
+        if (limit == 0) return found;
+        int k = (int) Math.min((long) offset + limit, Integer.MAX_VALUE);
+        List<TokenIndex.Hit> hits = search(query, k);
+        for (int i = offset; i < hits.size(); i++)
+            found.add(hits.get(i).book);
+        return found;
+    }
+
+    // the best k hits for query over all shards, ordered by TokenIndex.BEST_FIRST
+    private List<TokenIndex.Hit> search(String query, final int k) {
+        final Map<String, Double> weights = new HashMap<String, Double>();
+        for (String token : TokenIndex.tokenize(query))
+            weights.put(token, 1.0);
+        TokenIndex.Statistics total = null;
+        for (BigLibrary shard : shards) {
+            TokenIndex.Statistics statistics;
+            synchronized (shard) {
+                statistics = shard.statistics(weights.keySet());
+            }
+            total = total == null ? statistics : total.plus(statistics);
+        }
+        final TokenIndex.Statistics statistics = total;
+        List<Future<List<TokenIndex.Hit>>> searches = new ArrayList<Future<List<TokenIndex.Hit>>>();
+        for (int i = 0; i < shards.length; i++) {
+            final BigLibrary shard = shards[i];
+            searches.add(workers[i].submit(new Callable<List<TokenIndex.Hit>>() {
+                public List<TokenIndex.Hit> call() {
+                    synchronized (shard) {
+                        return shard.search(weights, k, statistics);
+                    }
+                }
+            }));
+        }
+        List<List<TokenIndex.Hit>> ranked = new ArrayList<List<TokenIndex.Hit>>();
+        for (Future<List<TokenIndex.Hit>> search : searches)
+            ranked.add(await(search));
+        return merge(ranked, k);
+    }
+
+    // the result of a search, waiting for it without being interrupted
+    private static <T> T await(Future<T> future) {
+        boolean interrupted = false;
+        try {
+            while (true) {
+                try {
+                    return future.get();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+                    if (e.getCause() instanceof Error) throw (Error) e.getCause();
+                    throw new IllegalStateException("shard search failed", e.getCause());
+                }
+            }
+        } finally {
+            if (interrupted) Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Merge ranked lists of hits with a k-way merge.
+     * @param ranked lists of hits, each ordered by TokenIndex.BEST_FIRST, sharing no books
+     * @param k maximum number of hits to return; must be positive
+     * @return the best k hits of all the lists, ordered by TokenIndex.BEST_FIRST
+     */
+    static List<TokenIndex.Hit> merge(final List<List<TokenIndex.Hit>> ranked, int k) {
+        // heads holds {list, position} of the next hit of each list that has one left
+        PriorityQueue<int[]> heads = new PriorityQueue<int[]>(Math.max(1, ranked.size()), new Comparator<int[]>() {
+            public int compare(int[] h1, int[] h2) {
+                return TokenIndex.BEST_FIRST.compare(ranked.get(h1[0]).get(h1[1]), ranked.get(h2[0]).get(h2[1]));
+            }
+        });
+        for (int i = 0; i < ranked.size(); i++)
+            if (!ranked.get(i).isEmpty()) heads.add(new int[] { i, 0 });
+        List<TokenIndex.Hit> merged = new ArrayList<TokenIndex.Hit>();
+        while (merged.size() < k && !heads.isEmpty()) {
+            int[] head = heads.poll();
+            List<TokenIndex.Hit> list = ranked.get(head[0]);
+            merged.add(list.get(head[1]));
+            if (++head[1] < list.size()) heads.add(head);
+        }
+        return merged;
+    }
+}
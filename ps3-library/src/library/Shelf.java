@@ -0,0 +1,236 @@
+package library;
+
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Shelf is a mutable registry of the copies of one Book owned by a library.  Every copy on the
+ * shelf is either available (in the building) or checked out.  All operations on a single copy
+ * run in constant time; operations that list copies run in time proportional to the number of
+ * copies of this book, never to the size of the library.
+ */
+class Shelf {
+
+    // rep
+    private final Book book;
+    private final Set<BookCopy> inLibrary;
+    private final Set<BookCopy> checkedOut;
+
+    // rep invariant:
+    //    the intersection of inLibrary and checkedOut is the empty set
+    //    every copy in inLibrary or checkedOut is a copy of book
+    //
+    // abstraction function:
+    //    represents the copies of book owned by a library, inLibrary union checkedOut,
+    //      where if a book copy is in inLibrary then it is available,
+    //      and if a copy is in checkedOut then it is checked out
+    //
+    // safety from rep exposure:
+    //    all fields are private and final;
+    //    book is an immutable Book;
+    //    inLibrary and checkedOut are mutable Sets, so allCopies() and availableCopies()
+    //      return fresh sets instead of sharing them with clients, and allView() and
+    //      availableView() only return unmodifiable views of them.
+    //    Copies are intentionally shared: a BookCopy is the identity clients hand back to us.
+
+    /**
+     * Make an empty shelf.
+     * @param book Book whose copies this shelf holds
+     */
+    Shelf(Book book) {
+        assert book != null : "spec. contract broken";
+        this.book = book;
+        this.inLibrary = new LinkedHashSet<BookCopy>();
+        this.checkedOut = new LinkedHashSet<BookCopy>();
+    }
+
+    // assert the rep invariant, sampled at a copy and at the oldest copy of each set, so that
+    // the check costs O(1) rather than O(copies of book)
+    void checkRep(BookCopy sample) {
+        if (sample != null) checkRepAt(sample);
+        if (!inLibrary.isEmpty()) checkRepAt(inLibrary.iterator().next());
+        if (!checkedOut.isEmpty()) checkRepAt(checkedOut.iterator().next());
+    }
+
+    // assert the rep invariant for one copy
+    private void checkRepAt(BookCopy copy) {
+        boolean available = inLibrary.contains(copy);
+        boolean out = checkedOut.contains(copy);
+        assert !(available && out) : "broken rep. invariant";
+        assert !(available || out) || copy.getBook().equals(book) : "broken rep. invariant";
+    }
+
+    /**
+     * @return the Book whose copies are on this shelf
+     */
+    Book getBook() {
+        return book;
+    }
+
+    /**
+     * Add a new copy to this shelf as available.
+     * @param copy copy of this shelf's book, not already on this shelf
+     */
+    void add(BookCopy copy) {
+        assert copy.getBook().equals(book) : "spec. contract broken";
+        inLibrary.add(copy);
+    }
+
+    /**
+     * Move all the copies of another shelf of the same book onto this shelf,
+     * keeping their availability.  The other shelf must not be used afterwards.
+     * @param other shelf of the same book, sharing no copies with this shelf
+     */
+    void absorb(Shelf other) {
+        assert other.book.equals(book) : "spec. contract broken";
+        inLibrary.addAll(other.inLibrary);
+        checkedOut.addAll(other.checkedOut);
+    }
+
+    /**
+     * Move a copy from available to checked out.
+     * @param copy copy to check out
+     * @return true iff the copy was available on this shelf
+     */
+    boolean checkout(BookCopy copy) {
+        if (!inLibrary.remove(copy)) return false;
+        checkedOut.add(copy);
+        return true;
+    }
+
+    /**
+     * Check out some available copy.
+     * @return the copy that has been available the longest, now checked out,
+     *    or null if no copy was available
+     */
+    BookCopy checkoutAny() {
+        if (inLibrary.isEmpty()) return null;
+        BookCopy copy = inLibrary.iterator().next();
+        checkout(copy);
+        return copy;
+    }
+
+    /**
+     * Move a copy from checked out to available.
+     * @param copy copy to check in
+     * @return true iff the copy was checked out from this shelf
+     */
+    boolean checkin(BookCopy copy) {
+        if (!checkedOut.remove(copy)) return false;
+        inLibrary.add(copy);
+        return true;
+    }
+
+    /**
+     * @param copy copy to test
+     * @return true iff copy is on this shelf and available
+     */
+    boolean isAvailable(BookCopy copy) {
+        return inLibrary.contains(copy);
+    }
+
+    /**
+     * Remove a copy from this shelf, whether available or checked out.
+     * @param copy copy to remove
+     * @return true iff the copy was on this shelf
+     */
+    boolean remove(BookCopy copy) {
+        return inLibrary.remove(copy) || checkedOut.remove(copy);
+    }
+
+    /**
+     * @return number of copies on this shelf, available or checked out
+     */
+    int size() {
+        return inLibrary.size() + checkedOut.size();
+    }
+
+    /**
+     * @return number of available copies on this shelf
+     */
+    int availableCount() {
+        return inLibrary.size();
+    }
+
+    /**
+     * @return true iff this shelf holds no copies
+     */
+    boolean isEmpty() {
+        return inLibrary.isEmpty() && checkedOut.isEmpty();
+    }
+
+    /**
+     * @return a fresh set of all copies on this shelf
+     */
+    Set<BookCopy> allCopies() {
+        Set<BookCopy> copies = new HashSet<BookCopy>(inLibrary);
+        copies.addAll(checkedOut);
+        return copies;
+    }
+
+    /**
+     * @return a fresh list of all copies on this shelf: the available copies in the order they
+     *    became available, then the checked-out copies in the order they were checked out.
+     *    A shelf built by adding copies in this order, then checking out the checked-out ones,
+     *    lists its copies in the same order.
+     */
+    List<BookCopy> copies() {
+        List<BookCopy> copies = new ArrayList<BookCopy>(inLibrary);
+        copies.addAll(checkedOut);
+        return copies;
+    }
+
+    /**
+     * @return a fresh set of the available copies on this shelf
+     */
+    Set<BookCopy> availableCopies() {
+        return new HashSet<BookCopy>(inLibrary);
+    }
+
+    /**
+     * @return an unmodifiable live view of the available copies on this shelf
+     */
+    Set<BookCopy> availableView() {
+        return Collections.unmodifiableSet(inLibrary);
+    }
+
+    /**
+     * @return an unmodifiable live view of all copies on this shelf, the available copies
+     *    first, in the order of copies()
+     */
+    Set<BookCopy> allView() {
+        return new AbstractSet<BookCopy>() {
+            @Override
+            public int size() {
+                return Shelf.this.size();
+            }
+
+            @Override
+            public boolean contains(Object o) {
+                return inLibrary.contains(o) || checkedOut.contains(o);
+            }
+
+            @Override
+            public Iterator<BookCopy> iterator() {
+                // the inherited remove() throws UnsupportedOperationException
+                final Iterator<BookCopy> available = inLibrary.iterator();
+                final Iterator<BookCopy> out = checkedOut.iterator();
+                return new Iterator<BookCopy>() {
+                    public boolean hasNext() {
+                        return available.hasNext() || out.hasNext();
+                    }
+
+                    public BookCopy next() {
+                        return available.hasNext() ? available.next() : out.next();
+                    }
+                };
+            }
+        };
+    }
+}
@@ -2,10 +2,13 @@ package library;
 
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.PriorityQueue;
 import java.util.Set;
 
 /** 
@@ -55,6 +58,25 @@ public class SmallLibrary implements Library {
         return bookCopy;
     }
     
+    @Override
+    public List<BookCopy> buyAll(Book book, int count) {
+    	return buyAll(Collections.nCopies(count, book));
+    }
+    
+    @Override
+    public List<BookCopy> buyAll(Collection<Book> books) {
+    	List<BookCopy> copies = new ArrayList<BookCopy>(books.size());
+    	for (Book book : books) {
+    		assert book != null : "spec. contract broken";
+    		BookCopy bookCopy = new BookCopy(book);
+    		inLibrary.add(bookCopy);
+    		copies.add(bookCopy);
+    	}
+    	// checkRep() is linear in the size of the library, so check once per batch
+    	checkRep();
+    	return copies;
+    }
+    
     @Override
     public void checkout(BookCopy copy) {
     	assert copy != null : "spec. contract broken";   	
@@ -76,44 +98,76 @@ public class SmallLibrary implements Library {
     @Override
     public Set<BookCopy> allCopies(Book book) {
     	assert book != null : "spec. contract broken"; 
-        Set<BookCopy> allCopies = new HashSet();
-        for (BookCopy copy : inLibrary) 
-        	if(copy.getBook().equals(book))
-        		allCopies.add(new BookCopy(book));
+        Set<BookCopy> allCopies = availableCopies(book);
         for (BookCopy copy : checkedOut) 
         	if(copy.getBook().equals(book))
-        		allCopies.add(new BookCopy(book));        
+        		allCopies.add(copy);        
         return allCopies;
     }
     
     @Override
     public Set<BookCopy> availableCopies(Book book) {
     	assert book != null : "spec. contract broken"; 
-        Set<BookCopy> availableCopies = new HashSet();
+        Set<BookCopy> availableCopies = new HashSet<BookCopy>();
         for (BookCopy copy : inLibrary) 
         	if(copy.getBook().equals(book))
-        		availableCopies.add(new BookCopy(book));
+        		availableCopies.add(copy);
         return availableCopies;
     }
 
     @Override
     public List<Book> find(String query) {
+        return find(query, 0, Integer.MAX_VALUE);
+    }
+    
+    @Override
+    public List<Book> find(String query, int offset, int limit) {
        	assert query != null : "spec. contract broken"; 
-        List<Book> foundCopies = new ArrayList<Book>();
- 
-        for (BookCopy copy : inLibrary) { 
-        	Book book = copy.getBook();
-        	if((book.getTitle().contains(query) || book.getAuthors().contains(query))
-        		 && !foundCopies.contains(book))
-        		foundCopies.add(book);
+       	assert offset >= 0 && limit >= 0 : "spec. contract broken";
+        List<Book> found = new ArrayList<Book>();
+        if (limit == 0) return found;
+        int k = (int) Math.min((long) offset + limit, Integer.MAX_VALUE);
+        
+        // keep only the best k matches, worst at the root of the heap;
+        // kept mirrors the heap so that a book with several copies is counted once
+        BookComparator order = new BookComparator();
+        PriorityQueue<Book> best = new PriorityQueue<Book>(11, Collections.reverseOrder(order));
+        Set<Book> kept = new HashSet<Book>();
+        for (Set<BookCopy> copies : Arrays.asList(inLibrary, checkedOut)) {
+            for (BookCopy copy : copies) {
+                Book book = copy.getBook();
+                if (kept.contains(book) 
+                        || !matches(book, query))
+                    continue;
+                if (best.size() < k) {
+                    best.add(book);
+                    kept.add(book);
+                } else if (order.compare(book, best.peek()) < 0) {
+                    kept.remove(best.poll());
+                    best.add(book);
+                    kept.add(book);
+                }
+            }
         }
-        foundCopies.sort(new BookComparator());
-        return foundCopies;
+        
+        found.addAll(best);
+        found.sort(order);
+        return new ArrayList<Book>(found.subList(Math.min(offset, found.size()), found.size()));
+    }
+    
+    // true iff query is a substring of book's title, or exactly one of its authors
+    private static boolean matches(Book book, String query) {
+    	if (book.getTitle().contains(query)) return true;
+    	for (int i = 0; i < book.authorCount(); i++)
+    		if (book.getAuthor(i).equals(query)) return true;
+    	return false;
     }
     
+    // orders books newest edition first, then by title
     private class BookComparator implements Comparator<Book> {
     	public int compare (Book b1, Book b2) {
-    		return (b1.getYear() < b2.getYear() ? -1 : (b1.getYear() == b2.getYear() ? 0 : 1));
+    		int byYear = Integer.compare(b2.getYear(), b1.getYear());
+    		return byYear != 0 ? byYear : b1.getTitle().compareTo(b2.getTitle());
     	}
     }
     
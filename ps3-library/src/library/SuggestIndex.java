@@ -0,0 +1,397 @@
+package library;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * SuggestIndex is a mutable autocomplete index: a path-compressed trie over the tokens of book
+ * titles and author names, as TokenIndex splits them.  Every node caches the best TOP books
+ * whose tokens pass through it, so completing a partial word costs time proportional to the
+ * length of the word, however many books share its prefix.
+ *
+ * Adding a book costs O(length) per token.  Removing one costs the same, unless the book was
+ * among the best TOP books having exactly one of its tokens: then that token's books are
+ * scanned to refill the cache.
+ */
+class SuggestIndex {
+
+    // number of books cached at every node
+    static final int TOP = 10;
+
+    private static final Book[] NO_BOOKS = new Book[0];
+    private static final Node[] NO_CHILDREN = new Node[0];
+
+    /**
+     * Orders books newest edition first, then by title and authors, as BEST_FIRST orders
+     * equally scored hits.
+     */
+    static final Comparator<Book> NEWEST_FIRST = new Comparator<Book>() {
+        public int compare(Book b1, Book b2) {
+            int byYear = Integer.compare(b2.getYear(), b1.getYear());
+            if (byYear != 0) return byYear;
+            int byTitle = b1.getTitle().compareTo(b2.getTitle());
+            if (byTitle != 0) return byTitle;
+            for (int i = 0; i < b1.authorCount() && i < b2.authorCount(); i++) {
+                int byAuthor = b1.getAuthor(i).compareTo(b2.getAuthor(i));
+                if (byAuthor != 0) return byAuthor;
+            }
+            return Integer.compare(b1.authorCount(), b2.authorCount());
+        }
+    };
+
+    /**
+     * Node is a mutable trie node, reached from its parent by a nonempty label.
+     */
+    private static class Node {
+        String label;
+        Node[] children = NO_CHILDREN;  // sorted by the first char of their labels
+        Object books;                   // books having exactly this node's token: null,
+                                        //   one Book, or a HashSet of at least 2 Books
+        Book[] top = NO_BOOKS;          // best books at or below this node, best first
+        int count;                      // number of (token, book) pairs at or below this node
+
+        Node(String label) {
+            this.label = label;
+        }
+
+        // the books having exactly this node's token
+        @SuppressWarnings("unchecked")
+        Collection<Book> books() {
+            if (books == null) return Collections.emptySet();
+            if (books instanceof Book) return Collections.singleton((Book) books);
+            return (Set<Book>) books;
+        }
+
+        // most tokens belong to a single book, so a second book is what makes a set
+        @SuppressWarnings("unchecked")
+        void addBook(Book book) {
+            if (books == null) {
+                books = book;
+            } else if (books instanceof Book) {
+                Set<Book> set = new HashSet<Book>();
+                set.add((Book) books);
+                set.add(book);
+                books = set;
+            } else {
+                ((Set<Book>) books).add(book);
+            }
+        }
+
+        // true iff book was one of the books having this node's token
+        @SuppressWarnings("unchecked")
+        boolean removeBook(Book book) {
+            if (books == null) return false;
+            if (books instanceof Book) {
+                if (!books.equals(book)) return false;
+                books = null;
+                return true;
+            }
+            Set<Book> set = (Set<Book>) books;
+            if (!set.remove(book)) return false;
+            if (set.size() == 1) books = set.iterator().next();
+            return true;
+        }
+
+        // index of the child whose label starts with c, or -(insertion point) - 1
+        int find(char c) {
+            int low = 0, high = children.length - 1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                char key = children[mid].label.charAt(0);
+                if (key < c) low = mid + 1;
+                else if (key > c) high = mid - 1;
+                else return mid;
+            }
+            return -(low + 1);
+        }
+
+        void insertChild(int at, Node child) {
+            Node[] grown = new Node[children.length + 1];
+            System.arraycopy(children, 0, grown, 0, at);
+            grown[at] = child;
+            System.arraycopy(children, at, grown, at + 1, children.length - at);
+            children = grown;
+        }
+
+        void removeChild(int at) {
+            Node[] shrunk = new Node[children.length - 1];
+            System.arraycopy(children, 0, shrunk, 0, at);
+            System.arraycopy(children, at + 1, shrunk, at, shrunk.length - at);
+            children = shrunk;
+        }
+    }
+
+    // rep
+    private final Node root;
+
+    // rep invariant:
+    //    every node but root has a nonempty label, and the labels of a node's children start
+    //      with distinct chars, in increasing order
+    //    every node but root has books or children, and a node without books has at least
+    //      2 children unless it is root
+    //    the token of a node is the concatenation of the labels from root to it, and every book
+    //      in its books has that token among TokenIndex.tokensOf(book)
+    //    top holds the best min(TOP, n) of the n distinct books in the books of the node and
+    //      its descendants, ordered by NEWEST_FIRST
+    //    count is the total size of the books of the node and its descendants
+    //
+    // abstraction function:
+    //    represents the set of books in the books of any node, each findable by every
+    //      prefix of each of its tokens
+    //
+    // safety from rep exposure:
+    //    root is private and final, and no Node ever leaves this class;
+    //    suggest() returns fresh lists of immutable Books.
+
+    /**
+     * Make an empty index.
+     */
+    SuggestIndex() {
+        root = new Node("");
+    }
+
+    // assert the rep invariant along the path of nodes from root
+    private void checkRep(List<Node> path) {
+        for (Node node : path) {
+            assert node == root || !node.label.isEmpty() : "broken rep. invariant";
+            assert node.top.length <= TOP : "broken rep. invariant";
+            for (int i = 1; i < node.children.length; i++)
+                assert node.children[i - 1].label.charAt(0) < node.children[i].label.charAt(0)
+                        : "broken rep. invariant";
+            for (int i = 1; i < node.top.length; i++)
+                assert NEWEST_FIRST.compare(node.top[i - 1], node.top[i]) < 0 : "broken rep. invariant";
+        }
+    }
+
+    /**
+     * Add a book to the index.
+     * @param book book to add; must not already be in the index
+     */
+    void add(Book book) {
+        for (String token : TokenIndex.tokensOf(book))
+            add(token, book);
+    }
+
+    /**
+     * Add several books to the index.
+     * @param books distinct books to add; none may already be in the index
+     */
+    void addAll(Collection<Book> books) {
+        for (Book book : books)
+            add(book);
+    }
+
+    /**
+     * Remove a book from the index.
+     * @param book book to remove; must be in the index
+     */
+    void remove(Book book) {
+        for (String token : TokenIndex.tokensOf(book))
+            remove(token, book);
+    }
+
+    // file book under token, splitting an edge if token ends or branches inside it
+    private void add(String token, Book book) {
+        List<Node> path = new ArrayList<Node>();
+        Node node = root;
+        path.add(node);
+        int at = 0;
+        while (at < token.length()) {
+            int i = node.find(token.charAt(at));
+            if (i < 0) {
+                Node leaf = new Node(token.substring(at));
+                node.insertChild(-i - 1, leaf);
+                node = leaf;
+                path.add(node);
+                break;
+            }
+            Node child = node.children[i];
+            int common = commonPrefix(child.label, token, at);
+            if (common < child.label.length()) {
+                Node middle = new Node(child.label.substring(0, common));
+                child.label = child.label.substring(common);
+                middle.children = new Node[] { child };
+                middle.top = child.top.clone();
+                middle.count = child.count;
+                node.children[i] = middle;
+                child = middle;
+            }
+            node = child;
+            path.add(node);
+            at += common;
+        }
+        node.addBook(book);
+        for (Node onPath : path) {
+            onPath.top = insertTop(onPath.top, book);
+            onPath.count++;
+        }
+        checkRep(path);
+    }
+
+    // unfile book from token, recomputing the caches that held it and pruning empty nodes
+    private void remove(String token, Book book) {
+        List<Node> path = new ArrayList<Node>();
+        Node node = root;
+        path.add(node);
+        int at = 0;
+        while (at < token.length()) {
+            int i = node.find(token.charAt(at));
+            if (i < 0 || !token.startsWith(node.children[i].label, at)) return;
+            node = node.children[i];
+            path.add(node);
+            at += node.label.length();
+        }
+        if (!node.removeBook(book)) return;
+        for (int depth = path.size() - 1; depth >= 0; depth--) {
+            Node onPath = path.get(depth);
+            onPath.count--;
+            if (Arrays.asList(onPath.top).contains(book)) onPath.top = recomputeTop(onPath);
+        }
+        // prune the token's node if it is now empty, then merge a node left with one child
+        for (int depth = path.size() - 1; depth >= 1; depth--) {
+            Node child = path.get(depth);
+            Node parent = path.get(depth - 1);
+            int i = parent.find(child.label.charAt(0));
+            if (child.books == null && child.children.length == 0) {
+                parent.removeChild(i);
+            } else if (child.books == null && child.children.length == 1) {
+                Node only = child.children[0];
+                only.label = child.label + only.label;
+                parent.children[i] = only;
+            }
+        }
+        checkRep(path.subList(0, 1));
+    }
+
+    // length of the longest common prefix of label and token.substring(from)
+    private static int commonPrefix(String label, String token, int from) {
+        int n = 0;
+        while (n < label.length() && from + n < token.length() && label.charAt(n) == token.charAt(from + n))
+            n++;
+        return n;
+    }
+
+    // top with book inserted in order, keeping at most TOP books
+    private static Book[] insertTop(Book[] top, Book book) {
+        int at = Arrays.binarySearch(top, book, NEWEST_FIRST);
+        if (at >= 0) return top;  // already cached through another token
+        at = -at - 1;
+        if (at >= TOP) return top;
+        Book[] inserted = new Book[Math.min(TOP, top.length + 1)];
+        System.arraycopy(top, 0, inserted, 0, at);
+        inserted[at] = book;
+        System.arraycopy(top, at, inserted, at + 1, inserted.length - at - 1);
+        return inserted;
+    }
+
+    // the best TOP books of node's own books and its children's caches, which are up to date
+    private static Book[] recomputeTop(Node node) {
+        Book[] top = NO_BOOKS;
+        for (Book book : node.books())
+            top = insertTop(top, book);
+        for (Node child : node.children)
+            for (Book book : child.top)
+                top = insertTop(top, book);
+        return top;
+    }
+
+    // the node whose subtree holds every token starting with prefix, or null if none does
+    private Node nodeFor(String prefix) {
+        Node node = root;
+        int at = 0;
+        while (at < prefix.length()) {
+            int i = node.find(prefix.charAt(at));
+            if (i < 0) return null;
+            node = node.children[i];
+            int common = commonPrefix(node.label, prefix, at);
+            if (common < node.label.length() && at + common < prefix.length()) return null;
+            at += common;
+        }
+        return node;
+    }
+
+    // the node of exactly token, or null if no book has it
+    private Node exactNode(String token) {
+        Node node = root;
+        for (int at = 0; at < token.length(); at += node.label.length()) {
+            int i = node.find(token.charAt(at));
+            if (i < 0 || !token.startsWith(node.children[i].label, at)) return null;
+            node = node.children[i];
+        }
+        return node.books == null ? null : node;
+    }
+
+    // add every book at or below node to books
+    private static void collect(Node node, Set<Book> books) {
+        books.addAll(node.books());
+        for (Node child : node.children)
+            collect(child, books);
+    }
+
+    /**
+     * Suggest completions of a partially typed query.
+     * @param prefix partially typed query, split into words as TokenIndex.tokenize does
+     * @param limit maximum number of books to return; must be nonnegative
+     * @return at most limit books, best first by NEWEST_FIRST, that have a token starting with
+     *    the last word of prefix and, as whole tokens, all the earlier words of prefix.
+     *    Empty if prefix has no words.  Costs O(prefix length) for a single word and a limit
+     *    of at most TOP; otherwise O(n log n) for the n books under the last word, or
+     *    having the rarest of the whole words, whichever are fewer.
+     */
+    List<Book> suggest(String prefix, int limit) {
+        assert limit >= 0 : "spec. contract broken";
+        List<String> words = TokenIndex.tokenize(prefix);
+        if (words.isEmpty() || limit == 0) return new ArrayList<Book>();
+        String last = words.get(words.size() - 1);
+        List<String> whole = words.subList(0, words.size() - 1);
+        if (whole.isEmpty()) {
+            Node node = nodeFor(last);
+            if (node == null) return new ArrayList<Book>();
+            if (limit <= node.top.length || node.top.length < TOP)
+                return new ArrayList<Book>(Arrays.asList(node.top).subList(0, Math.min(limit, node.top.length)));
+            Set<Book> candidates = new HashSet<Book>();
+            collect(node, candidates);
+            return best(candidates, limit);
+        }
+
+        // several words: filter the books under the last word, or the books having the
+        // rarest whole word, whichever are fewer
+        Node node = nodeFor(last);
+        if (node == null) return new ArrayList<Book>();
+        Collection<Book> rarest = null;
+        for (String word : whole) {
+            Node exact = exactNode(word);
+            if (exact == null) return new ArrayList<Book>();
+            if (rarest == null || exact.books().size() < rarest.size()) rarest = exact.books();
+        }
+        if (node.count < rarest.size()) {
+            Set<Book> under = new HashSet<Book>();
+            collect(node, under);
+            rarest = under;
+        }
+        List<Book> candidates = new ArrayList<Book>();
+        for (Book book : rarest) {
+            Set<String> tokens = TokenIndex.tokensOf(book);
+            if (!tokens.containsAll(whole)) continue;
+            for (String token : tokens)
+                if (token.startsWith(last)) {
+                    candidates.add(book);
+                    break;
+                }
+        }
+        return best(candidates, limit);
+    }
+
+    // the best limit of books, in order
+    private static List<Book> best(Collection<Book> books, int limit) {
+        List<Book> sorted = new ArrayList<Book>(books);
+        Collections.sort(sorted, NEWEST_FIRST);
+        return new ArrayList<Book>(sorted.subList(0, Math.min(limit, sorted.size())));
+    }
+}
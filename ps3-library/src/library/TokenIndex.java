@@ -0,0 +1,440 @@
+package library;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * TokenIndex is a mutable inverted index from the words of book titles and author names to the
+ * books containing them, ranked by BM25F over the title and author fields.  A query costs time
+ * proportional to the number of postings of its tokens, not to the number of books in the index.
+ */
+class TokenIndex {
+
+    // BM25F parameters: term frequency saturation, field length normalization, field weights
+    private static final double K1 = 1.2;
+    private static final double B = 0.75;
+    private static final double TITLE_WEIGHT = 2.0;
+    private static final double AUTHOR_WEIGHT = 1.0;
+
+    // rep
+    private final Map<String, Map<Book, Posting>> postings;
+    private int bookCount;
+    private long totalTitleLength;
+    private long totalAuthorLength;
+
+    // rep invariant:
+    //    every posting map in postings is nonempty
+    //    book is a key of postings.get(token) iff token is in tokensOf(book) and book was added
+    //      and not removed since, and its Posting holds book's term frequencies and
+    //      field lengths for token
+    //    bookCount is the number of books added and not removed since, and
+    //      totalTitleLength, totalAuthorLength are the sums of their field lengths
+    //
+    // abstraction function:
+    //    represents the set of books appearing in any posting map, searchable by
+    //      the tokens of their titles and authors, together with the collection
+    //      statistics BM25 needs to score them
+    //
+    // safety from rep exposure:
+    //    postings is private and final, and neither it nor its posting maps are
+    //      ever returned; search() returns a fresh list of immutable Hits of immutable Books.
+
+    /**
+     * Posting is an immutable record of how one token occurs in one book.
+     */
+    static class Posting {
+        final int titleFrequency;
+        final int authorFrequency;
+        final int titleLength;
+        final int authorLength;
+
+        Posting(int titleFrequency, int authorFrequency, int titleLength, int authorLength) {
+            this.titleFrequency = titleFrequency;
+            this.authorFrequency = authorFrequency;
+            this.titleLength = titleLength;
+            this.authorLength = authorLength;
+        }
+    }
+
+    /**
+     * Hit is an immutable search result: a book and its score for some query.
+     */
+    static class Hit {
+        final Book book;
+        final double score;
+
+        Hit(Book book, double score) {
+            this.book = book;
+            this.score = score;
+        }
+    }
+
+    /**
+     * Statistics is an immutable summary of the part of an index that BM25 scores depend on:
+     * the number of books, their total field lengths, and the document frequencies of some
+     * tokens.  The sum of the statistics of indexes that partition a collection is the
+     * statistics of the whole collection, so scores computed with it are comparable across them.
+     */
+    static class Statistics {
+        final int bookCount;
+        final long totalTitleLength;
+        final long totalAuthorLength;
+        final Map<String, Integer> frequencies;
+
+        Statistics(int bookCount, long totalTitleLength, long totalAuthorLength,
+                Map<String, Integer> frequencies) {
+            this.bookCount = bookCount;
+            this.totalTitleLength = totalTitleLength;
+            this.totalAuthorLength = totalAuthorLength;
+            this.frequencies = Collections.unmodifiableMap(new HashMap<String, Integer>(frequencies));
+        }
+
+        /**
+         * @param other statistics of an index sharing no books with this one's, for the same tokens
+         * @return the statistics of the union of both indexes
+         */
+        Statistics plus(Statistics other) {
+            Map<String, Integer> sum = new HashMap<String, Integer>(frequencies);
+            for (Map.Entry<String, Integer> entry : other.frequencies.entrySet()) {
+                Integer mine = sum.get(entry.getKey());
+                sum.put(entry.getKey(), mine == null ? entry.getValue() : mine + entry.getValue());
+            }
+            return new Statistics(bookCount + other.bookCount, totalTitleLength + other.totalTitleLength,
+                    totalAuthorLength + other.totalAuthorLength, sum);
+        }
+    }
+
+    /**
+     * Orders hits best first: by decreasing score, then newest edition first,
+     * then by title and authors so that equal hits have a stable order.
+     */
+    static final Comparator<Hit> BEST_FIRST = new Comparator<Hit>() {
+        public int compare(Hit h1, Hit h2) {
+            int byScore = Double.compare(h2.score, h1.score);
+            if (byScore != 0) return byScore;
+            int byYear = Integer.compare(h2.book.getYear(), h1.book.getYear());
+            if (byYear != 0) return byYear;
+            int byTitle = h1.book.getTitle().compareTo(h2.book.getTitle());
+            if (byTitle != 0) return byTitle;
+            Book b1 = h1.book, b2 = h2.book;
+            for (int i = 0; i < b1.authorCount() && i < b2.authorCount(); i++) {
+                int byAuthor = b1.getAuthor(i).compareTo(b2.getAuthor(i));
+                if (byAuthor != 0) return byAuthor;
+            }
+            return Integer.compare(b1.authorCount(), b2.authorCount());
+        }
+    };
+
+    /**
+     * Make an empty index.
+     */
+    TokenIndex() {
+        postings = new HashMap<String, Map<Book, Posting>>();
+    }
+
+    // assert the rep invariant for the postings of the given tokens
+    private void checkRep(Collection<String> tokens) {
+        assert bookCount >= 0 : "broken rep. invariant";
+        assert totalTitleLength >= 0 && totalAuthorLength >= 0 : "broken rep. invariant";
+        for (String token : tokens) {
+            Map<Book, Posting> books = postings.get(token);
+            assert books == null || !books.isEmpty() : "broken rep. invariant";
+        }
+    }
+
+    /**
+     * Split text into search tokens: maximal runs of letters and digits, lower-cased.
+     * Text without any letters or digits is split on whitespace instead, so that every
+     * nonblank string has at least one token.
+     * @param text text to split
+     * @return tokens of text, in order, possibly with duplicates
+     */
+    static List<String> tokenize(String text) {
+        List<String> tokens = new ArrayList<String>();
+        int start = -1;
+        for (int i = 0; i <= text.length(); i++) {
+            boolean inWord = i < text.length() && Character.isLetterOrDigit(text.charAt(i));
+            if (inWord && start < 0) {
+                start = i;
+            } else if (!inWord && start >= 0) {
+                tokens.add(text.substring(start, i).toLowerCase(Locale.ROOT));
+                start = -1;
+            }
+        }
+        if (tokens.isEmpty())
+            for (String word : text.trim().split("\\s+"))
+                if (!word.isEmpty()) tokens.add(word.toLowerCase(Locale.ROOT));
+        return tokens;
+    }
+
+    /**
+     * @param book book to tokenize
+     * @return distinct tokens of book's title and authors
+     */
+    static Set<String> tokensOf(Book book) {
+        Set<String> tokens = new LinkedHashSet<String>(tokenize(book.getTitle()));
+        for (int i = 0; i < book.authorCount(); i++)
+            tokens.addAll(tokenize(book.getAuthor(i)));
+        return tokens;
+    }
+
+    /**
+     * @param book book to tokenize
+     * @return the posting of each distinct token of book's title and authors
+     */
+    static Map<String, Posting> postingsOf(Book book) {
+        List<String> title = tokenize(book.getTitle());
+        List<String> authors = new ArrayList<String>();
+        for (int i = 0; i < book.authorCount(); i++)
+            authors.addAll(tokenize(book.getAuthor(i)));
+        Set<String> tokens = new LinkedHashSet<String>(title);
+        tokens.addAll(authors);
+        Map<String, Posting> postings = new HashMap<String, Posting>();
+        for (String token : tokens)
+            postings.put(token, new Posting(Collections.frequency(title, token),
+                    Collections.frequency(authors, token), title.size(), authors.size()));
+        return postings;
+    }
+
+    /**
+     * Add a book to the index.
+     * @param book book to add; must not already be in the index
+     */
+    void add(Book book) {
+        addAll(Collections.singletonList(book));
+    }
+
+    /**
+     * Add several books to the index.  The postings of the whole batch are grouped by
+     * token first, so each distinct token's posting map is looked up only once.
+     * @param books distinct books to add; none may already be in the index
+     */
+    void addAll(Collection<Book> books) {
+        Map<String, Map<Book, Posting>> batch = new HashMap<String, Map<Book, Posting>>();
+        for (Book book : books) {
+            Map<String, Posting> bookPostings = postingsOf(book);
+            for (Map.Entry<String, Posting> entry : bookPostings.entrySet()) {
+                Map<Book, Posting> batchBooks = batch.get(entry.getKey());
+                if (batchBooks == null) {
+                    batchBooks = new HashMap<Book, Posting>();
+                    batch.put(entry.getKey(), batchBooks);
+                }
+                batchBooks.put(book, entry.getValue());
+            }
+            bookCount++;
+            if (!bookPostings.isEmpty()) {
+                Posting any = bookPostings.values().iterator().next();
+                totalTitleLength += any.titleLength;
+                totalAuthorLength += any.authorLength;
+            }
+        }
+        for (Map.Entry<String, Map<Book, Posting>> entry : batch.entrySet()) {
+            Map<Book, Posting> existing = postings.get(entry.getKey());
+            if (existing == null) postings.put(entry.getKey(), entry.getValue());
+            else existing.putAll(entry.getValue());
+        }
+        checkRep(batch.keySet());
+    }
+
+    /**
+     * Move all the books of another index into this one.  Posting maps of tokens that
+     * only the other index has are adopted without copying.  The other index must not
+     * be used afterwards.
+     * @param other index sharing no books with this index
+     */
+    void absorb(TokenIndex other) {
+        for (Map.Entry<String, Map<Book, Posting>> entry : other.postings.entrySet()) {
+            Map<Book, Posting> existing = postings.get(entry.getKey());
+            if (existing == null) postings.put(entry.getKey(), entry.getValue());
+            else if (existing.size() >= entry.getValue().size()) existing.putAll(entry.getValue());
+            else {
+                entry.getValue().putAll(existing);
+                postings.put(entry.getKey(), entry.getValue());
+            }
+        }
+        bookCount += other.bookCount;
+        totalTitleLength += other.totalTitleLength;
+        totalAuthorLength += other.totalAuthorLength;
+        checkRep(other.postings.keySet());
+    }
+
+    /**
+     * @return true iff no books are in the index
+     */
+    boolean isEmpty() {
+        return bookCount == 0;
+    }
+
+    /**
+     * Remove a book from the index.
+     * @param book book to remove; must be in the index
+     */
+    void remove(Book book) {
+        Posting removed = null;
+        Set<String> tokens = tokensOf(book);
+        for (String token : tokens) {
+            Map<Book, Posting> books = postings.get(token);
+            if (books == null) continue;
+            Posting posting = books.remove(book);
+            if (posting != null) removed = posting;
+            if (books.isEmpty()) postings.remove(token);
+        }
+        if (removed != null) {
+            bookCount--;
+            totalTitleLength -= removed.titleLength;
+            totalAuthorLength -= removed.authorLength;
+        }
+        checkRep(tokens);
+    }
+
+    /**
+     * Find all the books matching any token of a query.
+     * @param query search string
+     * @return books containing at least one token of query in their title or authors,
+     *    ordered best first as by search()
+     */
+    List<Book> find(String query) {
+        List<Book> found = new ArrayList<Book>();
+        for (Hit hit : search(query, Integer.MAX_VALUE))
+            found.add(hit.book);
+        return found;
+    }
+
+    /**
+     * Find the best-scoring books matching any token of a query.
+     * Scores are BM25F over the title and author fields, and only the best k hits are kept
+     * in a bounded heap while scoring, so the result costs O(m log k) for m matching postings.
+     * @param query search string
+     * @param k maximum number of hits to return, must be positive
+     * @return at most k hits for books containing at least one token of query in their
+     *    title or authors, ordered by BEST_FIRST
+     */
+    List<Hit> search(String query, int k) {
+        Map<String, Double> weights = new HashMap<String, Double>();
+        for (String token : tokenize(query))
+            weights.put(token, 1.0);
+        return search(weights, k);
+    }
+
+    /**
+     * Find the best-scoring books matching any of several weighted tokens, scored as by
+     * search(query, k) with each token's contribution multiplied by its weight.
+     * @param weights positive weight of each token to search for
+     * @param k maximum number of hits to return, must be positive
+     * @return at most k hits for books containing at least one of the tokens in their
+     *    title or authors, ordered by BEST_FIRST
+     */
+    List<Hit> search(Map<String, Double> weights, int k) {
+        return search(weights, k, statistics(weights.keySet()));
+    }
+
+    /**
+     * @param tokens tokens whose document frequencies are wanted
+     * @return the statistics of this index for tokens; a token no book has is left out
+     */
+    Statistics statistics(Collection<String> tokens) {
+        Map<String, Integer> frequencies = new HashMap<String, Integer>();
+        for (String token : tokens) {
+            Map<Book, Posting> books = postings.get(token);
+            if (books != null) frequencies.put(token, books.size());
+        }
+        return new Statistics(bookCount, totalTitleLength, totalAuthorLength, frequencies);
+    }
+
+    /**
+     * Find the best-scoring books of this index matching any of several weighted tokens,
+     * scored as by search(weights, k) but with the statistics of a larger collection this
+     * index is part of.
+     * @param weights positive weight of each token to search for
+     * @param k maximum number of hits to return, must be positive
+     * @param statistics statistics for the tokens of weights of a collection that includes
+     *    every book of this index, such as the sum of the statistics of a partition of it.
+     *    They may be out of date: a token's frequency is taken to be at least its frequency
+     *    in this index, and the number of books at least that.
+     * @return at most k hits for books containing at least one of the tokens in their
+     *    title or authors, ordered by BEST_FIRST
+     */
+    List<Hit> search(Map<String, Double> weights, int k, Statistics statistics) {
+        assert k > 0 : "spec. contract broken";
+        Map<Book, Double> scores = new HashMap<Book, Double>();
+        int n = statistics.bookCount;
+        double averageTitle = averageLength(statistics.totalTitleLength, n);
+        double averageAuthor = averageLength(statistics.totalAuthorLength, n);
+        for (Map.Entry<String, Double> weighted : weights.entrySet()) {
+            Map<Book, Posting> books = postings.get(weighted.getKey());
+            if (books == null) continue;
+            Integer frequency = statistics.frequencies.get(weighted.getKey());
+            int df = Math.max(frequency == null ? 0 : frequency, books.size());
+            double idf = idf(n, df);
+            for (Map.Entry<Book, Posting> entry : books.entrySet()) {
+                double score = weighted.getValue() * idf * saturation(entry.getValue(), averageTitle, averageAuthor);
+                Double previous = scores.get(entry.getKey());
+                scores.put(entry.getKey(), previous == null ? score : previous + score);
+            }
+        }
+        return top(scores, k);
+    }
+
+    /**
+     * @param totalLength total length of a field over n books
+     * @param n number of books
+     * @return the average length of the field, at least 1, as BM25F normalizes by
+     */
+    static double averageLength(long totalLength, int n) {
+        return n == 0 ? 1 : Math.max(1.0, (double) totalLength / n);
+    }
+
+    /**
+     * @param n number of books in the collection
+     * @param df number of those books containing a token
+     * @return the BM25 inverse document frequency of the token
+     */
+    static double idf(int n, int df) {
+        return Math.log(1 + (Math.max(n, df) - df + 0.5) / (df + 0.5));
+    }
+
+    /**
+     * @param p posting of a token in a book
+     * @param averageTitle average title length of the collection
+     * @param averageAuthor average author length of the collection
+     * @return the BM25F term frequency factor of the posting, in [0, 1); a book's score for
+     *    the token is this times the token's weight and idf
+     */
+    static double saturation(Posting p, double averageTitle, double averageAuthor) {
+        double tf = TITLE_WEIGHT * p.titleFrequency / (1 - B + B * p.titleLength / averageTitle)
+                + AUTHOR_WEIGHT * p.authorFrequency / (1 - B + B * p.authorLength / averageAuthor);
+        return tf / (K1 + tf);
+    }
+
+    /**
+     * Select the best k of scored books, with a min-heap whose root is the worst hit kept.
+     * @param scores score of each book
+     * @param k maximum number of hits to return, must be positive
+     * @return the best min(k, scores.size()) hits, ordered by BEST_FIRST
+     */
+    static List<Hit> top(Map<Book, Double> scores, int k) {
+        PriorityQueue<Hit> heap = new PriorityQueue<Hit>(Math.max(1, Math.min(k, scores.size())),
+                Collections.reverseOrder(BEST_FIRST));
+        for (Map.Entry<Book, Double> entry : scores.entrySet()) {
+            Hit hit = new Hit(entry.getKey(), entry.getValue());
+            if (heap.size() < k) {
+                heap.add(hit);
+            } else if (BEST_FIRST.compare(hit, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(hit);
+            }
+        }
+        List<Hit> hits = new ArrayList<Hit>(heap);
+        Collections.sort(hits, BEST_FIRST);
+        return hits;
+    }
+}
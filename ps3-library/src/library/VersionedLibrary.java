@@ -0,0 +1,185 @@
+package library;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * VersionedLibrary is a thread-safe Library that keeps every version of its collection as an
+ * immutable LibrarySnapshot, so that snapshot() can hand out the current one in O(1) time.
+ * A nightly report can then iterate over the whole collection as of one moment, while
+ * circulation goes on, without locking anything or seeing a ConcurrentModificationException.
+ *
+ * Changes are serialized, and each one makes the next version by copying only the O(log n)
+ * trie nodes it touches; no change ever waits for a reader.  Every read, by this library as
+ * well as by a snapshot, is lock-free.  The batch operations publish their changes as one
+ * version, so no snapshot sees a batch half done.
+ */
+public class VersionedLibrary implements Library {
+
+    // rep
+    private volatile LibrarySnapshot current;
+
+    // rep invariant:
+    //    current is not null
+    //
+    // abstraction function:
+    //    represents the collection of current, where a copy is available iff it is
+    //      available in current, and checked out otherwise
+    //
+    // safety from rep exposure:
+    //    current is private; it is returned by snapshot() on purpose, since it is immutable.
+    //    allCopies() and availableCopies() return fresh sets built by the snapshot;
+    //    Books are immutable, and BookCopys are intentionally shared with clients
+    //      because a copy's identity is what clients hand back to us.
+    //
+    // thread safety argument:
+    //    current is only replaced while holding this object's lock, by a snapshot made from
+    //      the one it replaces, so no change is lost.
+    //    current is volatile, and snapshots are immutable, so a reader takes it without a lock
+    //      and sees a whole version; each read method reads current once.
+    //    Books are immutable, so they can be shared between threads.
+    //
+    // performance:
+    //    buy, checkout, checkin, lose, isAvailable, countCopies and countAvailable run in
+    //      O(log n) for n books; a buy of a book's first copy or a lose of its last adds
+    //      O(log n) per token of the book, to keep the search postings.
+    //    checkoutAny, allCopies and availableCopies run in O(copies of that book), and find
+    //      as LibrarySnapshot.find() does.
+    //    Each change allocates the O(log n) nodes it copies; the nodes it replaces become
+    //      garbage once no snapshot refers to them.
+
+    /**
+     * Make an empty library.
+     */
+    public VersionedLibrary() {
+        current = LibrarySnapshot.empty();
+    }
+
+    /**
+     * Take a point-in-time view of this library.  It costs O(1), and never waits for, or
+     * delays, changes to the library.
+     * @return an immutable snapshot of this library's collection as of this moment
+     */
+    public LibrarySnapshot snapshot() {
+        return current;
+    }
+
+    @Override
+    public synchronized BookCopy buy(Book book) {
+        assert book != null : "spec. contract broken";
+        BookCopy copy = new BookCopy(book);
+        current = current.bought(copy);
+        return copy;
+    }
+
+    @Override
+    public List<BookCopy> buyAll(Book book, int count) {
+        assert count >= 0 : "spec. contract broken";
+        return buyAll(Collections.nCopies(count, book));
+    }
+
+    @Override
+    public synchronized List<BookCopy> buyAll(Collection<Book> books) {
+        List<BookCopy> copies = new ArrayList<BookCopy>(books.size());
+        LibrarySnapshot next = current;
+        for (Book book : books) {
+            assert book != null : "spec. contract broken";
+            BookCopy copy = new BookCopy(book);
+            next = next.bought(copy);
+            copies.add(copy);
+        }
+        current = next;
+        return copies;
+    }
+
+    @Override
+    public synchronized void checkout(BookCopy copy) {
+        assert copy != null : "spec. contract broken";
+        if (current.isAvailable(copy)) current = current.checkedOut(copy);
+    }
+
+    @Override
+    public synchronized void checkoutAll(Collection<BookCopy> copies) {
+        LibrarySnapshot next = current;
+        for (BookCopy copy : copies) {
+            assert copy != null : "spec. contract broken";
+            if (next.isAvailable(copy)) next = next.checkedOut(copy);
+        }
+        current = next;
+    }
+
+    @Override
+    public synchronized BookCopy checkoutAny(Book book) {
+        assert book != null : "spec. contract broken";
+        BookCopy copy = current.anyAvailable(book);
+        if (copy != null) current = current.checkedOut(copy);
+        return copy;
+    }
+
+    @Override
+    public synchronized void checkin(BookCopy copy) {
+        assert copy != null : "spec. contract broken";
+        if (current.contains(copy) && !current.isAvailable(copy)) current = current.checkedIn(copy);
+    }
+
+    @Override
+    public synchronized void checkinAll(Collection<BookCopy> copies) {
+        LibrarySnapshot next = current;
+        for (BookCopy copy : copies) {
+            assert copy != null : "spec. contract broken";
+            if (next.contains(copy) && !next.isAvailable(copy)) next = next.checkedIn(copy);
+        }
+        current = next;
+    }
+
+    @Override
+    public boolean isAvailable(BookCopy copy) {
+        assert copy != null : "spec. contract broken";
+        return current.isAvailable(copy);
+    }
+
+    @Override
+    public Set<BookCopy> allCopies(Book book) {
+        assert book != null : "spec. contract broken";
+        return current.allCopies(book);
+    }
+
+    @Override
+    public Set<BookCopy> availableCopies(Book book) {
+        assert book != null : "spec. contract broken";
+        return current.availableCopies(book);
+    }
+
+    @Override
+    public int countCopies(Book book) {
+        assert book != null : "spec. contract broken";
+        return current.countCopies(book);
+    }
+
+    @Override
+    public int countAvailable(Book book) {
+        assert book != null : "spec. contract broken";
+        return current.countAvailable(book);
+    }
+
+    @Override
+    public List<Book> find(String query) {
+        assert query != null : "spec. contract broken";
+        return current.find(query);
+    }
+
+    @Override
+    public List<Book> find(String query, int offset, int limit) {
+        assert query != null : "spec. contract broken";
+        return current.find(query, offset, limit);
+    }
+
+    @Override
+    public synchronized void lose(BookCopy copy) {
+        assert copy != null : "spec. contract broken";
+        if (current.contains(copy)) current = current.lost(copy);
+    }
+}
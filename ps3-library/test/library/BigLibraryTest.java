@@ -5,6 +5,7 @@ import static org.junit.Assert.*;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.List;
 
 /**
  * Test suite for BigLibrary's stronger specs.
@@ -20,8 +21,14 @@ public class BigLibraryTest {
      * Testing strategy
      * ==================
      * 
-     * TODO: your testing strategy for BigLibrary.find() should go here.
-     * Make sure you have partitions.
+     * Partitions for find(query):
+     *    query tokens: one word, several words, punctuation only
+     *    query case: same as book, different from book
+     *    matched field: title, author, both
+     *    matching books: 0, 1, >1
+     *    book membership: bought, all copies lost
+     *    ranking: more query tokens matched, same tokens matched with different years,
+     *             same tokens matched in fields of different length, title vs. author match
      */
     
     // TODO: put JUnit @Test methods here that you developed from your testing strategy
@@ -32,6 +39,71 @@ public class BigLibraryTest {
         assertEquals(Collections.emptyList(), library.find("This Test Is Just An Example"));
     }
 
+    // Covers query tokens: one word; query case: different from book;
+    // matched field: title; matching books: 1
+    @Test
+    public void testFindWordOfTitleIgnoresCase() {
+        Library library = new BigLibrary();
+        Book book = new Book("Bartleby, the Scrivener", Arrays.asList("Herman Melville"), 1853);
+        library.buy(book);
+        assertEquals(Arrays.asList(book), library.find("scrivener"));
+        assertEquals(Collections.emptyList(), library.find("Scriv"));
+    }
+    
+    // Covers query tokens: several words; matched field: author, both;
+    // matching books: >1; ranking: more query tokens matched
+    @Test
+    public void testFindRanksMoreMatchedTokensFirst() {
+        Library library = new BigLibrary();
+        Book moby = new Book("Moby Dick", Arrays.asList("Herman Melville"), 1851);
+        Book melville = new Book("Melville", Arrays.asList("Andrew Delbanco"), 2005);
+        Book typee = new Book("Typee", Arrays.asList("Herman Melville"), 1846);
+        library.buy(moby);
+        library.buy(melville);
+        library.buy(typee);
+        List<Book> found = library.find("Moby Melville");
+        assertEquals(3, found.size());
+        assertEquals(moby, found.get(0));
+        assertEquals(Arrays.asList(moby, melville, typee), found);
+    }
+    
+    // Covers ranking: same tokens matched in fields of different length, title vs. author match
+    @Test
+    public void testFindRanksShorterAndTitleMatchesFirst() {
+        Library library = new BigLibrary();
+        Book longTitle = new Book("The Whale of the Sea", Arrays.asList("Anonymous"), 2010);
+        Book shortTitle = new Book("The Whale", Arrays.asList("Herman Melville"), 1851);
+        Book byAuthor = new Book("Collected Poems", Arrays.asList("Whale"), 2015);
+        library.buy(longTitle);
+        library.buy(shortTitle);
+        library.buy(byAuthor);
+        assertEquals(Arrays.asList(shortTitle, longTitle, byAuthor), library.find("whale"));
+    }
+    
+    // Covers query tokens: punctuation only; matched field: title
+    @Test
+    public void testFindPunctuationOnlyTitle() {
+        Library library = new BigLibrary();
+        Book book = new Book("% / \\ \" ", Arrays.asList("?"), 2000);
+        library.buy(book);
+        assertEquals(Arrays.asList(book), library.find(book.getTitle()));
+        assertEquals(Arrays.asList(book), library.find("?"));
+    }
+    
+    // Covers book membership: all copies lost; matching books: 0
+    @Test
+    public void testFindAfterLastCopyLost() {
+        Library library = new BigLibrary();
+        Book book = new Book("Typee", Arrays.asList("Herman Melville"), 1846);
+        BookCopy copy1 = library.buy(book);
+        BookCopy copy2 = library.buy(book);
+        library.checkout(copy2);
+        library.lose(copy1);
+        assertEquals(Arrays.asList(book), library.find("Typee"));
+        library.lose(copy2);
+        assertEquals(Collections.emptyList(), library.find("Typee"));
+    }
+    
     @Test(expected=AssertionError.class)
     public void testAssertionsEnabled() {
         assert false; // make sure assertions are enabled with VM argument: -ea
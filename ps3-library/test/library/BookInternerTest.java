@@ -0,0 +1,74 @@
+package library;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Test suite for BookInterner.
+ */
+public class BookInternerTest {
+
+    /*
+     * Testing strategy
+     * ==================
+     *
+     * Partitions for intern(title, authors, year) and intern(book):
+     *    canonical books: yes, no
+     *    edition: new, seen before
+     *    title, authors: new, seen before in another edition
+     *    client: mutates the authors it passed in or got back, doesn't
+     */
+
+    // build a fresh String equal to s, so tests don't depend on the JVM's literal pool
+    private static String fresh(String s) {
+        return new String(s.toCharArray());
+    }
+
+    // Covers canonical books: yes; edition: new, seen before
+    @Test
+    public void testCanonicalBook() {
+        BookInterner interner = new BookInterner();
+        Book first = interner.intern(fresh("Moby Dick"), Arrays.asList(fresh("Herman Melville")), 1851);
+        Book second = interner.intern(new Book(fresh("Moby Dick"), Arrays.asList(fresh("Herman Melville")), 1851));
+        assertSame(first, second);
+        assertEquals(new Book("Moby Dick", Arrays.asList("Herman Melville"), 1851), first);
+        assertEquals("Moby Dick", first.getTitle());
+        assertEquals(Arrays.asList("Herman Melville"), first.getAuthors());
+        assertEquals(1851, first.getYear());
+    }
+
+    // Covers canonical books: no; title, authors: seen before in another edition
+    @Test
+    public void testSharedParts() {
+        BookInterner interner = new BookInterner(false);
+        Book first = interner.intern(fresh("Moby Dick"), Arrays.asList(fresh("Herman Melville")), 1851);
+        Book reprint = interner.intern(fresh("Moby Dick"), Arrays.asList(fresh("Herman Melville")), 1851);
+        Book later = interner.intern(fresh("Moby Dick"), Arrays.asList(fresh("Herman Melville")), 1892);
+        assertNotSame(first, reprint);
+        assertEquals(first, reprint);
+        assertNotEquals(first, later);
+        assertSame(first.getTitle(), later.getTitle());
+        assertSame(first.getAuthors().get(0), later.getAuthors().get(0));
+        assertSame(interner.internAuthors(Arrays.asList("Herman Melville")),
+                   interner.internAuthors(Arrays.asList(fresh("Herman Melville"))));
+        assertSame(interner.intern("Moby Dick"), first.getTitle());
+    }
+
+    // Covers client: mutates the authors it passed in or got back
+    @Test
+    public void testAuthorsNotShared() {
+        BookInterner interner = new BookInterner();
+        List<String> authors = new ArrayList<String>(Arrays.asList("Herman Melville"));
+        Book book = interner.intern("Moby Dick", authors, 1851);
+        authors.add("Ishmael");
+        book.getAuthors().add("Queequeg");
+        assertEquals(Arrays.asList("Herman Melville"), book.getAuthors());
+        Book again = interner.intern("Moby Dick", Arrays.asList("Herman Melville"), 1851);
+        assertEquals(Arrays.asList("Herman Melville"), again.getAuthors());
+    }
+}
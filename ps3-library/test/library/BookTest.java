@@ -94,6 +94,67 @@ public class BookTest {
      * Covered by constructor tests
      */
     
+    /*
+     * Testing strategy for getAuthor(i), authorCount()
+     * ==================
+     * 
+     * Partitions:
+     *    authors: 1, >1
+     *    i: first, last
+     *    client mutates the list passed to the constructor: yes, no
+     */
+    
+    // Covers authors: >1; i: first, last; client mutates: yes
+    @Test
+    public void testGetAuthorIndexed() {
+        List<String> authors = new ArrayList<String>(Arrays.asList("bB", "bb"));
+        Book book = new Book("aA", authors, 150);
+        authors.set(0, "cc");
+        assertEquals(2, book.authorCount());
+        assertEquals("bB", book.getAuthor(0));
+        assertEquals("bb", book.getAuthor(1));
+    }
+    
+    // Covers authors: 1; i: first and last; client mutates: no
+    @Test
+    public void testGetAuthorSingle() {
+        Book book = new Book("aA", Arrays.asList("bB"), 150);
+        assertEquals(1, book.authorCount());
+        assertEquals("bB", book.getAuthor(0));
+    }
+    
+    /*
+     * Testing strategy for equals(), hashCode()
+     * ==================
+     * 
+     * Partitions:
+     *    that: same object, equal book, book differing in title/authors/year, not a book
+     *    hash codes of unequal books: different, same
+     */
+    
+    // Covers that: same object, equal book, not a book
+    @Test
+    public void testEqualsEqualBooks() {
+        Book book = new Book("aA", Arrays.asList("bB", "bb"), 150);
+        Book same = new Book("aA", Arrays.asList("bB", "bb"), 150);
+        assertTrue(book.equals(book));
+        assertTrue(book.equals(same));
+        assertEquals(book.hashCode(), same.hashCode());
+        assertFalse(book.equals("aA"));
+    }
+    
+    // Covers that: book differing in title/authors/year; hash codes: same
+    @Test
+    public void testEqualsHashCollision() {
+        // "Aa" and "BB" have the same String hash code, so these books have the same hash
+        Book book = new Book("Aa", Arrays.asList("bB"), 150);
+        Book collision = new Book("BB", Arrays.asList("bB"), 150);
+        assertEquals(book.hashCode(), collision.hashCode());
+        assertFalse(book.equals(collision));
+        assertFalse(book.equals(new Book("Aa", Arrays.asList("BB"), 150)));
+        assertFalse(book.equals(new Book("Aa", Arrays.asList("bB"), 151)));
+    }
+    
     /*
      * Testing strategy for getYear()
      * ==================
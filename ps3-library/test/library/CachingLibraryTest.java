@@ -0,0 +1,159 @@
+package library;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+/**
+ * Test suite for CachingLibrary.
+ */
+public class CachingLibraryTest {
+
+    /*
+     * Testing strategy
+     * ==================
+     *
+     * Partitions for find(query) and find(query, offset, limit):
+     *    cache: miss, hit; pages of one query: same, different
+     *    capacity: not reached, exceeded (least recently used evicted)
+     *    query words: some, none
+     *
+     * Partitions for buy, buyAll and lose, then find again:
+     *    book: enters the collection, already in it (more copies), leaves it, stays in it
+     *    cached query: could match the book (same word, other case, substring), cannot
+     *    underlying library: BigLibrary (words), SmallLibrary (substrings), ConcurrentLibrary
+     *    threads: 1, >1
+     */
+
+    private static final Book MOBY = new Book("Moby Dick", Arrays.asList("Herman Melville"), 1851);
+    private static final Book TYPEE = new Book("Typee", Arrays.asList("Herman Melville"), 1846);
+    private static final Book WAR = new Book("War and Peace", Arrays.asList("Leo Tolstoy"), 1869);
+
+    // Covers cache: miss, hit; pages: same, different
+    @Test
+    public void testHitsAndMisses() {
+        CachingLibrary library = new CachingLibrary(new BigLibrary());
+        library.buy(MOBY);
+        library.buy(TYPEE);
+        assertEquals(Arrays.asList(MOBY, TYPEE), library.find("melville"));
+        assertEquals(Arrays.asList(MOBY, TYPEE), library.find("melville"));
+        assertEquals(Arrays.asList(TYPEE), library.find("melville", 1, 1));
+        assertEquals(Arrays.asList(TYPEE), library.find("melville", 1, 1));
+        assertEquals(2, library.hits());
+        assertEquals(2, library.misses());
+        assertEquals(0.5, library.hitRate(), 0);
+        assertEquals(2, library.size());
+    }
+
+    // Covers capacity: exceeded
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        CachingLibrary library = new CachingLibrary(new BigLibrary(), 2);
+        library.buy(MOBY);
+        library.buy(WAR);
+        library.find("moby");
+        library.find("war");
+        library.find("moby");
+        library.find("peace");
+        assertEquals(1, library.evictions());
+        assertEquals(2, library.size());
+        library.find("moby");
+        assertEquals(2, library.hits());
+        library.find("war");
+        assertEquals(2, library.hits());
+        assertEquals(2, library.evictions());
+    }
+
+    // Covers book: enters; cached query: could match (other case), cannot; library: BigLibrary
+    @Test
+    public void testBuyInvalidatesOnlyQueriesThatCouldMatch() {
+        CachingLibrary library = new CachingLibrary(new BigLibrary());
+        library.buy(MOBY);
+        library.buy(WAR);
+        assertEquals(Arrays.asList(MOBY), library.find("Melville"));
+        assertEquals(Arrays.asList(WAR), library.find("Tolstoy"));
+        library.buy(TYPEE);
+        assertEquals(1, library.invalidations());
+        assertEquals(Arrays.asList(MOBY, TYPEE), library.find("Melville"));
+        assertEquals(Arrays.asList(WAR), library.find("Tolstoy"));
+        assertEquals(1, library.hits());
+    }
+
+    // Covers book: already in it, leaves, stays; cached query: could match
+    @Test
+    public void testOnlyFirstAndLastCopiesInvalidate() {
+        CachingLibrary library = new CachingLibrary(new BigLibrary());
+        List<BookCopy> copies = new ArrayList<BookCopy>(library.buyAll(MOBY, 2));
+        library.find("moby");
+        library.buyAll(MOBY, 3);
+        library.lose(copies.get(0));
+        library.checkout(copies.get(1));
+        assertEquals(Arrays.asList(MOBY), library.find("moby"));
+        assertEquals(1, library.hits());
+        assertEquals(0, library.invalidations());
+        for (BookCopy copy : library.allCopies(MOBY))
+            library.lose(copy);
+        assertEquals(1, library.invalidations());
+        assertEquals(Collections.emptyList(), library.find("moby"));
+    }
+
+    // Covers book: enters (buyAll); cached query: could match (substring); query words: none;
+    //        library: SmallLibrary
+    @Test
+    public void testSubstringQueries() {
+        CachingLibrary library = new CachingLibrary(new SmallLibrary());
+        library.buy(TYPEE);
+        assertEquals(Collections.emptyList(), library.find("oby D"));
+        assertEquals(Collections.emptyList(), library.find(" "));
+        assertEquals(Arrays.asList(TYPEE), library.find("Typ"));
+        library.buyAll(Arrays.asList(MOBY, MOBY));
+        assertEquals(2, library.invalidations());
+        assertEquals(Arrays.asList(MOBY), library.find("oby D"));
+        assertEquals(Arrays.asList(MOBY), library.find(" "));
+        assertEquals(Arrays.asList(TYPEE), library.find("Typ"));
+        assertEquals(1, library.hits());
+    }
+
+    // Covers book: enters; library: ConcurrentLibrary; threads: >1
+    @Test
+    public void testConcurrentBuysAreNeverMissed() throws InterruptedException {
+        final CachingLibrary library = new CachingLibrary(new ConcurrentLibrary());
+        final int books = 200;
+        final CountDownLatch start = new CountDownLatch(1);
+        Thread buyer = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < books; i++)
+                    library.buy(new Book("Volume " + i, Arrays.asList("Anonymous"), 1900));
+            }
+        });
+        Thread finder = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                for (int i = 0; i < books; i++)
+                    library.find("anonymous");
+            }
+        });
+        buyer.start();
+        finder.start();
+        start.countDown();
+        buyer.join();
+        finder.join();
+        assertEquals(books, new HashSet<Book>(library.find("anonymous")).size());
+    }
+}
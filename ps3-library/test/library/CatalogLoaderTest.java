@@ -0,0 +1,102 @@
+package library;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test suite for CatalogLoader.
+ */
+public class CatalogLoaderTest {
+
+    /*
+     * Testing strategy
+     * ==================
+     * 
+     * Partitions for load(file):
+     *    file: empty, 1 line, many lines spanning several chunks
+     *    last line: ends with newline, doesn't
+     *    line longer than a chunk: yes, no
+     *    copies field: absent, 0, >1
+     *    same book on several lines: yes, no
+     *    text: ASCII, multi-byte UTF-8 split across a chunk boundary
+     *    line: blank, malformed
+     */
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Path write(String text) throws IOException {
+        Path file = folder.newFile().toPath();
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    // Covers file: empty
+    @Test
+    public void testLoadEmpty() throws IOException {
+        BigLibrary library = new CatalogLoader().load(write(""));
+        assertEquals(Collections.emptyList(), library.find("anything"));
+    }
+
+    // Covers file: 1 line; last line: doesn't end with newline; copies field: >1
+    @Test
+    public void testLoadOneLineWithCopies() throws IOException {
+        BigLibrary library = new CatalogLoader().load(write("Moby Dick\tHerman Melville\t1851\t3"));
+        Book book = new Book("Moby Dick", Arrays.asList("Herman Melville"), 1851);
+        assertEquals(3, library.availableCopies(book).size());
+        assertEquals(Arrays.asList(book), library.find("Melville"));
+    }
+
+    // Covers file: many lines spanning several chunks; last line: ends with newline;
+    // line longer than a chunk: yes; copies field: absent, 0; same book on several lines: yes;
+    // text: multi-byte UTF-8; line: blank
+    @Test
+    public void testLoadManyChunks() throws IOException {
+        StringBuilder text = new StringBuilder();
+        List<Book> books = new ArrayList<Book>();
+        for (int i = 0; i < 500; i++) {
+            Book book = new Book("\u0412\u043e\u0439\u043d\u0430 \u0438 \u043c\u0438\u0440 " + i, Arrays.asList("\u041b\u0435\u0432 \u0422\u043e\u043b\u0441\u0442\u043e\u0439", "Editor " + i % 7), 1869 + i);
+            books.add(book);
+            text.append(book.getTitle()).append('\t')
+                .append("\u041b\u0435\u0432 \u0422\u043e\u043b\u0441\u0442\u043e\u0439; Editor ").append(i % 7).append('\t')
+                .append(book.getYear()).append('\n');
+        }
+        text.append('\n');
+        text.append(books.get(0).getTitle()).append("\t\u041b\u0435\u0432 \u0422\u043e\u043b\u0441\u0442\u043e\u0439;Editor 0\t1869\t2\n");
+        StringBuilder longTitle = new StringBuilder();
+        for (int i = 0; i < 100; i++) longTitle.append("long ");
+        text.append(longTitle).append("\tSomeone\t2000\t0\n");
+        
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            BigLibrary library = new CatalogLoader(pool, 64).load(write(text.toString()));
+            assertEquals(3, library.allCopies(books.get(0)).size());
+            for (Book book : books.subList(1, books.size()))
+                assertEquals(1, library.availableCopies(book).size());
+            assertEquals(500, library.find("\u0422\u043e\u043b\u0441\u0442\u043e\u0439").size());
+            assertEquals(books.get(499), library.find("\u0422\u043e\u043b\u0441\u0442\u043e\u0439").get(0));
+            assertEquals(Collections.emptyList(), library.find("long"));
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Covers line: malformed
+    @Test(expected=IllegalArgumentException.class)
+    public void testLoadMalformed() throws IOException {
+        new CatalogLoader().load(write("Moby Dick\tHerman Melville\n"));
+    }
+}
@@ -0,0 +1,131 @@
+package library;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Test suite for CatalogSnapshot.
+ */
+public class CatalogSnapshotTest {
+
+    /*
+     * Testing strategy
+     * ==================
+     *
+     * Partitions for save(library, file) then load(file):
+     *    library: empty, 1 book, many books
+     *    copies: available, checked out, damaged
+     *    first operation after load: find, allCopies/availableCopies, buy, checkoutAny, lose
+     *    library saved: built by buying, itself loaded from a snapshot
+     *    file: new, replacing a previous snapshot
+     *
+     * Partitions for load(file):
+     *    file: snapshot, not a snapshot
+     */
+
+    private static final Book MOBY = new Book("Moby Dick", Arrays.asList("Herman Melville"), 1851);
+    private static final Book TYPEE = new Book("Typee", Arrays.asList("Herman Melville"), 1846);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // count all copies of book, the available ones and the damaged ones, in that order
+    private static List<Integer> counts(Library library, Book book) {
+        int damaged = 0;
+        for (BookCopy copy : library.allCopies(book))
+            if (copy.getCondition() == BookCopy.Condition.DAMAGED) damaged++;
+        return Arrays.asList(library.allCopies(book).size(), library.availableCopies(book).size(), damaged);
+    }
+
+    // Covers library: empty; first operation: find; file: new
+    @Test
+    public void testEmpty() throws IOException {
+        Path file = folder.getRoot().toPath().resolve("empty.snapshot");
+        CatalogSnapshot.save(new BigLibrary(), file);
+        BigLibrary loaded = CatalogSnapshot.load(file);
+        assertEquals(Collections.emptyList(), loaded.find("Moby"));
+        assertEquals(Collections.emptySet(), loaded.allCopies(MOBY));
+    }
+
+    // Covers library: many books; copies: available, checked out, damaged;
+    // first operation: allCopies/availableCopies, then find
+    @Test
+    public void testRoundTrip() throws IOException {
+        BigLibrary library = new BigLibrary();
+        library.buyAll(MOBY, 3);
+        library.buy(TYPEE).setCondition(BookCopy.Condition.DAMAGED);
+        library.checkout(library.availableCopies(MOBY).iterator().next());
+        List<Book> others = new ArrayList<Book>();
+        for (int i = 0; i < 100; i++)
+            others.add(new Book("Book " + i, Arrays.asList("Writer " + i % 10), 1900 + i));
+        library.buyAll(others);
+
+        Path file = folder.getRoot().toPath().resolve("catalog.snapshot");
+        CatalogSnapshot.save(library, file);
+        BigLibrary loaded = CatalogSnapshot.load(file);
+        assertEquals(Arrays.asList(3, 2, 0), counts(loaded, MOBY));
+        assertEquals(Arrays.asList(1, 1, 1), counts(loaded, TYPEE));
+        assertEquals(library.find("Herman Melville"), loaded.find("Herman Melville"));
+        assertEquals(library.find("Writer 3"), loaded.find("Writer 3"));
+        assertEquals(Arrays.asList(1, 1, 0), counts(loaded, others.get(42)));
+    }
+
+    // Covers library: 1 book; first operation: checkoutAny, buy, lose; then find
+    @Test
+    public void testMutateBeforeFullyLoaded() throws IOException {
+        BigLibrary library = new BigLibrary();
+        library.buyAll(MOBY, 2);
+        library.buy(TYPEE);
+        Path file = folder.getRoot().toPath().resolve("catalog.snapshot");
+        CatalogSnapshot.save(library, file);
+
+        BigLibrary loaded = CatalogSnapshot.load(file);
+        BookCopy copy = loaded.checkoutAny(MOBY);
+        assertNotNull(copy);
+        assertFalse(loaded.isAvailable(copy));
+        BookCopy bought = loaded.buy(MOBY);
+        assertEquals(3, loaded.allCopies(MOBY).size());
+        assertTrue(loaded.allCopies(MOBY).contains(bought));
+        for (BookCopy typee : loaded.allCopies(TYPEE))
+            loaded.lose(typee);
+        assertEquals(Arrays.asList(MOBY), loaded.find("Melville"));
+        assertEquals(Collections.emptySet(), loaded.allCopies(TYPEE));
+    }
+
+    // Covers library saved: itself loaded from a snapshot; file: replacing a previous snapshot
+    @Test
+    public void testResaveOverPrevious() throws IOException {
+        BigLibrary library = new BigLibrary();
+        library.buy(MOBY);
+        Path file = folder.getRoot().toPath().resolve("catalog.snapshot");
+        CatalogSnapshot.save(library, file);
+
+        BigLibrary loaded = CatalogSnapshot.load(file);
+        loaded.buy(TYPEE);
+        CatalogSnapshot.save(loaded, file);
+        BigLibrary reloaded = CatalogSnapshot.load(file);
+        assertEquals(Arrays.asList(1, 1, 0), counts(reloaded, MOBY));
+        assertEquals(Arrays.asList(1, 1, 0), counts(reloaded, TYPEE));
+        assertEquals(1, folder.getRoot().list().length);
+    }
+
+    // Covers file: not a snapshot
+    @Test(expected=IOException.class)
+    public void testLoadNotASnapshot() throws IOException {
+        Path file = folder.newFile().toPath();
+        Files.write(file, "Moby Dick\tHerman Melville\t1851\n".getBytes(StandardCharsets.UTF_8));
+        CatalogSnapshot.load(file);
+    }
+}
@@ -0,0 +1,299 @@
+package library;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+/**
+ * Test suite for ChangeFeed and PublishingLibrary.
+ */
+public class ChangeFeedTest {
+
+    /*
+     * Testing strategy
+     * ==================
+     *
+     * Partitions for publish() and subscribe():
+     *    producers: SINGLE, MULTI
+     *    overflow: BLOCK, DROP; feed full: no, yes
+     *    wait strategy: BUSY_SPIN, YIELDING, SLEEPING, BLOCKING
+     *    subscriptions: 0, 1, >1
+     *    events published: < capacity, > capacity
+     *
+     * Partitions for a subscription's end:
+     *    close() called, subscriber throws
+     *
+     * Partitions for PublishingLibrary:
+     *    operation: buy, buyAll, checkout, checkoutAll, checkoutAny (copy available or not),
+     *      checkin, checkinAll, setCondition, lose
+     *    library: BigLibrary, CompactLibrary
+     *    threads changing one copy at once: 1, >1
+     */
+
+    private static final Book MOBY = new Book("Moby Dick", Arrays.asList("Herman Melville"), 1851);
+    private static final Book TYPEE = new Book("Typee", Arrays.asList("Herman Melville"), 1846);
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    // a subscriber that records the events it receives, as "sequence kind condition" strings
+    private static class Recorder implements ChangeFeed.Subscriber {
+        final List<String> events = Collections.synchronizedList(new ArrayList<String>());
+        final List<BookCopy> copies = Collections.synchronizedList(new ArrayList<BookCopy>());
+
+        public void onEvent(long sequence, ChangeFeed.Kind kind, BookCopy copy, BookCopy.Condition condition) {
+            events.add(sequence + " " + kind + " " + condition);
+            copies.add(copy);
+        }
+    }
+
+    // wait until a subscription has received the event of the given sequence
+    private static void awaitSequence(ChangeFeed.Subscription subscription, long sequence) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (subscription.sequence() < sequence) {
+            assertTrue("timed out at " + subscription.sequence(), System.currentTimeMillis() < deadline);
+            Thread.sleep(1);
+        }
+    }
+
+    // Covers producers: SINGLE; overflow: BLOCK; every wait strategy; subscriptions: >1;
+    //        events published: > capacity
+    @Test
+    public void testDeliversEveryEventInOrder() throws InterruptedException {
+        ChangeFeed feed = new ChangeFeed(8, ChangeFeed.Producers.SINGLE, ChangeFeed.Overflow.BLOCK);
+        assertEquals(8, feed.capacity());
+        List<Recorder> recorders = new ArrayList<Recorder>();
+        List<ChangeFeed.Subscription> subscriptions = new ArrayList<ChangeFeed.Subscription>();
+        for (ChangeFeed.WaitStrategy wait : ChangeFeed.WaitStrategy.values()) {
+            Recorder recorder = new Recorder();
+            recorders.add(recorder);
+            subscriptions.add(feed.subscribe(recorder, wait));
+        }
+        BookCopy copy = new BookCopy(MOBY);
+        List<String> expected = new ArrayList<String>();
+        ChangeFeed.Kind[] kinds = ChangeFeed.Kind.values();
+        for (int i = 0; i < 1000; i++) {
+            ChangeFeed.Kind kind = kinds[i % kinds.length];
+            BookCopy.Condition condition = BookCopy.Condition.values()[i % 2];
+            assertTrue(feed.publish(kind, copy, condition));
+            expected.add(i + " " + kind + " " + condition);
+        }
+        assertEquals(1000, feed.published());
+        for (int i = 0; i < recorders.size(); i++) {
+            awaitSequence(subscriptions.get(i), 999);
+            subscriptions.get(i).close();
+            assertFalse(subscriptions.get(i).isRunning());
+            assertEquals(ChangeFeed.WaitStrategy.values()[i].toString(), expected, recorders.get(i).events);
+            assertEquals(Collections.nCopies(1000, copy), recorders.get(i).copies);
+        }
+        assertEquals(0, feed.dropped());
+    }
+
+    // Covers producers: MULTI; wait strategy: BLOCKING; subscriptions: 1
+    @Test
+    public void testMultipleProducersLoseNothing() throws InterruptedException {
+        final ChangeFeed feed = new ChangeFeed(64, ChangeFeed.Producers.MULTI, ChangeFeed.Overflow.BLOCK);
+        Recorder recorder = new Recorder();
+        ChangeFeed.Subscription subscription = feed.subscribe(recorder, ChangeFeed.WaitStrategy.BLOCKING);
+        final int threads = 4;
+        final int events = 10000;
+        final List<BookCopy> copies = new ArrayList<BookCopy>();
+        List<Thread> producers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final BookCopy copy = new BookCopy(TYPEE);
+            copies.add(copy);
+            Thread producer = new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < events; i++)
+                        feed.publish(ChangeFeed.Kind.CHECKOUT, copy, BookCopy.Condition.GOOD);
+                }
+            });
+            producers.add(producer);
+            producer.start();
+        }
+        for (Thread producer : producers)
+            producer.join();
+        awaitSequence(subscription, threads * events - 1);
+        subscription.close();
+        assertEquals(threads * events, recorder.events.size());
+        for (int i = 0; i < threads * events; i++)
+            assertTrue(recorder.events.get(i).startsWith(i + " "));
+        for (BookCopy copy : copies)
+            assertEquals(events, Collections.frequency(recorder.copies, copy));
+    }
+
+    // a subscriber that waits for a latch before returning from its first event
+    private static class Stalled extends Recorder {
+        final CountDownLatch release = new CountDownLatch(1);
+
+        @Override
+        public void onEvent(long sequence, ChangeFeed.Kind kind, BookCopy copy, BookCopy.Condition condition) {
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+            super.onEvent(sequence, kind, copy, condition);
+        }
+    }
+
+    // Covers overflow: DROP; feed full: yes; wait strategy: SLEEPING
+    @Test
+    public void testDropsEventsWhenFull() throws InterruptedException {
+        ChangeFeed feed = new ChangeFeed(4, ChangeFeed.Producers.SINGLE, ChangeFeed.Overflow.DROP);
+        Stalled stalled = new Stalled();
+        ChangeFeed.Subscription subscription = feed.subscribe(stalled, ChangeFeed.WaitStrategy.SLEEPING);
+        BookCopy copy = new BookCopy(MOBY);
+        int accepted = 0;
+        for (int i = 0; i < 100; i++)
+            if (feed.publish(ChangeFeed.Kind.BUY, copy, BookCopy.Condition.GOOD)) accepted++;
+        assertEquals(4, accepted);
+        assertEquals(4, feed.published());
+        assertEquals(96, feed.dropped());
+        stalled.release.countDown();
+        awaitSequence(subscription, 3);
+        assertTrue(feed.publish(ChangeFeed.Kind.LOSE, copy, BookCopy.Condition.GOOD));
+        awaitSequence(subscription, 4);
+        subscription.close();
+        assertEquals(Arrays.asList("0 BUY GOOD", "1 BUY GOOD", "2 BUY GOOD", "3 BUY GOOD", "4 LOSE GOOD"),
+                stalled.events);
+    }
+
+    // Covers overflow: BLOCK; feed full: yes; wait strategy: YIELDING
+    @Test
+    public void testBlocksPublishersOnTheSlowestSubscriber() throws InterruptedException {
+        final ChangeFeed feed = new ChangeFeed(4, ChangeFeed.Producers.SINGLE, ChangeFeed.Overflow.BLOCK);
+        Stalled stalled = new Stalled();
+        ChangeFeed.Subscription subscription = feed.subscribe(stalled, ChangeFeed.WaitStrategy.YIELDING);
+        final BookCopy copy = new BookCopy(MOBY);
+        Thread producer = new Thread(new Runnable() {
+            public void run() {
+                for (int i = 0; i < 10; i++)
+                    feed.publish(ChangeFeed.Kind.CHECKIN, copy, BookCopy.Condition.GOOD);
+            }
+        });
+        producer.start();
+        producer.join(200);
+        assertTrue(producer.isAlive());
+        assertEquals(4, feed.published());
+        stalled.release.countDown();
+        producer.join(TIMEOUT_MILLIS);
+        assertFalse(producer.isAlive());
+        awaitSequence(subscription, 9);
+        subscription.close();
+        assertEquals(10, stalled.events.size());
+        assertEquals(0, feed.dropped());
+    }
+
+    // Covers subscriptions: 0; close() called, subscriber throws
+    @Test
+    public void testEndedSubscriptionsStopGating() throws InterruptedException {
+        ChangeFeed feed = new ChangeFeed(2, ChangeFeed.Producers.MULTI, ChangeFeed.Overflow.BLOCK);
+        BookCopy copy = new BookCopy(MOBY);
+        for (int i = 0; i < 10; i++)
+            assertTrue(feed.publish(ChangeFeed.Kind.BUY, copy, BookCopy.Condition.GOOD));
+
+        Recorder recorder = new Recorder();
+        ChangeFeed.Subscription closed = feed.subscribe(recorder, ChangeFeed.WaitStrategy.BLOCKING);
+        assertEquals(9, closed.sequence());
+        closed.close();
+        assertFalse(closed.isRunning());
+
+        final ChangeFeed.Subscription[] throwing = new ChangeFeed.Subscription[1];
+        throwing[0] = feed.subscribe(new ChangeFeed.Subscriber() {
+            public void onEvent(long sequence, ChangeFeed.Kind kind, BookCopy copy, BookCopy.Condition condition) {
+                throw new IllegalStateException("subscriber failed");
+            }
+        }, ChangeFeed.WaitStrategy.BUSY_SPIN);
+        feed.publish(ChangeFeed.Kind.BUY, copy, BookCopy.Condition.GOOD);
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (throwing[0].isRunning())
+            assertTrue(System.currentTimeMillis() < deadline);
+        throwing[0].close();
+
+        for (int i = 0; i < 10; i++)
+            assertTrue(feed.publish(ChangeFeed.Kind.BUY, copy, BookCopy.Condition.GOOD));
+        assertEquals(21, feed.published());
+        assertEquals(Collections.emptyList(), recorder.events);
+    }
+
+    // publish every kind of change through a PublishingLibrary, and check the events
+    private static void checkPublishingLibrary(Library wrapped) throws InterruptedException {
+        ChangeFeed feed = new ChangeFeed(16, ChangeFeed.Producers.MULTI, ChangeFeed.Overflow.BLOCK);
+        Recorder recorder = new Recorder();
+        ChangeFeed.Subscription subscription = feed.subscribe(recorder, ChangeFeed.WaitStrategy.BLOCKING);
+        PublishingLibrary library = new PublishingLibrary(wrapped, feed);
+        assertSame(feed, library.feed());
+
+        BookCopy moby = library.buy(MOBY);
+        List<BookCopy> typees = library.buyAll(TYPEE, 2);
+        library.buyAll(Arrays.asList(MOBY));
+        library.checkout(moby);
+        library.setCondition(moby, BookCopy.Condition.DAMAGED);
+        library.checkin(moby);
+        library.checkoutAll(typees);
+        library.checkinAll(typees);
+        assertEquals(2, library.find("melville").size());
+        library.lose(typees.get(0));
+        library.checkoutAny(TYPEE);
+        assertNull(library.checkoutAny(TYPEE));
+
+        awaitSequence(subscription, 12);
+        subscription.close();
+        assertEquals(Arrays.asList(
+                "0 BUY GOOD", "1 BUY GOOD", "2 BUY GOOD", "3 BUY GOOD",
+                "4 CHECKOUT GOOD", "5 CONDITION DAMAGED", "6 CHECKIN DAMAGED",
+                "7 CHECKOUT GOOD", "8 CHECKOUT GOOD", "9 CHECKIN GOOD", "10 CHECKIN GOOD",
+                "11 LOSE GOOD", "12 CHECKOUT GOOD"), recorder.events);
+        assertEquals(Arrays.asList(moby, typees.get(0), typees.get(1)), recorder.copies.subList(0, 3));
+        assertEquals(moby, recorder.copies.get(5));
+        assertEquals(typees.get(1), recorder.copies.get(12));
+        assertEquals(13, feed.published());
+    }
+
+    // Covers every PublishingLibrary operation; library: BigLibrary
+    @Test
+    public void testPublishingBigLibrary() throws InterruptedException {
+        checkPublishingLibrary(new BigLibrary());
+    }
+
+    // Covers every PublishingLibrary operation; library: CompactLibrary
+    @Test
+    public void testPublishingCompactLibrary() throws InterruptedException {
+        checkPublishingLibrary(new CompactLibrary());
+    }
+
+    // Covers setCondition; threads changing one copy at once: >1
+    @Test
+    public void testEventsOfOneCopyInOrder() throws InterruptedException {
+        ChangeFeed feed = new ChangeFeed(1024, ChangeFeed.Producers.MULTI, ChangeFeed.Overflow.BLOCK);
+        Recorder recorder = new Recorder();
+        ChangeFeed.Subscription subscription = feed.subscribe(recorder, ChangeFeed.WaitStrategy.BLOCKING);
+        final PublishingLibrary library = new PublishingLibrary(new ConcurrentLibrary(), feed);
+        final BookCopy moby = library.buy(MOBY);
+        final int rounds = 2000;
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 4; t++) {
+            final BookCopy.Condition condition = BookCopy.Condition.values()[t % 2];
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    for (int i = 0; i < rounds; i++)
+                        library.setCondition(moby, condition);
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads)
+            thread.join();
+        awaitSequence(subscription, 4 * rounds);
+        subscription.close();
+        // the last event published is the condition the copy was left in
+        String last = recorder.events.get(recorder.events.size() - 1);
+        assertEquals(4 * rounds + " CONDITION " + moby.getCondition(), last);
+    }
+}
@@ -0,0 +1,436 @@
+package library;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * CirculationWorkload drives a Library with a synthetic mix of operations from several
+ * threads, the way patrons of a real library would, and measures the throughput and latency
+ * percentiles it sustains.
+ *
+ * The catalog holds made-up books with a fixed number of copies each, ranked by popularity:
+ * every operation picks its book at random with Zipf's law, the book of rank r having weight
+ * 1 / r^skew, so with skew near 1 a few titles take most of the traffic.  The operations are
+ *     find      a word of the book's title, or its author's surname, as a query
+ *     checkout  checkoutAny of the book, keeping the copy if there was one
+ *     checkin   a random copy this thread has checked out, if it has any
+ *     buy       another copy of the book
+ *     lose      a random copy this thread has checked out, never returned, if it has any
+ * chosen with the weights of a Mix.  A checkin or lose that finds the thread holding no copy
+ * is skipped, and counted as such rather than timed.
+ *
+ * This is not a JUnit test.  Run it from the command line with assertions disabled:
+ *     java -cp bin library.CirculationWorkload [name=value ...]
+ * where the names and their defaults are
+ *     library=BigLibrary      SmallLibrary, BigLibrary, CompactLibrary, ConcurrentLibrary,
+ *                             ShardedLibrary or VersionedLibrary; the first three behind
+ *                             one global lock
+ *     books=100000            distinct books in the catalog
+ *     copies=4                copies of each book bought before the run
+ *     skew=1.0                Zipf exponent; 0 makes every book equally popular
+ *     mix=find:1000,checkout:22,checkin:22,buy:5,lose:1
+ *                             relative weights of the operations
+ *     threads=4               threads calling the library
+ *     warmup=5                seconds to run before measuring
+ *     seconds=10              seconds to measure
+ */
+public class CirculationWorkload {
+
+    /**
+     * Kind is one of the operations of a workload.
+     */
+    public static enum Kind {
+        FIND, CHECKOUT, CHECKIN, BUY, LOSE
+    }
+
+    /**
+     * Mix is an immutable set of relative weights of the kinds of operations.
+     */
+    public static class Mix {
+        private final int[] weights;
+
+        /**
+         * Make a mix.
+         * @param find weight of find
+         * @param checkout weight of checkout
+         * @param checkin weight of checkin
+         * @param buy weight of buy
+         * @param lose weight of lose
+         * All weights must be nonnegative, and some must be positive.
+         */
+        public Mix(int find, int checkout, int checkin, int buy, int lose) {
+            weights = new int[] { find, checkout, checkin, buy, lose };
+            int total = 0;
+            for (int weight : weights) {
+                assert weight >= 0 : "spec. contract broken";
+                total += weight;
+            }
+            assert total > 0 : "spec. contract broken";
+        }
+
+        /**
+         * Parse a mix written as kind:weight pairs separated by commas, such as
+         * "find:20,checkout:1"; kinds left out have weight 0.
+         * @param s mix to parse
+         * @return the mix s describes
+         * @throws IllegalArgumentException if s is not such a list
+         */
+        public static Mix parse(String s) {
+            int[] weights = new int[Kind.values().length];
+            for (String pair : s.split(",")) {
+                String[] parts = pair.trim().split(":");
+                if (parts.length != 2) throw new IllegalArgumentException("not kind:weight: " + pair);
+                weights[Kind.valueOf(parts[0].trim().toUpperCase()).ordinal()] = Integer.parseInt(parts[1].trim());
+            }
+            return new Mix(weights[0], weights[1], weights[2], weights[3], weights[4]);
+        }
+
+        /**
+         * @param kind a kind of operation
+         * @return the weight of kind in this mix
+         */
+        public int weight(Kind kind) {
+            return weights[kind.ordinal()];
+        }
+
+        // the kind of operation whose share of the total weight holds the given point
+        private Kind choose(int point) {
+            for (Kind kind : Kind.values()) {
+                point -= weights[kind.ordinal()];
+                if (point < 0) return kind;
+            }
+            throw new AssertionError("point beyond the total weight");
+        }
+
+        // the sum of the weights
+        private int total() {
+            int total = 0;
+            for (int weight : weights)
+                total += weight;
+            return total;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder s = new StringBuilder();
+            for (Kind kind : Kind.values())
+                s.append(s.length() == 0 ? "" : ",").append(kind.name().toLowerCase()).append(':').append(weight(kind));
+            return s.toString();
+        }
+    }
+
+    /** The mix of a busy public library: 20 finds for every change, and few losses. */
+    public static final Mix PRODUCTION = new Mix(1000, 22, 22, 5, 1);
+
+    private final List<Book> catalog;
+    private final int copiesPerBook;
+    private final double[] popularity;
+    private final Mix mix;
+    private final int threads;
+
+    /**
+     * Make a workload over a new made-up catalog.
+     * @param books number of distinct books; must be positive
+     * @param copiesPerBook copies of each book to buy before running; must be positive
+     * @param skew Zipf exponent of the books' popularity; must be nonnegative
+     * @param mix weights of the operations
+     * @param threads number of threads calling the library; must be positive
+     */
+    public CirculationWorkload(int books, int copiesPerBook, double skew, Mix mix, int threads) {
+        assert books > 0 && copiesPerBook > 0 && skew >= 0 && threads > 0 : "spec. contract broken";
+        Random random = new Random(books);
+        String[] syllables = LibraryBenchmark.syllables(random);
+        this.catalog = new ArrayList<Book>(books);
+        for (int i = 0; i < books; i++)
+            catalog.add(LibraryBenchmark.madeUpBook(random, syllables));
+        this.copiesPerBook = copiesPerBook;
+        this.popularity = new double[books];
+        double total = 0;
+        for (int rank = 1; rank <= books; rank++) {
+            total += 1 / Math.pow(rank, skew);
+            popularity[rank - 1] = total;
+        }
+        this.mix = mix;
+        this.threads = threads;
+    }
+
+    // the index in catalog of a book drawn by popularity
+    private int pick(ThreadLocalRandom random) {
+        double point = random.nextDouble() * popularity[popularity.length - 1];
+        int i = Arrays.binarySearch(popularity, point);
+        return Math.min(i < 0 ? -i - 1 : i, popularity.length - 1);
+    }
+
+    /**
+     * Result is the measurements of one run of a workload.
+     */
+    public static class Result {
+        private final double seconds;
+        private final long[][] latencies;
+        private final long[] skipped;
+
+        // latencies[kind] are the sorted nanoseconds of the timed operations of that kind
+        private Result(double seconds, long[][] latencies, long[] skipped) {
+            this.seconds = seconds;
+            this.latencies = latencies;
+            this.skipped = skipped;
+        }
+
+        /**
+         * @return operations completed per second, of all kinds
+         */
+        public double opsPerSecond() {
+            long total = 0;
+            for (long[] kind : latencies)
+                total += kind.length;
+            return total / seconds;
+        }
+
+        /**
+         * @param kind a kind of operation
+         * @return number of operations of that kind completed
+         */
+        public long count(Kind kind) {
+            return latencies[kind.ordinal()].length;
+        }
+
+        /**
+         * @param kind a kind of operation
+         * @return number of operations of that kind skipped because the thread held no copy
+         */
+        public long skipped(Kind kind) {
+            return skipped[kind.ordinal()];
+        }
+
+        /**
+         * @param kind a kind of operation
+         * @param fraction a number in [0, 1]
+         * @return the least latency in nanoseconds that more than this fraction of the
+         *    operations of that kind did not exceed, the largest if fraction is 1, or 0 if
+         *    there were none
+         */
+        public long percentile(Kind kind, double fraction) {
+            assert fraction >= 0 && fraction <= 1 : "spec. contract broken";
+            long[] sorted = latencies[kind.ordinal()];
+            if (sorted.length == 0) return 0;
+            return sorted[Math.min(sorted.length - 1, (int) (fraction * sorted.length))];
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder s = new StringBuilder(String.format("%,.0f ops/sec%n", opsPerSecond()));
+            s.append(String.format("%-10s %12s %10s %10s %10s %10s %10s%n",
+                    "operation", "ops/sec", "skipped", "p50 us", "p99 us", "p99.9 us", "max us"));
+            for (Kind kind : Kind.values())
+                s.append(String.format("%-10s %,12.0f %,10d %,10.1f %,10.1f %,10.1f %,10.1f%n",
+                        kind.name().toLowerCase(), count(kind) / seconds, skipped(kind),
+                        percentile(kind, 0.5) / 1e3, percentile(kind, 0.99) / 1e3,
+                        percentile(kind, 0.999) / 1e3, percentile(kind, 1) / 1e3));
+            return s.toString();
+        }
+    }
+
+    /**
+     * Stock a library with this workload's catalog, run the workload on it for a while to warm
+     * up, and then measure it.
+     * @param library library to drive, empty; must be thread-safe if this workload has more
+     *    than one thread
+     * @param warmupSeconds seconds to run before measuring
+     * @param seconds seconds to measure; must be positive
+     * @return the measurements
+     * @throws InterruptedException if interrupted while waiting for the threads
+     */
+    public Result run(Library library, int warmupSeconds, int seconds) throws InterruptedException {
+        assert warmupSeconds >= 0 && seconds > 0 : "spec. contract broken";
+        List<Book> stock = new ArrayList<Book>(catalog.size() * copiesPerBook);
+        for (int i = 0; i < copiesPerBook; i++)
+            stock.addAll(catalog);
+        library.buyAll(stock);
+        stock = null;
+        List<List<BookCopy>> borrowed = new ArrayList<List<BookCopy>>();
+        for (int t = 0; t < threads; t++)
+            borrowed.add(new ArrayList<BookCopy>());
+        if (warmupSeconds > 0) drive(library, borrowed, warmupSeconds);
+        return drive(library, borrowed, seconds);
+    }
+
+    // run the workload on library for the given time, each thread t keeping the copies it has
+    // checked out in borrowed.get(t)
+    private Result drive(final Library library, final List<List<BookCopy>> borrowed, int seconds)
+            throws InterruptedException {
+        final int kinds = Kind.values().length;
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final CountDownLatch start = new CountDownLatch(1);
+        final long[][][] latencies = new long[threads][kinds][];
+        final long[][] skipped = new long[threads][kinds];
+        final Throwable[] failure = new Throwable[1];
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            Thread worker = new Thread(new Runnable() {
+                public void run() {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    List<BookCopy> mine = borrowed.get(id);
+                    long[][] times = new long[kinds][1024];
+                    int[] counts = new int[kinds];
+                    try {
+                        start.await();
+                        while (running.get()) {
+                            Kind kind = mix.choose(random.nextInt(mix.total()));
+                            Book book = catalog.get(pick(random));
+                            long elapsed = operate(library, kind, book, mine, random);
+                            int k = kind.ordinal();
+                            if (elapsed < 0) {
+                                skipped[id][k]++;
+                                continue;
+                            }
+                            if (counts[k] == times[k].length) times[k] = Arrays.copyOf(times[k], 2 * counts[k]);
+                            times[k][counts[k]++] = elapsed;
+                        }
+                    } catch (InterruptedException e) {
+                        return;
+                    } catch (RuntimeException | Error e) {
+                        synchronized (failure) {
+                            failure[0] = e;
+                        }
+                    }
+                    for (int k = 0; k < kinds; k++)
+                        latencies[id][k] = Arrays.copyOf(times[k], counts[k]);
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        for (Thread worker : workers)
+            worker.join();
+        double elapsed = (System.nanoTime() - begin) / 1e9;
+        synchronized (failure) {
+            if (failure[0] != null) throw new IllegalStateException("workload failed", failure[0]);
+        }
+        long[][] merged = new long[kinds][];
+        long[] skippedTotal = new long[kinds];
+        for (int k = 0; k < kinds; k++) {
+            int total = 0;
+            for (int t = 0; t < threads; t++)
+                total += latencies[t][k].length;
+            merged[k] = new long[total];
+            int at = 0;
+            for (int t = 0; t < threads; t++) {
+                System.arraycopy(latencies[t][k], 0, merged[k], at, latencies[t][k].length);
+                at += latencies[t][k].length;
+                skippedTotal[k] += skipped[t][k];
+            }
+            Arrays.sort(merged[k]);
+        }
+        return new Result(elapsed, merged, skippedTotal);
+    }
+
+    // perform one operation of the given kind on book, or on a copy in mine; returns the
+    // nanoseconds the library took, or -1 if the operation was skipped
+    private static long operate(Library library, Kind kind, Book book, List<BookCopy> mine,
+            ThreadLocalRandom random) {
+        long begin;
+        switch (kind) {
+        case FIND: {
+            String query = random.nextBoolean()
+                    ? book.getTitle().split(" ")[0]
+                    : book.getAuthor(0).substring(book.getAuthor(0).indexOf(' ') + 1);
+            begin = System.nanoTime();
+            library.find(query, 0, 10);
+            return System.nanoTime() - begin;
+        }
+        case CHECKOUT: {
+            begin = System.nanoTime();
+            BookCopy copy = library.checkoutAny(book);
+            long elapsed = System.nanoTime() - begin;
+            if (copy != null) mine.add(copy);
+            return elapsed;
+        }
+        case BUY:
+            begin = System.nanoTime();
+            library.buy(book);
+            return System.nanoTime() - begin;
+        case CHECKIN:
+        case LOSE: {
+            if (mine.isEmpty()) return -1;
+            int i = random.nextInt(mine.size());
+            Collections.swap(mine, i, mine.size() - 1);
+            BookCopy copy = mine.remove(mine.size() - 1);
+            begin = System.nanoTime();
+            if (kind == Kind.CHECKIN) library.checkin(copy);
+            else library.lose(copy);
+            return System.nanoTime() - begin;
+        }
+        default:
+            throw new AssertionError("unknown kind " + kind);
+        }
+    }
+
+    /**
+     * Make an empty library by class name.
+     * @param name simple name of a Library class of this package
+     * @param threads number of threads that will use it
+     * @return a new, empty, thread-safe library of that class
+     * @throws IllegalArgumentException if there is no such class
+     */
+    static Library newLibrary(String name, int threads) {
+        switch (name) {
+        case "SmallLibrary":
+            return new LibraryBenchmark.SynchronizedLibrary(new SmallLibrary());
+        case "BigLibrary":
+            return new LibraryBenchmark.SynchronizedLibrary(new BigLibrary());
+        case "CompactLibrary":
+            return new LibraryBenchmark.SynchronizedLibrary(new CompactLibrary());
+        case "ConcurrentLibrary":
+            return new ConcurrentLibrary(threads);
+        case "ShardedLibrary":
+            return new ShardedLibrary(threads);
+        case "VersionedLibrary":
+            return new VersionedLibrary();
+        default:
+            throw new IllegalArgumentException("unknown library: " + name);
+        }
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        String library = "BigLibrary";
+        int books = 100000;
+        int copies = 4;
+        double skew = 1.0;
+        Mix mix = PRODUCTION;
+        int threads = 4;
+        int warmup = 5;
+        int seconds = 10;
+        for (String arg : args) {
+            int equals = arg.indexOf('=');
+            if (equals < 0) throw new IllegalArgumentException("not name=value: " + arg);
+            String name = arg.substring(0, equals);
+            String value = arg.substring(equals + 1);
+            switch (name) {
+            case "library": library = value; break;
+            case "books":   books = Integer.parseInt(value); break;
+            case "copies":  copies = Integer.parseInt(value); break;
+            case "skew":    skew = Double.parseDouble(value); break;
+            case "mix":     mix = Mix.parse(value); break;
+            case "threads": threads = Integer.parseInt(value); break;
+            case "warmup":  warmup = Integer.parseInt(value); break;
+            case "seconds": seconds = Integer.parseInt(value); break;
+            default: throw new IllegalArgumentException("unknown option: " + name);
+            }
+        }
+        System.out.printf("%s, %,d books x %d copies, skew %s, mix %s, %d threads%n",
+                library, books, copies, skew, mix, threads);
+        CirculationWorkload workload = new CirculationWorkload(books, copies, skew, mix, threads);
+        System.out.print(workload.run(newLibrary(library, threads), warmup, seconds));
+    }
+}
@@ -0,0 +1,156 @@
+package library;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+/**
+ * Test suite for CompactLibrary's copy handles.
+ */
+public class CompactLibraryTest {
+
+    /*
+     * NOTE: tests of the Library spec itself are in LibraryTest.java, which also
+     * runs against CompactLibrary.  This file only tests what is particular to handles.
+     */
+
+    /*
+     * Testing strategy
+     * ==================
+     *
+     * Partitions:
+     *    handle: returned by buy, made again by allCopies/availableCopies/checkoutAny
+     *    copies of a book: < 64, spanning several 64-bit words
+     *    condition: set through one handle, read through another; of a lost copy whose id
+     *      is reused, set through the handle lost or through another
+     *    copy: of this library, of another CompactLibrary, lost, of a book lost and bought again,
+     *      lost and its id reused by a later copy
+     *    buy/lose cycles while other copies stay: 1, many
+     */
+
+    private static final Book MOBY = new Book("Moby Dick", Arrays.asList("Herman Melville"), 1851);
+
+    // Covers handle: made again by allCopies/availableCopies; copies: spanning several words
+    @Test
+    public void testHandlesEqualAcrossWords() {
+        Library library = new CompactLibrary();
+        List<BookCopy> bought = library.buyAll(MOBY, 200);
+        for (int i = 0; i < bought.size(); i += 3)
+            library.checkout(bought.get(i));
+        assertEquals(new HashSet<BookCopy>(bought), library.allCopies(MOBY));
+        Set<BookCopy> available = new HashSet<BookCopy>(bought);
+        for (int i = 0; i < bought.size(); i += 3)
+            available.remove(bought.get(i));
+        assertEquals(available, library.availableCopies(MOBY));
+        for (BookCopy copy : library.availableCopies(MOBY))
+            assertTrue(library.isAvailable(copy));
+    }
+
+    // Covers handle: made again by checkoutAny; copies: < 64
+    @Test
+    public void testCheckoutAnyReturnsCheckedInCopy() {
+        Library library = new CompactLibrary();
+        List<BookCopy> bought = library.buyAll(MOBY, 3);
+        for (int i = 0; i < 3; i++)
+            assertNotNull(library.checkoutAny(MOBY));
+        assertNull(library.checkoutAny(MOBY));
+        library.checkin(bought.get(1));
+        assertEquals(bought.get(1), library.checkoutAny(MOBY));
+    }
+
+    // Covers condition: set through one handle, read through another
+    @Test
+    public void testConditionSharedByHandles() {
+        Library library = new CompactLibrary();
+        BookCopy copy = library.buy(MOBY);
+        BookCopy handle = library.allCopies(MOBY).iterator().next();
+        assertNotSame(copy, handle);
+        handle.setCondition(BookCopy.Condition.DAMAGED);
+        assertEquals(BookCopy.Condition.DAMAGED, copy.getCondition());
+        assertTrue(copy.toString().contains("damaged"));
+        copy.setCondition(BookCopy.Condition.GOOD);
+        assertEquals(BookCopy.Condition.GOOD, handle.getCondition());
+    }
+
+    // Covers copy: of another CompactLibrary, lost, of a book lost and bought again
+    @Test
+    public void testForeignAndStaleHandles() {
+        Library library = new CompactLibrary();
+        Library other = new CompactLibrary();
+        BookCopy copy = library.buy(MOBY);
+        BookCopy foreign = other.buy(MOBY);
+        assertNotEquals(copy, foreign);
+        assertFalse(library.isAvailable(foreign));
+        library.checkout(foreign);
+        assertTrue(other.isAvailable(foreign));
+
+        library.lose(copy);
+        BookCopy again = library.buy(MOBY);
+        assertNotEquals(copy, again);
+        assertFalse(library.isAvailable(copy));
+        library.checkin(copy);
+        assertEquals(new HashSet<BookCopy>(Arrays.asList(again)), library.allCopies(MOBY));
+    }
+
+    // Covers copy: lost and its id reused by a later copy; buy/lose cycles: 1, many
+    @Test
+    public void testLostIdsAreReused() {
+        Library library = new CompactLibrary();
+        BookCopy kept = library.buy(MOBY);
+        BookCopy lost = library.buy(MOBY);
+        lost.setCondition(BookCopy.Condition.DAMAGED);
+        library.checkout(lost);
+        library.lose(lost);
+        BookCopy again = library.buy(MOBY);
+        assertEquals(((CompactCopy) lost).getId(), ((CompactCopy) again).getId());
+        assertNotEquals(lost, again);
+        assertEquals(BookCopy.Condition.GOOD, again.getCondition());
+        assertTrue(library.isAvailable(again));
+        assertFalse(library.isAvailable(lost));
+        library.checkin(lost);
+        library.lose(lost);
+        assertEquals(new HashSet<BookCopy>(Arrays.asList(kept, again)), library.allCopies(MOBY));
+        assertFalse(library.allCopies(MOBY).contains(lost));
+        assertFalse(library.allCopiesView(MOBY).contains(lost));
+        lost.setCondition(BookCopy.Condition.DAMAGED);
+        assertEquals(BookCopy.Condition.GOOD, again.getCondition());
+        assertEquals(BookCopy.Condition.DAMAGED, lost.getCondition());
+
+        for (int i = 0; i < 100000; i++)
+            library.lose(library.buy(MOBY));
+        // the cycles use up the generations of one id, so they take just one id more
+        assertEquals(3, ((CompactCopy) library.buy(MOBY)).getId());
+        assertEquals(3, library.countCopies(MOBY));
+        assertEquals(3, library.countAvailable(MOBY));
+    }
+
+    // Covers condition: of a lost copy whose id is reused, set through the handle lost or
+    //        through another
+    @Test
+    public void testLostCopyKeepsConditionAfterReuse() {
+        Library library = new CompactLibrary();
+        library.buy(MOBY);
+        BookCopy damaged = library.buy(MOBY);
+        damaged.setCondition(BookCopy.Condition.DAMAGED);
+        library.lose(damaged);
+        BookCopy again = library.buy(MOBY);
+        assertEquals(((CompactCopy) damaged).getId(), ((CompactCopy) again).getId());
+        assertEquals(BookCopy.Condition.DAMAGED, damaged.getCondition());
+        assertEquals(BookCopy.Condition.GOOD, again.getCondition());
+
+        BookCopy bought = library.buy(MOBY);
+        BookCopy handle = null;
+        for (BookCopy copy : library.allCopies(MOBY))
+            if (copy.equals(bought)) handle = copy;
+        handle.setCondition(BookCopy.Condition.DAMAGED);
+        library.lose(bought);
+        library.buy(MOBY);
+        assertEquals(BookCopy.Condition.DAMAGED, bought.getCondition());
+        assertEquals(BookCopy.Condition.DAMAGED, handle.getCondition());
+    }
+}
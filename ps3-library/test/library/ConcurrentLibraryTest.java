@@ -0,0 +1,171 @@
+package library;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+/**
+ * Test suite for ConcurrentLibrary's thread safety.
+ */
+public class ConcurrentLibraryTest {
+
+    /*
+     * NOTE: tests of the Library spec itself are in LibraryTest.java, which also
+     * runs against ConcurrentLibrary.  This file only tests concurrent use.
+     */
+
+    /*
+     * Testing strategy
+     * ==================
+     *
+     * Partitions:
+     *    threads: 1, >1
+     *    books touched by threads: same book, different books
+     *    operations: checkout+checkin, checkoutAny+checkin, buy+lose,
+     *                checkoutAny+checkin racing lose
+     *    # final state: every copy accounted for exactly once
+     *
+     * Partitions for ConcurrentShelf's pool of available copies:
+     *    copies lost without checkoutAny: few, many more than the shelf holds
+     */
+
+    private static final int THREADS = 8;
+    private static final int ROUNDS = 2000;
+
+    // run task on THREADS threads at once and wait for all of them
+    private static void runConcurrently(final Runnable task) throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Throwable> failures = new ArrayList<Throwable>();
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < THREADS; i++) {
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        task.run();
+                    } catch (Throwable t) {
+                        synchronized (failures) {
+                            failures.add(t);
+                        }
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) thread.join();
+        assertEquals(new ArrayList<Throwable>(), failures);
+    }
+
+    // Covers threads: >1; books touched: same book; operations: checkout+checkin
+    @Test
+    public void testCheckoutCheckinSameBook() throws InterruptedException {
+        final Library library = new ConcurrentLibrary();
+        final Book book = new Book("Moby Dick", Arrays.asList("Herman Melville"), 1851);
+        final List<BookCopy> copies = new ArrayList<BookCopy>();
+        for (int i = 0; i < THREADS; i++)
+            copies.add(library.buy(book));
+        runConcurrently(new Runnable() {
+            public void run() {
+                for (int i = 0; i < ROUNDS; i++) {
+                    BookCopy copy = copies.get(i % copies.size());
+                    library.checkout(copy);
+                    library.checkin(copy);
+                }
+            }
+        });
+        assertEquals(THREADS, library.allCopies(book).size());
+        assertEquals(THREADS, library.availableCopies(book).size());
+    }
+
+    // Covers threads: >1; books touched: same book; operations: checkoutAny+checkin
+    @Test
+    public void testCheckoutAnyHotTitle() throws InterruptedException {
+        final Library library = new ConcurrentLibrary();
+        final Book book = new Book("Moby Dick", Arrays.asList("Herman Melville"), 1851);
+        final int copies = THREADS / 2;
+        for (int i = 0; i < copies; i++)
+            library.buy(book);
+        final Set<BookCopy> held = Collections.newSetFromMap(new ConcurrentHashMap<BookCopy, Boolean>());
+        runConcurrently(new Runnable() {
+            public void run() {
+                for (int i = 0; i < ROUNDS; i++) {
+                    BookCopy copy = library.checkoutAny(book);
+                    if (copy == null) continue;
+                    assertTrue("copy checked out twice", held.add(copy));
+                    assertFalse(library.isAvailable(copy));
+                    held.remove(copy);
+                    library.checkin(copy);
+                }
+            }
+        });
+        assertEquals(copies, library.availableCopies(book).size());
+        assertEquals(copies, library.countAvailable(book));
+    }
+
+    // Covers threads: >1; books touched: same book; operations: checkoutAny+checkin racing lose
+    @Test
+    public void testCountsWhileLosing() throws InterruptedException {
+        final Library library = new ConcurrentLibrary();
+        final Book book = new Book("Moby Dick", Arrays.asList("Herman Melville"), 1851);
+        final List<BookCopy> doomed = library.buyAll(book, THREADS);
+        library.buyAll(book, THREADS);
+        runConcurrently(new Runnable() {
+            public void run() {
+                for (int i = 0; i < ROUNDS; i++) {
+                    if (i == ROUNDS / 2) library.lose(doomed.get((int) (Thread.currentThread().getId() % THREADS)));
+                    BookCopy copy = library.checkoutAny(book);
+                    if (copy != null) library.checkin(copy);
+                }
+            }
+        });
+        assertEquals(library.allCopies(book).size(), library.countCopies(book));
+        assertEquals(library.availableCopies(book).size(), library.countAvailable(book));
+        assertEquals(library.countCopies(book), library.countAvailable(book));
+    }
+    
+    // Covers threads: >1; books touched: different books; operations: buy+lose
+    @Test
+    public void testBuyLoseDifferentBooks() throws InterruptedException {
+        final Library library = new ConcurrentLibrary(2);
+        runConcurrently(new Runnable() {
+            public void run() {
+                String name = Thread.currentThread().getName();
+                for (int i = 0; i < ROUNDS / 10; i++) {
+                    Book book = new Book(name + " " + i, Arrays.asList(name), 2000);
+                    BookCopy keep = library.buy(book);
+                    BookCopy lost = library.buy(book);
+                    library.lose(lost);
+                    assertEquals(Arrays.asList(keep), new ArrayList<BookCopy>(library.allCopies(book)));
+                }
+            }
+        });
+        assertEquals(THREADS * ROUNDS / 10, library.find("Thread").size());
+    }
+
+    // Covers copies lost without checkoutAny: many more than the shelf holds
+    @Test
+    public void testLostCopiesLeaveThePool() {
+        Book book = new Book("Moby Dick", Arrays.asList("Herman Melville"), 1851);
+        ConcurrentShelf shelf = new ConcurrentShelf(book);
+        BookCopy kept = new BookCopy(book);
+        shelf.add(kept);
+        for (int i = 0; i < 10000; i++) {
+            BookCopy copy = new BookCopy(book);
+            shelf.add(copy);
+            shelf.remove(copy);
+        }
+        assertTrue(shelf.poolSize() <= 18);
+        assertEquals(kept, shelf.checkoutAny());
+        assertNull(shelf.checkoutAny());
+    }
+}
@@ -0,0 +1,156 @@
+package library;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Test suite for FuzzyIndex and BigLibrary.findFuzzy().
+ */
+public class FuzzyIndexTest {
+
+    /*
+     * Testing strategy
+     * ==================
+     *
+     * Partitions for distance(a, b, max):
+     *    edit: none, insertion, deletion, substitution, adjacent transposition, several
+     *    distance: <= max, > max; lengths: equal, differing by more than max; a or b empty
+     *
+     * Partitions for expand(word) and findFuzzy(query, limit):
+     *    word length: <= 3, 4..7, >= 8
+     *    close tokens: none, exact, misspelled, both
+     *    library: misspelled book bought, all its copies lost; limit: 0, > 0
+     *    misspellings: random edits anywhere in a token, including across its pieces
+     */
+
+    private static final Book DOSTOEVSKY = new Book("Crime and Punishment",
+            Arrays.asList("Fyodor Dostoevsky"), 1866);
+    private static final Book TOLSTOY = new Book("War and Peace", Arrays.asList("Leo Tolstoy"), 1869);
+    private static final Book WARD = new Book("Ward No. 6", Arrays.asList("Anton Chekhov"), 1892);
+
+    // Covers edit: all; distance: <= max, > max; lengths: all
+    @Test
+    public void testDistance() {
+        assertEquals(0, FuzzyIndex.distance("melville", "melville", 2));
+        assertEquals(1, FuzzyIndex.distance("melville", "melvile", 2));
+        assertEquals(1, FuzzyIndex.distance("melvile", "melville", 2));
+        assertEquals(1, FuzzyIndex.distance("melville", "melvilke", 2));
+        assertEquals(1, FuzzyIndex.distance("dostoevsky", "dostoevksy", 2));
+        assertEquals(2, FuzzyIndex.distance("dostoevsky", "dostoyevksy", 2));
+        assertEquals(3, FuzzyIndex.distance("dostoevsky", "tolstoy", 2));
+        assertEquals(2, FuzzyIndex.distance("abc", "abcdefgh", 1));
+        assertEquals(2, FuzzyIndex.distance("", "ab", 2));
+        assertEquals(3, FuzzyIndex.distance("abc", "", 2));
+    }
+
+    // Covers word length: all; close tokens: none, exact, misspelled, both
+    @Test
+    public void testExpand() {
+        FuzzyIndex index = new FuzzyIndex();
+        index.addAll(Arrays.asList(DOSTOEVSKY, TOLSTOY, WARD));
+        Map<String, Integer> expected = new HashMap<String, Integer>();
+        expected.put("dostoevsky", 1);
+        assertEquals(expected, index.expand("dostoevksy"));
+        expected.clear();
+        expected.put("war", 0);
+        assertEquals(expected, index.expand("war"));
+        assertEquals(Collections.emptyMap(), index.expand("wat"));
+        expected.clear();
+        expected.put("ward", 0);
+        expected.put("war", 1);
+        assertEquals(expected, index.expand("ward"));
+        assertEquals(Collections.emptyMap(), index.expand("hemingway"));
+        index.remove(WARD);
+        expected.remove("ward");
+        assertEquals(expected, index.expand("ward"));
+    }
+
+    // Covers word length: all; misspellings: random, compared with a scan of the vocabulary
+    @Test
+    public void testExpandFindsEveryCloseToken() {
+        Random random = new Random(3);
+        List<String> vocabulary = new ArrayList<String>();
+        FuzzyIndex index = new FuzzyIndex();
+        for (int i = 0; i < 300; i++) {
+            String token = randomWord(random, 1 + random.nextInt(12));
+            vocabulary.add(token);
+            index.add(new Book(token, Arrays.asList("a"), 2000));
+        }
+        vocabulary.add("a");
+        for (int i = 0; i < 2000; i++) {
+            String word = vocabulary.get(random.nextInt(vocabulary.size()));
+            for (int edits = random.nextInt(4); edits > 0; edits--)
+                word = randomEdit(random, word);
+            if (word.isEmpty()) continue;
+            Map<String, Integer> expected = new HashMap<String, Integer>();
+            int max = FuzzyIndex.maxEdits(word);
+            for (String token : vocabulary) {
+                int d = FuzzyIndex.distance(word, token, max);
+                if (d <= max) expected.put(token, d);
+            }
+            assertEquals(word, expected, index.expand(word));
+        }
+    }
+
+    // a word of random letters from a small alphabet, so that words resemble each other
+    private static String randomWord(Random random, int length) {
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < length; i++)
+            word.append((char) ('a' + random.nextInt(4)));
+        return word.toString();
+    }
+
+    // word with a random insertion, deletion, substitution or adjacent transposition
+    private static String randomEdit(Random random, String word) {
+        StringBuilder edited = new StringBuilder(word);
+        int at = word.isEmpty() ? 0 : random.nextInt(word.length());
+        char c = (char) ('a' + random.nextInt(4));
+        switch (word.isEmpty() ? 0 : random.nextInt(4)) {
+        case 0: edited.insert(random.nextInt(word.length() + 1), c); break;
+        case 1: edited.deleteCharAt(at); break;
+        case 2: edited.setCharAt(at, c); break;
+        default:
+            if (at + 1 < word.length()) {
+                edited.setCharAt(at, word.charAt(at + 1));
+                edited.setCharAt(at + 1, word.charAt(at));
+            }
+        }
+        return edited.toString();
+    }
+
+    // Covers close tokens: misspelled; library: misspelled book bought, all its copies lost;
+    //        limit: 0, > 0
+    @Test
+    public void testFindFuzzy() {
+        BigLibrary library = new BigLibrary();
+        BookCopy copy = library.buy(DOSTOEVSKY);
+        library.buy(TOLSTOY);
+        assertEquals(Collections.emptyList(), library.find("Dostoevksy"));
+        assertEquals(Arrays.asList(DOSTOEVSKY), library.findFuzzy("Dostoevksy", 10));
+        assertEquals(Arrays.asList(TOLSTOY), library.findFuzzy("Tolstoj", 10));
+        assertEquals(Collections.emptyList(), library.findFuzzy("Dostoevksy", 0));
+        library.lose(copy);
+        assertEquals(Collections.emptyList(), library.findFuzzy("Dostoevksy", 10));
+        library.buy(DOSTOEVSKY);
+        assertEquals(Arrays.asList(DOSTOEVSKY), library.findFuzzy("dostoyevsky", 10));
+    }
+
+    // Covers close tokens: both; exact matches outrank misspelled ones
+    @Test
+    public void testFindFuzzyRanksExactFirst() {
+        BigLibrary library = new BigLibrary();
+        library.buy(TOLSTOY);
+        library.buy(WARD);
+        List<Book> found = library.findFuzzy("ward", 10);
+        assertEquals(Arrays.asList(WARD, TOLSTOY), found);
+    }
+}
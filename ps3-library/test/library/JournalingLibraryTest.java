@@ -0,0 +1,203 @@
+package library;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import library.JournalingLibrary.Durability;
+
+/**
+ * Test suite for JournalingLibrary's recovery.
+ */
+public class JournalingLibraryTest {
+
+    /*
+     * Testing strategy
+     * ==================
+     *
+     * Partitions for operations, then close() and open() again:
+     *    durability: SYNC, GROUP, ASYNC
+     *    operations: buy, checkout, checkin, lose, checkoutAny, buyAll/checkoutAll/checkinAll
+     *    checkpoint(): never, before the operations, in between
+     *    copies touched after a checkpoint: checked out, available, lost
+     *    journal tail: intact, torn
+     *    threads: 1, >1
+     *    book strings: short, longer than 65535 bytes, too large for a journal record
+     */
+
+    private static final Book MOBY = new Book("Moby Dick", Arrays.asList("Herman Melville"), 1851);
+    private static final Book TYPEE = new Book("Typee", Arrays.asList("Herman Melville"), 1846);
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    // count all copies of book and the available ones, in that order
+    private static List<Integer> counts(Library library, Book book) {
+        return Arrays.asList(library.allCopies(book).size(), library.availableCopies(book).size());
+    }
+
+    // Covers durability: all; operations: all; checkpoint: never; journal tail: intact
+    @Test
+    public void testReopenEachDurability() throws IOException {
+        for (Durability durability : Durability.values()) {
+            Path directory = folder.newFolder().toPath();
+            JournalingLibrary library = JournalingLibrary.open(directory, durability);
+            List<BookCopy> mobys = library.buyAll(MOBY, 4);
+            library.checkout(mobys.get(0));
+            library.checkout(mobys.get(1));
+            library.checkin(mobys.get(0));
+            library.lose(mobys.get(2));
+            BookCopy typee = library.buy(TYPEE);
+            library.checkoutAll(Arrays.asList(typee, mobys.get(3)));
+            library.checkinAll(Arrays.asList(typee));
+            assertNotNull(library.checkoutAny(TYPEE));
+            library.close();
+
+            JournalingLibrary reopened = JournalingLibrary.open(directory, durability);
+            assertEquals(durability.toString(), Arrays.asList(3, 1), counts(reopened, MOBY));
+            assertEquals(durability.toString(), Arrays.asList(1, 0), counts(reopened, TYPEE));
+            assertEquals(Arrays.asList(MOBY, TYPEE), reopened.find("Melville"));
+            reopened.close();
+        }
+    }
+
+    // Covers checkpoint: in between; copies touched after a checkpoint: all
+    @Test
+    public void testCheckpointThenJournal() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        JournalingLibrary library = JournalingLibrary.open(directory, Durability.GROUP);
+        List<BookCopy> mobys = library.buyAll(MOBY, 3);
+        library.checkout(mobys.get(0));
+        library.checkpoint();
+        library.checkin(mobys.get(0));
+        library.checkout(mobys.get(1));
+        library.lose(mobys.get(2));
+        library.buy(TYPEE);
+        library.close();
+        assertEquals(2, directory.toFile().list().length);
+
+        JournalingLibrary reopened = JournalingLibrary.open(directory, Durability.GROUP);
+        assertEquals(Arrays.asList(2, 1), counts(reopened, MOBY));
+        assertEquals(Arrays.asList(1, 1), counts(reopened, TYPEE));
+
+        // a copy loaded from a snapshot and changed afterwards is replayed onto the same copy
+        reopened.checkpoint();
+        assertNotNull(reopened.checkoutAny(MOBY));
+        reopened.close();
+        JournalingLibrary again = JournalingLibrary.open(directory, Durability.GROUP);
+        assertEquals(Arrays.asList(2, 0), counts(again, MOBY));
+        again.close();
+    }
+
+    // Covers journal tail: torn
+    @Test
+    public void testTornTail() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        JournalingLibrary library = JournalingLibrary.open(directory, Durability.SYNC);
+        library.buy(MOBY);
+        library.close();
+        Files.write(directory.resolve("journal-0"), new byte[] { 0, 0, 0, 9, 1, 0 }, StandardOpenOption.APPEND);
+
+        JournalingLibrary reopened = JournalingLibrary.open(directory, Durability.SYNC);
+        assertEquals(Arrays.asList(1, 1), counts(reopened, MOBY));
+        reopened.buy(MOBY);
+        reopened.close();
+        JournalingLibrary again = JournalingLibrary.open(directory, Durability.SYNC);
+        assertEquals(Arrays.asList(2, 2), counts(again, MOBY));
+        again.close();
+    }
+
+    // a string of the given number of copies of s
+    private static String repeat(String s, int count) {
+        StringBuilder repeated = new StringBuilder();
+        for (int i = 0; i < count; i++)
+            repeated.append(s);
+        return repeated.toString();
+    }
+
+    // Covers book strings: longer than 65535 bytes, too large for a journal record
+    @Test
+    public void testLongBookStrings() throws IOException {
+        Path directory = folder.newFolder().toPath();
+        JournalingLibrary library = JournalingLibrary.open(directory, Durability.SYNC);
+        Book lengthy = new Book(repeat("x", 70000), Arrays.asList(repeat("\u00e9", 40000)), 2000);
+        Book huge = new Book(repeat("y", 2 << 20), Arrays.asList("Writer"), 2000);
+        library.buy(lengthy);
+        library.buy(MOBY);
+        for (int attempt = 0; attempt < 2; attempt++) {
+            try {
+                library.buy(huge);
+                fail("expected the book to be rejected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+            assertEquals(0, library.countCopies(huge));
+        }
+        try {
+            library.buyAll(Arrays.asList(TYPEE, huge));
+            fail("expected the batch to be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+        assertEquals(0, library.countCopies(TYPEE));
+        library.buy(TYPEE);
+        library.close();
+
+        JournalingLibrary reopened = JournalingLibrary.open(directory, Durability.SYNC);
+        assertEquals(Arrays.asList(1, 1), counts(reopened, lengthy));
+        assertEquals(Arrays.asList(1, 1), counts(reopened, MOBY));
+        assertEquals(Arrays.asList(1, 1), counts(reopened, TYPEE));
+        assertEquals(Arrays.asList(0, 0), counts(reopened, huge));
+        reopened.close();
+    }
+
+    // Covers durability: GROUP; threads: >1
+    @Test
+    public void testConcurrentGroupCommit() throws IOException, InterruptedException {
+        Path directory = folder.newFolder().toPath();
+        final JournalingLibrary library = JournalingLibrary.open(directory, Durability.GROUP);
+        final CountDownLatch start = new CountDownLatch(1);
+        final List<Throwable> failures = Collections.synchronizedList(new ArrayList<Throwable>());
+        List<Thread> threads = new ArrayList<Thread>();
+        for (int t = 0; t < 8; t++) {
+            final Book book = new Book("Book " + t, Arrays.asList("Writer"), 2000);
+            Thread thread = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                        for (int i = 0; i < 50; i++) {
+                            BookCopy copy = library.buy(book);
+                            library.checkout(copy);
+                            if (i % 2 == 0) library.checkin(copy);
+                        }
+                    } catch (Throwable e) {
+                        failures.add(e);
+                    }
+                }
+            });
+            thread.start();
+            threads.add(thread);
+        }
+        start.countDown();
+        for (Thread thread : threads) thread.join();
+        assertEquals(Collections.emptyList(), failures);
+        library.close();
+
+        JournalingLibrary reopened = JournalingLibrary.open(directory, Durability.GROUP);
+        for (int t = 0; t < 8; t++)
+            assertEquals(Arrays.asList(50, 25), counts(reopened, new Book("Book " + t, Arrays.asList("Writer"), 2000)));
+        reopened.close();
+    }
+}
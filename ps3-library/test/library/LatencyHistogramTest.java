@@ -0,0 +1,142 @@
+package library;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.Test;
+
+/**
+ * Test suite for LatencyHistogram.
+ */
+public class LatencyHistogramTest {
+
+    /*
+     * Testing strategy
+     * ==================
+     *
+     * Partitions for record(nanos), then a snapshot:
+     *    nanos: negative, 0, < SUB_BUCKETS (exact), >= SUB_BUCKETS (rounded up within
+     *      1/SUB_BUCKETS), at a power of two, > MAX_VALUE
+     *    durations: none, one, many
+     *
+     * Partitions for percentile(fraction), max(), mean(), count(), plus(that):
+     *    fraction: 0, in between, 1
+     *
+     * Partitions for snapshotAndReset():
+     *    threads recording meanwhile: 0, >1
+     */
+
+    // Covers nanos: 0, < SUB_BUCKETS; durations: many; fraction: 0, in between, 1
+    @Test
+    public void testSmallDurationsAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int nanos = 0; nanos < LatencyHistogram.SUB_BUCKETS; nanos++)
+            histogram.record(nanos);
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+        assertEquals(LatencyHistogram.SUB_BUCKETS, snapshot.count());
+        assertEquals(0, snapshot.percentile(0));
+        assertEquals(LatencyHistogram.SUB_BUCKETS / 2, snapshot.percentile(0.5));
+        assertEquals(LatencyHistogram.SUB_BUCKETS - 1, snapshot.percentile(1));
+        assertEquals(LatencyHistogram.SUB_BUCKETS - 1, snapshot.max());
+        assertEquals((LatencyHistogram.SUB_BUCKETS - 1) / 2.0, snapshot.mean(), 0);
+    }
+
+    // Covers nanos: >= SUB_BUCKETS, at a power of two; durations: one
+    @Test
+    public void testLargeDurationsRoundUpWithinABucket() {
+        Random random = new Random(5);
+        List<Long> durations = new ArrayList<Long>();
+        for (int shift = 5; shift < 36; shift++) {
+            durations.add(1L << shift);
+            durations.add((1L << shift) - 1);
+            durations.add((1L << shift) + 1);
+        }
+        for (int i = 0; i < 10000; i++)
+            durations.add((long) (Math.exp(random.nextDouble() * Math.log(LatencyHistogram.MAX_VALUE))));
+        for (long nanos : durations) {
+            LatencyHistogram histogram = new LatencyHistogram();
+            histogram.record(nanos);
+            long reported = histogram.snapshot().max();
+            assertTrue(nanos + " reported as " + reported,
+                    reported >= nanos && reported - nanos <= nanos / LatencyHistogram.SUB_BUCKETS);
+        }
+    }
+
+    // Covers nanos: negative, > MAX_VALUE; durations: none
+    @Test
+    public void testOutOfRangeDurations() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.snapshot().count());
+        assertEquals(0, histogram.snapshot().percentile(0.99));
+        assertEquals(0, histogram.snapshot().max());
+        histogram.record(-7);
+        assertEquals(0, histogram.snapshot().max());
+        histogram.record(Long.MAX_VALUE);
+        assertEquals(2, histogram.snapshot().count());
+        assertEquals(LatencyHistogram.MAX_VALUE, histogram.snapshot().max());
+    }
+
+    // Covers durations: many; fraction: in between; plus
+    @Test
+    public void testPercentilesAndPlus() {
+        LatencyHistogram low = new LatencyHistogram();
+        LatencyHistogram high = new LatencyHistogram();
+        for (int nanos = 1; nanos <= 1000; nanos++)
+            low.record(nanos);
+        for (int nanos = 1001; nanos <= 2000; nanos++)
+            high.record(nanos);
+        LatencyHistogram.Snapshot snapshot = low.snapshot();
+        assertEquals(501, snapshot.percentile(0.5), 501 / LatencyHistogram.SUB_BUCKETS);
+        assertEquals(991, snapshot.percentile(0.99), 991 / LatencyHistogram.SUB_BUCKETS);
+        assertEquals(500.5, snapshot.mean(), 500.5 / LatencyHistogram.SUB_BUCKETS);
+        LatencyHistogram.Snapshot both = snapshot.plus(high.snapshot());
+        assertEquals(2000, both.count());
+        assertEquals(1001, both.percentile(0.5), 1001 / LatencyHistogram.SUB_BUCKETS);
+        assertEquals(1000, snapshot.count());
+    }
+
+    // Covers threads recording meanwhile: 0, >1
+    @Test
+    public void testSnapshotAndResetLosesNothing() throws InterruptedException {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(100);
+        assertEquals(1, histogram.snapshotAndReset().count());
+        assertEquals(0, histogram.snapshot().count());
+
+        final int threads = 4;
+        final int durations = 100000;
+        final CountDownLatch start = new CountDownLatch(1);
+        final AtomicBoolean done = new AtomicBoolean();
+        List<Thread> recorders = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final Random random = new Random(t);
+            Thread recorder = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < durations; i++)
+                        histogram.record(random.nextInt(1000000));
+                }
+            });
+            recorders.add(recorder);
+            recorder.start();
+        }
+        start.countDown();
+        long exported = 0;
+        while (!done.get()) {
+            done.set(true);
+            for (Thread recorder : recorders)
+                if (recorder.isAlive()) done.set(false);
+            exported += histogram.snapshotAndReset().count();
+        }
+        assertEquals(threads * durations, exported + histogram.snapshotAndReset().count());
+    }
+}
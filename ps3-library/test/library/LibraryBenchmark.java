@@ -0,0 +1,1268 @@
+package library;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Benchmarks for Library implementations.
+ *
+ * This is not a JUnit test.  Run it from the command line with assertions disabled,
+ * since checkRep() would dominate the measurements:
+ *     java -cp bin library.LibraryBenchmark <benchmark> [options]
+ * where <benchmark> is one of:
+ *     concurrent [books] [seconds]   throughput of ConcurrentLibrary vs. a globally
+ *                                    synchronized SmallLibrary, from 1 thread up to 2 per core
+ *     hot [copies] [seconds]         checkoutAny/checkin throughput on a single hot title
+ *     batch [copies]                 per-copy cost of buy/checkout/checkin one at a time vs.
+ *                                    buyAll/checkoutAll/checkinAll in batches of growing size.
+ *                                    Run it with -ea as well to see checkRep() amortized.
+ *     load [books]                   time to load a synthetic catalog file with CatalogLoader,
+ *                                    on 1 thread up to 1 per core, vs. reading it line by line
+ *                                    and calling buy() for each copy
+ *     snapshot [books]               time to rebuild a library by buying every copy, vs. loading
+ *                                    it from a CatalogSnapshot: until the first allCopies()
+ *                                    answer, and until the first find() answer
+ *     journal [threads] [seconds]    circulation throughput of JournalingLibrary in each
+ *                                    Durability mode, from 1 thread up to the given number
+ *     intern [books]                 heap taken by a synthetic catalog of Books built with
+ *                                    new Book() vs. with a BookInterner.  Needs a large heap,
+ *                                    e.g. -Xmx4g for the default 5M books.
+ *     book [books]                   cost of Book as a hash key, looking up equal but distinct
+ *                                    Books in a HashSet, and of SmallLibrary.find scans
+ *     compact [copies]               heap per copy of BigLibrary vs. CompactLibrary, and the
+ *                                    cost of checkoutAny/checkin.  Use -Xmx4g for 10M copies.
+ *     suggest [books]                time to build BigLibrary's suggestion trie, and cost per
+ *                                    suggest() for prefixes of growing length vs. find()
+ *     fuzzy [books]                  time to build BigLibrary's fuzzy index, and cost per
+ *                                    findFuzzy() of misspelled author names vs. find()
+ *     cache [books]                  cost per find() of BigLibrary with and without a
+ *                                    CachingLibrary in front, when 40% of the queries are the
+ *                                    same 300 titles and a new book is bought every 100 finds
+ *     sharded [books] [seconds]      circulation throughput of a globally synchronized
+ *                                    BigLibrary vs. a ShardedLibrary with one shard per thread,
+ *                                    from 1 thread up to 2 per core
+ *     server [books] [seconds]       requests/sec and latency percentiles of a LibraryServer on
+ *                                    the loopback interface, from 1 client up to 64, each
+ *                                    checking out or checking in random copies over HTTP
+ *     scaling [books] [millis]       throughput, time and allocation per call of every Library
+ *                                    operation, for SmallLibrary and BigLibrary holding 1K, 100K,
+ *                                    1M and 10M made-up books with 2 copies each, up to the given
+ *                                    number.  10M books need -Xmx16g or so.
+ *     workload [books] [threads] [seconds]
+ *                                    throughput and latency percentiles of the thread-safe
+ *                                    libraries under CirculationWorkload's production mix, with
+ *                                    Zipf-popular books.  CirculationWorkload's own main method
+ *                                    takes every setting of a workload.
+ *     metered [books] [millis]       time per call of cheap BigLibrary operations with and
+ *                                    without a MeteredLibrary in front, and the difference
+ *     feed [books] [millis]          time and allocation per checkout/checkin pair on a
+ *                                    BigLibrary, bare and behind a PublishingLibrary whose
+ *                                    ChangeFeed has one subscriber, for each kind of feed
+ *     versioned [books] [seconds]    cost of VersionedLibrary.snapshot(), and circulation
+ *                                    throughput of 2 desk threads while a third runs inventory
+ *                                    reports, against a BigLibrary the reports lock
+ */
+public class LibraryBenchmark {
+
+    public static void main(String[] args) throws InterruptedException, IOException {
+        String benchmark = args.length > 0 ? args[0] : "concurrent";
+        switch (benchmark) {
+        case "concurrent":
+            concurrent(intArg(args, 1, 10000), intArg(args, 2, 2));
+            break;
+        case "hot":
+            hot(intArg(args, 1, 64), intArg(args, 2, 2));
+            break;
+        case "batch":
+            batch(intArg(args, 1, 200000));
+            break;
+        case "load":
+            load(intArg(args, 1, 1000000));
+            break;
+        case "snapshot":
+            snapshot(intArg(args, 1, 1000000));
+            break;
+        case "journal":
+            journal(intArg(args, 1, 16), intArg(args, 2, 2));
+            break;
+        case "intern":
+            intern(intArg(args, 1, 5000000));
+            break;
+        case "book":
+            book(intArg(args, 1, 20000));
+            break;
+        case "compact":
+            compact(intArg(args, 1, 10000000));
+            break;
+        case "suggest":
+            suggest(intArg(args, 1, 1000000));
+            break;
+        case "fuzzy":
+            fuzzy(intArg(args, 1, 1000000));
+            break;
+        case "cache":
+            cache(intArg(args, 1, 1000000));
+            break;
+        case "sharded":
+            sharded(intArg(args, 1, 10000), intArg(args, 2, 2));
+            break;
+        case "server":
+            server(intArg(args, 1, 1000), intArg(args, 2, 2));
+            break;
+        case "scaling":
+            scaling(intArg(args, 1, 1000000), intArg(args, 2, 500));
+            break;
+        case "workload":
+            workload(intArg(args, 1, 100000), intArg(args, 2, 4), intArg(args, 3, 5));
+            break;
+        case "metered":
+            metered(intArg(args, 1, 100000), intArg(args, 2, 1000));
+            break;
+        case "feed":
+            feed(intArg(args, 1, 100000), intArg(args, 2, 1000));
+            break;
+        case "versioned":
+            versioned(intArg(args, 1, 100000), intArg(args, 2, 2));
+            break;
+        default:
+            System.err.println("unknown benchmark: " + benchmark);
+        }
+    }
+
+    private static int intArg(String[] args, int i, int defaultValue) {
+        return args.length > i ? Integer.parseInt(args[i]) : defaultValue;
+    }
+
+    /**
+     * Measure circulation throughput of ConcurrentLibrary against SmallLibrary behind one
+     * global lock, for increasing numbers of threads.  Each thread repeatedly picks a random
+     * copy and checks it out if it is available, or checks it in otherwise.
+     * @param books number of distinct books in the library, each with 4 copies
+     * @param seconds measurement time per run, after an equal warmup
+     */
+    static void concurrent(int books, int seconds) throws InterruptedException {
+        int maxThreads = 2 * Runtime.getRuntime().availableProcessors();
+        System.out.printf("%-24s %8s %14s%n", "library", "threads", "ops/sec");
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            for (Library library : Arrays.asList(new SynchronizedLibrary(new SmallLibrary()),
+                                                 new ConcurrentLibrary(threads))) {
+                BookCopy[] copies = stock(library, books, 4);
+                circulate(library, copies, threads, seconds);
+                double opsPerSecond = circulate(library, copies, threads, seconds);
+                System.out.printf("%-24s %8d %,14.0f%n",
+                        library.getClass().getSimpleName(), threads, opsPerSecond);
+            }
+        }
+    }
+
+    /**
+     * Measure circulation throughput of ShardedLibrary against BigLibrary behind one global
+     * lock, for increasing numbers of threads, as concurrent() does.
+     * @param books number of distinct books in the library, each with 4 copies
+     * @param seconds measurement time per run, after an equal warmup
+     */
+    static void sharded(int books, int seconds) throws InterruptedException {
+        int maxThreads = 2 * Runtime.getRuntime().availableProcessors();
+        System.out.printf("%-24s %8s %14s%n", "library", "threads", "ops/sec");
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            ShardedLibrary sharded = new ShardedLibrary(threads);
+            for (Library library : Arrays.asList(new SynchronizedLibrary(new BigLibrary()), sharded)) {
+                BookCopy[] copies = stock(library, books, 4);
+                circulate(library, copies, threads, seconds);
+                double opsPerSecond = circulate(library, copies, threads, seconds);
+                System.out.printf("%-24s %8d %,14.0f%n",
+                        library.getClass().getSimpleName(), threads, opsPerSecond);
+            }
+            sharded.close();
+        }
+    }
+
+    /**
+     * Measure a LibraryServer serving a ConcurrentLibrary under load from increasing numbers
+     * of clients.  Each client repeatedly picks a random copy and asks whether it is
+     * available, then checks it out or checks it in, one request at a time over a kept-alive
+     * connection.
+     * @param books number of distinct books in the library, each with 4 copies
+     * @param seconds measurement time per run, after an equal warmup
+     */
+    static void server(int books, int seconds) throws IOException, InterruptedException {
+        System.setProperty("http.maxConnections", "64");
+        LibraryServer server = new LibraryServer(new ConcurrentLibrary(), 0);
+        System.out.println(server.usesVirtualThreads()
+                ? "one virtual thread per request" : "one pooled platform thread per request");
+        List<Long> ids = new ArrayList<Long>();
+        for (BookCopy copy : stock(new SmallLibrary(), books, 4)) {
+            String bought = LibraryServerTest.request(server.port(), "POST", "/buy",
+                    LibraryServerTest.bookParameters(copy.getBook())).body;
+            ids.addAll(LibraryServerTest.ids(bought));
+        }
+        System.out.printf("%8s %14s %10s %10s %10s%n", "clients", "requests/sec", "p50 us", "p99 us", "max us");
+        for (int clients = 1; clients <= 64; clients *= 4) {
+            serve(server.port(), ids, clients, seconds);
+            long[] latencies = serve(server.port(), ids, clients, seconds);
+            Arrays.sort(latencies);
+            System.out.printf("%8d %,14.0f %,10d %,10d %,10d%n", clients, (double) latencies.length / seconds,
+                    percentile(latencies, 0.50) / 1000, percentile(latencies, 0.99) / 1000,
+                    latencies[latencies.length - 1] / 1000);
+        }
+        server.close();
+    }
+
+    // the latency in nanoseconds of each request clients made to the server at port in the
+    // given time, checking out or checking in random copies of ids
+    private static long[] serve(final int port, final List<Long> ids, int clients, int seconds)
+            throws InterruptedException {
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final CountDownLatch start = new CountDownLatch(1);
+        final long[][] latencies = new long[clients][];
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int c = 0; c < clients; c++) {
+            final int id = c;
+            Thread worker = new Thread(new Runnable() {
+                public void run() {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    long[] mine = new long[1024];
+                    int count = 0;
+                    try {
+                        start.await();
+                        while (running.get()) {
+                            long copy = ids.get(random.nextInt(ids.size()));
+                            long begin = System.nanoTime();
+                            String available = LibraryServerTest.request(port, "GET", "/isAvailable?copy=" + copy, null).body;
+                            long middle = System.nanoTime();
+                            String operation = available.endsWith("true}") ? "/checkout" : "/checkin";
+                            LibraryServerTest.request(port, "POST", operation + "?copy=" + copy, null);
+                            long end = System.nanoTime();
+                            if (count + 2 > mine.length) mine = Arrays.copyOf(mine, mine.length * 2);
+                            mine[count++] = middle - begin;
+                            mine[count++] = end - middle;
+                        }
+                    } catch (InterruptedException | IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                    latencies[id] = Arrays.copyOf(mine, count);
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        start.countDown();
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        for (Thread worker : workers)
+            worker.join();
+        int total = 0;
+        for (long[] mine : latencies)
+            total += mine.length;
+        long[] all = new long[total];
+        int at = 0;
+        for (long[] mine : latencies) {
+            System.arraycopy(mine, 0, all, at, mine.length);
+            at += mine.length;
+        }
+        return all;
+    }
+
+    // the value below which the given fraction of sorted values fall
+    private static long percentile(long[] sorted, double fraction) {
+        return sorted[Math.min(sorted.length - 1, (int) (fraction * sorted.length))];
+    }
+
+    /**
+     * Compare the libraries that can be shared by threads under a realistic load: the
+     * production mix of CirculationWorkload, with 4 copies of each book and popularity skew 1.
+     * @param books number of distinct books
+     * @param threads number of threads calling the library
+     * @param seconds measurement time per library, after an equal warmup
+     */
+    static void workload(int books, int threads, int seconds) throws InterruptedException {
+        CirculationWorkload workload = new CirculationWorkload(books, 4, 1.0, CirculationWorkload.PRODUCTION, threads);
+        for (String name : Arrays.asList("BigLibrary", "CompactLibrary", "ConcurrentLibrary", "ShardedLibrary")) {
+            System.out.printf("%s, %d threads: ", name, threads);
+            System.out.print(workload.run(CirculationWorkload.newLibrary(name, threads), seconds, seconds));
+            System.out.println();
+        }
+    }
+
+    /**
+     * Measure the overhead MeteredLibrary adds to a call, on operations cheap enough for it to
+     * show: isAvailable, countCopies, and a checkout/checkin pair (two metered calls).  Each
+     * is measured best of 5, bare and metered in turn.  Most of the overhead is the two reads
+     * of System.nanoTime(); and since those keep the cache misses of one call from overlapping
+     * with the next, it grows when the catalog outgrows the cache.
+     * @param books number of distinct books, with 2 copies each
+     * @param millis time to measure each operation, after an equal warmup
+     */
+    static void metered(int books, int millis) {
+        final BigLibrary bare = new BigLibrary();
+        final BookCopy[] copies = stock(bare, books, 2);
+        final MeteredLibrary metered = new MeteredLibrary(bare);
+        System.out.printf("%-20s %12s %12s %12s%n", "operation", "bare ns", "metered ns", "overhead ns");
+        for (String name : Arrays.asList("isAvailable", "countCopies", "checkout+checkin")) {
+            double[] best = { Double.MAX_VALUE, Double.MAX_VALUE };
+            for (int round = 0; round < 5; round++) {
+                for (int m = 0; m < 2; m++) {
+                    final Library library = m == 0 ? bare : metered;
+                    Operation operation;
+                    switch (name) {
+                    case "isAvailable":
+                        operation = new Operation() {
+                            public Object run(int i) {
+                                return library.isAvailable(copies[pick(i, copies.length)]);
+                            }
+                        };
+                        break;
+                    case "countCopies":
+                        operation = new Operation() {
+                            public Object run(int i) {
+                                return library.countCopies(copies[pick(i, copies.length)].getBook());
+                            }
+                        };
+                        break;
+                    default:
+                        operation = new Operation() {
+                            public Object run(int i) {
+                                BookCopy copy = copies[pick(i, copies.length)];
+                                library.checkout(copy);
+                                library.checkin(copy);
+                                return copy;
+                            }
+                        };
+                    }
+                    measure(operation, millis / 5);
+                    best[m] = Math.min(best[m], measure(operation, millis)[0]);
+                }
+            }
+            System.out.printf("%-20s %,12.1f %,12.1f %,12.1f%n", name, best[0], best[1], best[1] - best[0]);
+        }
+        System.out.println(metered.histogram(MeteredLibrary.Operation.IS_AVAILABLE).snapshot());
+    }
+
+    /**
+     * Measure what publishing circulation events costs the desk: a checkout/checkin pair on a
+     * BigLibrary, bare and behind a PublishingLibrary, for each kind of ChangeFeed, with one
+     * SLEEPING subscriber that counts the events.  A DROP feed shows the publisher's own cost;
+     * a BLOCK feed also includes waiting for the subscriber whenever the ring fills.  B/call
+     * should be the same for every feed as for none.  Each is measured best of 3.
+     * @param books number of distinct books, with 2 copies each
+     * @param millis time to measure each library, after a warmup of a fifth of it
+     */
+    static void feed(int books, int millis) {
+        final BigLibrary bare = new BigLibrary();
+        final BookCopy[] copies = stock(bare, books, 2);
+        String[] names = new String[5];
+        double[][] best = new double[5][];
+        double[] dropped = new double[5];
+        for (int round = 0; round < 3; round++) {
+            for (int f = 0; f < 5; f++) {
+                ChangeFeed feed = null;
+                ChangeFeed.Subscription subscription = null;
+                final Library library;
+                String name;
+                if (f == 0) {
+                    library = bare;
+                    name = "none";
+                } else {
+                    ChangeFeed.Producers producers = f <= 2 ? ChangeFeed.Producers.SINGLE : ChangeFeed.Producers.MULTI;
+                    ChangeFeed.Overflow overflow = f % 2 == 1 ? ChangeFeed.Overflow.DROP : ChangeFeed.Overflow.BLOCK;
+                    feed = new ChangeFeed(1 << 16, producers, overflow);
+                    final long[] received = new long[1];
+                    subscription = feed.subscribe(new ChangeFeed.Subscriber() {
+                        public void onEvent(long sequence, ChangeFeed.Kind kind, BookCopy copy, BookCopy.Condition condition) {
+                            received[0]++;
+                        }
+                    }, ChangeFeed.WaitStrategy.SLEEPING);
+                    library = new PublishingLibrary(bare, feed);
+                    name = producers + "/" + overflow;
+                }
+                Operation operation = new Operation() {
+                    public Object run(int i) {
+                        BookCopy copy = copies[pick(i, copies.length)];
+                        library.checkout(copy);
+                        library.checkin(copy);
+                        return copy;
+                    }
+                };
+                measure(operation, millis / 5);
+                double[] measured = measure(operation, millis);
+                if (feed != null) {
+                    subscription.close();
+                    dropped[f] = Math.max(dropped[f], 100.0 * feed.dropped() / (feed.dropped() + feed.published()));
+                }
+                names[f] = name;
+                if (best[f] == null || measured[0] < best[f][0]) best[f] = measured;
+            }
+        }
+        System.out.printf("%-20s %12s %12s %12s%n", "feed", "ns/call", "B/call", "dropped");
+        for (int f = 0; f < 5; f++)
+            System.out.printf("%-20s %,12.1f %,12.1f %11.1f%%%n", names[f], best[f][0], best[f][1], dropped[f]);
+    }
+
+    /**
+     * Measure what snapshot isolation buys a library that runs inventory reports while
+     * circulating: the time to take a VersionedLibrary snapshot, and the checkout/checkin
+     * throughput of 2 desk threads, alone and while a third thread runs reports that count
+     * the available copies of every book.  On a VersionedLibrary a report reads a snapshot and
+     * holds no lock; on a synchronized BigLibrary it holds the library's lock throughout, as
+     * the only way to see one consistent state.
+     * @param books number of distinct books in the library, each with 4 copies
+     * @param seconds measurement time per run, after an equal warmup
+     */
+    static void versioned(final int books, int seconds) throws InterruptedException {
+        final VersionedLibrary versioned = new VersionedLibrary();
+        final BookCopy[] versionedCopies = stock(versioned, books, 4);
+        Operation snapshot = new Operation() {
+            public Object run(int i) {
+                return versioned.snapshot();
+            }
+        };
+        measure(snapshot, 200);
+        double[] cost = measure(snapshot, 1000);
+        System.out.printf("snapshot(): %.1f ns, %.1f B%n", cost[0], cost[1]);
+
+        System.out.printf("%-24s %10s %14s %12s%n", "library", "reports", "desk ops/sec", "reports/sec");
+        final SynchronizedLibrary big = new SynchronizedLibrary(new BigLibrary());
+        final BookCopy[] bigCopies = stock(big, books, 4);
+        for (int reporting = 0; reporting < 2; reporting++) {
+            for (int l = 0; l < 2; l++) {
+                final Library library = l == 0 ? big : versioned;
+                final BookCopy[] copies = l == 0 ? bigCopies : versionedCopies;
+                final AtomicBoolean running = new AtomicBoolean(true);
+                final long[] reports = new long[1];
+                Thread reporter = new Thread(new Runnable() {
+                    public void run() {
+                        while (running.get()) {
+                            long available = 0;
+                            if (library == versioned) {
+                                LibrarySnapshot snapshot = versioned.snapshot();
+                                for (int i = 0; i < books; i++)
+                                    available += snapshot.countAvailable(copies[4 * i].getBook());
+                            } else {
+                                synchronized (big) {
+                                    for (int i = 0; i < books; i++)
+                                        available += big.countAvailable(copies[4 * i].getBook());
+                                }
+                            }
+                            retained = available;
+                            reports[0]++;
+                        }
+                    }
+                });
+                circulate(library, copies, 2, seconds);
+                if (reporting == 1) reporter.start();
+                long begin = System.nanoTime();
+                double opsPerSecond = circulate(library, copies, 2, seconds);
+                double elapsed = (System.nanoTime() - begin) / 1e9;
+                running.set(false);
+                if (reporting == 1) reporter.join();
+                System.out.printf("%-24s %10s %,14.0f %,12.1f%n", library == big ? "BigLibrary (locked)" : "VersionedLibrary",
+                        reporting == 1 ? "running" : "none", opsPerSecond, reports[0] / elapsed);
+            }
+        }
+    }
+
+    /**
+     * Operation is one call, or one self-cancelling pair of calls, of a Library operation.
+     */
+    private interface Operation {
+        /**
+         * @param i number of this call, to choose its arguments
+         * @return a result of the call, for the benchmark to retain
+         */
+        Object run(int i);
+    }
+
+    /**
+     * Measure every Library operation at growing catalog sizes, so that an operation whose
+     * cost grows with the catalog shows up as falling throughput down a column.  Operations
+     * that change the library are measured in pairs that undo each other, such as checkout
+     * and checkin, except buy and buyAll, which only add copies of books already in the
+     * catalog.  find is measured with a word of one
+     * book's title (short), a whole title and author (long), a word no book has (miss), and
+     * the first page of 10 for a short query.
+     * @param maxBooks largest catalog size to measure
+     * @param millis time to measure each operation, after an equal warmup
+     */
+    static void scaling(int maxBooks, final int millis) {
+        System.out.printf("%10s %-12s %-24s %14s %12s %10s %10s%n",
+                "books", "library", "operation", "ops/sec", "ns/op", "B/op", "MB/sec");
+        for (int books : new int[] { 1000, 100000, 1000000, 10000000 }) {
+            if (books > maxBooks) break;
+            Random random = new Random(books);
+            String[] syllables = syllables(random);
+            final List<Book> catalog = new ArrayList<Book>(books);
+            for (int i = 0; i < books; i++)
+                catalog.add(madeUpBook(random, syllables));
+            final String[] shortQueries = new String[1000];
+            final String[] longQueries = new String[1000];
+            final String[] missQueries = new String[1000];
+            for (int i = 0; i < 1000; i++) {
+                Book book = catalog.get(random.nextInt(books));
+                shortQueries[i] = book.getTitle().split(" ")[random.nextInt(2)];
+                longQueries[i] = book.getTitle() + " " + book.getAuthor(0);
+                missQueries[i] = word(random, syllables, 2) + "q";
+            }
+            for (Library empty : Arrays.asList(new SmallLibrary(), new BigLibrary())) {
+                final Library library = empty;
+                List<Book> twice = new ArrayList<Book>(2 * books);
+                for (Book book : catalog) {
+                    twice.add(book);
+                    twice.add(book);
+                }
+                final List<BookCopy> copies = library.buyAll(twice);
+                twice = null;
+                Map<String, Operation> operations = new LinkedHashMap<String, Operation>();
+                operations.put("buy", new Operation() {
+                    public Object run(int i) {
+                        return library.buy(catalog.get(pick(i, catalog.size())));
+                    }
+                });
+                operations.put("buyAll of 2", new Operation() {
+                    public Object run(int i) {
+                        return library.buyAll(catalog.get(pick(i, catalog.size())), 2);
+                    }
+                });
+                operations.put("buy+lose", new Operation() {
+                    public Object run(int i) {
+                        BookCopy copy = library.buy(catalog.get(pick(i, catalog.size())));
+                        library.lose(copy);
+                        return copy;
+                    }
+                });
+                operations.put("checkout+checkin", new Operation() {
+                    public Object run(int i) {
+                        BookCopy copy = copies.get(pick(i, copies.size()));
+                        library.checkout(copy);
+                        library.checkin(copy);
+                        return copy;
+                    }
+                });
+                operations.put("checkoutAll+checkinAll", new Operation() {
+                    public Object run(int i) {
+                        int at = pick(i, catalog.size()) * 2;
+                        List<BookCopy> pair = copies.subList(at, at + 2);
+                        library.checkoutAll(pair);
+                        library.checkinAll(pair);
+                        return pair;
+                    }
+                });
+                operations.put("checkoutAny+checkin", new Operation() {
+                    public Object run(int i) {
+                        BookCopy copy = library.checkoutAny(catalog.get(pick(i, catalog.size())));
+                        library.checkin(copy);
+                        return copy;
+                    }
+                });
+                operations.put("isAvailable", new Operation() {
+                    public Object run(int i) {
+                        return library.isAvailable(copies.get(pick(i, copies.size())));
+                    }
+                });
+                operations.put("allCopies", new Operation() {
+                    public Object run(int i) {
+                        return library.allCopies(catalog.get(pick(i, catalog.size())));
+                    }
+                });
+                operations.put("availableCopies", new Operation() {
+                    public Object run(int i) {
+                        return library.availableCopies(catalog.get(pick(i, catalog.size())));
+                    }
+                });
+                operations.put("allCopiesView.size", new Operation() {
+                    public Object run(int i) {
+                        return library.allCopiesView(catalog.get(pick(i, catalog.size()))).size();
+                    }
+                });
+                operations.put("countCopies", new Operation() {
+                    public Object run(int i) {
+                        return library.countCopies(catalog.get(pick(i, catalog.size())));
+                    }
+                });
+                operations.put("countAvailable", new Operation() {
+                    public Object run(int i) {
+                        return library.countAvailable(catalog.get(pick(i, catalog.size())));
+                    }
+                });
+                operations.put("find short", new Operation() {
+                    public Object run(int i) {
+                        return library.find(shortQueries[i % shortQueries.length]);
+                    }
+                });
+                operations.put("find long", new Operation() {
+                    public Object run(int i) {
+                        return library.find(longQueries[i % longQueries.length]);
+                    }
+                });
+                operations.put("find miss", new Operation() {
+                    public Object run(int i) {
+                        return library.find(missQueries[i % missQueries.length]);
+                    }
+                });
+                operations.put("find short, page of 10", new Operation() {
+                    public Object run(int i) {
+                        return library.find(shortQueries[i % shortQueries.length], 0, 10);
+                    }
+                });
+                for (Map.Entry<String, Operation> operation : operations.entrySet()) {
+                    double[] measured;
+                    try {
+                        measure(operation.getValue(), millis);
+                        measured = measure(operation.getValue(), millis);
+                    } catch (RuntimeException e) {
+                        System.out.printf("%,10d %-12s %-24s %s%n", books, library.getClass().getSimpleName(),
+                                operation.getKey(), e.getMessage());
+                        continue;
+                    }
+                    System.out.printf("%,10d %-12s %-24s %,14.0f %,12.0f %,10.0f %,10.0f%n",
+                            books, library.getClass().getSimpleName(), operation.getKey(),
+                            1e9 / measured[0], measured[0], measured[1], measured[1] / measured[0] * 1e3);
+                }
+            }
+        }
+    }
+
+    // a number in [0, n) that jumps around as i counts up
+    private static int pick(int i, int n) {
+        return (int) (((i * 0x9E3779B97F4A7C15L) >>> 1) % n);
+    }
+
+    // call operation in batches of doubling size until the given time has passed; returns
+    // {nanoseconds per call, bytes allocated per call}
+    private static double[] measure(Operation operation, int millis) {
+        long allocatedBefore = allocatedBytes();
+        long begin = System.nanoTime();
+        long deadline = begin + millis * 1000000L;
+        int calls = 0;
+        for (int batch = 1; System.nanoTime() < deadline; batch = Math.min(2 * batch, 1 << 20))
+            for (int end = calls + batch; calls < end; calls++)
+                retained = operation.run(calls);
+        long elapsed = System.nanoTime() - begin;
+        long allocatedAfter = allocatedBytes();
+        return new double[] { (double) elapsed / calls, (double) (allocatedAfter - allocatedBefore) / calls };
+    }
+
+    /**
+     * Measure checkoutAny/checkin throughput when every thread wants the same book, for
+     * ConcurrentLibrary against SmallLibrary behind one global lock.
+     * @param copies number of copies of the hot book
+     * @param seconds measurement time per run, after an equal warmup
+     */
+    static void hot(int copies, int seconds) throws InterruptedException {
+        int maxThreads = 2 * Runtime.getRuntime().availableProcessors();
+        System.out.printf("%-24s %8s %14s%n", "library", "threads", "ops/sec");
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            for (Library library : Arrays.asList(new SynchronizedLibrary(new SmallLibrary()),
+                                                 new ConcurrentLibrary(threads))) {
+                Book book = stock(library, 1, copies)[0].getBook();
+                rush(library, book, threads, seconds);
+                double opsPerSecond = rush(library, book, threads, seconds);
+                System.out.printf("%-24s %8d %,14.0f%n",
+                        library.getClass().getSimpleName(), threads, opsPerSecond);
+            }
+        }
+    }
+
+    /**
+     * Measure the cost per copy of buying, checking out and checking in a shipment of copies,
+     * one call per copy and then in batches of increasing size.  The shipment has one new
+     * book for every 4 copies, so buying also pays for index maintenance.
+     * @param copies number of copies in the shipment
+     */
+    static void batch(int copies) {
+        System.out.printf("%-14s %8s %12s %12s %12s%n", "library", "batch", "buy ns", "checkout ns", "checkin ns");
+        for (int round = 0; round < 2; round++) {  // the first round is warmup
+            for (String name : Arrays.asList("SmallLibrary", "BigLibrary")) {
+                if (name.equals("SmallLibrary") && copies > 20000) continue;  // quadratic with -ea
+                for (int batchSize : new int[] { 1, 16, 256, 4096 }) {
+                    Library library = name.equals("SmallLibrary") ? new SmallLibrary() : new BigLibrary();
+                    List<Book> shipment = new ArrayList<Book>(copies);
+                    for (int i = 0; i < copies; i++)
+                        shipment.add(new Book("Title " + i / 4, Arrays.asList("Author " + i / 4 % 1000), 2000));
+                    List<BookCopy> bought = new ArrayList<BookCopy>(copies);
+                    
+                    long begin = System.nanoTime();
+                    for (int i = 0; i < copies; i += batchSize) {
+                        List<Book> books = shipment.subList(i, Math.min(copies, i + batchSize));
+                        if (batchSize == 1) bought.add(library.buy(books.get(0)));
+                        else bought.addAll(library.buyAll(books));
+                    }
+                    long buyNanos = System.nanoTime() - begin;
+                    
+                    begin = System.nanoTime();
+                    for (int i = 0; i < copies; i += batchSize) {
+                        List<BookCopy> bin = bought.subList(i, Math.min(copies, i + batchSize));
+                        if (batchSize == 1) library.checkout(bin.get(0));
+                        else library.checkoutAll(bin);
+                    }
+                    long checkoutNanos = System.nanoTime() - begin;
+                    
+                    begin = System.nanoTime();
+                    for (int i = 0; i < copies; i += batchSize) {
+                        List<BookCopy> bin = bought.subList(i, Math.min(copies, i + batchSize));
+                        if (batchSize == 1) library.checkin(bin.get(0));
+                        else library.checkinAll(bin);
+                    }
+                    long checkinNanos = System.nanoTime() - begin;
+                    
+                    if (round > 0)
+                        System.out.printf("%-14s %8d %12.1f %12.1f %12.1f%n", name, batchSize,
+                                (double) buyNanos / copies, (double) checkoutNanos / copies,
+                                (double) checkinNanos / copies);
+                }
+            }
+        }
+    }
+
+    /**
+     * Measure the time to load a catalog file of synthetic books, reading it line by line
+     * and buying one copy at a time, and then with CatalogLoader on pools of increasing size.
+     * @param books number of lines in the catalog, one book with 1 to 3 copies per line
+     */
+    static void load(int books) throws IOException {
+        Path file = Files.createTempFile("catalog", ".tsv");
+        try {
+            try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+                for (int i = 0; i < books; i++)
+                    out.write("Title " + i + " of Volume " + i % 97 + "\tAuthor " + i % 1000
+                            + ";Editor " + i % 31 + "\t" + (1900 + i % 100) + "\t" + (1 + i % 3) + "\n");
+            }
+            System.out.printf("%-24s %8s %12s%n", "loader", "threads", "ms");
+            for (int round = 0; round < 2; round++) {  // the first round is warmup
+                long begin = System.nanoTime();
+                Library library = new BigLibrary();
+                List<Book> parsed = new ArrayList<Book>();
+                BookInterner interner = new BookInterner();
+                for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+                    parsed.clear();
+                    CatalogLoader.parseLine(line, parsed, interner);
+                    for (Book book : parsed) library.buy(book);
+                }
+                if (round > 0)
+                    System.out.printf("%-24s %8d %12.0f%n", "buy per line", 1, (System.nanoTime() - begin) / 1e6);
+                
+                for (int threads = 1; threads <= Runtime.getRuntime().availableProcessors(); threads *= 2) {
+                    ForkJoinPool pool = new ForkJoinPool(threads);
+                    try {
+                        begin = System.nanoTime();
+                        new CatalogLoader(pool, 1 << 20).load(file);
+                        if (round > 0)
+                            System.out.printf("%-24s %8d %12.0f%n", "CatalogLoader", threads,
+                                    (System.nanoTime() - begin) / 1e6);
+                    } finally {
+                        pool.shutdown();
+                    }
+                }
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Measure the time to bring a library back after a restart, by rebuilding it from its books
+     * and by loading a snapshot of it.
+     * @param books number of distinct books in the library, each with 2 copies
+     */
+    static void snapshot(int books) throws IOException {
+        BigLibrary library = new BigLibrary();
+        BookCopy[] copies = stock(library, books, 2);
+        for (int i = 0; i < copies.length; i += 3) library.checkout(copies[i]);
+        Book probe = copies[copies.length / 2].getBook();
+        Path file = Files.createTempFile("catalog", ".snapshot");
+        try {
+            System.out.printf("%-24s %12s%n", "restart", "ms");
+            for (int round = 0; round < 2; round++) {  // the first round is warmup
+                long begin = System.nanoTime();
+                CatalogSnapshot.save(library, file);
+                long saveNanos = System.nanoTime() - begin;
+                
+                begin = System.nanoTime();
+                stock(new BigLibrary(), books, 2);
+                long rebuildNanos = System.nanoTime() - begin;
+                
+                begin = System.nanoTime();
+                BigLibrary loaded = CatalogSnapshot.load(file);
+                loaded.allCopies(probe);
+                long firstAnswerNanos = System.nanoTime() - begin;
+                loaded.find("Title");
+                long fullNanos = System.nanoTime() - begin;
+                
+                if (round > 0) {
+                    System.out.printf("%-24s %12.1f%n", "save snapshot", saveNanos / 1e6);
+                    System.out.printf("%-24s %12.1f%n", "rebuild by buying", rebuildNanos / 1e6);
+                    System.out.printf("%-24s %12.1f%n", "load to first allCopies", firstAnswerNanos / 1e6);
+                    System.out.printf("%-24s %12.1f%n", "load to first find", fullNanos / 1e6);
+                }
+            }
+        } finally {
+            Files.delete(file);
+        }
+    }
+
+    /**
+     * Measure circulation throughput of a JournalingLibrary in each durability mode, for
+     * increasing numbers of threads.  Each thread checks out or checks in random copies, as in
+     * concurrent(), so every operation appends a journal record.
+     * @param maxThreads largest number of threads to run
+     * @param seconds measurement time per run, after an equal warmup
+     */
+    static void journal(int maxThreads, int seconds) throws IOException, InterruptedException {
+        System.out.printf("%-24s %8s %14s%n", "durability", "threads", "ops/sec");
+        for (JournalingLibrary.Durability durability : JournalingLibrary.Durability.values()) {
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                Path directory = Files.createTempDirectory("journal");
+                JournalingLibrary library = JournalingLibrary.open(directory, durability);
+                List<Book> shipment = new ArrayList<Book>();
+                for (int i = 0; i < 1000; i++)
+                    for (int j = 0; j < 4; j++)
+                        shipment.add(new Book("Title " + i, Arrays.asList("Author " + i % 100), 2000));
+                BookCopy[] copies = library.buyAll(shipment).toArray(new BookCopy[0]);
+                circulate(library, copies, threads, seconds);
+                double opsPerSecond = circulate(library, copies, threads, seconds);
+                System.out.printf("%-24s %8d %,14.0f%n", durability, threads, opsPerSecond);
+                library.close();
+                for (String name : directory.toFile().list())
+                    Files.delete(directory.resolve(name));
+                Files.delete(directory);
+            }
+        }
+    }
+
+    /**
+     * Measure the heap retained by a catalog of synthetic books, built with new Book() and then
+     * through BookInterners that share strings and author lists, and also canonical Books.
+     * Titles and author names are built afresh for every book, as a parser would.  There are
+     * 50,000 authors and 200,000 series of 10 volumes, and each edition appears 5 times.
+     * @param books number of books in the catalog
+     */
+    static void intern(int books) {
+        System.out.printf("%-24s %14s %12s%n", "factory", "heap MB", "bytes/book");
+        long baseline = usedHeap();
+        for (String factory : Arrays.asList("new Book", "interned parts", "canonical books")) {
+            BookInterner interner = factory.equals("new Book") ? null
+                    : new BookInterner(factory.equals("canonical books"));
+            List<Book> catalog = new ArrayList<Book>(books);
+            retained = catalog;
+            for (int i = 0; i < books; i++) {
+                int edition = i / 5;
+                String title = "Series " + edition / 10 % 200000 + " volume " + edition % 10;
+                List<String> authors = Arrays.asList("Author " + edition / 10 % 50000);
+                int year = 1900 + edition % 100;
+                catalog.add(interner == null ? new Book(title, authors, year) : interner.intern(title, authors, year));
+            }
+            long used = usedHeap() - baseline;
+            System.out.printf("%-24s %,14.1f %12.1f%n", factory, used / 1e6, (double) used / books);
+            retained = null;
+        }
+    }
+
+    /**
+     * Measure BigLibrary.suggest(): the time its first call takes to build the trie, and the
+     * cost of later calls for prefixes of growing length, against find() on a whole word.
+     * @param books number of distinct books
+     */
+    static void suggest(int books) {
+        BigLibrary library = new BigLibrary();
+        stock(library, books, 1);
+        long begin = System.nanoTime();
+        library.suggest("t", 10);
+        System.out.printf("first suggest (builds trie): %,.0f ms for %,d books%n",
+                (System.nanoTime() - begin) / 1e6, books);
+        System.out.printf("%-28s %14s%n", "call", "us/call");
+        for (String prefix : Arrays.asList("t", "ti", "1", "12", "123", "author 12", "author 12 ti")) {
+            System.out.printf("%-28s %14.2f%n", "suggest(\"" + prefix + "\", 10)",
+                    timePerCall(library, prefix, true));
+        }
+        System.out.printf("%-28s %14.2f%n", "find(\"123\", 0, 10)", timePerCall(library, "123", false));
+        System.out.printf("%-28s %14.2f%n", "find(\"title\", 0, 10)", timePerCall(library, "title", false));
+    }
+
+    /**
+     * Measure BigLibrary.findFuzzy(): the time its first call takes to build the fuzzy index,
+     * and the cost of later calls with misspelled author surnames, against find() with the
+     * correct spelling.  Books have made-up words for titles and names, from 200,000 authors.
+     * @param books number of distinct books
+     */
+    static void fuzzy(int books) {
+        Random random = new Random(1);
+        String[] syllables = syllables(random);
+        String[] surnames = new String[200000];
+        for (int i = 0; i < surnames.length; i++)
+            surnames[i] = word(random, syllables, 3 + random.nextInt(3));
+        List<String> used = new ArrayList<String>();
+        BigLibrary library = new BigLibrary();
+        for (int i = 0; i < books; i++) {
+            String title = word(random, syllables, 2 + random.nextInt(2)) + " " + word(random, syllables, 2 + random.nextInt(3));
+            String surname = surnames[random.nextInt(surnames.length)];
+            if (used.size() < 1000) used.add(surname);
+            String author = word(random, syllables, 2) + " " + surname;
+            library.buy(new Book(title, Arrays.asList(author), 1900 + random.nextInt(120)));
+        }
+        long begin = System.nanoTime();
+        library.findFuzzy("x", 10);
+        System.out.printf("first findFuzzy (builds fuzzy index): %,.0f ms for %,d books%n",
+                (System.nanoTime() - begin) / 1e6, books);
+
+        // a misspelling of 1000 surnames in the catalog: a swap of two adjacent letters, or a
+        // substitution
+        String[] correct = used.toArray(new String[0]);
+        String[] misspelled = new String[correct.length];
+        for (int i = 0; i < correct.length; i++) {
+            char[] chars = correct[i].toCharArray();
+            int at = random.nextInt(chars.length - 1);
+            if (random.nextBoolean()) {
+                char swapped = chars[at];
+                chars[at] = chars[at + 1];
+                chars[at + 1] = swapped;
+            } else {
+                chars[at] = (char) ('a' + random.nextInt(26));
+            }
+            misspelled[i] = new String(chars);
+        }
+        int hits = 0;
+        for (int i = 0; i < correct.length; i++)
+            if (!library.findFuzzy(misspelled[i], 10).isEmpty()) hits++;
+        System.out.printf("misspellings that found something: %d of %d%n", hits, correct.length);
+        System.out.printf("%-28s %14s%n", "call", "us/call");
+        System.out.printf("%-28s %14.2f%n", "findFuzzy(misspelled, 10)", timePerCall(library, misspelled, true));
+        System.out.printf("%-28s %14.2f%n", "find(correct, 0, 10)", timePerCall(library, correct, false));
+    }
+
+    /**
+     * Measure CachingLibrary on a query stream where 40% of the queries are the titles of the
+     * same 300 books, and the rest the titles of random books, while a new book is bought every
+     * 100 queries.  Books have made-up words for titles and names.
+     * @param books number of distinct books
+     */
+    static void cache(int books) {
+        Random random = new Random(1);
+        String[] syllables = syllables(random);
+        BigLibrary big = new BigLibrary();
+        List<Book> catalog = new ArrayList<Book>();
+        for (int i = 0; i < books; i++) {
+            Book book = madeUpBook(random, syllables);
+            big.buy(book);
+            catalog.add(book);
+        }
+        int queries = 200000;
+        String[] stream = new String[queries];
+        for (int i = 0; i < queries; i++) {
+            int which = random.nextInt(10) < 4 ? random.nextInt(300) : random.nextInt(books);
+            stream[i] = catalog.get(which).getTitle();
+        }
+        Book[] bought = new Book[queries / 100];
+        for (int i = 0; i < bought.length; i++)
+            bought[i] = madeUpBook(random, syllables);
+
+        CachingLibrary cached = new CachingLibrary(big);
+        System.out.printf("%-28s %14s%n", "library", "us/find");
+        for (Library library : Arrays.asList(big, cached, big, cached)) {
+            long begin = System.nanoTime();
+            for (int i = 0; i < queries; i++) {
+                retained = library.find(stream[i], 0, 10);
+                if (i % 100 == 99) library.buy(bought[i / 100]);
+            }
+            System.out.printf("%-28s %14.2f%n", library.getClass().getSimpleName(),
+                    (System.nanoTime() - begin) / 1e3 / queries);
+        }
+        System.out.printf("hit rate %.1f%%, %d evictions, %d invalidations%n",
+                cached.hitRate() * 100, cached.evictions(), cached.invalidations());
+    }
+
+    // a book with a made-up title of two words and a made-up author
+    static Book madeUpBook(Random random, String[] syllables) {
+        String title = word(random, syllables, 2 + random.nextInt(2)) + " " + word(random, syllables, 2 + random.nextInt(3));
+        String author = word(random, syllables, 2) + " " + word(random, syllables, 3 + random.nextInt(3));
+        return new Book(title, Arrays.asList(author), 1900 + random.nextInt(120));
+    }
+
+    // 300 made-up syllables, each a consonant and a vowel, half of them closed by a consonant
+    static String[] syllables(Random random) {
+        String consonants = "bcdfghjklmnprstvwz";
+        String vowels = "aeiouy";
+        String[] syllables = new String[300];
+        for (int i = 0; i < syllables.length; i++) {
+            String syllable = "" + consonants.charAt(random.nextInt(consonants.length()))
+                    + vowels.charAt(random.nextInt(vowels.length()));
+            if (random.nextBoolean()) syllable += consonants.charAt(random.nextInt(consonants.length()));
+            syllables[i] = syllable;
+        }
+        return syllables;
+    }
+
+    // a made-up word of the given number of syllables
+    private static String word(Random random, String[] syllables, int length) {
+        StringBuilder word = new StringBuilder();
+        for (int i = 0; i < length; i++)
+            word.append(syllables[random.nextInt(syllables.length)]);
+        return word.toString();
+    }
+
+    // best-of-5 microseconds per call of findFuzzy(query, 10) or find(query, 0, 10), cycling
+    // through the queries
+    private static double timePerCall(BigLibrary library, String[] queries, boolean fuzzy) {
+        double best = Double.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            int calls = 0;
+            long begin = System.nanoTime();
+            long elapsed;
+            do {
+                String query = queries[calls % queries.length];
+                retained = fuzzy ? library.findFuzzy(query, 10) : library.find(query, 0, 10);
+                calls++;
+                elapsed = System.nanoTime() - begin;
+            } while (elapsed < 200000000L);
+            best = Math.min(best, elapsed / 1e3 / calls);
+        }
+        return best;
+    }
+
+    // best-of-5 microseconds per call of suggest(query, 10) or find(query, 0, 10)
+    private static double timePerCall(BigLibrary library, String query, boolean suggest) {
+        double best = Double.MAX_VALUE;
+        for (int round = 0; round < 5; round++) {
+            int calls = 0;
+            long begin = System.nanoTime();
+            long elapsed;
+            do {
+                retained = suggest ? library.suggest(query, 10) : library.find(query, 0, 10);
+                calls++;
+                elapsed = System.nanoTime() - begin;
+            } while (elapsed < 200000000L);
+            best = Math.min(best, elapsed / 1e3 / calls);
+        }
+        return best;
+    }
+
+    // keeps the catalog being measured reachable, so the JIT can't let it be collected early
+    private static Object retained;
+
+    // bytes of heap in use after garbage collection
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Measure the per-operation cost of looking up Books in a HashSet, probing with equal but
+     * distinct Book objects so that every hit needs a full equality test, and of a find() that
+     * scans every copy of a SmallLibrary.  Each book has 3 authors.
+     * @param books number of distinct books
+     */
+    static void book(int books) {
+        List<Book> catalog = new ArrayList<Book>(books);
+        List<Book> probes = new ArrayList<Book>(books);
+        for (int i = 0; i < books; i++) {
+            List<String> authors = Arrays.asList("Author " + i % 1000, "Editor " + i % 77, "Translator " + i % 13);
+            catalog.add(new Book("A Title Of Moderate Length, Volume " + i, authors, 1900 + i % 100));
+            probes.add(new Book("A Title Of Moderate Length, Volume " + i, authors, 1900 + i % 100));
+        }
+        Set<Book> set = new HashSet<Book>(catalog);
+        Library library = new SmallLibrary();
+        library.buyAll(catalog);
+
+        // report the best of several rounds, since scans of a large heap are noisy
+        double lookupNanos = Double.MAX_VALUE;
+        double findNanos = Double.MAX_VALUE;
+        double findBytes = 0;
+        long found = 0;
+        for (int round = 0; round < 8; round++) {
+            long begin = System.nanoTime();
+            for (int repeat = 0; repeat < 10; repeat++)
+                for (Book probe : probes)
+                    if (set.contains(probe)) found++;
+            lookupNanos = Math.min(lookupNanos, (System.nanoTime() - begin) / (10.0 * books));
+
+            int finds = Math.max(1, 2000000 / books);
+            long allocated = allocatedBytes();
+            begin = System.nanoTime();
+            for (int i = 0; i < finds; i++)
+                found += library.find("Editor " + i % 77).size();
+            findNanos = Math.min(findNanos, (System.nanoTime() - begin) / (double) finds);
+            findBytes = (allocatedBytes() - allocated) / (double) finds;
+        }
+        retained = found;
+        System.out.printf("%-24s %12s %12s%n", "operation", "ns/op", "bytes/op");
+        System.out.printf("%-24s %12.1f %12s%n", "HashSet.contains", lookupNanos, "");
+        System.out.printf("%-24s %12.1f %,12.0f%n", "SmallLibrary.find", findNanos, findBytes);
+    }
+
+    // bytes allocated so far by the current thread
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    /**
+     * Measure the heap retained per copy by BigLibrary and CompactLibrary holding the same
+     * copies, with no BookCopy kept by the client, and the time per checkoutAny/checkin pair.
+     * @param copies number of copies, 100 of each book
+     */
+    static void compact(int copies) {
+        int books = Math.max(1, copies / 100);
+        List<Book> catalog = new ArrayList<Book>(books);
+        for (int i = 0; i < books; i++)
+            catalog.add(new Book("Title " + i, Arrays.asList("Author " + i % 1000), 1900 + i % 100));
+        System.out.printf("%-24s %12s %14s%n", "library", "bytes/copy", "ns/checkout");
+        for (String name : Arrays.asList("BigLibrary", "CompactLibrary")) {
+            long baseline = usedHeap();
+            Library library = name.equals("BigLibrary") ? new BigLibrary() : new CompactLibrary();
+            retained = library;
+            for (Book book : catalog) library.buyAll(book, copies / books);
+            double bytesPerCopy = (double) (usedHeap() - baseline) / copies;
+
+            double nanos = Double.MAX_VALUE;
+            for (int round = 0; round < 5; round++) {
+                long begin = System.nanoTime();
+                for (int repeat = 0; repeat < 10; repeat++)
+                    for (Book book : catalog)
+                        library.checkin(library.checkoutAny(book));
+                nanos = Math.min(nanos, (System.nanoTime() - begin) / (10.0 * books));
+            }
+            System.out.printf("%-24s %12.1f %14.1f%n", name, bytesPerCopy, nanos);
+            retained = null;
+        }
+    }
+
+    /**
+     * Fill a library with synthetic books.
+     * @param library library to fill
+     * @param books number of distinct books to buy
+     * @param copiesPerBook number of copies of each book to buy
+     * @return all the copies bought
+     */
+    static BookCopy[] stock(Library library, int books, int copiesPerBook) {
+        BookCopy[] copies = new BookCopy[books * copiesPerBook];
+        for (int i = 0; i < books; i++) {
+            Book book = new Book("Title " + i, Arrays.asList("Author " + (i % 1000)), 1900 + i % 100);
+            for (int j = 0; j < copiesPerBook; j++)
+                copies[i * copiesPerBook + j] = library.buy(book);
+        }
+        return copies;
+    }
+
+    // run checkout/checkin on random copies from several threads; returns total ops/sec
+    private static double circulate(final Library library, final BookCopy[] copies,
+            int threads, int seconds) throws InterruptedException {
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final CountDownLatch start = new CountDownLatch(1);
+        final long[] counts = new long[threads];
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            Thread worker = new Thread(new Runnable() {
+                public void run() {
+                    ThreadLocalRandom random = ThreadLocalRandom.current();
+                    long ops = 0;
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    while (running.get()) {
+                        BookCopy copy = copies[random.nextInt(copies.length)];
+                        if (library.isAvailable(copy)) library.checkout(copy);
+                        else library.checkin(copy);
+                        ops += 2;
+                    }
+                    counts[id] = ops;
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        for (Thread worker : workers) worker.join();
+        double elapsed = (System.nanoTime() - begin) / 1e9;
+        long total = 0;
+        for (long count : counts) total += count;
+        return total / elapsed;
+    }
+
+    // run checkoutAny/checkin of one book from several threads; returns total ops/sec
+    private static double rush(final Library library, final Book book,
+            int threads, int seconds) throws InterruptedException {
+        final AtomicBoolean running = new AtomicBoolean(true);
+        final CountDownLatch start = new CountDownLatch(1);
+        final long[] counts = new long[threads];
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final int id = t;
+            Thread worker = new Thread(new Runnable() {
+                public void run() {
+                    long ops = 0;
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    while (running.get()) {
+                        BookCopy copy = library.checkoutAny(book);
+                        ops++;
+                        if (copy != null) {
+                            library.checkin(copy);
+                            ops++;
+                        }
+                    }
+                    counts[id] = ops;
+                }
+            });
+            worker.start();
+            workers.add(worker);
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        Thread.sleep(seconds * 1000L);
+        running.set(false);
+        for (Thread worker : workers) worker.join();
+        double elapsed = (System.nanoTime() - begin) / 1e9;
+        long total = 0;
+        for (long count : counts) total += count;
+        return total / elapsed;
+    }
+
+    /**
+     * SynchronizedLibrary wraps a Library behind a single global lock, the way a
+     * client would share a library that is not thread-safe.
+     */
+    static class SynchronizedLibrary implements Library {
+        private final Library library;
+
+        SynchronizedLibrary(Library library) {
+            this.library = library;
+        }
+
+        public synchronized BookCopy buy(Book book) { return library.buy(book); }
+        public synchronized void checkout(BookCopy copy) { library.checkout(copy); }
+        public synchronized BookCopy checkoutAny(Book book) { return library.checkoutAny(book); }
+        public synchronized void checkin(BookCopy copy) { library.checkin(copy); }
+        public synchronized boolean isAvailable(BookCopy copy) { return library.isAvailable(copy); }
+        public synchronized Set<BookCopy> allCopies(Book book) { return library.allCopies(book); }
+        public synchronized Set<BookCopy> availableCopies(Book book) { return library.availableCopies(book); }
+        public synchronized List<Book> find(String query) { return library.find(query); }
+        public synchronized List<Book> find(String query, int offset, int limit) {
+            return library.find(query, offset, limit);
+        }
+        public synchronized void lose(BookCopy copy) { library.lose(copy); }
+    }
+}
@@ -0,0 +1,275 @@
+package library;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.junit.Test;
+
+/**
+ * Test suite for LibraryServer, over real HTTP connections on the loopback interface.
+ */
+public class LibraryServerTest {
+
+    /*
+     * Testing strategy
+     * ==================
+     *
+     * Partitions for each endpoint:
+     *    request: valid, breaks a precondition (409), unknown copy or lost one (404),
+     *      missing or malformed parameter (400), book breaking Book's preconditions (400),
+     *      wrong method (405), unknown path (404), library throws (500)
+     *    parameters: in the query string, in a POST body
+     *    strings: plain, with characters JSON must escape, non-ASCII
+     *
+     * Partitions for many clients at once:
+     *    clients: >1; copies they use: shared
+     */
+
+    /**
+     * Response is the status and body of an HTTP response.
+     */
+    static class Response {
+        final int status;
+        final String body;
+
+        Response(int status, String body) {
+            this.status = status;
+            this.body = body;
+        }
+
+        @Override
+        public String toString() {
+            return status + " " + body;
+        }
+    }
+
+    /**
+     * Send a request to a server on the loopback interface.
+     * @param port port of the server
+     * @param method HTTP method
+     * @param path path and query string of the request
+     * @param form form-encoded body to send, or null for none
+     * @return the response
+     * @throws IOException if the connection fails
+     */
+    static Response request(int port, String method, String path, String form) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL("http://127.0.0.1:" + port + path).openConnection();
+        connection.setRequestMethod(method);
+        if (form != null) {
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/x-www-form-urlencoded");
+            OutputStream out = connection.getOutputStream();
+            out.write(form.getBytes(StandardCharsets.UTF_8));
+            out.close();
+        }
+        int status = connection.getResponseCode();
+        InputStream in = status < 400 ? connection.getInputStream() : connection.getErrorStream();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        for (int n; (n = in.read(buffer)) > 0; )
+            body.write(buffer, 0, n);
+        in.close();
+        return new Response(status, new String(body.toByteArray(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * @param book a book
+     * @return the parameters naming book, URL-encoded
+     */
+    static String bookParameters(Book book) throws IOException {
+        StringBuilder parameters = new StringBuilder("title=").append(URLEncoder.encode(book.getTitle(), "UTF-8"));
+        for (String author : book.getAuthors())
+            parameters.append("&author=").append(URLEncoder.encode(author, "UTF-8"));
+        return parameters.append("&year=").append(book.getYear()).toString();
+    }
+
+    /**
+     * @param json a JSON response
+     * @return the values of the "id" members in json, in order
+     */
+    static List<Long> ids(String json) {
+        List<Long> ids = new ArrayList<Long>();
+        Matcher matcher = Pattern.compile("\"id\":(\\d+)").matcher(json);
+        while (matcher.find())
+            ids.add(Long.parseLong(matcher.group(1)));
+        return ids;
+    }
+
+    private static final Book MOBY = new Book("Moby Dick", Arrays.asList("Herman Melville"), 1851);
+
+    // Covers request: valid, 409, lost copy; parameters: query string, POST body;
+    //        strings: plain
+    @Test
+    public void testCirculation() throws IOException {
+        LibraryServer server = new LibraryServer(new ConcurrentLibrary(), 0);
+        try {
+            int port = server.port();
+            Response bought = request(port, "POST", "/buy", bookParameters(MOBY));
+            assertEquals(bought.toString(), 200, bought.status);
+            assertTrue(bought.body, bought.body.contains(
+                    "\"book\":{\"title\":\"Moby Dick\",\"authors\":[\"Herman Melville\"],\"year\":1851}"));
+            long id = ids(bought.body).get(0);
+            request(port, "POST", "/buy?" + bookParameters(MOBY), null);
+
+            assertEquals("{\"copy\":" + id + ",\"available\":true}",
+                    request(port, "GET", "/isAvailable?copy=" + id, null).body);
+            Response checkedOut = request(port, "POST", "/checkout", "copy=" + id);
+            assertEquals(200, checkedOut.status);
+            assertTrue(checkedOut.body, checkedOut.body.endsWith("\"available\":false}"));
+            assertEquals(409, request(port, "POST", "/checkout?copy=" + id, null).status);
+
+            assertEquals(2, ids(request(port, "GET", "/allCopies?" + bookParameters(MOBY), null).body).size());
+            List<Long> available = ids(request(port, "GET", "/availableCopies?" + bookParameters(MOBY), null).body);
+            assertEquals(1, available.size());
+            assertNotEquals(id, (long) available.get(0));
+
+            assertEquals(200, request(port, "POST", "/checkin?copy=" + id, null).status);
+            assertEquals(409, request(port, "POST", "/checkin?copy=" + id, null).status);
+            assertEquals(200, request(port, "POST", "/lose?copy=" + id, null).status);
+            assertEquals(404, request(port, "POST", "/lose?copy=" + id, null).status);
+            assertEquals(404, request(port, "POST", "/checkout?copy=" + id, null).status);
+            assertEquals(1, ids(request(port, "GET", "/allCopies?" + bookParameters(MOBY), null).body).size());
+        } finally {
+            server.close();
+        }
+    }
+
+    // Covers request: valid; strings: escaped, non-ASCII
+    @Test
+    public void testFind() throws IOException {
+        Library library = new ConcurrentLibrary();
+        library.buy(MOBY);
+        library.buy(new Book("Typee", Arrays.asList("Herman Melville"), 1846));
+        Book quoted = new Book("\"Crime\" and\\or Punishment\n", Arrays.asList("Fyodor Dostoevsky"), 1866);
+        library.buy(quoted);
+        library.buy(new Book("Anna Karenina", Arrays.asList("\u041b\u0435\u0432 \u0422\u043e\u043b\u0441\u0442\u043e\u0439"), 1878));
+        LibraryServer server = new LibraryServer(library, 0);
+        try {
+            int port = server.port();
+            assertEquals("{\"books\":[" + "{\"title\":\"Moby Dick\",\"authors\":[\"Herman Melville\"],\"year\":1851},"
+                    + "{\"title\":\"Typee\",\"authors\":[\"Herman Melville\"],\"year\":1846}]}",
+                    request(port, "GET", "/find?query=melville", null).body);
+            assertEquals("{\"books\":[{\"title\":\"Typee\",\"authors\":[\"Herman Melville\"],\"year\":1846}]}",
+                    request(port, "GET", "/find?query=melville&offset=1&limit=5", null).body);
+            assertEquals("{\"books\":[{\"title\":\"\\\"Crime\\\" and\\\\or Punishment\\n\","
+                    + "\"authors\":[\"Fyodor Dostoevsky\"],\"year\":1866}]}",
+                    request(port, "GET", "/find?query=dostoevsky", null).body);
+            String russian = request(port, "GET", "/find?query=" + URLEncoder.encode("\u0442\u043e\u043b\u0441\u0442\u043e\u0439", "UTF-8"), null).body;
+            assertTrue(russian, russian.contains("\u041b\u0435\u0432 \u0422\u043e\u043b\u0441\u0442\u043e\u0439"));
+            assertEquals("{\"books\":[]}", request(port, "GET", "/find?query=nothing", null).body);
+        } finally {
+            server.close();
+        }
+    }
+
+    // Covers request: 400, book breaking Book's preconditions, 404 unknown copy and path, 405,
+    //        library throws
+    @Test
+    public void testBadRequests() throws IOException {
+        LibraryServer server = new LibraryServer(new ConcurrentLibrary() {
+            @Override
+            public List<Book> find(String query) {
+                if (query.equals("crash")) throw new IllegalStateException("index broken");
+                if (query.equals("assert")) throw new AssertionError("spec. contract broken");
+                return super.find(query);
+            }
+        }, 0);
+        try {
+            int port = server.port();
+            assertEquals(400, request(port, "POST", "/buy?title=Typee&year=1846", null).status);
+            assertEquals(400, request(port, "POST", "/buy?title=Typee&author=Melville&year=soon", null).status);
+            assertEquals(400, request(port, "POST", "/buy?title=&author=Melville&year=1846", null).status);
+            assertEquals(400, request(port, "POST", "/buy?title=+&author=Melville&year=1846", null).status);
+            assertEquals(400, request(port, "POST", "/buy?title=Typee&author=&year=1846", null).status);
+            assertEquals(400, request(port, "POST", "/buy?title=Typee&author=Melville&author=++&year=1846", null).status);
+            assertEquals(400, request(port, "POST", "/buy?title=Typee&author=Melville&year=-1", null).status);
+            assertEquals(400, request(port, "GET", "/allCopies?title=+&author=Melville&year=1846", null).status);
+            assertEquals("{\"copies\":[]}", request(port, "GET", "/allCopies?title=Typee&author=Melville&year=1846", null).body);
+            assertEquals(400, request(port, "GET", "/find", null).status);
+            assertEquals(400, request(port, "GET", "/find?query=x&limit=-1", null).status);
+            assertEquals(400, request(port, "GET", "/isAvailable?copy=first", null).status);
+            Response unknown = request(port, "GET", "/isAvailable?copy=42", null);
+            assertEquals(404, unknown.status);
+            assertEquals("{\"error\":\"no such copy\"}", unknown.body);
+            assertEquals(404, request(port, "GET", "/renew", null).status);
+            assertEquals(405, request(port, "GET", "/buy?" + bookParameters(MOBY), null).status);
+            assertEquals(405, request(port, "POST", "/find?query=x", null).status);
+            Response crash = request(port, "GET", "/find?query=crash", null);
+            assertEquals(500, crash.status);
+            assertEquals("{\"error\":\"java.lang.IllegalStateException: index broken\"}", crash.body);
+            Response failed = request(port, "GET", "/find?query=assert", null);
+            assertEquals(500, failed.status);
+            assertEquals("{\"error\":\"java.lang.AssertionError: spec. contract broken\"}", failed.body);
+            assertEquals(200, request(port, "GET", "/find?query=x", null).status);
+        } finally {
+            server.close();
+        }
+    }
+
+    // Covers clients: >1; copies: shared
+    @Test
+    public void testConcurrentClients() throws IOException, InterruptedException {
+        final Library library = new ConcurrentLibrary();
+        final LibraryServer server = new LibraryServer(library, 0);
+        try {
+            final List<Long> ids = new ArrayList<Long>();
+            for (int i = 0; i < 4; i++)
+                ids.add(ids(request(server.port(), "POST", "/buy", bookParameters(MOBY)).body).get(0));
+            final int clients = 8;
+            final int rounds = 50;
+            final AtomicInteger checkouts = new AtomicInteger();
+            final AtomicInteger failures = new AtomicInteger();
+            final CountDownLatch start = new CountDownLatch(1);
+            List<Thread> threads = new ArrayList<Thread>();
+            for (int c = 0; c < clients; c++) {
+                final Random random = new Random(c);
+                Thread thread = new Thread(new Runnable() {
+                    public void run() {
+                        try {
+                            start.await();
+                            for (int i = 0; i < rounds; i++) {
+                                long id = ids.get(random.nextInt(ids.size()));
+                                int status = request(server.port(), "POST", "/checkout?copy=" + id, null).status;
+                                if (status == 200) {
+                                    checkouts.incrementAndGet();
+                                    if (request(server.port(), "POST", "/checkin?copy=" + id, null).status != 200)
+                                        failures.incrementAndGet();
+                                } else if (status != 409) {
+                                    failures.incrementAndGet();
+                                }
+                            }
+                        } catch (Exception e) {
+                            failures.incrementAndGet();
+                        }
+                    }
+                });
+                threads.add(thread);
+                thread.start();
+            }
+            start.countDown();
+            for (Thread thread : threads)
+                thread.join();
+            assertEquals(0, failures.get());
+            assertTrue(checkouts.get() > 0);
+            assertEquals(4, library.countAvailable(MOBY));
+        } finally {
+            server.close();
+        }
+    }
+}
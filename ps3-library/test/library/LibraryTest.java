@@ -4,6 +4,8 @@ import static org.junit.Assert.*;
 
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Set;
 
@@ -34,7 +36,11 @@ public class LibraryTest {
     public static Object[] allImplementationClassNames() {
         return new Object[] { 
             "library.SmallLibrary", 
-            "library.BigLibrary"
+            "library.BigLibrary",
+            "library.ConcurrentLibrary",
+            "library.CompactLibrary",
+            "library.ShardedLibrary",
+            "library.VersionedLibrary"
         }; 
     }
 
@@ -130,6 +136,67 @@ public class LibraryTest {
         assertEquals(copy1, copy2);
     }
     
+    /*
+     * Testing strategy for: buyAll(Book book, int count), buyAll(Collection<Book> books),
+     *                       checkoutAll(Collection<BookCopy>), checkinAll(Collection<BookCopy>)
+     * ==================
+     * 
+     * Partitions:
+     *    count / batch size: =0, =1, >1
+     *    books in batch: all the same, different, repeated non-adjacent
+     *    library already has the book: yes, no
+     *    # returns: fresh copies in batch order, all available
+     */ 
+    
+    // Covers count: =0, >1; library already has the book: no, yes
+    @Test
+    public void testBuyAllCount() {
+        Library library = makeLibrary();
+        Book book = new Book("A", Arrays.asList("B", "C"), 1990);
+        assertEquals(0, library.buyAll(book, 0).size());
+        assertEquals(0, library.allCopies(book).size());
+        List<BookCopy> copies = library.buyAll(book, 3);
+        assertEquals(3, copies.size());
+        assertEquals(3, new HashSet<BookCopy>(copies).size());
+        library.buy(book);
+        assertEquals(4, library.availableCopies(book).size());
+        assertTrue(library.availableCopies(book).containsAll(copies));
+        assertEquals(Arrays.asList(book), library.find("A"));
+    }
+    
+    // Covers batch size: >1; books in batch: different, repeated non-adjacent
+    @Test
+    public void testBuyAllCollection() {
+        Library library = makeLibrary();
+        Book bookA = new Book("A", Arrays.asList("B", "C"), 1990);
+        Book bookB = new Book("B", Arrays.asList("C", "D"), 1995);
+        List<BookCopy> copies = library.buyAll(Arrays.asList(bookA, bookB, bookA));
+        assertEquals(3, copies.size());
+        assertEquals(bookA, copies.get(0).getBook());
+        assertEquals(bookB, copies.get(1).getBook());
+        assertEquals(bookA, copies.get(2).getBook());
+        assertEquals(2, library.availableCopies(bookA).size());
+        assertEquals(1, library.availableCopies(bookB).size());
+        assertEquals(Arrays.asList(bookB, bookA), library.find("C"));
+    }
+    
+    // Covers batch size: =1, >1; books in batch: all the same, different
+    @Test
+    public void testCheckoutAllCheckinAll() {
+        Library library = makeLibrary();
+        Book bookA = new Book("A", Arrays.asList("B", "C"), 1990);
+        Book bookB = new Book("B", Arrays.asList("C", "D"), 1995);
+        List<BookCopy> copiesA = library.buyAll(bookA, 2);
+        BookCopy copyB = library.buy(bookB);
+        library.checkoutAll(Arrays.asList(copiesA.get(0), copyB, copiesA.get(1)));
+        assertEquals(0, library.availableCopies(bookA).size());
+        assertEquals(0, library.availableCopies(bookB).size());
+        library.checkinAll(Arrays.asList(copyB));
+        assertTrue(library.isAvailable(copyB));
+        library.checkinAll(copiesA);
+        assertEquals(2, library.availableCopies(bookA).size());
+    }
+    
     /*
      * Testing strategy for: void checkout(BookCopy copy);
      * ==================
@@ -189,6 +256,45 @@ public class LibraryTest {
         assertEquals(1, library.availableCopies(book).size());
     }
     
+    /*
+     * Testing strategy for: BookCopy checkoutAny(Book book);
+     * ==================
+     * 
+     * Partitions:
+     *    available copies of book: =0 (none owned), =0 (all checked out), =1, >1
+     *    # returns: null, a copy that was available and is now checked out
+     */ 
+    // Test cases:
+    // absent[[book]] -> null
+    // [[copy1][copy2]] -> copy1 or copy2, then the other, then null
+    
+    // Covers available copies of book: =0 (none owned)
+    @Test
+    public void testCheckoutAnyAbsent() {
+        Library library = makeLibrary();
+        Book book = new Book("A", Arrays.asList("B", "C"), 1990);
+        assertNull(library.checkoutAny(book));
+    }
+    
+    // Covers available copies of book: >1, =1, =0 (all checked out)
+    @Test
+    public void testCheckoutAnyUntilNoneLeft() {
+        Library library = makeLibrary();
+        Book book = new Book("A", Arrays.asList("B", "C"), 1990);
+        BookCopy copy1 = library.buy(book);
+        BookCopy copy2 = library.buy(book);
+        BookCopy first = library.checkoutAny(book);
+        assertTrue(first.equals(copy1) || first.equals(copy2));
+        assertFalse(library.isAvailable(first));
+        BookCopy second = library.checkoutAny(book);
+        assertTrue(second.equals(copy1) || second.equals(copy2));
+        assertFalse(first.equals(second));
+        assertNull(library.checkoutAny(book));
+        assertEquals(0, library.availableCopies(book).size());
+        library.checkin(first);
+        assertEquals(first, library.checkoutAny(book));
+    }
+    
     /*
      * Testing strategy for: void checkIn(BookCopy copy);
      * ==================
@@ -495,6 +601,129 @@ public class LibraryTest {
         assertTrue(library.find("A").size() == 1);
     }
     
+    /*
+     * Testing strategy for: List<Book> find(String query, int offset, int limit);
+     * ==================
+     * 
+     * Partitions:
+     *    offset: =0, >0 and inside results, beyond results
+     *    limit: =0, < remaining results, >= remaining results
+     *    # returns: the window of find(query) in the same order
+     */ 
+    // Test cases:
+    // 3 editions, (0, 2)  -> first two of find(query)
+    // 3 editions, (1, 5)  -> last two of find(query)
+    // 3 editions, (3, 1)  -> []
+    // 3 editions, (0, 0)  -> []
+    
+    // Covers offset: =0; limit: < remaining results
+    @Test
+    public void testFindPageFirstWindow() {
+        Library library = makeLibrary();
+        Book book1 = new Book("A", Arrays.asList("B"), 1990);
+        Book book2 = new Book("A", Arrays.asList("B"), 2000);
+        Book book3 = new Book("A", Arrays.asList("B"), 2010);
+        library.buy(book1);
+        library.buy(book2);
+        library.buy(book3);
+        assertEquals(Arrays.asList(book3, book2), library.find("A", 0, 2));
+        assertEquals(library.find("A").subList(0, 2), library.find("A", 0, 2));
+    }
+    
+    // Covers offset: >0 and inside results; limit: >= remaining results
+    @Test
+    public void testFindPageLastWindow() {
+        Library library = makeLibrary();
+        Book book1 = new Book("A", Arrays.asList("B"), 1990);
+        Book book2 = new Book("A", Arrays.asList("B"), 2000);
+        Book book3 = new Book("A", Arrays.asList("B"), 2010);
+        library.buy(book1);
+        library.buy(book2);
+        library.buy(book3);
+        library.buy(book3);
+        assertEquals(Arrays.asList(book2, book1), library.find("A", 1, 5));
+    }
+    
+    // Covers offset: beyond results; limit: =0
+    @Test
+    public void testFindPageEmptyWindow() {
+        Library library = makeLibrary();
+        Book book = new Book("A", Arrays.asList("B"), 1990);
+        library.buy(book);
+        assertEquals(Collections.emptyList(), library.find("A", 1, 1));
+        assertEquals(Collections.emptyList(), library.find("A", 0, 0));
+    }
+    
+    /*
+     * Testing strategy for: int countCopies(Book book), int countAvailable(Book book),
+     *                       Set<BookCopy> allCopiesView(Book book),
+     *                       Set<BookCopy> availableCopiesView(Book book)
+     * ==================
+     * 
+     * Partitions:
+     *    book: absent, has available and checked-out copies
+     *    view: taken before the book's copies were bought, after
+     *    view: read, modified through add or its iterator
+     */
+    
+    // Covers book: absent, has available and checked-out copies
+    @Test
+    public void testCountCopies() {
+        Library library = makeLibrary();
+        Book book = new Book("A", Arrays.asList("B"), 1990);
+        assertEquals(0, library.countCopies(book));
+        assertEquals(0, library.countAvailable(book));
+        List<BookCopy> copies = library.buyAll(book, 3);
+        library.checkout(copies.get(1));
+        assertEquals(3, library.countCopies(book));
+        assertEquals(2, library.countAvailable(book));
+    }
+    
+    // Covers view: taken before the book's copies were bought, after; view: read
+    @Test
+    public void testCopiesViewsAreLive() {
+        Library library = makeLibrary();
+        Book book = new Book("A", Arrays.asList("B"), 1990);
+        Set<BookCopy> all = library.allCopiesView(book);
+        Set<BookCopy> available = library.availableCopiesView(book);
+        assertTrue(all.isEmpty());
+        List<BookCopy> copies = library.buyAll(book, 3);
+        library.checkout(copies.get(0));
+        assertEquals(library.allCopies(book), all);
+        assertEquals(library.availableCopies(book), available);
+        assertEquals(2, available.size());
+        assertFalse(available.contains(copies.get(0)));
+        assertTrue(all.contains(copies.get(0)));
+        library.checkin(copies.get(0));
+        assertEquals(new HashSet<BookCopy>(copies), new HashSet<BookCopy>(library.availableCopiesView(book)));
+        assertEquals(3, available.size());
+    }
+    
+    // Covers view: modified through add or its iterator
+    @Test
+    public void testCopiesViewsAreUnmodifiable() {
+        Library library = makeLibrary();
+        Book book = new Book("A", Arrays.asList("B"), 1990);
+        BookCopy copy = library.buy(book);
+        Set<BookCopy> all = library.allCopiesView(book);
+        try {
+            all.add(new BookCopy(book));
+            fail("expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        Iterator<BookCopy> iterator = library.availableCopiesView(book).iterator();
+        iterator.next();
+        try {
+            iterator.remove();
+            fail("expected UnsupportedOperationException");
+        } catch (UnsupportedOperationException e) {
+            // expected
+        }
+        assertTrue(library.isAvailable(copy));
+        assertEquals(1, library.countCopies(book));
+    }
+    
     /*
      * Testing strategy for: void lose(BookCopy copy);
      * ==================
@@ -0,0 +1,89 @@
+package library;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Test suite for MeteredLibrary.
+ */
+public class MeteredLibraryTest {
+
+    /*
+     * Testing strategy
+     * ==================
+     *
+     * Partitions for each operation:
+     *    calls: 0, 1, >1; call: returns, throws
+     *
+     * Partitions for snapshot() and snapshotAndReset():
+     *    calls since the last reset: 0, >0
+     */
+
+    private static final Book MOBY = new Book("Moby Dick", Arrays.asList("Herman Melville"), 1851);
+    private static final Book TYPEE = new Book("Typee", Arrays.asList("Herman Melville"), 1846);
+
+    // Covers calls: 0, 1, >1; call: returns; calls since reset: >0
+    @Test
+    public void testCountsEachOperation() {
+        MeteredLibrary library = new MeteredLibrary(new BigLibrary());
+        BookCopy moby = library.buy(MOBY);
+        List<BookCopy> typees = library.buyAll(TYPEE, 2);
+        library.checkout(moby);
+        assertFalse(library.isAvailable(moby));
+        library.checkin(moby);
+        library.checkoutAll(typees);
+        library.checkinAll(typees);
+        assertEquals(moby, library.checkoutAny(MOBY));
+        assertEquals(2, library.allCopies(TYPEE).size());
+        assertEquals(2, library.availableCopies(TYPEE).size());
+        assertEquals(1, library.countCopies(MOBY));
+        assertEquals(0, library.countAvailable(MOBY));
+        assertEquals(Arrays.asList(MOBY, TYPEE), library.find("melville"));
+        assertEquals(Arrays.asList(TYPEE), library.find("melville", 1, 5));
+        library.lose(typees.get(0));
+        assertEquals(1, library.allCopiesView(TYPEE).size());
+
+        Map<MeteredLibrary.Operation, LatencyHistogram.Snapshot> snapshot = library.snapshot();
+        for (MeteredLibrary.Operation operation : MeteredLibrary.Operation.values()) {
+            long expected = operation == MeteredLibrary.Operation.FIND ? 2 : 1;
+            assertEquals(operation.toString(), expected, snapshot.get(operation).count());
+            assertEquals(expected, library.histogram(operation).snapshot().count());
+        }
+    }
+
+    // Covers call: throws
+    @Test
+    public void testRecordsCallsThatThrow() {
+        MeteredLibrary library = new MeteredLibrary(new BigLibrary() {
+            @Override
+            public List<Book> find(String query) {
+                throw new IllegalStateException("index offline");
+            }
+        });
+        try {
+            library.find("melville");
+            fail("expected the wrapped library's exception");
+        } catch (IllegalStateException e) {
+            assertEquals("index offline", e.getMessage());
+        }
+        assertEquals(1, library.histogram(MeteredLibrary.Operation.FIND).snapshot().count());
+    }
+
+    // Covers calls since the last reset: 0, >0
+    @Test
+    public void testSnapshotAndReset() {
+        MeteredLibrary library = new MeteredLibrary(new BigLibrary());
+        library.buy(MOBY);
+        library.buy(MOBY);
+        assertEquals(2, library.snapshotAndReset().get(MeteredLibrary.Operation.BUY).count());
+        assertEquals(0, library.snapshotAndReset().get(MeteredLibrary.Operation.BUY).count());
+        library.buy(TYPEE);
+        assertEquals(1, library.snapshot().get(MeteredLibrary.Operation.BUY).count());
+        assertEquals(1, library.snapshot().get(MeteredLibrary.Operation.BUY).count());
+    }
+}
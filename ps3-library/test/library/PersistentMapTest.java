@@ -0,0 +1,143 @@
+package library;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Test suite for PersistentMap.
+ */
+public class PersistentMapTest {
+
+    /*
+     * Testing strategy
+     * ==================
+     *
+     * Partitions for plus(key, value), minus(key), get(key), iterator():
+     *    map size: 0, 1, >32 (several trie levels)
+     *    key: absent, present; value: same as before, different
+     *    hashes of keys: distinct, equal (collision nodes), equal in their low bits only
+     *    versions: latest, older ones after later changes
+     */
+
+    // a key whose hash code is chosen by the test, to force collisions
+    private static class Key {
+        final int id;
+        final int hash;
+
+        Key(int id, int hash) {
+            this.id = id;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object that) {
+            return that instanceof Key && ((Key) that).id == id;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return id + "#" + hash;
+        }
+    }
+
+    // assert that a persistent map holds exactly the entries of expected
+    private static <K, V> void assertSameEntries(Map<K, V> expected, PersistentMap<K, V> map) {
+        assertEquals(expected.size(), map.size());
+        assertEquals(expected.isEmpty(), map.isEmpty());
+        Map<K, V> iterated = new HashMap<K, V>();
+        for (Map.Entry<K, V> entry : map)
+            assertNull("iterated twice: " + entry.getKey(), iterated.put(entry.getKey(), entry.getValue()));
+        assertEquals(expected, iterated);
+        for (Map.Entry<K, V> entry : expected.entrySet())
+            assertEquals(entry.getValue(), map.get(entry.getKey()));
+    }
+
+    // Covers map size: 0, 1; key: absent, present; value: same, different
+    @Test
+    public void testSmallMaps() {
+        PersistentMap<String, Integer> empty = PersistentMap.empty();
+        assertTrue(empty.isEmpty());
+        assertNull(empty.get("a"));
+        assertFalse(empty.iterator().hasNext());
+        assertSame(empty, empty.minus("a"));
+
+        Integer one = 1;
+        PersistentMap<String, Integer> a = empty.plus("a", one);
+        assertEquals(1, a.size());
+        assertEquals(one, a.get("a"));
+        assertTrue(a.containsKey("a"));
+        assertFalse(a.containsKey("b"));
+        assertSame(a, a.plus("a", one));
+        assertSame(a, a.minus("b"));
+        PersistentMap<String, Integer> a2 = a.plus("a", 2);
+        assertEquals(1, a2.size());
+        assertEquals(Integer.valueOf(2), a2.get("a"));
+        assertEquals(one, a.get("a"));
+        assertTrue(a.minus("a").isEmpty());
+        assertTrue(empty.isEmpty());
+
+        Iterator<Map.Entry<String, Integer>> iterator = a.iterator();
+        iterator.next();
+        try {
+            iterator.next();
+            fail("expected NoSuchElementException");
+        } catch (NoSuchElementException e) {
+            // expected
+        }
+    }
+
+    // Covers map size: >32; hashes of keys: distinct, equal, equal in low bits only;
+    //        versions: latest, older ones
+    @Test
+    public void testRandomChangesMatchHashMap() {
+        Random random = new Random(25);
+        int[] hashChoices = { 0, 1, 32, 1 << 10, 1 << 20, 1 << 30, -1, Integer.MIN_VALUE };
+        List<Map<Key, Integer>> expectedVersions = new ArrayList<Map<Key, Integer>>();
+        List<PersistentMap<Key, Integer>> versions = new ArrayList<PersistentMap<Key, Integer>>();
+        Map<Key, Integer> expected = new HashMap<Key, Integer>();
+        PersistentMap<Key, Integer> map = PersistentMap.empty();
+        for (int step = 0; step < 20000; step++) {
+            int id = random.nextInt(500);
+            // a third of the keys share a few hash codes, so they collide or share low bits
+            int hash = id % 3 == 0 ? hashChoices[id % hashChoices.length] : id * 0x9E3779B9;
+            Key key = new Key(id, hash);
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                map = map.minus(key);
+            } else {
+                int value = random.nextInt(4);
+                expected.put(key, value);
+                map = map.plus(key, value);
+            }
+            assertEquals(expected.get(key), map.get(key));
+            assertEquals(expected.size(), map.size());
+            if (step % 1000 == 0) {
+                expectedVersions.add(new HashMap<Key, Integer>(expected));
+                versions.add(map);
+            }
+        }
+        assertTrue(expected.size() > 32);
+        assertSameEntries(expected, map);
+        for (int i = 0; i < versions.size(); i++)
+            assertSameEntries(expectedVersions.get(i), versions.get(i));
+
+        for (Key key : new ArrayList<Key>(expected.keySet()))
+            map = map.minus(key);
+        assertTrue(map.isEmpty());
+        assertFalse(map.iterator().hasNext());
+    }
+}
@@ -0,0 +1,134 @@
+package library;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+
+import org.junit.Test;
+
+/**
+ * Test suite for ShardedLibrary's ranking across shards and its thread safety.
+ */
+public class ShardedLibraryTest {
+
+    /*
+     * NOTE: tests of the Library spec itself are in LibraryTest.java, which also
+     * runs against ShardedLibrary.  This file only tests what sharding adds.
+     */
+
+    /*
+     * Testing strategy
+     * ==================
+     *
+     * Partitions for find(query) and find(query, offset, limit), compared with one BigLibrary:
+     *    shards: 1, >1; matching books: none, on one shard, on several shards
+     *    page: first, later, past the end
+     *
+     * Partitions for merge(ranked, k):
+     *    lists: none, some empty; k: < total hits, >= total hits
+     *
+     * Partitions for operations on copies:
+     *    threads: 1, >1; books of the threads: on the same shard or not
+     */
+
+    private static final String[] WORDS = { "moby", "dick", "war", "peace", "crime", "punishment",
+        "melville", "tolstoy", "dostoevsky", "sea", "whale", "night" };
+
+    // a book of 1 to 3 random words for title and 1 to 2 for its author
+    private static Book randomBook(Random random, int serial) {
+        StringBuilder title = new StringBuilder();
+        for (int i = 1 + random.nextInt(3); i > 0; i--)
+            title.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        title.append(serial);
+        String author = WORDS[random.nextInt(WORDS.length)]
+                + (random.nextBoolean() ? " " + WORDS[random.nextInt(WORDS.length)] : "");
+        return new Book(title.toString(), Arrays.asList(author), 1900 + random.nextInt(100));
+    }
+
+    // Covers shards: 1, >1; matching books: all; page: all
+    @Test
+    public void testFindRanksAsOneBigLibrary() {
+        for (int shardCount : new int[] { 1, 4 }) {
+            Random random = new Random(shardCount);
+            BigLibrary big = new BigLibrary();
+            ShardedLibrary sharded = new ShardedLibrary(shardCount);
+            List<Book> books = new ArrayList<Book>();
+            for (int i = 0; i < 500; i++)
+                books.add(randomBook(random, i));
+            big.buyAll(books);
+            sharded.buyAll(books);
+            for (String query : new String[] { "moby", "war and peace", "Melville whale", "17",
+                    "unknown", "sea night crime" }) {
+                assertEquals(query, big.find(query), sharded.find(query));
+                assertEquals(query, big.find(query, 0, 10), sharded.find(query, 0, 10));
+                assertEquals(query, big.find(query, 25, 10), sharded.find(query, 25, 10));
+                assertEquals(query, big.find(query, 1000, 10), sharded.find(query, 1000, 10));
+            }
+            sharded.close();
+        }
+    }
+
+    // Covers lists: none, some empty; k: < total hits, >= total hits
+    @Test
+    public void testMerge() {
+        Book moby = new Book("Moby Dick", Arrays.asList("Herman Melville"), 1851);
+        Book typee = new Book("Typee", Arrays.asList("Herman Melville"), 1846);
+        Book war = new Book("War and Peace", Arrays.asList("Leo Tolstoy"), 1869);
+        TokenIndex.Hit best = new TokenIndex.Hit(moby, 3.0);
+        TokenIndex.Hit tied = new TokenIndex.Hit(war, 2.0);
+        TokenIndex.Hit older = new TokenIndex.Hit(typee, 2.0);
+        List<List<TokenIndex.Hit>> ranked = new ArrayList<List<TokenIndex.Hit>>();
+        assertEquals(Collections.emptyList(), ShardedLibrary.merge(ranked, 5));
+        ranked.add(Arrays.asList(best, older));
+        ranked.add(Collections.<TokenIndex.Hit>emptyList());
+        ranked.add(Arrays.asList(tied));
+        assertEquals(Arrays.asList(best, tied, older), ShardedLibrary.merge(ranked, 5));
+        assertEquals(Arrays.asList(best, tied), ShardedLibrary.merge(ranked, 2));
+    }
+
+    // Covers threads: >1; books of the threads: on the same shard or not
+    @Test
+    public void testConcurrentCirculation() throws InterruptedException {
+        final ShardedLibrary library = new ShardedLibrary(4);
+        final int threads = 8;
+        final int rounds = 500;
+        final CountDownLatch start = new CountDownLatch(1);
+        List<Thread> workers = new ArrayList<Thread>();
+        for (int t = 0; t < threads; t++) {
+            final Book book = new Book("Volume " + t, Arrays.asList("Anonymous"), 1900 + t);
+            Thread worker = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        start.await();
+                    } catch (InterruptedException e) {
+                        return;
+                    }
+                    for (int i = 0; i < rounds; i++) {
+                        BookCopy copy = library.buy(book);
+                        library.checkout(copy);
+                        if (i % 2 == 0) library.lose(copy);
+                        else library.checkin(copy);
+                        library.find("anonymous", 0, 3);
+                    }
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        start.countDown();
+        for (Thread worker : workers)
+            worker.join();
+        assertEquals(threads, library.find("anonymous").size());
+        for (int t = 0; t < threads; t++) {
+            Book book = new Book("Volume " + t, Arrays.asList("Anonymous"), 1900 + t);
+            assertEquals(rounds / 2, library.countCopies(book));
+            assertEquals(rounds / 2, library.countAvailable(book));
+        }
+        library.close();
+    }
+}
@@ -0,0 +1,112 @@
+package library;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Test suite for SuggestIndex and BigLibrary.suggest().
+ */
+public class SuggestIndexTest {
+
+    /*
+     * Testing strategy
+     * ==================
+     *
+     * Partitions for suggest(prefix, limit):
+     *    prefix words: 0, 1, >1; last word: whole token, partial token, ends inside a trie edge,
+     *      matches nothing
+     *    prefix case: same as book, different from book
+     *    matching books: 0, fewer than TOP, more than TOP; limit: 0, <= TOP, > TOP
+     *    library: suggestions built before buying, after buying; books lost since
+     *    # result: ordered newest first, same as a brute-force scan
+     */
+
+    private static final Book MOBY = new Book("Moby Dick", Arrays.asList("Herman Melville"), 1851);
+    private static final Book MOBY_LATER = new Book("Moby Dick", Arrays.asList("Herman Melville"), 1892);
+    private static final Book MOTHER = new Book("Mother Night", Arrays.asList("Kurt Vonnegut"), 1961);
+    private static final Book TYPEE = new Book("Typee", Arrays.asList("Herman Melville"), 1846);
+
+    // the books of catalog that suggest(prefix, limit) should return, by scanning them all
+    private static List<Book> bruteForce(List<Book> catalog, String prefix, int limit) {
+        List<String> words = TokenIndex.tokenize(prefix);
+        List<Book> found = new ArrayList<Book>();
+        if (words.isEmpty()) return found;
+        String last = words.get(words.size() - 1);
+        for (Book book : catalog) {
+            boolean starts = false;
+            for (String token : TokenIndex.tokensOf(book))
+                starts |= token.startsWith(last);
+            if (starts && TokenIndex.tokensOf(book).containsAll(words.subList(0, words.size() - 1)))
+                found.add(book);
+        }
+        Collections.sort(found, SuggestIndex.NEWEST_FIRST);
+        return found.subList(0, Math.min(limit, found.size()));
+    }
+
+    // Covers prefix words: 0, 1; last word: partial token, ends inside a trie edge, matches
+    //        nothing; prefix case: different; matching books: fewer than TOP; limit: 0, <= TOP
+    @Test
+    public void testSuggestPartialWord() {
+        BigLibrary library = new BigLibrary();
+        for (Book book : Arrays.asList(MOBY, MOBY_LATER, MOTHER, TYPEE))
+            library.buy(book);
+        assertEquals(Arrays.asList(MOTHER, MOBY_LATER, MOBY), library.suggest("MO", 10));
+        assertEquals(Arrays.asList(MOBY_LATER, MOBY), library.suggest("mob", 10));
+        assertEquals(Arrays.asList(MOTHER), library.suggest("mot", 1));
+        assertEquals(Arrays.asList(MOBY_LATER, MOBY, TYPEE), library.suggest("melv", 10));
+        assertEquals(Collections.emptyList(), library.suggest("moz", 10));
+        assertEquals(Collections.emptyList(), library.suggest("mo", 0));
+        assertEquals(Collections.emptyList(), library.suggest("  ", 10));
+    }
+
+    // Covers prefix words: >1; last word: whole token; library: built before buying, books lost
+    @Test
+    public void testSuggestSeveralWordsIncrementally() {
+        BigLibrary library = new BigLibrary();
+        assertEquals(Collections.emptyList(), library.suggest("herman m", 10));
+        BookCopy moby = library.buy(MOBY);
+        library.buy(MOTHER);
+        library.buy(TYPEE);
+        assertEquals(Arrays.asList(MOBY, TYPEE), library.suggest("herman m", 10));
+        assertEquals(Arrays.asList(MOBY), library.suggest("herman moby", 10));
+        library.lose(moby);
+        assertEquals(Arrays.asList(TYPEE), library.suggest("herman m", 10));
+        assertEquals(Arrays.asList(MOTHER), library.suggest("mo", 10));
+    }
+
+    // Covers matching books: more than TOP; limit: <= TOP, > TOP;
+    //        result: same as a brute-force scan, through random buys and losses
+    @Test
+    public void testSuggestMatchesBruteForce() {
+        Random random = new Random(42);
+        String[] words = { "a", "ab", "abc", "abd", "b", "ba", "bab", "c", "cab", "abcde" };
+        BigLibrary library = new BigLibrary();
+        library.suggest("a", 1);
+        List<Book> catalog = new ArrayList<Book>();
+        List<BookCopy> copies = new ArrayList<BookCopy>();
+        for (int step = 0; step < 600; step++) {
+            if (copies.isEmpty() || random.nextInt(3) > 0) {
+                Book book = new Book(words[random.nextInt(words.length)] + " " + words[random.nextInt(words.length)],
+                        Arrays.asList(words[random.nextInt(words.length)]), 1900 + random.nextInt(50));
+                copies.add(library.buy(book));
+                if (!catalog.contains(book)) catalog.add(book);
+            } else {
+                BookCopy copy = copies.remove(random.nextInt(copies.size()));
+                library.lose(copy);
+                if (library.allCopies(copy.getBook()).isEmpty()) catalog.remove(copy.getBook());
+            }
+            String prefix = words[random.nextInt(words.length)];
+            prefix = prefix.substring(0, 1 + random.nextInt(prefix.length()));
+            if (random.nextBoolean()) prefix = words[random.nextInt(words.length)] + " " + prefix;
+            int limit = random.nextBoolean() ? 1 + random.nextInt(SuggestIndex.TOP) : 100;
+            assertEquals(prefix, bruteForce(catalog, prefix, limit), library.suggest(prefix, limit));
+        }
+    }
+}
@@ -0,0 +1,191 @@
+package library;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+/**
+ * Test suite for VersionedLibrary's snapshots.
+ */
+public class VersionedLibraryTest {
+
+    /*
+     * NOTE: tests of the Library spec itself are in LibraryTest.java, which also
+     * runs against VersionedLibrary.  This file only tests what snapshots add.
+     */
+
+    /*
+     * Testing strategy
+     * ==================
+     *
+     * Partitions for snapshot() and the LibrarySnapshot it returns:
+     *    changes since the snapshot: none, buy, checkout, checkin, lose of some or all copies,
+     *      batch operations
+     *    read: isAvailable, allCopies, availableCopies, countCopies, countAvailable, find,
+     *      find of a page, version
+     *    threads changing the library while the snapshot is read: 0, >1
+     *
+     * Partitions for find, compared with one BigLibrary:
+     *    matching books: none, some; books that lost all their copies: none, some
+     */
+
+    private static final Book MOBY = new Book("Moby Dick", Arrays.asList("Herman Melville"), 1851);
+    private static final Book TYPEE = new Book("Typee", Arrays.asList("Herman Melville"), 1846);
+    private static final Book WAR = new Book("War and Peace", Arrays.asList("Leo Tolstoy"), 1869);
+
+    private static final String[] WORDS = { "moby", "dick", "war", "peace", "crime", "punishment",
+        "melville", "tolstoy", "dostoevsky", "sea", "whale", "night" };
+
+    // a book of 1 to 3 random words for title and 1 to 2 for its author
+    private static Book randomBook(Random random, int serial) {
+        StringBuilder title = new StringBuilder();
+        for (int i = 1 + random.nextInt(3); i > 0; i--)
+            title.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+        title.append(serial);
+        String author = WORDS[random.nextInt(WORDS.length)]
+                + (random.nextBoolean() ? " " + WORDS[random.nextInt(WORDS.length)] : "");
+        return new Book(title.toString(), Arrays.asList(author), 1900 + random.nextInt(100));
+    }
+
+    // Covers changes since the snapshot: none, each kind; every read; threads: 0
+    @Test
+    public void testSnapshotIsUnchangedByLaterChanges() {
+        VersionedLibrary library = new VersionedLibrary();
+        assertEquals(0, library.snapshot().version());
+        BookCopy moby = library.buy(MOBY);
+        List<BookCopy> typees = library.buyAll(TYPEE, 2);
+        library.checkout(typees.get(0));
+        LibrarySnapshot before = library.snapshot();
+        assertSame(before, library.snapshot());
+        assertEquals(4, before.version());
+
+        library.checkout(moby);
+        library.checkin(typees.get(0));
+        library.lose(typees.get(1));
+        library.buy(WAR);
+        library.checkoutAll(Arrays.asList(typees.get(0)));
+        library.lose(typees.get(0));
+        LibrarySnapshot after = library.snapshot();
+        assertEquals(10, after.version());
+
+        assertTrue(before.isAvailable(moby));
+        assertFalse(before.isAvailable(typees.get(0)));
+        assertTrue(before.isAvailable(typees.get(1)));
+        assertEquals(new HashSet<BookCopy>(typees), before.allCopies(TYPEE));
+        assertEquals(Collections.singleton(typees.get(1)), before.availableCopies(TYPEE));
+        assertEquals(2, before.countCopies(TYPEE));
+        assertEquals(1, before.countAvailable(TYPEE));
+        assertEquals(0, before.countCopies(WAR));
+        assertEquals(Arrays.asList(MOBY, TYPEE), before.find("melville"));
+        assertEquals(Arrays.asList(TYPEE), before.find("melville", 1, 3));
+        assertEquals(Collections.emptyList(), before.find("tolstoy"));
+
+        assertFalse(after.isAvailable(moby));
+        assertFalse(after.isAvailable(typees.get(0)));
+        assertEquals(Collections.emptySet(), after.allCopies(TYPEE));
+        assertEquals(0, after.countCopies(TYPEE));
+        assertEquals(Arrays.asList(MOBY), after.find("melville"));
+        assertEquals(Arrays.asList(WAR), after.find("tolstoy"));
+        assertEquals(library.find("melville"), after.find("melville"));
+    }
+
+    // Covers find: matching books: none, some; books that lost all their copies: none, some
+    @Test
+    public void testFindRanksAsBigLibrary() {
+        Random random = new Random(7);
+        BigLibrary big = new BigLibrary();
+        VersionedLibrary versioned = new VersionedLibrary();
+        List<BookCopy> bigCopies = new ArrayList<BookCopy>();
+        List<BookCopy> versionedCopies = new ArrayList<BookCopy>();
+        for (int i = 0; i < 300; i++) {
+            Book book = randomBook(random, i);
+            bigCopies.add(big.buy(book));
+            versionedCopies.add(versioned.buy(book));
+        }
+        LibrarySnapshot full = versioned.snapshot();
+        List<String> queries = Arrays.asList("moby", "war peace", "tolstoy sea 17", "night whale melville", "absent");
+        List<List<Book>> fullResults = new ArrayList<List<Book>>();
+        for (String query : queries)
+            fullResults.add(big.find(query));
+        for (int i = 0; i < 300; i += 3) {
+            big.lose(bigCopies.get(i));
+            versioned.lose(versionedCopies.get(i));
+        }
+        for (int q = 0; q < queries.size(); q++) {
+            String query = queries.get(q);
+            assertEquals(query, big.find(query), versioned.find(query));
+            assertEquals(query, big.find(query), versioned.snapshot().find(query));
+            assertEquals(query, big.find(query, 5, 10), versioned.find(query, 5, 10));
+            assertEquals(query, fullResults.get(q), full.find(query));
+        }
+    }
+
+    // Covers threads changing the library while the snapshot is read: >1; batch operations
+    @Test
+    public void testReportsWhileCirculating() throws InterruptedException {
+        final VersionedLibrary library = new VersionedLibrary();
+        final List<Book> books = new ArrayList<Book>();
+        for (int i = 0; i < 50; i++)
+            books.add(new Book("Book " + i, Arrays.asList("Author " + i), 2000));
+        for (Book book : books)
+            library.buyAll(book, 4);
+        final AtomicBoolean done = new AtomicBoolean();
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        List<Thread> desks = new ArrayList<Thread>();
+        for (int t = 0; t < 3; t++) {
+            final Random random = new Random(t);
+            Thread desk = new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        while (!done.get()) {
+                            // check out two copies of one book together, and bring them back
+                            Book book = books.get(random.nextInt(books.size()));
+                            List<BookCopy> pair = new ArrayList<BookCopy>(library.availableCopies(book));
+                            if (pair.size() < 2) continue;
+                            pair = pair.subList(0, 2);
+                            library.checkoutAll(pair);
+                            library.checkinAll(pair);
+                        }
+                    } catch (Throwable e) {
+                        failure.set(e);
+                    }
+                }
+            });
+            desks.add(desk);
+            desk.start();
+        }
+        long lastVersion = -1;
+        for (int report = 0; report < 200; report++) {
+            LibrarySnapshot snapshot = library.snapshot();
+            assertTrue(snapshot.version() >= lastVersion);
+            lastVersion = snapshot.version();
+            for (Book book : books) {
+                Set<BookCopy> all = snapshot.allCopies(book);
+                Set<BookCopy> available = snapshot.availableCopies(book);
+                assertEquals(4, all.size());
+                assertEquals(available.size(), snapshot.countAvailable(book));
+                // a batch is published whole, so a book never shows an odd number checked out
+                assertEquals(0, (all.size() - available.size()) % 2);
+                for (BookCopy copy : all)
+                    assertEquals(available.contains(copy), snapshot.isAvailable(copy));
+            }
+            Thread.yield();
+        }
+        done.set(true);
+        for (Thread desk : desks)
+            desk.join();
+        assertNull(failure.get());
+        for (Book book : books)
+            assertEquals(4, library.countAvailable(book));
+    }
+}